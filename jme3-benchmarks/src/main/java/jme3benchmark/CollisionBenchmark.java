@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3benchmark;
+
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.collision.CollisionResults;
+import com.jme3.collision.bih.BIHTree;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Ray;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.shape.Sphere;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link BIHTree} construction and ray collision on spheres
+ * of increasing triangle count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionBenchmark {
+
+    /**
+     * Number of z and radial samples of the sphere, the triangle count is
+     * about twice its square.
+     */
+    @Param({"16", "64", "256"})
+    public int samples;
+
+    private Mesh mesh;
+    private BIHTree tree;
+    private BoundingVolume worldBound;
+    private final Matrix4f worldMatrix = new Matrix4f();
+    private final CollisionResults results = new CollisionResults();
+
+    // rays from outside of the sphere, some of them miss it
+    private Ray[] rays;
+    private int rayIndex = 0;
+
+    @Setup
+    public void setup() {
+        mesh = new Sphere(samples, samples, 1f);
+        mesh.updateBound();
+        worldBound = mesh.getBound().clone();
+        tree = new BIHTree(mesh);
+        tree.construct();
+
+        Random random = new Random(42);
+        rays = new Ray[256];
+        for (int i = 0; i < rays.length; i++) {
+            Vector3f origin = new Vector3f(random.nextFloat() - 0.5f,
+                                           random.nextFloat() - 0.5f,
+                                           random.nextFloat() - 0.5f);
+            origin.normalizeLocal().multLocal(10f);
+            Vector3f target = new Vector3f(random.nextFloat() - 0.5f,
+                                           random.nextFloat() - 0.5f,
+                                           random.nextFloat() - 0.5f);
+            target.multLocal(2.5f);
+            rays[i] = new Ray(origin, target.subtractLocal(origin).normalizeLocal());
+        }
+    }
+
+    @Benchmark
+    public int collideWithRay() {
+        Ray ray = rays[rayIndex];
+        rayIndex = (rayIndex + 1) % rays.length;
+        results.clear();
+        return tree.collideWith(ray, worldMatrix, worldBound, results);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public BIHTree construct() {
+        BIHTree bih = new BIHTree(mesh);
+        bih.construct();
+        return bih;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3benchmark;
+
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Node;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks of the frustum culling and render queue building done by
+ * {@link RenderManager#renderScene(com.jme3.scene.Spatial, com.jme3.renderer.ViewPort) },
+ * on the renderer of a headless application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CullingBenchmark extends HeadlessState {
+
+    @Param({"1000", "10000", "100000"})
+    public int numGeometries;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private RenderManager renderManager;
+    private ViewPort viewPort;
+    private Node scene;
+
+    @Setup
+    public void setup() {
+        renderManager = new RenderManager(app.getRenderer());
+        renderManager.setParallelCulling(parallel);
+
+        // looking down on the grid, about half of it is in view
+        Camera cam = new Camera(1280, 720);
+        cam.setFrustumPerspective(45, 1280f / 720f, 1, 1000);
+        cam.setLocation(new Vector3f(0, (float) Math.sqrt(numGeometries), 0));
+        cam.lookAt(new Vector3f(0, 0, -(float) Math.sqrt(numGeometries)), Vector3f.UNIT_Y);
+        viewPort = new ViewPort("Benchmark", cam);
+
+        scene = Scenes.createGrid(numGeometries, createMaterial());
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderManager.setParallelCulling(false);
+    }
+
+    @Benchmark
+    public ViewPort renderScene() {
+        renderManager.renderScene(scene, viewPort);
+        viewPort.getQueue().clear();
+        return viewPort;
+    }
+}
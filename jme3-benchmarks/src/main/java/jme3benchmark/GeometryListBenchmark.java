@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3benchmark;
+
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.queue.GeometryList;
+import com.jme3.renderer.queue.OpaqueComparator;
+import com.jme3.renderer.queue.TransparentComparator;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Level;
+
+/**
+ * Benchmarks of {@link GeometryList#sort() } with the opaque and
+ * transparent comparators. The list is refilled in a random order
+ * before each sort.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryListBenchmark extends HeadlessState {
+
+    @Param({"100", "1000", "10000"})
+    public int numGeometries;
+
+    @Param({"opaque", "transparent"})
+    public String comparator;
+
+    private GeometryList list;
+    private final List<Geometry> geometries = new ArrayList<Geometry>();
+    private final Random random = new Random(42);
+
+    @Setup
+    public void setup() {
+        Node scene = Scenes.createGrid(numGeometries, createMaterial());
+        for (Spatial group : scene.getChildren()) {
+            for (Spatial geom : ((Node) group).getChildren()) {
+                geometries.add((Geometry) geom);
+            }
+        }
+
+        Camera cam = new Camera(1280, 720);
+        cam.setFrustumPerspective(45, 1280f / 720f, 1, 1000);
+        cam.setLocation(new Vector3f(0, 10, 0));
+        cam.lookAt(new Vector3f(0, 0, -10), Vector3f.UNIT_Y);
+
+        list = new GeometryList("opaque".equals(comparator)
+                ? new OpaqueComparator() : new TransparentComparator());
+        list.setCamera(cam);
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        Collections.shuffle(geometries, random);
+        list.clear();
+        for (int i = 0; i < geometries.size(); i++) {
+            Geometry geom = geometries.get(i);
+            // distances are cached per frame by the comparators
+            geom.queueDistance = Float.NEGATIVE_INFINITY;
+            list.add(geom);
+        }
+    }
+
+    @Benchmark
+    public GeometryList sort() {
+        list.sort();
+        return list;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3benchmark;
+
+import com.jme3.app.Application;
+import com.jme3.material.Material;
+import com.jme3.system.AppSettings;
+import com.jme3.system.JmeContext;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Base state of the benchmarks which need the engine running, starts an
+ * application with a {@link JmeContext.Type#Headless headless} context
+ * for the duration of a trial.
+ * <p>
+ * The application thread only renders its own, empty, viewports, so the
+ * benchmarks are free to use the asset manager and the renderer as long
+ * as they don't touch the application viewports.
+ */
+@State(Scope.Benchmark)
+public abstract class HeadlessState {
+
+    protected Application app;
+
+    @Setup
+    public void startApplication() {
+        AppSettings settings = new AppSettings(true);
+        settings.setAudioRenderer(null);
+        // keep the application thread mostly idle while measuring
+        settings.setFrameRate(10);
+        app = new Application();
+        app.setSettings(settings);
+        app.start(JmeContext.Type.Headless, true);
+    }
+
+    @TearDown
+    public void stopApplication() {
+        app.stop(true);
+        app = null;
+    }
+
+    protected Material createMaterial() {
+        return new Material(app.getAssetManager(), "Common/MatDefs/Misc/Unshaded.j3md");
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3benchmark;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the math and bounding volume primitives used on every
+ * frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathBenchmark {
+
+    private final Matrix4f mat1 = new Matrix4f();
+    private final Matrix4f mat2 = new Matrix4f();
+    private final Matrix4f matStore = new Matrix4f();
+
+    private final Quaternion quat1 = new Quaternion();
+    private final Quaternion quat2 = new Quaternion();
+    private final Quaternion quatStore = new Quaternion();
+    private float t = 0;
+
+    private Camera cam;
+    // boxes inside, intersecting and outside of the camera frustum
+    private BoundingBox[] boxes;
+    private int boxIndex = 0;
+
+    @Setup
+    public void setup() {
+        mat1.setTransform(new Vector3f(1, 2, 3), new Vector3f(1, 1, 1),
+                new Quaternion().fromAngles(0.1f, 0.2f, 0.3f).toRotationMatrix());
+        mat2.setTransform(new Vector3f(-3, 2, -1), new Vector3f(2, 2, 2),
+                new Quaternion().fromAngles(0.3f, -0.2f, 0.1f).toRotationMatrix());
+
+        quat1.fromAngles(0.1f, 0.2f, 0.3f);
+        quat2.fromAngles(1.3f, -0.7f, 2.1f);
+
+        cam = new Camera(1280, 720);
+        cam.setFrustumPerspective(45, 1280f / 720f, 1, 1000);
+        cam.setLocation(new Vector3f(0, 0, 10));
+        cam.lookAt(Vector3f.ZERO, Vector3f.UNIT_Y);
+        boxes = new BoundingBox[]{
+            new BoundingBox(new Vector3f(0, 0, 0), 1, 1, 1),
+            new BoundingBox(new Vector3f(8, 0, 0), 2, 2, 2),
+            new BoundingBox(new Vector3f(0, 0, 20), 1, 1, 1),
+        };
+    }
+
+    @Benchmark
+    public Matrix4f matrixMult() {
+        return mat1.mult(mat2, matStore);
+    }
+
+    @Benchmark
+    public Matrix4f matrixMultLocal() {
+        matStore.set(mat1);
+        return matStore.multLocal(mat2);
+    }
+
+    @Benchmark
+    public Quaternion quaternionSlerp() {
+        t += 0.01f;
+        if (t > 1) {
+            t = 0;
+        }
+        return quatStore.slerp(quat1, quat2, t);
+    }
+
+    @Benchmark
+    public void boundingBoxInFrustum(Blackhole bh) {
+        // cycle through the three cases
+        BoundingBox box = boxes[boxIndex];
+        boxIndex = (boxIndex + 1) % boxes.length;
+        cam.setPlaneState(0);
+        bh.consume(cam.contains(box));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3benchmark;
+
+import com.jme3.math.Quaternion;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link Spatial#updateGeometricState() } on scenes of
+ * increasing size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SceneGraphBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int numGeometries;
+
+    @Param({"false", "true"})
+    public boolean incremental;
+
+    private Node scene;
+    private Spatial mover;
+    private final Quaternion rotation = new Quaternion();
+    private float angle = 0;
+
+    @Setup
+    public void setup() {
+        scene = Scenes.createGrid(numGeometries, null);
+        if (incremental) {
+            scene.setIncrementalUpdate(true);
+            for (Spatial group : scene.getChildren()) {
+                ((Node) group).setIncrementalUpdate(true);
+            }
+            scene.updateGeometricState();
+        }
+        mover = ((Node) scene.getChild(0)).getChild(0);
+    }
+
+    /**
+     * A single geometry moves, all its siblings are static.
+     */
+    @Benchmark
+    public Node updateOneMoving() {
+        angle += 0.01f;
+        mover.setLocalTranslation(angle % 1f, 0, 0);
+        scene.updateGeometricState();
+        return scene;
+    }
+
+    /**
+     * The root moves, so every world transform and bound is refreshed.
+     */
+    @Benchmark
+    public Node updateAllMoving() {
+        angle += 0.01f;
+        rotation.fromAngles(0, angle, 0);
+        scene.setLocalRotation(rotation);
+        scene.updateGeometricState();
+        return scene;
+    }
+
+    /**
+     * Nothing moves.
+     */
+    @Benchmark
+    public Node updateStatic() {
+        scene.updateGeometricState();
+        return scene;
+    }
+}
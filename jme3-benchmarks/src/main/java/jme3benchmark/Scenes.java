@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3benchmark;
+
+import com.jme3.material.Material;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.shape.Box;
+
+/**
+ * Builds the test scenes shared by the benchmarks.
+ */
+final class Scenes {
+
+    private Scenes() {
+    }
+
+    /**
+     * Creates a scene of boxes laid out on a square grid in the XZ plane,
+     * grouped by 16 under intermediate nodes, and updates it for rendering.
+     *
+     * @param numGeometries the number of boxes
+     * @param mat the material shared by all the boxes
+     * @return the root node of the scene
+     */
+    static Node createGrid(int numGeometries, Material mat) {
+        Mesh box = new Box(0.5f, 0.5f, 0.5f);
+        int side = (int) Math.ceil(Math.sqrt(numGeometries));
+        Node root = new Node("Root");
+        Node group = null;
+        for (int i = 0; i < numGeometries; i++) {
+            if (i % 16 == 0) {
+                group = new Node("Group " + (i / 16));
+                root.attachChild(group);
+            }
+            Geometry geom = new Geometry("Box " + i, box);
+            geom.setMaterial(mat);
+            geom.setLocalTranslation((i % side) * 2f - side, 0, (i / side) * 2f - side);
+            group.attachChild(geom);
+        }
+        root.updateGeometricState();
+        return root;
+    }
+}
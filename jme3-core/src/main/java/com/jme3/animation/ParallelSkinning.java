@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.animation;
+
+import com.jme3.math.Matrix4f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.util.BufferUtils;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Software skinning backend of the {@link SkeletonControl} which
+ * transforms the vertices of the target meshes on a fork-join pool.
+ * <p>
+ * The vertices of each mesh are split into contiguous ranges which are
+ * skinned in parallel from the bind pose buffers into a back buffer.
+ * Once all the ranges are done, the back buffers are swapped with the
+ * position, normal and tangent buffers of the mesh on the calling thread,
+ * so the renderer never sees a partially skinned mesh and no bind pose
+ * copy is needed before skinning.
+ */
+final class ParallelSkinning {
+
+    /**
+     * Minimum number of vertices handed to a single worker, below that
+     * the fork overhead outweighs the skinning work.
+     */
+    private static final int MIN_CHUNK_SIZE = 1024;
+
+    private final ForkJoinPool pool;
+    private final IdentityHashMap<Mesh, SkinBuffers> buffers = new IdentityHashMap<Mesh, SkinBuffers>();
+    private final SplitTask splitter = new SplitTask();
+    private int frame = 0;
+
+    ParallelSkinning(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Skins the given meshes with the given offset matrices.
+     *
+     * @param meshes the meshes to skin, all of them must be animated
+     * @param offsetMatrices the bone offset matrices to apply
+     */
+    void skin(Mesh[] meshes, Matrix4f[] offsetMatrices) {
+        frame++;
+        int numTasks = 0;
+        for (Mesh mesh : meshes) {
+            SkinBuffers sb = buffers.get(mesh);
+            if (sb == null) {
+                sb = new SkinBuffers();
+                buffers.put(mesh, sb);
+            }
+            sb.prepare(mesh);
+            sb.frame = frame;
+
+            int numVerts = mesh.getVertexCount();
+            int numChunks = Math.min(pool.getParallelism(),
+                                     Math.max(1, numVerts / MIN_CHUNK_SIZE));
+            int chunk = numVerts / numChunks;
+            int extra = numVerts % numChunks;
+            int start = 0;
+            SkinTask[] tasks = splitter.ensureCapacity(numTasks + numChunks);
+            for (int i = 0; i < numChunks; i++) {
+                int end = start + chunk + (i < extra ? 1 : 0);
+                tasks[numTasks++].set(sb, start, end, offsetMatrices);
+                start = end;
+            }
+        }
+
+        splitter.numTasks = numTasks;
+        splitter.reinitialize();
+        try {
+            pool.invoke(splitter);
+        } finally {
+            for (int i = 0; i < numTasks; i++) {
+                splitter.tasks[i].clear();
+            }
+        }
+
+        for (Mesh mesh : meshes) {
+            buffers.get(mesh).swap();
+        }
+
+        // forget about meshes which are no longer targets
+        if (buffers.size() > meshes.length) {
+            Iterator<SkinBuffers> it = buffers.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().frame != frame) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the back buffers of all meshes.
+     */
+    void clear() {
+        buffers.clear();
+    }
+
+    private static final class SplitTask extends RecursiveAction {
+
+        SkinTask[] tasks = new SkinTask[0];
+        int numTasks;
+
+        SkinTask[] ensureCapacity(int numTasks) {
+            if (tasks.length < numTasks) {
+                SkinTask[] newTasks = new SkinTask[Math.max(numTasks, tasks.length * 2)];
+                System.arraycopy(tasks, 0, newTasks, 0, tasks.length);
+                for (int i = tasks.length; i < newTasks.length; i++) {
+                    newTasks[i] = new SkinTask();
+                }
+                tasks = newTasks;
+            }
+            return tasks;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = numTasks - 1; i > 0; i--) {
+                tasks[i].reinitialize();
+                tasks[i].fork();
+            }
+            tasks[0].reinitialize();
+            tasks[0].invoke();
+            for (int i = 1; i < numTasks; i++) {
+                tasks[i].join();
+            }
+        }
+    }
+
+    /**
+     * The buffers of a single target mesh.
+     */
+    private static final class SkinBuffers {
+
+        VertexBuffer pos, norm, tan;
+        FloatBuffer bindPos, bindNorm, bindTan;
+        FloatBuffer backPos, backNorm, backTan;
+        float[] weights;
+        byte[] indices;
+        int maxWeightsPerVert;
+        int frame;
+
+        void prepare(Mesh mesh) {
+            VertexBuffer bw = mesh.getBuffer(Type.BoneWeight);
+            VertexBuffer bi = mesh.getBuffer(Type.BoneIndex);
+            if (!bi.getData().hasArray() || !bw.getData().hasArray()) {
+                mesh.prepareForAnim(true); // prepare for software animation
+            }
+            weights = ((FloatBuffer) bw.getData()).array();
+            indices = ((ByteBuffer) bi.getData()).array();
+
+            maxWeightsPerVert = mesh.getMaxNumWeights();
+            if (maxWeightsPerVert <= 0) {
+                throw new IllegalStateException("Max weights per vert is incorrectly set!");
+            }
+
+            pos = mesh.getBuffer(Type.Position);
+            norm = mesh.getBuffer(Type.Normal);
+            bindPos = (FloatBuffer) mesh.getBuffer(Type.BindPosePosition).getData();
+            bindNorm = (FloatBuffer) mesh.getBuffer(Type.BindPoseNormal).getData();
+            backPos = ensureBackBuffer(backPos, (FloatBuffer) pos.getData());
+            backNorm = ensureBackBuffer(backNorm, (FloatBuffer) norm.getData());
+
+            // tangents are only skinned if there is a bind pose to skin from
+            VertexBuffer bindTangents = mesh.getBuffer(Type.BindPoseTangent);
+            tan = bindTangents != null ? mesh.getBuffer(Type.Tangent) : null;
+            if (tan != null) {
+                bindTan = (FloatBuffer) bindTangents.getData();
+                backTan = ensureBackBuffer(backTan, (FloatBuffer) tan.getData());
+            } else {
+                bindTan = null;
+                backTan = null;
+            }
+        }
+
+        private static FloatBuffer ensureBackBuffer(FloatBuffer back, FloatBuffer front) {
+            if (back == null || back == front || back.capacity() != front.capacity()) {
+                back = BufferUtils.createFloatBuffer(front.capacity());
+            }
+            back.limit(front.limit());
+            return back;
+        }
+
+        void swap() {
+            backPos = swap(pos, backPos);
+            backNorm = swap(norm, backNorm);
+            if (tan != null) {
+                backTan = swap(tan, backTan);
+            }
+        }
+
+        private static FloatBuffer swap(VertexBuffer vb, FloatBuffer back) {
+            FloatBuffer front = (FloatBuffer) vb.getData();
+            back.clear();
+            vb.updateData(back);
+            return front;
+        }
+    }
+
+    private static final class SkinTask extends RecursiveAction {
+
+        private SkinBuffers sb;
+        private int start, end;
+        private Matrix4f[] offsetMatrices;
+
+        void set(SkinBuffers sb, int start, int end, Matrix4f[] offsetMatrices) {
+            this.sb = sb;
+            this.start = start;
+            this.end = end;
+            this.offsetMatrices = offsetMatrices;
+        }
+
+        void clear() {
+            sb = null;
+            offsetMatrices = null;
+        }
+
+        @Override
+        protected void compute() {
+            int maxWeightsPerVert = sb.maxWeightsPerVert;
+            float[] weights = sb.weights;
+            byte[] indices = sb.indices;
+            FloatBuffer bindPos = sb.bindPos;
+            FloatBuffer bindNorm = sb.bindNorm;
+            FloatBuffer bindTan = sb.bindTan;
+            FloatBuffer backPos = sb.backPos;
+            FloatBuffer backNorm = sb.backNorm;
+            FloatBuffer backTan = sb.backTan;
+
+            // only absolute get and put are used, the buffers are shared
+            // between the workers skinning the same mesh.
+            for (int vert = start; vert < end; vert++) {
+                int idxPositions = vert * 3;
+                int idxTangents = vert * 4;
+                int idxWeights = vert * 4;
+
+                float vtx = bindPos.get(idxPositions);
+                float vty = bindPos.get(idxPositions + 1);
+                float vtz = bindPos.get(idxPositions + 2);
+                float nmx = bindNorm.get(idxPositions);
+                float nmy = bindNorm.get(idxPositions + 1);
+                float nmz = bindNorm.get(idxPositions + 2);
+                float tnx = 0, tny = 0, tnz = 0, tnw = 0;
+                if (backTan != null) {
+                    tnx = bindTan.get(idxTangents);
+                    tny = bindTan.get(idxTangents + 1);
+                    tnz = bindTan.get(idxTangents + 2);
+                    tnw = bindTan.get(idxTangents + 3);
+                }
+
+                // Keep the bind pose if the first weight is zero.
+                if (weights[idxWeights] != 0) {
+                    float rx = 0, ry = 0, rz = 0, rnx = 0, rny = 0, rnz = 0, rtx = 0, rty = 0, rtz = 0;
+
+                    for (int w = maxWeightsPerVert - 1; w >= 0; w--) {
+                        float weight = weights[idxWeights];
+                        Matrix4f mat = offsetMatrices[indices[idxWeights++] & 0xff];
+
+                        rx += (mat.m00 * vtx + mat.m01 * vty + mat.m02 * vtz + mat.m03) * weight;
+                        ry += (mat.m10 * vtx + mat.m11 * vty + mat.m12 * vtz + mat.m13) * weight;
+                        rz += (mat.m20 * vtx + mat.m21 * vty + mat.m22 * vtz + mat.m23) * weight;
+
+                        rnx += (nmx * mat.m00 + nmy * mat.m01 + nmz * mat.m02) * weight;
+                        rny += (nmx * mat.m10 + nmy * mat.m11 + nmz * mat.m12) * weight;
+                        rnz += (nmx * mat.m20 + nmy * mat.m21 + nmz * mat.m22) * weight;
+
+                        rtx += (tnx * mat.m00 + tny * mat.m01 + tnz * mat.m02) * weight;
+                        rty += (tnx * mat.m10 + tny * mat.m11 + tnz * mat.m12) * weight;
+                        rtz += (tnx * mat.m20 + tny * mat.m21 + tnz * mat.m22) * weight;
+                    }
+
+                    vtx = rx;
+                    vty = ry;
+                    vtz = rz;
+                    nmx = rnx;
+                    nmy = rny;
+                    nmz = rnz;
+                    tnx = rtx;
+                    tny = rty;
+                    tnz = rtz;
+                }
+
+                backPos.put(idxPositions, vtx);
+                backPos.put(idxPositions + 1, vty);
+                backPos.put(idxPositions + 2, vtz);
+                backNorm.put(idxPositions, nmx);
+                backNorm.put(idxPositions + 1, nmy);
+                backNorm.put(idxPositions + 2, nmz);
+                if (backTan != null) {
+                    backTan.put(idxTangents, tnx);
+                    backTan.put(idxTangents + 1, tny);
+                    backTan.put(idxTangents + 2, tnz);
+                    // the 4th component of the tangent doesn't have to be transformed
+                    backTan.put(idxTangents + 3, tnw);
+                }
+            }
+        }
+    }
+}
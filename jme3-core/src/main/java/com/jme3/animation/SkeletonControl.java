@@ -53,6 +53,7 @@ import java.nio.FloatBuffer;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -109,6 +110,17 @@ public class SkeletonControl extends AbstractControl implements Cloneable {
      * Material references used for hardware skinning
      */
     private Set<Material> materials = new HashSet<Material>();
+    /**
+     * Parallel software skinning backend, null if software skinning
+     * is done on the render thread.
+     */
+    private transient ParallelSkinning parallelSkinning;
+    /**
+     * Bone offset matrices and targets of the last software skinning,
+     * used to skip skinning if the pose didn't change.
+     */
+    private transient Matrix4f[] skinnedMatrices;
+    private transient Mesh[] skinnedTargets;
 
     /**
      * Serialization only. Do not use.
@@ -130,6 +142,7 @@ public class SkeletonControl extends AbstractControl implements Cloneable {
     }
 
     private void switchToSoftware() {
+        skinnedTargets = null;
         for (Material m : materials) {
             if (m.getParam("NumberOfBones") != null) {
                 m.clearParam("NumberOfBones");
@@ -194,6 +207,32 @@ public class SkeletonControl extends AbstractControl implements Cloneable {
     public boolean isHardwareSkinningUsed() {
         return hwSkinningEnabled;
     }
+
+    /**
+     * Specifies the pool on which software skinning is done. When set, the
+     * vertices of the target meshes are split into ranges which are skinned
+     * in parallel into back buffers, that are swapped with the mesh buffers
+     * once all the ranges are done. When null, software skinning is done
+     * on the render thread. Null by default.
+     * <p>
+     * Has no effect while hardware skinning is used.
+     *
+     * @param pool the pool to skin on, or null to skin on the render thread.
+     */
+    public void setSoftwareSkinningPool(ForkJoinPool pool) {
+        parallelSkinning = pool != null ? new ParallelSkinning(pool) : null;
+        skinnedTargets = null;
+    }
+
+    /**
+     * @return The pool on which software skinning is done, or null if it is
+     * done on the render thread.
+     *
+     * @see #setSoftwareSkinningPool(java.util.concurrent.ForkJoinPool)
+     */
+    public ForkJoinPool getSoftwareSkinningPool() {
+        return parallelSkinning != null ? parallelSkinning.getPool() : null;
+    }
     
     /**
      * Creates a skeleton control. The list of targets will be acquired
@@ -227,10 +266,22 @@ public class SkeletonControl extends AbstractControl implements Cloneable {
     }
 
     private void controlRenderSoftware() {
-        resetToBind(); // reset morph meshes to bind pose
-
         offsetMatrices = skeleton.computeSkinningMatrices();
 
+        if (!isPoseChanged(offsetMatrices)) {
+            // the meshes are already skinned for this pose
+            return;
+        }
+
+        if (parallelSkinning != null) {
+            // NOTE: This assumes that code higher up
+            // Already ensured those targets are animated
+            parallelSkinning.skin(targets.getArray(), offsetMatrices);
+            return;
+        }
+
+        resetToBind(); // reset morph meshes to bind pose
+
         for (Mesh mesh : targets) {
             // NOTE: This assumes that code higher up
             // Already ensured those targets are animated
@@ -238,6 +289,33 @@ public class SkeletonControl extends AbstractControl implements Cloneable {
             softwareSkinUpdate(mesh, offsetMatrices);
         }     
     }
+
+    /**
+     * Checks if the given offset matrices or the targets differ from the
+     * ones of the last software skinning, and remembers them if so.
+     */
+    private boolean isPoseChanged(Matrix4f[] offsetMatrices) {
+        Mesh[] meshes = targets.getArray();
+        boolean changed = skinnedTargets == null
+                || !Arrays.equals(skinnedTargets, meshes);
+        if (changed) {
+            skinnedTargets = meshes.clone();
+        }
+        if (skinnedMatrices == null || skinnedMatrices.length != offsetMatrices.length) {
+            skinnedMatrices = new Matrix4f[offsetMatrices.length];
+            for (int i = 0; i < skinnedMatrices.length; i++) {
+                skinnedMatrices[i] = new Matrix4f(offsetMatrices[i]);
+            }
+            return true;
+        }
+        for (int i = 0; i < offsetMatrices.length; i++) {
+            if (!skinnedMatrices[i].equals(offsetMatrices[i])) {
+                skinnedMatrices[i].set(offsetMatrices[i]);
+                changed = true;
+            }
+        }
+        return changed;
+    }
     
     private void controlRenderHardware() {
         offsetMatrices = skeleton.computeSkinningMatrices();
@@ -362,6 +440,7 @@ public class SkeletonControl extends AbstractControl implements Cloneable {
         clone.hwSkinningEnabled = this.hwSkinningEnabled;
         clone.hwSkinningSupported = this.hwSkinningSupported;
         clone.hwSkinningTested = this.hwSkinningTested;
+        clone.setSoftwareSkinningPool(getSoftwareSkinningPool());
         
         clone.setSpatial(clonedNode);
 
@@ -33,6 +33,7 @@ package com.jme3.app;
 
 import com.jme3.app.state.AppStateManager;
 import com.jme3.asset.AssetManager;
+import com.jme3.asset.DesktopAssetManager;
 import com.jme3.audio.AudioContext;
 import com.jme3.audio.AudioRenderer;
 import com.jme3.audio.Listener;
@@ -95,6 +96,8 @@ public class Application implements SystemListener {
 
     protected AppProfiler prof;
 
+    protected float assetUploadBudget = 0.002f;
+
     private final ConcurrentLinkedQueue<AppTask<?>> taskQueue = new ConcurrentLinkedQueue<AppTask<?>>();
 
     /**
@@ -164,6 +167,28 @@ public class Application implements SystemListener {
         }
     }
 
+    /**
+     * Returns the time spent each frame uploading the assets loaded with
+     * {@link DesktopAssetManager#loadAssetAsync(com.jme3.asset.AssetKey, float, com.jme3.asset.AssetRequestListener) }.
+     *
+     * @return The time budget, in seconds.
+     */
+    public float getAssetUploadBudget() {
+        return assetUploadBudget;
+    }
+
+    /**
+     * Sets the time spent each frame uploading the assets loaded with
+     * {@link DesktopAssetManager#loadAssetAsync(com.jme3.asset.AssetKey, float, com.jme3.asset.AssetRequestListener) }
+     * and notifying their listeners. At least one asset is processed
+     * every frame. The default is 2 milliseconds.
+     *
+     * @param assetUploadBudget The time budget, in seconds.
+     */
+    public void setAssetUploadBudget(float assetUploadBudget) {
+        this.assetUploadBudget = assetUploadBudget;
+    }
+
     @Deprecated
     public void setAssetManager(AssetManager assetManager){
         if (this.assetManager != null)
@@ -695,6 +720,9 @@ public class Application implements SystemListener {
 
         if (prof!=null) prof.appStep(AppStep.QueuedTasks);
         runQueuedTasks();
+        if (assetManager instanceof DesktopAssetManager) {
+            ((DesktopAssetManager) assetManager).finishLoadedAssets(renderManager, assetUploadBudget);
+        }
 
         if (speed == 0 || paused)
             return;
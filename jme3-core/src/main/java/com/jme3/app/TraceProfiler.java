@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.app;
+
+import com.jme3.profile.AppProfiler;
+import com.jme3.profile.AppStep;
+import com.jme3.profile.VpStep;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.RenderQueue.Bucket;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+
+/**
+ *  An AppProfiler implementation that records a nanosecond
+ *  timestamp for every AppStep, VpStep and RenderQueue bucket
+ *  into preallocated ring buffers, so that it can stay attached
+ *  to a production application without allocating per frame.
+ *
+ *  <p>Each step is considered to last until the next step
+ *  begins.  The time spent in every step is summed up per frame
+ *  and kept for the last {@link #getFrameCount() frame count} frames,
+ *  from which percentiles can be requested.  The raw steps of the
+ *  recorded frames can be written out in the Chrome trace event
+ *  format, to be opened with chrome://tracing.</p>
+ *
+ *  <p>Frames begin with {@link AppStep#BeginFrame}, so the last
+ *  step of a frame, usually {@link AppStep#EndFrame}, includes the
+ *  buffer swap and frame rate limiting.  Statistics and traces only
+ *  include completed frames.</p>
+ *
+ *  <p>The profiler is not thread safe, the query and trace methods
+ *  must be called from the render thread, for example from an
+ *  AppState or a task enqueued on the application.</p>
+ */
+public class TraceProfiler implements AppProfiler {
+
+    private static final AppStep[] APP_STEPS = AppStep.values();
+    private static final VpStep[] VP_STEPS = VpStep.values();
+    private static final Bucket[] BUCKETS = Bucket.values();
+
+    // Statistic keys: one per AppStep, one per VpStep, one per
+    // bucket for VpStep.RenderBucket and one for the whole frame.
+    private static final int VP_KEYS = APP_STEPS.length;
+    private static final int BUCKET_KEYS = VP_KEYS + VP_STEPS.length;
+    private static final int FRAME_KEY = BUCKET_KEYS + BUCKETS.length;
+    private static final int KEY_COUNT = FRAME_KEY + 1;
+
+    private final int frameCount;
+    private final int eventCapacity;
+
+    // The event ring buffer
+    private final long[] eventTimes;
+    private final int[] eventKeys;
+    private final ViewPort[] eventViewPorts;
+    private long eventTotal = 0;
+
+    // The frame ring buffer, frames index into the event ring
+    // buffer by absolute event number.
+    private final long[] frameFirstEvent;
+    private final long[] frameEndTime;
+    private final long[][] frameStats;
+    private int frameIndex = 0;
+    private int framesRecorded = 0;
+
+    // Start of the frame in progress, -1 if none.  The start time is
+    // kept apart since the event may be overwritten by long frames.
+    private long currentFrameEvent = -1;
+    private long currentFrameStart;
+    private final long[] currentStats = new long[KEY_COUNT];
+
+    // Scratch array for the percentile computation
+    private final long[] sorted;
+
+    /**
+     *  Creates a profiler keeping the last 600 frames, that
+     *  is 10 seconds at 60 FPS, with up to 256 steps per frame
+     *  on average.
+     */
+    public TraceProfiler() {
+        this(600, 256);
+    }
+
+    /**
+     *  Creates a profiler keeping the given number of frames.
+     *
+     *  @param frameCount the number of frames to keep statistics for.
+     *  @param stepsPerFrame the average number of steps per frame
+     *         to reserve room for in the trace.  Frames which steps
+     *         are no longer in the buffer are dropped from the trace
+     *         but not from the statistics.
+     */
+    public TraceProfiler( int frameCount, int stepsPerFrame ) {
+        if( frameCount < 1 || stepsPerFrame < 1 ) {
+            throw new IllegalArgumentException("Frame count and steps per frame must be positive");
+        }
+        this.frameCount = frameCount;
+        this.eventCapacity = frameCount * stepsPerFrame;
+        this.eventTimes = new long[eventCapacity];
+        this.eventKeys = new int[eventCapacity];
+        this.eventViewPorts = new ViewPort[eventCapacity];
+        this.frameFirstEvent = new long[frameCount];
+        this.frameEndTime = new long[frameCount];
+        this.frameStats = new long[KEY_COUNT][frameCount];
+        this.sorted = new long[frameCount];
+    }
+
+    /**
+     *  Returns the number of frames statistics are kept for.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     *  Returns the number of completed frames currently recorded,
+     *  at most {@link #getFrameCount()}.
+     */
+    public int getRecordedFrameCount() {
+        return framesRecorded;
+    }
+
+    /**
+     *  Drops all the recorded frames.
+     */
+    public void clear() {
+        Arrays.fill(eventViewPorts, null);
+        eventTotal = 0;
+        frameIndex = 0;
+        framesRecorded = 0;
+        currentFrameEvent = -1;
+    }
+
+    /**
+     *  Returns the given percentile of the time spent per frame
+     *  in the given step over the recorded frames, in nanoseconds.
+     *
+     *  @param percentile the percentile, between 0 and 100, for example
+     *         50 for the median.
+     */
+    public long getPercentile( AppStep step, float percentile ) {
+        return getPercentile(step.ordinal(), percentile);
+    }
+
+    /**
+     *  Returns the given percentile of the time spent per frame
+     *  in the given step over the recorded frames, in nanoseconds,
+     *  summed up for all viewports.
+     *
+     *  @param bucket the bucket for {@link VpStep#RenderBucket},
+     *         or null for all the other steps.
+     *  @param percentile the percentile, between 0 and 100, for example
+     *         50 for the median.
+     */
+    public long getPercentile( VpStep step, Bucket bucket, float percentile ) {
+        return getPercentile(getKey(step, bucket), percentile);
+    }
+
+    /**
+     *  Returns the given percentile of the frame time over the
+     *  recorded frames, in nanoseconds.
+     *
+     *  @param percentile the percentile, between 0 and 100, for example
+     *         50 for the median.
+     */
+    public long getFramePercentile( float percentile ) {
+        return getPercentile(FRAME_KEY, percentile);
+    }
+
+    private long getPercentile( int key, float percentile ) {
+        if( percentile < 0 || percentile > 100 ) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100:" + percentile);
+        }
+        if( framesRecorded == 0 ) {
+            return 0;
+        }
+        System.arraycopy(frameStats[key], 0, sorted, 0, framesRecorded);
+        Arrays.sort(sorted, 0, framesRecorded);
+
+        // nearest rank
+        int rank = (int)Math.ceil(percentile / 100f * framesRecorded);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     *  Writes the steps of the last completed frames that are still
+     *  in the buffer as a Chrome trace event JSON document.
+     *
+     *  @param out the writer to write the JSON document to.
+     *  @param frames the maximum number of frames to write.
+     */
+    public void writeTrace( Writer out, int frames ) throws IOException {
+        int count = Math.min(frames, framesRecorded);
+        int first = frameIndex - count;
+        if( first < 0 ) {
+            first += frameCount;
+        }
+
+        out.write("{\"traceEvents\":[");
+        boolean firstEvent = true;
+        for( int f = 0; f < count; f++ ) {
+            int frame = (first + f) % frameCount;
+            long start = frameFirstEvent[frame];
+            if( eventTotal - start > eventCapacity ) {
+                // overwritten by more recent frames
+                continue;
+            }
+            long end = (frame == (frameIndex + frameCount - 1) % frameCount)
+                       ? currentFrameEvent : frameFirstEvent[(frame + 1) % frameCount];
+            for( long e = start; e < end; e++ ) {
+                int i = (int)(e % eventCapacity);
+                long time = eventTimes[i];
+                long next = e + 1 < end ? eventTimes[(int)((e + 1) % eventCapacity)] : frameEndTime[frame];
+                if( !firstEvent ) {
+                    out.write(',');
+                }
+                firstEvent = false;
+                writeEvent(out, eventKeys[i], eventViewPorts[i], time, next - time);
+            }
+        }
+        out.write("]}");
+        out.flush();
+    }
+
+    private void writeEvent( Writer out, int key, ViewPort vp, long time, long duration ) throws IOException {
+        out.write("{\"name\":\"");
+        out.write(getName(key));
+        out.write("\",\"cat\":\"");
+        out.write(key < VP_KEYS ? "app" : "viewport");
+        out.write("\",\"ph\":\"X\",\"pid\":1,\"tid\":1,\"ts\":");
+        writeMicros(out, time);
+        out.write(",\"dur\":");
+        writeMicros(out, duration);
+        if( vp != null ) {
+            out.write(",\"args\":{\"viewPort\":\"");
+            writeEscaped(out, vp.getName());
+            out.write("\"}");
+        }
+        out.write('}');
+    }
+
+    private static void writeMicros( Writer out, long nanos ) throws IOException {
+        out.write(Long.toString(nanos / 1000));
+        out.write('.');
+        String fraction = Long.toString(nanos % 1000 + 1000);
+        out.write(fraction, 1, 3);
+    }
+
+    private static void writeEscaped( Writer out, String s ) throws IOException {
+        for( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt(i);
+            if( c == '"' || c == '\\' ) {
+                out.write('\\');
+                out.write(c);
+            } else if( c < 0x20 ) {
+                out.write(String.format("\\u%04x", (int)c));
+            } else {
+                out.write(c);
+            }
+        }
+    }
+
+    private static String getName( int key ) {
+        if( key < VP_KEYS ) {
+            return APP_STEPS[key].name();
+        } else if( key < BUCKET_KEYS ) {
+            return VP_STEPS[key - VP_KEYS].name();
+        } else {
+            return VpStep.RenderBucket.name() + " " + BUCKETS[key - BUCKET_KEYS].name();
+        }
+    }
+
+    private static int getKey( VpStep step, Bucket bucket ) {
+        if( bucket != null ) {
+            return BUCKET_KEYS + bucket.ordinal();
+        }
+        return VP_KEYS + step.ordinal();
+    }
+
+    private void record( int key, ViewPort vp, long time ) {
+        int i = (int)(eventTotal % eventCapacity);
+        eventTimes[i] = time;
+        eventKeys[i] = key;
+        eventViewPorts[i] = vp;
+        eventTotal++;
+    }
+
+    /**
+     *  Sums up the steps of the frame in progress into the
+     *  frame statistics.
+     */
+    private void endFrame( long endTime ) {
+        long start = currentFrameEvent;
+        if( eventTotal - start > eventCapacity ) {
+            // The frame doesn't fit into the buffer, the statistics
+            // are still accurate up to the overwritten steps.
+            start = eventTotal - eventCapacity;
+        }
+
+        Arrays.fill(currentStats, 0);
+        for( long e = start; e < eventTotal; e++ ) {
+            int i = (int)(e % eventCapacity);
+            long next = e + 1 < eventTotal ? eventTimes[(int)((e + 1) % eventCapacity)] : endTime;
+            currentStats[eventKeys[i]] += next - eventTimes[i];
+        }
+        currentStats[FRAME_KEY] = endTime - currentFrameStart;
+
+        for( int key = 0; key < KEY_COUNT; key++ ) {
+            frameStats[key][frameIndex] = currentStats[key];
+        }
+        frameFirstEvent[frameIndex] = currentFrameEvent;
+        frameEndTime[frameIndex] = endTime;
+        frameIndex++;
+        if( frameIndex >= frameCount ) {
+            frameIndex = 0;
+        }
+        if( framesRecorded < frameCount ) {
+            framesRecorded++;
+        }
+    }
+
+    @Override
+    public void appStep( AppStep step ) {
+        long time = System.nanoTime();
+        if( step == AppStep.BeginFrame ) {
+            if( currentFrameEvent >= 0 ) {
+                endFrame(time);
+            }
+            currentFrameEvent = eventTotal;
+            currentFrameStart = time;
+        } else if( currentFrameEvent < 0 ) {
+            // wait for the first frame to begin
+            return;
+        }
+        record(step.ordinal(), null, time);
+    }
+
+    @Override
+    public void vpStep( VpStep step, ViewPort vp, Bucket bucket ) {
+        if( currentFrameEvent < 0 ) {
+            return;
+        }
+        record(getKey(step, bucket), vp, System.nanoTime());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.asset;
+
+import com.jme3.material.Material;
+import com.jme3.renderer.RenderManager;
+import com.jme3.scene.Spatial;
+import com.jme3.texture.Texture;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <code>AssetRequest</code> is a pending asynchronous asset load, returned
+ * by {@link DesktopAssetManager#loadAssetAsync(com.jme3.asset.AssetKey, float, com.jme3.asset.AssetRequestListener) }.
+ * <p>
+ * Requests with a lower priority value are loaded first, requests with
+ * the same priority are loaded in the order they were made. The distance
+ * from the camera to where the asset will be used is a good priority value.
+ * <p>
+ * A request which has not started loading yet can be
+ * {@link #cancel(boolean) cancelled}, its listener will not be notified.
+ *
+ * @param <T> The type of the requested asset
+ */
+public class AssetRequest<T> extends FutureTask<T> implements Comparable<AssetRequest<?>> {
+
+    private static final Logger logger = Logger.getLogger(AssetRequest.class.getName());
+
+    private final ThreadingManager manager;
+    private final AssetKey<T> key;
+    private final float priority;
+    private final long sequence;
+    private final AssetRequestListener<T> listener;
+    private final boolean staged;
+
+    AssetRequest(ThreadingManager manager, AssetKey<T> key, float priority,
+                 long sequence, AssetRequestListener<T> listener, boolean staged,
+                 Callable<T> loader) {
+        super(loader);
+        this.manager = manager;
+        this.key = key;
+        this.priority = priority;
+        this.sequence = sequence;
+        this.listener = listener;
+        this.staged = staged;
+    }
+
+    /**
+     * @return The key of the requested asset
+     */
+    public AssetKey<T> getKey() {
+        return key;
+    }
+
+    /**
+     * @return The priority of the request, lower values are loaded first.
+     */
+    public float getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return The listener notified when the asset is loaded, or null.
+     */
+    public AssetRequestListener<T> getListener() {
+        return listener;
+    }
+
+    /**
+     * @return True if the request is finished on the render thread once
+     * loaded, false for requests only read through {@link #get() }.
+     */
+    boolean isStaged() {
+        return staged;
+    }
+
+    @Override
+    public void run() {
+        AssetRequest<?> previous = manager.beginRequest(this);
+        try {
+            super.run();
+        } finally {
+            manager.endRequest(previous);
+        }
+    }
+
+    @Override
+    protected void done() {
+        manager.requestDone(this);
+    }
+
+    /**
+     * Uploads the loaded asset and notifies the listener, called on the
+     * render thread.
+     */
+    void finish(RenderManager renderManager) {
+        if (isCancelled()) {
+            return;
+        }
+
+        T asset;
+        try {
+            asset = get();
+        } catch (InterruptedException ex) {
+            // cannot happen, the request is done
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException ex) {
+            if (listener != null) {
+                listener.assetFailed(key, ex.getCause());
+            } else {
+                logger.log(Level.WARNING, "Failed to load asset " + key, ex.getCause());
+            }
+            return;
+        }
+
+        if (renderManager != null) {
+            if (asset instanceof Spatial) {
+                renderManager.preloadScene((Spatial) asset);
+            } else if (asset instanceof Material) {
+                ((Material) asset).preload(renderManager);
+            } else if (asset instanceof Texture) {
+                renderManager.getRenderer().setTexture(0, (Texture) asset);
+            }
+        }
+
+        if (listener != null) {
+            listener.assetLoaded(key, asset);
+        }
+    }
+
+    @Override
+    public int compareTo(AssetRequest<?> other) {
+        int result = Float.compare(priority, other.priority);
+        if (result == 0) {
+            result = sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[key=" + key + ", priority=" + priority + "]";
+    }
+}
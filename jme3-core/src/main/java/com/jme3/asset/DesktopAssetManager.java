@@ -39,6 +39,7 @@ import com.jme3.font.BitmapFont;
 import com.jme3.material.Material;
 import com.jme3.post.FilterPostProcessor;
 import com.jme3.renderer.Caps;
+import com.jme3.renderer.RenderManager;
 import com.jme3.scene.Spatial;
 import com.jme3.shader.Glsl100ShaderGenerator;
 import com.jme3.shader.Glsl150ShaderGenerator;
@@ -71,6 +72,8 @@ public class DesktopAssetManager implements AssetManager {
     private ShaderGenerator shaderGenerator;
     
     private final ImplHandler handler = new ImplHandler(this);
+    private final ThreadingManager threadingMan = new ThreadingManager(this);
+    private volatile DiskAssetCache diskCache;
 
     private CopyOnWriteArrayList<AssetEventListener> eventListeners = 
             new CopyOnWriteArrayList<AssetEventListener>();
@@ -242,6 +245,65 @@ public class DesktopAssetManager implements AssetManager {
         }
     }
 
+    /**
+     * Sets the disk cache used to store loaded assets between runs of the
+     * application, see {@link DiskAssetCache}. Disabled by default.
+     *
+     * @param diskCache The disk cache, or null to disable it.
+     */
+    public void setDiskCache(DiskAssetCache diskCache){
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * @return The disk cache, or null if it is disabled.
+     *
+     * @see #setDiskCache(com.jme3.asset.DiskAssetCache)
+     */
+    public DiskAssetCache getDiskCache(){
+        return diskCache;
+    }
+
+    /**
+     * Replaces the cache used by the asset keys which specify the given
+     * {@link AssetKey#getCacheType() cache type}.
+     * <p>
+     * For example, to keep models and textures within a memory budget:
+     * <pre>
+     * AssetCache cache = new LRUAssetCache(256L * 1024 * 1024);
+     * assetManager.setCache(SimpleAssetCache.class, cache);
+     * assetManager.setCache(WeakRefCloneAssetCache.class, cache);
+     * </pre>
+     * The assets already in the previous cache are not moved to the new one.
+     *
+     * @param cacheType The cache type specified by the asset keys.
+     * @param cache The cache to use, or null to go back to a new instance
+     * of <code>cacheType</code>.
+     *
+     * @see com.jme3.asset.cache.LRUAssetCache
+     */
+    public void setCache(Class<? extends AssetCache> cacheType, AssetCache cache){
+        if (cacheType == null)
+            throw new IllegalArgumentException("cacheType cannot be null");
+
+        handler.setCache(cacheType, cache);
+    }
+
+    /**
+     * Returns the cache used by the asset keys which specify the given
+     * {@link AssetKey#getCacheType() cache type}, e.g. to read the statistics
+     * of a {@link com.jme3.asset.cache.LRUAssetCache}.
+     *
+     * @param cacheType The cache type specified by the asset keys.
+     * @return The cache for that type.
+     */
+    public AssetCache getCache(Class<? extends AssetCache> cacheType){
+        if (cacheType == null)
+            throw new IllegalArgumentException("cacheType cannot be null");
+
+        return handler.getCache(cacheType);
+    }
+
     /**
      * Loads an asset that has already been located.
      * @param <T> The asset type
@@ -259,7 +321,8 @@ public class DesktopAssetManager implements AssetManager {
         Object obj;
         try {
             handler.establishParentKey(key);
-            obj = loader.load(info);
+            DiskAssetCache disk = diskCache;
+            obj = disk != null ? disk.load(info, loader) : loader.load(info);
         } catch (IOException ex) {
             throw new AssetLoadException("An exception has occured while loading asset: " + key, ex);
         } finally {
@@ -353,10 +416,20 @@ public class DesktopAssetManager implements AssetManager {
             listener.assetRequested(key);
         }
         
+        DiskAssetCache disk = diskCache;
+        if (disk != null){
+            disk.assetRequested(key);
+        }
+        
         AssetCache cache = handler.getCache(key.getCacheType());
         AssetProcessor proc = handler.getProcessor(key.getProcessorType());
         
         Object obj = cache != null ? cache.getFromCache(key) : null;
+        if (obj == null && cache != null && threadingMan.awaitPending(key)){
+            // Asset was requested asynchronously, it is in the cache now
+            // unless it was deleted in the meantime.
+            obj = cache.getFromCache(key);
+        }
         if (obj == null){
             // Asset not in cache, load it from file system.
             AssetInfo info = handler.tryLocate(key);
@@ -385,6 +458,51 @@ public class DesktopAssetManager implements AssetManager {
         return clone;
     }
 
+    /**
+     * Queues an asset to be loaded on a background thread.
+     * <p>
+     * Requests are loaded in order of priority, lower values first.
+     * Dependencies of the asset, e.g. the textures of a model, are loaded
+     * along with it. If a loader requests a dependency which is already
+     * queued or loading, it waits for that request instead of loading the
+     * dependency again. Each call makes a separate request, even for a
+     * key which is already requested.
+     * Once loaded, the asset is uploaded to the GPU and the listener
+     * is notified from {@link #finishLoadedAssets(com.jme3.renderer.RenderManager, float) }
+     * on the render thread.
+     *
+     * @param <T> The object type that will be loaded from the AssetKey instance.
+     * @param key The AssetKey
+     * @param priority The priority of the request, e.g. the distance from
+     * the camera to where the asset is needed.
+     * @param listener The listener to notify, or null.
+     * @return The request, which can be used to cancel it.
+     */
+    public <T> AssetRequest<T> loadAssetAsync(AssetKey<T> key, float priority, AssetRequestListener<T> listener){
+        if (key == null)
+            throw new IllegalArgumentException("key cannot be null");
+
+        return threadingMan.loadAsset(key, priority, listener);
+    }
+
+    /**
+     * Uploads the assets loaded by {@link #loadAssetAsync(com.jme3.asset.AssetKey, float, com.jme3.asset.AssetRequestListener) }
+     * and notifies their listeners, until the time budget is used up.
+     * The remaining assets are processed on the next call.
+     * <p>
+     * This is called every frame by the {@link com.jme3.app.Application}.
+     * Loaded assets are kept until this is called, so it must be called
+     * regularly when assets are requested asynchronously outside of an
+     * application.
+     *
+     * @param renderManager The render manager used to upload the assets,
+     * or null to only notify the listeners.
+     * @param timeBudget The time budget, in seconds.
+     */
+    public void finishLoadedAssets(RenderManager renderManager, float timeBudget){
+        threadingMan.finishLoadedAssets(renderManager, (long) (timeBudget * 1000000000L));
+    }
+
     public Object loadAsset(String name){
         return loadAsset(new AssetKey(name));
     }
@@ -0,0 +1,540 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.asset;
+
+import com.jme3.asset.plugins.FileLocator;
+import com.jme3.export.FormatVersion;
+import com.jme3.export.Savable;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.export.binary.BinaryImporter;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <code>DiskAssetCache</code> stores loaded assets on disk in the
+ * {@link BinaryExporter j3o} format, so they can be read back quickly
+ * instead of being parsed or decoded again on later runs.
+ * <p>
+ * The cache sits between the {@link AssetLocator} and the
+ * {@link AssetLoader}: the located data is hashed together with the asset
+ * key and the loader class, and if a cached result with that hash exists it
+ * is imported with a {@link BinaryImporter}. Otherwise the loader is used
+ * and its result is written to the cache, if it is {@link Savable}.
+ * <p>
+ * Assets requested while loading, e.g. the materials of an OBJ model, are
+ * recorded as dependencies along with the hash of their data, and the cached
+ * result is discarded if any of them changes. A changed loader class also
+ * invalidates its cached results.
+ * <p>
+ * Only assets with one of the {@link #addExtension(java.lang.String) cached extensions}
+ * go through the cache. By default those are the model, material and image
+ * formats which are slow to parse.
+ * <p>
+ * The least recently used results are deleted once the cache directory grows
+ * past its {@link #setMaxSize(long) maximum size}, 256 MB by default, and
+ * results not used for longer than the {@link #setMaxAge(long) maximum age}
+ * are deleted as well.
+ *
+ * @see DesktopAssetManager#setDiskCache(com.jme3.asset.DiskAssetCache)
+ */
+public class DiskAssetCache {
+
+    private static final Logger logger = Logger.getLogger(DiskAssetCache.class.getName());
+
+    private static final String DATA_SUFFIX = ".j3o";
+    private static final String DEPENDENCIES_SUFFIX = ".dep";
+
+    private final File directory;
+    private final Set<String> extensions = Collections.synchronizedSet(new HashSet<String>());
+    private final ConcurrentHashMap<Class<?>, String> loaderVersions = new ConcurrentHashMap<Class<?>, String>();
+    private final ConcurrentHashMap<String, DependencyHash> dependencyHashes = new ConcurrentHashMap<String, DependencyHash>();
+    private volatile long maxSize = 256L * 1024 * 1024;
+    private volatile long maxAge = 0;
+    private final ThreadLocal<ArrayList<Set<String>>> recording = new ThreadLocal<ArrayList<Set<String>>>() {
+        @Override
+        protected ArrayList<Set<String>> initialValue() {
+            return new ArrayList<Set<String>>();
+        }
+    };
+
+    /**
+     * Creates a disk cache storing its files in the given directory.
+     * The directory is created if needed.
+     *
+     * @param directory The cache directory
+     */
+    public DiskAssetCache(File directory) {
+        this.directory = directory;
+        extensions.addAll(Arrays.asList("obj", "mesh.xml", "meshxml", "scene",
+                                        "j3m", "tga", "dds", "hdr", "pfm"));
+    }
+
+    /**
+     * @return The cache directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Caches the assets with the given extension.
+     *
+     * @param extension The extension, in lower case, without the dot.
+     */
+    public void addExtension(String extension) {
+        extensions.add(extension);
+    }
+
+    /**
+     * Stops caching the assets with the given extension.
+     *
+     * @param extension The extension, in lower case, without the dot.
+     */
+    public void removeExtension(String extension) {
+        extensions.remove(extension);
+    }
+
+    /**
+     * Sets the size above which the least recently used results are deleted.
+     *
+     * @param bytes The maximum size of the cached files in bytes, or 0 for
+     * no limit. The default is 256 MB.
+     */
+    public void setMaxSize(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Maximum size cannot be negative");
+        }
+        this.maxSize = bytes;
+    }
+
+    /**
+     * @return The maximum size of the cached files in bytes, or 0 for no limit
+     * @see #setMaxSize(long)
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the time after which a result that was not used is deleted.
+     *
+     * @param millis The maximum age in milliseconds, or 0 for no limit.
+     * The default is no limit.
+     */
+    public void setMaxAge(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Maximum age cannot be negative");
+        }
+        this.maxAge = millis;
+    }
+
+    /**
+     * @return The maximum age in milliseconds, or 0 for no limit
+     * @see #setMaxAge(long)
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Deletes the results older than the maximum age, then the least
+     * recently used ones until the cache fits in its maximum size. Called
+     * after each result is written to the cache.
+     */
+    public synchronized void prune() {
+        long size = maxSize;
+        long age = maxAge;
+        if (size == 0 && age == 0) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        ArrayList<CachedFile> cached = new ArrayList<CachedFile>();
+        long total = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(DATA_SUFFIX)) {
+                File dependencies = new File(directory,
+                        name.substring(0, name.length() - DATA_SUFFIX.length()) + DEPENDENCIES_SUFFIX);
+                CachedFile entry = new CachedFile(file, dependencies);
+                cached.add(entry);
+                total += entry.size;
+            }
+        }
+        // a cache hit updates the modification time, so the least
+        // recently used results come first
+        Collections.sort(cached, new Comparator<CachedFile>() {
+            public int compare(CachedFile a, CachedFile b) {
+                return a.lastUsed < b.lastUsed ? -1 : (a.lastUsed == b.lastUsed ? 0 : 1);
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        for (CachedFile entry : cached) {
+            boolean expired = age > 0 && now - entry.lastUsed > age;
+            if (!expired && (size == 0 || total <= size)) {
+                break;
+            }
+            if (entry.data.delete() || !entry.data.exists()) {
+                entry.dependencies.delete();
+                total -= entry.size;
+            } else {
+                logger.log(Level.WARNING, "Cannot delete cached asset {0}", entry.data);
+            }
+        }
+    }
+
+    /**
+     * Deletes all the cached assets.
+     */
+    public void clear() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(DATA_SUFFIX) || name.endsWith(DEPENDENCIES_SUFFIX)) {
+                if (!file.delete()) {
+                    logger.log(Level.WARNING, "Cannot delete cached asset {0}", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the asset manager for every requested asset, to record the
+     * dependencies of the assets being loaded on this thread.
+     *
+     * @param key The requested asset
+     */
+    public void assetRequested(AssetKey<?> key) {
+        ArrayList<Set<String>> stack = recording.get();
+        // a dependency of a dependency is also a dependency
+        for (int i = 0; i < stack.size(); i++) {
+            stack.get(i).add(key.getName());
+        }
+    }
+
+    /**
+     * Loads an asset using the cached result if it is up to date, or the
+     * loader otherwise.
+     *
+     * @param info The located asset
+     * @param loader The loader for the asset
+     * @return The loaded asset
+     * @throws IOException If the loader fails to load the asset
+     */
+    public Object load(AssetInfo info, AssetLoader loader) throws IOException {
+        AssetKey<?> key = info.getKey();
+        if (loader instanceof BinaryImporter
+                || key.getCacheType() == null
+                || !extensions.contains(key.getExtension())) {
+            return loader.load(info);
+        }
+
+        byte[] data = readFully(info.openStream());
+        String hash = hash(key, loader, data);
+        File dataFile = new File(directory, hash + DATA_SUFFIX);
+        File dependenciesFile = new File(directory, hash + DEPENDENCIES_SUFFIX);
+
+        if (dataFile.isFile() && isUpToDate(info.getManager(), dependenciesFile)) {
+            try {
+                BinaryImporter importer = BinaryImporter.getInstance();
+                importer.setAssetManager(info.getManager());
+                Savable cached = importer.load(dataFile);
+                // used by prune() to find the least recently used results
+                dataFile.setLastModified(System.currentTimeMillis());
+                if (logger.isLoggable(Level.FINER)) {
+                    logger.log(Level.FINER, "Loaded {0} from disk cache", key);
+                }
+                return cached;
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Cannot read cached asset " + key + ", reloading", ex);
+            }
+        }
+
+        ArrayList<Set<String>> stack = recording.get();
+        Set<String> dependencies = new LinkedHashSet<String>();
+        stack.add(dependencies);
+        Object obj;
+        try {
+            obj = loader.load(new StreamAssetInfo(info.getManager(), key, new ByteArrayInputStream(data)));
+        } finally {
+            stack.remove(stack.size() - 1);
+        }
+
+        if (obj instanceof Savable) {
+            if (store(info.getManager(), (Savable) obj, dataFile, dependenciesFile, dependencies)) {
+                prune();
+            }
+        }
+        return obj;
+    }
+
+    private boolean store(AssetManager manager, Savable obj, File dataFile,
+                          File dependenciesFile, Set<String> dependencies) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            logger.log(Level.WARNING, "Cannot create disk cache directory {0}", directory);
+            return false;
+        }
+        try {
+            // write the dependencies first, a data file without them is
+            // considered out of date
+            File tmp = File.createTempFile("dep", ".tmp", directory);
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            try {
+                for (String name : dependencies) {
+                    String hash = hashDependency(manager, name);
+                    if (hash == null) {
+                        // not found, let the next load try again
+                        writer.close();
+                        tmp.delete();
+                        return false;
+                    }
+                    writer.write(name + "\t" + hash + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            replace(tmp, dependenciesFile);
+
+            tmp = File.createTempFile("j3o", ".tmp", directory);
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                BinaryExporter.getInstance().save(obj, out);
+            } finally {
+                out.close();
+            }
+            replace(tmp, dataFile);
+            return true;
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Cannot write asset to disk cache", ex);
+        } catch (RuntimeException ex) {
+            // some savables cannot be exported
+            logger.log(Level.WARNING, "Cannot write asset to disk cache", ex);
+        }
+        return false;
+    }
+
+    private static void replace(File tmp, File file) throws IOException {
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    private boolean isUpToDate(AssetManager manager, File dependenciesFile) {
+        if (!dependenciesFile.isFile()) {
+            return false;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(dependenciesFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.lastIndexOf('\t');
+                    if (tab < 0) {
+                        return false;
+                    }
+                    String hash = hashDependency(manager, line.substring(0, tab));
+                    if (!line.substring(tab + 1).equals(hash)) {
+                        return false;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the hash of the data of a dependency. The hashes of files
+     * are kept and reused while their modification time and size stay the
+     * same, so checking an up to date result does not read them again.
+     */
+    private String hashDependency(AssetManager manager, String name) throws IOException {
+        AssetInfo info = manager.locateAsset(new AssetKey<Object>(name));
+        if (info == null) {
+            return null;
+        }
+        if (!(info instanceof FileLocator.AssetInfoFile)) {
+            return hashData(info);
+        }
+
+        File file = ((FileLocator.AssetInfoFile) info).getFile();
+        long modified = file.lastModified();
+        long length = file.length();
+        DependencyHash known = dependencyHashes.get(name);
+        if (known != null && known.file.equals(file)
+                && known.modified == modified && known.length == length) {
+            return known.hash;
+        }
+        String hash = hashData(info);
+        dependencyHashes.put(name, new DependencyHash(file, modified, length, hash));
+        return hash;
+    }
+
+    private static String hashData(AssetInfo info) throws IOException {
+        MessageDigest digest = createDigest();
+        digest.update(readFully(info.openStream()));
+        return toHex(digest.digest());
+    }
+
+    private String hash(AssetKey<?> key, AssetLoader loader, byte[] data) throws IOException {
+        MessageDigest digest = createDigest();
+        digest.update(key.toString().getBytes("UTF-8"));
+        digest.update(getLoaderVersion(loader.getClass()).getBytes("UTF-8"));
+        digest.update((byte) FormatVersion.VERSION);
+        digest.update(data);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * The loader version is the hash of its class file, so a cached result
+     * is discarded once the loader is modified.
+     */
+    private String getLoaderVersion(Class<?> loaderClass) throws IOException {
+        String version = loaderVersions.get(loaderClass);
+        if (version == null) {
+            String name = loaderClass.getName();
+            InputStream in = loaderClass.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+            if (in != null) {
+                MessageDigest digest = createDigest();
+                digest.update(readFully(in));
+                version = name + ":" + toHex(digest.digest());
+            } else {
+                version = name;
+            }
+            loaderVersions.put(loaderClass, version);
+        }
+        return version;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 4096));
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static final class DependencyHash {
+
+        final File file;
+        final long modified;
+        final long length;
+        final String hash;
+
+        DependencyHash(File file, long modified, long length, String hash) {
+            this.file = file;
+            this.modified = modified;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    private static final class CachedFile {
+
+        final File data;
+        final File dependencies;
+        final long lastUsed;
+        final long size;
+
+        CachedFile(File data, File dependencies) {
+            this.data = data;
+            this.dependencies = dependencies;
+            this.lastUsed = data.lastModified();
+            this.size = data.length() + dependencies.length();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + directory + "]";
+    }
+}
@@ -238,6 +238,16 @@ final class ImplHandler {
         return cache;
     }
     
+    public void setCache(Class<? extends AssetCache> cacheClass, AssetCache cache) {
+        synchronized (classToCacheMap) {
+            if (cache == null) {
+                classToCacheMap.remove(cacheClass);
+            } else {
+                classToCacheMap.put(cacheClass, cache);
+            }
+        }
+    }
+    
     public <T extends AssetProcessor> T getProcessor(Class<T> procClass){
         if (procClass == null)
             return null;
@@ -31,23 +31,40 @@
  */
 package com.jme3.asset;
 
+import com.jme3.renderer.RenderManager;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <code>ThreadingManager</code> manages the threads used to load content
  * within the Content Manager system. A pool of threads and a task queue
  * is used to load resource data and perform I/O while the application's
  * render thread is active. 
+ * <p>
+ * The queue is ordered by {@link AssetRequest#getPriority() priority}.
+ * Loaded assets are staged until {@link #finishLoadedAssets(com.jme3.renderer.RenderManager, long) }
+ * is called on the render thread, which uploads them and notifies the
+ * request listeners within a time budget.
  */
 public class ThreadingManager {
 
     protected final ExecutorService executor =
-            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), 
-                                         new LoadingThreadFactory());
+            new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(),
+                                   Runtime.getRuntime().availableProcessors(),
+                                   0L, TimeUnit.MILLISECONDS,
+                                   new PriorityBlockingQueue<Runnable>(),
+                                   new LoadingThreadFactory());
 
     protected final AssetManager owner;
     protected int nextThreadId = 0;
 
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final ConcurrentHashMap<AssetKey<?>, AssetRequest<?>> pending =
+            new ConcurrentHashMap<AssetKey<?>, AssetRequest<?>>();
+    private final ConcurrentLinkedQueue<AssetRequest<?>> completed =
+            new ConcurrentLinkedQueue<AssetRequest<?>>();
+    private final ThreadLocal<AssetRequest<?>> running = new ThreadLocal<AssetRequest<?>>();
+
     public ThreadingManager(AssetManager owner){
         this.owner = owner;
     }
@@ -75,7 +92,123 @@ public class ThreadingManager {
     }
 
     public <T> Future<T> loadAsset(AssetKey<T> assetKey) {
-        return executor.submit(new LoadingTask(assetKey));
+        // not staged, nothing drains the completed queue for these
+        AssetRequest<T> request = new AssetRequest<T>(this, assetKey, 0f,
+                                                      nextSequence.getAndIncrement(),
+                                                      null, false, new LoadingTask<T>(assetKey));
+        executor.execute(request);
+        return request;
+    }
+
+    /**
+     * Queues an asset to be loaded on one of the loading threads. Once
+     * loaded, the request is staged until
+     * {@link #finishLoadedAssets(com.jme3.renderer.RenderManager, long) }
+     * is called.
+     * <p>
+     * Every call makes a new request, even if the same key is already
+     * requested. Loaders which request the key join the first request,
+     * see {@link #awaitPending(com.jme3.asset.AssetKey) }.
+     *
+     * @param assetKey The key of the asset to load
+     * @param priority The priority of the request, lower values are loaded
+     * first.
+     * @param listener The listener to notify from
+     * {@link #finishLoadedAssets(com.jme3.renderer.RenderManager, long) },
+     * or null.
+     * @return The request
+     */
+    public <T> AssetRequest<T> loadAsset(AssetKey<T> assetKey, float priority,
+                                         AssetRequestListener<T> listener) {
+        AssetRequest<T> request = new AssetRequest<T>(this, assetKey, priority,
+                                                      nextSequence.getAndIncrement(),
+                                                      listener, true, new LoadingTask<T>(assetKey));
+        pending.putIfAbsent(assetKey, request);
+        executor.execute(request);
+        return request;
+    }
+
+    /**
+     * Waits for a queued or running request of the given asset, if there
+     * is one. A request which has not started yet is run on the calling
+     * thread.
+     * <p>
+     * This is used when a loader requests an asset which is already
+     * requested asynchronously, e.g. a texture of a model, so it is
+     * loaded only once.
+     *
+     * @param assetKey The key of the asset
+     * @return True if a request was found and is done.
+     */
+    public boolean awaitPending(AssetKey<?> assetKey) {
+        AssetRequest<?> request = pending.get(assetKey);
+        if (request == null || request == running.get()) {
+            return false;
+        }
+        request.run();
+        try {
+            request.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (CancellationException ex) {
+            return false;
+        } catch (ExecutionException ex) {
+            // let the caller load it and report the error
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Uploads the assets loaded since the last call and notifies their
+     * request listeners, until the time budget is used up. At least one
+     * asset is processed per call.
+     * <p>
+     * Must be called on the render thread.
+     *
+     * @param renderManager The render manager used to upload the assets,
+     * or null to skip the upload.
+     * @param budget The time budget, in nanoseconds.
+     */
+    public void finishLoadedAssets(RenderManager renderManager, long budget) {
+        long start = System.nanoTime();
+        AssetRequest<?> request;
+        while ((request = completed.poll()) != null) {
+            request.finish(renderManager);
+            if (System.nanoTime() - start >= budget) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return The number of assets loaded and waiting for
+     * {@link #finishLoadedAssets(com.jme3.renderer.RenderManager, long) }.
+     */
+    public int getLoadedAssetCount() {
+        return completed.size();
+    }
+
+    AssetRequest<?> beginRequest(AssetRequest<?> request) {
+        AssetRequest<?> previous = running.get();
+        running.set(request);
+        return previous;
+    }
+
+    void endRequest(AssetRequest<?> previous) {
+        if (previous == null) {
+            running.remove();
+        } else {
+            running.set(previous);
+        }
+    }
+
+    void requestDone(AssetRequest<?> request) {
+        pending.remove(request.getKey(), request);
+        if (request.isStaged() && !request.isCancelled()) {
+            completed.add(request);
+        }
     }
 
     public static boolean isLoadingThread() {
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.asset.cache;
+
+import com.jme3.asset.AssetKey;
+import com.jme3.audio.AudioBuffer;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <code>LRUAssetCache</code> is an asset cache which keeps assets until
+ * their estimated memory footprint exceeds a budget, then deletes the least
+ * recently used assets.
+ * <p>
+ * The footprint is estimated from the image data of textures, the vertex
+ * buffers of meshes and models and the data of audio buffers, see
+ * {@link #estimateSize(com.jme3.asset.AssetKey, java.lang.Object) }.
+ * Like {@link SimpleAssetCache}, assets are held with strong references
+ * and clones are not tracked, so this cache can be used in place of any
+ * other cache with
+ * {@link com.jme3.asset.DesktopAssetManager#setCache(java.lang.Class, com.jme3.asset.cache.AssetCache) }.
+ * The most recently added asset is always kept, even if it alone exceeds
+ * the budget.
+ */
+public class LRUAssetCache implements AssetCache {
+
+    /**
+     * The default memory budget, 64 MB.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private static final long ENTRY_OVERHEAD = 64;
+
+    private static final class Entry {
+
+        final Object asset;
+        final long size;
+
+        Entry(Object asset, long size) {
+            this.asset = asset;
+            this.size = size;
+        }
+    }
+
+    private final LinkedHashMap<AssetKey, Entry> keyToEntryMap =
+            new LinkedHashMap<AssetKey, Entry>(16, 0.75f, true);
+    private long memoryBudget;
+    private long memoryUsed = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public LRUAssetCache() {
+        this(DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget The maximum estimated size of the cached assets,
+     * in bytes.
+     */
+    public LRUAssetCache(long memoryBudget) {
+        setMemoryBudget(memoryBudget);
+    }
+
+    /**
+     * Sets the maximum estimated size of the cached assets, in bytes.
+     * Assets are evicted right away if the new budget is exceeded.
+     *
+     * @param memoryBudget The budget in bytes
+     */
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("memoryBudget cannot be negative");
+        }
+        this.memoryBudget = memoryBudget;
+        evict();
+    }
+
+    /**
+     * @return The maximum estimated size of the cached assets, in bytes.
+     */
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return The estimated size of the cached assets, in bytes.
+     */
+    public synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /**
+     * @return The number of assets in the cache.
+     */
+    public synchronized int getAssetCount() {
+        return keyToEntryMap.size();
+    }
+
+    /**
+     * @return The number of lookups which found the asset.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups which did not find the asset.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return The number of assets deleted to stay within the budget.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    public synchronized <T> void addToCache(AssetKey<T> key, T obj) {
+        Entry entry = new Entry(obj, estimateSize(key, obj));
+        Entry old = keyToEntryMap.put(key, entry);
+        if (old != null) {
+            memoryUsed -= old.size;
+        }
+        memoryUsed += entry.size;
+        evict();
+    }
+
+    public <T> void registerAssetClone(AssetKey<T> key, T clone) {
+    }
+
+    public synchronized <T> T getFromCache(AssetKey<T> key) {
+        Entry entry = keyToEntryMap.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return (T) entry.asset;
+    }
+
+    public synchronized boolean deleteFromCache(AssetKey key) {
+        Entry entry = keyToEntryMap.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        memoryUsed -= entry.size;
+        return true;
+    }
+
+    public synchronized void clearCache() {
+        keyToEntryMap.clear();
+        memoryUsed = 0;
+    }
+
+    public void notifyNoAssetClone() {
+    }
+
+    private void evict() {
+        Iterator<Entry> it = keyToEntryMap.values().iterator();
+        // keep the most recently used asset
+        while (memoryUsed > memoryBudget && keyToEntryMap.size() > 1) {
+            Entry entry = it.next();
+            it.remove();
+            memoryUsed -= entry.size;
+            evictions++;
+        }
+    }
+
+    /**
+     * Estimates the memory footprint of an asset, in bytes.
+     * <p>
+     * Textures and images count their image data, models and meshes their
+     * vertex buffers (but not the textures of their materials, which are
+     * cached separately) and audio buffers their audio data. Other assets
+     * only count a fixed overhead. Override to account for other asset types.
+     *
+     * @param key The key of the asset
+     * @param asset The asset
+     * @return The estimated size in bytes
+     */
+    protected long estimateSize(AssetKey key, Object asset) {
+        long size = ENTRY_OVERHEAD;
+        if (asset instanceof Texture) {
+            size += imageSize(((Texture) asset).getImage());
+        } else if (asset instanceof Image) {
+            size += imageSize((Image) asset);
+        } else if (asset instanceof Spatial) {
+            size += spatialSize((Spatial) asset, new IdentityHashMap<Mesh, Mesh>());
+        } else if (asset instanceof Mesh) {
+            size += meshSize((Mesh) asset);
+        } else if (asset instanceof AudioBuffer) {
+            ByteBuffer data = ((AudioBuffer) asset).getData();
+            if (data != null) {
+                size += data.capacity();
+            }
+        }
+        return size;
+    }
+
+    private static long imageSize(Image image) {
+        long size = 0;
+        if (image != null) {
+            for (ByteBuffer data : image.getData()) {
+                if (data != null) {
+                    size += data.capacity();
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long spatialSize(Spatial spatial, Map<Mesh, Mesh> visited) {
+        long size = 0;
+        if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                size += spatialSize(child, visited);
+            }
+        } else if (spatial instanceof Geometry) {
+            Mesh mesh = ((Geometry) spatial).getMesh();
+            // meshes may be shared by several geometries
+            if (mesh != null && visited.put(mesh, mesh) == null) {
+                size += meshSize(mesh);
+            }
+        }
+        return size;
+    }
+
+    private static long meshSize(Mesh mesh) {
+        long size = 0;
+        for (VertexBuffer vb : mesh.getBufferList().getArray()) {
+            Buffer data = vb.getData();
+            if (data != null) {
+                size += (long) data.capacity() * vb.getFormat().getComponentSize();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[assets=" + keyToEntryMap.size()
+                + ", memoryUsed=" + memoryUsed + ", memoryBudget=" + memoryBudget + "]";
+    }
+}
@@ -0,0 +1,688 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.collision;
+
+import com.jme3.math.Plane;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import java.util.Arrays;
+
+/**
+ * A bounding volume hierarchy of axis aligned boxes that can be changed
+ * incrementally, for objects that are added, moved and removed over time.
+ * <p>
+ * Each object gets a proxy, a leaf whose box is the bound of the object
+ * enlarged by a margin, so that small movements do not change the tree.
+ * Objects are inserted next to the sibling that grows the total surface
+ * area of the tree the least and the tree is kept balanced with rotations.
+ * A leaf that moves a little is refitted in place; one that moves far, or
+ * was refitted often, is reinserted.
+ * <p>
+ * The nodes are stored in flat arrays indexed by proxy id, queries do
+ * not allocate.
+ *
+ * @param <T> the type of the objects in the tree
+ */
+public class DynamicAabbTree<T> {
+
+    /**
+     * Id of no node.
+     */
+    public static final int NULL = -1;
+
+    /**
+     * Number of refits of a leaf after which it is reinserted.
+     */
+    private static final int MAX_REFITS = 8;
+
+    /**
+     * Receives the objects found by a query.
+     */
+    public interface Visitor<T> {
+        /**
+         * @return false to stop the query
+         */
+        public boolean visit(int proxy, T item);
+    }
+
+    // min x, y, z then max x, y, z per node
+    private float[] box;
+    private int[] parent;   // next free node for free nodes
+    private int[] child1;
+    private int[] child2;
+    private int[] height;   // -1 for free nodes
+    private int[] refits;
+    private Object[] items;
+    private int capacity;
+    private int root = NULL;
+    private int freeList;
+    private int proxyCount;
+    private float margin = 0.1f;
+    private int[] stack = new int[64];
+    // planes already passed by the node on the stack, for frustum queries
+    private int[] planeMasks = new int[64];
+    private final float[] planes = new float[24];
+
+    public DynamicAabbTree() {
+        this(16);
+    }
+
+    public DynamicAabbTree(int initialCapacity) {
+        capacity = 0;
+        grow(Math.max(initialCapacity, 2));
+    }
+
+    /**
+     * Sets how much the boxes of the leaves are enlarged, as a fraction
+     * of the largest extent of the object's bound. The default is 0.1.
+     */
+    public void setMargin(float margin) {
+        this.margin = margin;
+    }
+
+    public float getMargin() {
+        return margin;
+    }
+
+    /**
+     * Adds an object with the given bound to the tree.
+     * @return the proxy id of the object
+     */
+    public int createProxy(Vector3f min, Vector3f max, T item) {
+        int leaf = allocateNode();
+        setFatBox(leaf, min, max);
+        items[leaf] = item;
+        height[leaf] = 0;
+        insertLeaf(leaf);
+        proxyCount++;
+        return leaf;
+    }
+
+    /**
+     * Removes the object from the tree.
+     */
+    public void destroyProxy(int proxy) {
+        checkProxy(proxy);
+        removeLeaf(proxy);
+        freeNode(proxy);
+        proxyCount--;
+    }
+
+    /**
+     * Updates the bound of the object.
+     * @return true if the tree changed, false if the bound still fits in
+     * the enlarged box of the leaf
+     */
+    public boolean moveProxy(int proxy, Vector3f min, Vector3f max) {
+        checkProxy(proxy);
+        int b = proxy * 6;
+        if (box[b] <= min.x && box[b + 1] <= min.y && box[b + 2] <= min.z
+                && box[b + 3] >= max.x && box[b + 4] >= max.y && box[b + 5] >= max.z) {
+            return false;
+        }
+
+        boolean overlaps = box[b] <= max.x && box[b + 1] <= max.y && box[b + 2] <= max.z
+                && box[b + 3] >= min.x && box[b + 4] >= min.y && box[b + 5] >= min.z;
+        if (overlaps && refits[proxy] < MAX_REFITS) {
+            // a small move, only the boxes up the tree change
+            refits[proxy]++;
+            setFatBox(proxy, min, max);
+            for (int i = parent[proxy]; i != NULL; i = parent[i]) {
+                union(i, child1[i], child2[i]);
+            }
+        } else {
+            removeLeaf(proxy);
+            setFatBox(proxy, min, max);
+            refits[proxy] = 0;
+            insertLeaf(proxy);
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getItem(int proxy) {
+        checkProxy(proxy);
+        return (T) items[proxy];
+    }
+
+    /**
+     * Stores the enlarged box of the leaf in min and max.
+     */
+    public void getFatBox(int proxy, Vector3f min, Vector3f max) {
+        checkProxy(proxy);
+        int b = proxy * 6;
+        min.set(box[b], box[b + 1], box[b + 2]);
+        max.set(box[b + 3], box[b + 4], box[b + 5]);
+    }
+
+    public int getProxyCount() {
+        return proxyCount;
+    }
+
+    /**
+     * @return the height of the tree, 0 if it is empty or has one object
+     */
+    public int getHeight() {
+        return root == NULL ? 0 : height[root];
+    }
+
+    /**
+     * Removes all objects.
+     */
+    public void clear() {
+        root = NULL;
+        proxyCount = 0;
+        Arrays.fill(items, null);
+        int size = capacity;
+        capacity = 0;
+        grow(size);
+    }
+
+    /**
+     * Visits every object whose leaf box is hit by the ray segment from
+     * origin along direction, up to maxDistance times the length of direction.
+     *
+     * @return the number of objects visited
+     */
+    @SuppressWarnings("unchecked")
+    public int rayQuery(Vector3f origin, Vector3f direction, float maxDistance, Visitor<? super T> visitor) {
+        if (root == NULL) {
+            return 0;
+        }
+        float ox = origin.x, oy = origin.y, oz = origin.z;
+        float ix = 1f / direction.x, iy = 1f / direction.y, iz = 1f / direction.z;
+        int visited = 0;
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int node = stack[--top];
+            if (!rayHitsBox(node * 6, ox, oy, oz, ix, iy, iz, maxDistance)) {
+                continue;
+            }
+            if (child1[node] == NULL) {
+                visited++;
+                if (!visitor.visit(node, (T) items[node])) {
+                    break;
+                }
+            } else {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = child1[node];
+                stack[top++] = child2[node];
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Visits every object whose leaf box overlaps the box from min to max.
+     *
+     * @return the number of objects visited
+     */
+    @SuppressWarnings("unchecked")
+    public int boxQuery(Vector3f min, Vector3f max, Visitor<? super T> visitor) {
+        if (root == NULL) {
+            return 0;
+        }
+        int visited = 0;
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int node = stack[--top];
+            int b = node * 6;
+            if (box[b] > max.x || box[b + 1] > max.y || box[b + 2] > max.z
+                    || box[b + 3] < min.x || box[b + 4] < min.y || box[b + 5] < min.z) {
+                continue;
+            }
+            if (child1[node] == NULL) {
+                visited++;
+                if (!visitor.visit(node, (T) items[node])) {
+                    break;
+                }
+            } else {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = child1[node];
+                stack[top++] = child2[node];
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Visits every object whose leaf box is not completely outside of the
+     * frustum of the camera. A subtree that is completely inside of a
+     * plane is not tested against that plane again, so a subtree inside
+     * of the frustum is visited without any further tests.
+     *
+     * @return the number of objects visited
+     */
+    @SuppressWarnings("unchecked")
+    public int frustumQuery(Camera cam, Visitor<? super T> visitor) {
+        if (root == NULL) {
+            return 0;
+        }
+        for (int i = 0; i < 6; i++) {
+            Plane plane = cam.getWorldPlane(i);
+            Vector3f n = plane.getNormal();
+            planes[i * 4] = n.x;
+            planes[i * 4 + 1] = n.y;
+            planes[i * 4 + 2] = n.z;
+            planes[i * 4 + 3] = plane.getConstant();
+        }
+        if (planeMasks.length < stack.length) {
+            planeMasks = new int[stack.length];
+        }
+        int visited = 0;
+        int top = 0;
+        stack[top] = root;
+        planeMasks[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            int mask = planeMasks[top];
+            if (mask != 0x3F) {
+                mask = testPlanes(node * 6, mask);
+                if (mask < 0) {
+                    continue;
+                }
+            }
+            if (child1[node] == NULL) {
+                visited++;
+                if (!visitor.visit(node, (T) items[node])) {
+                    break;
+                }
+            } else {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                    planeMasks = Arrays.copyOf(planeMasks, stack.length);
+                }
+                stack[top] = child1[node];
+                planeMasks[top++] = mask;
+                stack[top] = child2[node];
+                planeMasks[top++] = mask;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Tests a box against the frustum planes that are not set in mask.
+     *
+     * @return the mask with the planes the box is completely inside of
+     * added, or -1 if the box is completely outside of a plane
+     */
+    private int testPlanes(int b, int mask) {
+        float cx = (box[b] + box[b + 3]) * 0.5f;
+        float cy = (box[b + 1] + box[b + 4]) * 0.5f;
+        float cz = (box[b + 2] + box[b + 5]) * 0.5f;
+        float ex = box[b + 3] - cx;
+        float ey = box[b + 4] - cy;
+        float ez = box[b + 5] - cz;
+        for (int i = 0; i < 6; i++) {
+            int bit = 1 << i;
+            if ((mask & bit) != 0) {
+                continue;
+            }
+            int p = i * 4;
+            float nx = planes[p], ny = planes[p + 1], nz = planes[p + 2];
+            float distance = nx * cx + ny * cy + nz * cz - planes[p + 3];
+            float radius = (nx < 0 ? -nx : nx) * ex + (ny < 0 ? -ny : ny) * ey + (nz < 0 ? -nz : nz) * ez;
+            if (distance < -radius) {
+                return -1;
+            }
+            if (distance > radius) {
+                mask |= bit;
+            }
+        }
+        return mask;
+    }
+
+    private boolean rayHitsBox(int b, float ox, float oy, float oz, float ix, float iy, float iz, float maxDistance) {
+        float tMin = 0;
+        float tMax = maxDistance;
+
+        // a ray parallel to a slab only needs its origin inside of it
+        float t1 = (box[b] - ox) * ix;
+        float t2 = (box[b + 3] - ox) * ix;
+        if (ix == Float.POSITIVE_INFINITY || ix == Float.NEGATIVE_INFINITY) {
+            if (ox < box[b] || ox > box[b + 3]) {
+                return false;
+            }
+        } else {
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+
+        t1 = (box[b + 1] - oy) * iy;
+        t2 = (box[b + 4] - oy) * iy;
+        if (iy == Float.POSITIVE_INFINITY || iy == Float.NEGATIVE_INFINITY) {
+            if (oy < box[b + 1] || oy > box[b + 4]) {
+                return false;
+            }
+        } else {
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+
+        t1 = (box[b + 2] - oz) * iz;
+        t2 = (box[b + 5] - oz) * iz;
+        if (iz == Float.POSITIVE_INFINITY || iz == Float.NEGATIVE_INFINITY) {
+            if (oz < box[b + 2] || oz > box[b + 5]) {
+                return false;
+            }
+        } else {
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+        return tMin <= tMax;
+    }
+
+    private void checkProxy(int proxy) {
+        if (proxy < 0 || proxy >= capacity || height[proxy] != 0 || child1[proxy] != NULL) {
+            throw new IllegalArgumentException("Not a proxy: " + proxy);
+        }
+    }
+
+    private void setFatBox(int node, Vector3f min, Vector3f max) {
+        float extent = Math.max(max.x - min.x, Math.max(max.y - min.y, max.z - min.z));
+        float m = extent * margin;
+        int b = node * 6;
+        box[b] = min.x - m;
+        box[b + 1] = min.y - m;
+        box[b + 2] = min.z - m;
+        box[b + 3] = max.x + m;
+        box[b + 4] = max.y + m;
+        box[b + 5] = max.z + m;
+    }
+
+    private void grow(int newCapacity) {
+        box = box == null ? new float[newCapacity * 6] : Arrays.copyOf(box, newCapacity * 6);
+        parent = parent == null ? new int[newCapacity] : Arrays.copyOf(parent, newCapacity);
+        child1 = child1 == null ? new int[newCapacity] : Arrays.copyOf(child1, newCapacity);
+        child2 = child2 == null ? new int[newCapacity] : Arrays.copyOf(child2, newCapacity);
+        height = height == null ? new int[newCapacity] : Arrays.copyOf(height, newCapacity);
+        refits = refits == null ? new int[newCapacity] : Arrays.copyOf(refits, newCapacity);
+        items = items == null ? new Object[newCapacity] : Arrays.copyOf(items, newCapacity);
+
+        // link the new nodes into the free list
+        for (int i = capacity; i < newCapacity; i++) {
+            parent[i] = i + 1 < newCapacity ? i + 1 : NULL;
+            child1[i] = NULL;
+            child2[i] = NULL;
+            height[i] = -1;
+        }
+        freeList = capacity;
+        capacity = newCapacity;
+    }
+
+    private int allocateNode() {
+        if (freeList == NULL) {
+            grow(capacity * 2);
+        }
+        int node = freeList;
+        freeList = parent[node];
+        parent[node] = NULL;
+        child1[node] = NULL;
+        child2[node] = NULL;
+        height[node] = 0;
+        refits[node] = 0;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        items[node] = null;
+        child1[node] = NULL;
+        child2[node] = NULL;
+        height[node] = -1;
+        parent[node] = freeList;
+        freeList = node;
+    }
+
+    private float area(int node) {
+        int b = node * 6;
+        float dx = box[b + 3] - box[b];
+        float dy = box[b + 4] - box[b + 1];
+        float dz = box[b + 5] - box[b + 2];
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    private float unionArea(int n1, int n2) {
+        int a = n1 * 6, b = n2 * 6;
+        float dx = Math.max(box[a + 3], box[b + 3]) - Math.min(box[a], box[b]);
+        float dy = Math.max(box[a + 4], box[b + 4]) - Math.min(box[a + 1], box[b + 1]);
+        float dz = Math.max(box[a + 5], box[b + 5]) - Math.min(box[a + 2], box[b + 2]);
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    /**
+     * Sets the box of target to the union of the boxes of n1 and n2.
+     */
+    private void union(int target, int n1, int n2) {
+        int t = target * 6, a = n1 * 6, b = n2 * 6;
+        box[t] = Math.min(box[a], box[b]);
+        box[t + 1] = Math.min(box[a + 1], box[b + 1]);
+        box[t + 2] = Math.min(box[a + 2], box[b + 2]);
+        box[t + 3] = Math.max(box[a + 3], box[b + 3]);
+        box[t + 4] = Math.max(box[a + 4], box[b + 4]);
+        box[t + 5] = Math.max(box[a + 5], box[b + 5]);
+    }
+
+    private void insertLeaf(int leaf) {
+        if (root == NULL) {
+            root = leaf;
+            parent[leaf] = NULL;
+            return;
+        }
+
+        // find the best sibling, by the surface area the insertion adds
+        int index = root;
+        while (child1[index] != NULL) {
+            int c1 = child1[index];
+            int c2 = child2[index];
+
+            float area = area(index);
+            float combinedArea = unionArea(index, leaf);
+
+            // cost of creating a new parent for this node and the leaf
+            float cost = 2 * combinedArea;
+            // cost of pushing the leaf further down the tree
+            float inheritanceCost = 2 * (combinedArea - area);
+
+            float cost1 = unionArea(leaf, c1) + inheritanceCost;
+            if (child1[c1] != NULL) {
+                cost1 -= area(c1);
+            }
+            float cost2 = unionArea(leaf, c2) + inheritanceCost;
+            if (child1[c2] != NULL) {
+                cost2 -= area(c2);
+            }
+
+            if (cost < cost1 && cost < cost2) {
+                break;
+            }
+            index = cost1 < cost2 ? c1 : c2;
+        }
+
+        int sibling = index;
+        int oldParent = parent[sibling];
+        int newParent = allocateNode();
+        parent[newParent] = oldParent;
+        items[newParent] = null;
+        union(newParent, leaf, sibling);
+        height[newParent] = height[sibling] + 1;
+        child1[newParent] = sibling;
+        child2[newParent] = leaf;
+        parent[sibling] = newParent;
+        parent[leaf] = newParent;
+
+        if (oldParent != NULL) {
+            if (child1[oldParent] == sibling) {
+                child1[oldParent] = newParent;
+            } else {
+                child2[oldParent] = newParent;
+            }
+        } else {
+            root = newParent;
+        }
+
+        fixUpwards(parent[leaf]);
+    }
+
+    private void removeLeaf(int leaf) {
+        if (leaf == root) {
+            root = NULL;
+            return;
+        }
+
+        int p = parent[leaf];
+        int grandParent = parent[p];
+        int sibling = child1[p] == leaf ? child2[p] : child1[p];
+
+        if (grandParent != NULL) {
+            if (child1[grandParent] == p) {
+                child1[grandParent] = sibling;
+            } else {
+                child2[grandParent] = sibling;
+            }
+            parent[sibling] = grandParent;
+            freeNode(p);
+            fixUpwards(grandParent);
+        } else {
+            root = sibling;
+            parent[sibling] = NULL;
+            freeNode(p);
+        }
+        parent[leaf] = NULL;
+    }
+
+    /**
+     * Rebalances and recomputes the boxes and heights from the node
+     * up to the root.
+     */
+    private void fixUpwards(int index) {
+        while (index != NULL) {
+            index = balance(index);
+            int c1 = child1[index];
+            int c2 = child2[index];
+            height[index] = 1 + Math.max(height[c1], height[c2]);
+            union(index, c1, c2);
+            index = parent[index];
+        }
+    }
+
+    /**
+     * Rotates the subtree at a if its children's heights differ by more
+     * than one.
+     * @return the new root of the subtree
+     */
+    private int balance(int a) {
+        if (child1[a] == NULL || height[a] < 2) {
+            return a;
+        }
+
+        int b = child1[a];
+        int c = child2[a];
+        int diff = height[c] - height[b];
+
+        if (diff > 1) {
+            // rotate c up
+            int f = child1[c];
+            int g = child2[c];
+            child1[c] = a;
+            parent[c] = parent[a];
+            parent[a] = c;
+            replaceChild(parent[c], a, c);
+
+            if (height[f] > height[g]) {
+                child2[c] = f;
+                child2[a] = g;
+                parent[g] = a;
+                union(a, b, g);
+                union(c, a, f);
+                height[a] = 1 + Math.max(height[b], height[g]);
+                height[c] = 1 + Math.max(height[a], height[f]);
+            } else {
+                child2[c] = g;
+                child2[a] = f;
+                parent[f] = a;
+                union(a, b, f);
+                union(c, a, g);
+                height[a] = 1 + Math.max(height[b], height[f]);
+                height[c] = 1 + Math.max(height[a], height[g]);
+            }
+            return c;
+        }
+
+        if (diff < -1) {
+            // rotate b up
+            int d = child1[b];
+            int e = child2[b];
+            child1[b] = a;
+            parent[b] = parent[a];
+            parent[a] = b;
+            replaceChild(parent[b], a, b);
+
+            if (height[d] > height[e]) {
+                child2[b] = d;
+                child1[a] = e;
+                parent[e] = a;
+                union(a, c, e);
+                union(b, a, d);
+                height[a] = 1 + Math.max(height[c], height[e]);
+                height[b] = 1 + Math.max(height[a], height[d]);
+            } else {
+                child2[b] = e;
+                child1[a] = d;
+                parent[d] = a;
+                union(a, c, d);
+                union(b, a, e);
+                height[a] = 1 + Math.max(height[c], height[d]);
+                height[b] = 1 + Math.max(height[a], height[e]);
+            }
+            return b;
+        }
+
+        return a;
+    }
+
+    private void replaceChild(int p, int oldChild, int newChild) {
+        if (p == NULL) {
+            root = newChild;
+        } else if (child1[p] == oldChild) {
+            child1[p] = newChild;
+        } else {
+            child2[p] = newChild;
+        }
+    }
+}
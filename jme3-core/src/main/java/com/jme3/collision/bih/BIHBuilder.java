@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.collision.bih;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds a {@link BIHTree} with binned surface area heuristic splits
+ * into a flat node layout.
+ * <p>
+ * Each node takes 3 ints and 2 floats. The ints are the split axis,
+ * or 3 for a leaf, followed by the indices of the left and right
+ * children, or for a leaf the first and last triangle. The floats are
+ * the left and right planes. Nodes are stored depth first, the
+ * root is node 0.
+ * <p>
+ * Large subtrees are built in parallel on a fork join pool, each
+ * into its own arrays, which are copied together once at the end.
+ */
+final class BIHBuilder {
+
+    /**
+     * Number of bins per axis the split candidates are evaluated on.
+     */
+    private static final int BINS = 16;
+
+    /**
+     * Subtrees with fewer triangles are built by a single task.
+     */
+    private static final int PARALLEL_THRESHOLD = 8192;
+
+    private final float[] points;
+    private final int[] indices;
+    private final int maxTrisPerNode;
+    private int[] nodes;
+    private float[] planes;
+
+    BIHBuilder(float[] points, int[] indices, int maxTrisPerNode) {
+        this.points = points;
+        this.indices = indices;
+        this.maxTrisPerNode = maxTrisPerNode;
+    }
+
+    /**
+     * Builds the tree, reordering the triangles.
+     *
+     * @param pool the pool to build on, or null to build on the calling thread
+     */
+    void build(int numTris, ForkJoinPool pool) {
+        float[] centroids = new float[6];
+        centroidBounds(0, numTris - 1, centroids);
+
+        Fragment tree;
+        if (pool == null || numTris <= PARALLEL_THRESHOLD) {
+            Scratch s = new Scratch();
+            System.arraycopy(centroids, 0, s.centroids, 0, 6);
+            tree = new Fragment();
+            buildSerial(tree, 0, numTris - 1, 0, 0, s);
+        } else {
+            tree = pool.invoke(new BuildTask(0, numTris - 1, 0, centroids));
+        }
+
+        int size = tree.size();
+        nodes = new int[size * 3];
+        planes = new float[size * 2];
+        flatten(tree, 0);
+    }
+
+    int[] getNodes() {
+        return nodes;
+    }
+
+    float[] getPlanes() {
+        return planes;
+    }
+
+    /**
+     * A part of the tree. Either a subtree built by one task, in
+     * depth first order with indices relative to the fragment, or a
+     * node that was split in parallel with two child fragments.
+     */
+    private static final class Fragment {
+        int[] nodes;
+        float[] planes;
+        int count;
+
+        Fragment left, right;
+        int axis;
+        float leftPlane, rightPlane;
+
+        Fragment() {
+            nodes = new int[3 * 64];
+            planes = new float[2 * 64];
+        }
+
+        Fragment(int axis, float leftPlane, float rightPlane) {
+            this.axis = axis;
+            this.leftPlane = leftPlane;
+            this.rightPlane = rightPlane;
+        }
+
+        int alloc() {
+            if (count * 3 == nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+                planes = Arrays.copyOf(planes, planes.length * 2);
+            }
+            return count++;
+        }
+
+        void set(int node, int axis, int a, int b, float leftPlane, float rightPlane) {
+            nodes[node * 3] = axis;
+            nodes[node * 3 + 1] = a;
+            nodes[node * 3 + 2] = b;
+            planes[node * 2] = leftPlane;
+            planes[node * 2 + 1] = rightPlane;
+        }
+
+        int size() {
+            return left == null ? count : 1 + left.size() + right.size();
+        }
+    }
+
+    /**
+     * Per task split state, so nothing is allocated for each node.
+     */
+    private static final class Scratch {
+        final int[] counts = new int[BINS];
+        // min x, y, z and max x, y, z of the triangles in each bin
+        final float[] bounds = new float[BINS * 6];
+        final float[] rightArea = new float[BINS];
+        final float[] box = new float[6];
+
+        // centroid bounds of the nodes being built, the children of a
+        // node at depth d are stored at d + 1, left then right
+        final float[] centroids = new float[(BIHTree.MAX_TREE_DEPTH + 3) * 12];
+
+        // the result of findSplit
+        int axis;
+        int pivot;
+        float leftPlane;
+        float rightPlane;
+    }
+
+    private final class BuildTask extends RecursiveTask<Fragment> {
+        private final int l, r, depth;
+        private final float[] centroids;
+
+        BuildTask(int l, int r, int depth, float[] centroids) {
+            this.l = l;
+            this.r = r;
+            this.depth = depth;
+            this.centroids = centroids;
+        }
+
+        @Override
+        protected Fragment compute() {
+            Scratch s = new Scratch();
+            int in = depth * 12;
+            System.arraycopy(centroids, 0, s.centroids, in, 6);
+            if (r - l + 1 <= PARALLEL_THRESHOLD || depth > BIHTree.MAX_TREE_DEPTH) {
+                Fragment f = new Fragment();
+                buildSerial(f, l, r, depth, in, s);
+                return f;
+            }
+
+            findSplit(l, r, depth, in, s);
+            Fragment f = new Fragment(s.axis, s.leftPlane, s.rightPlane);
+            int out = (depth + 1) * 12;
+            BuildTask leftTask = new BuildTask(l, s.pivot - 1, depth + 1,
+                    Arrays.copyOfRange(s.centroids, out, out + 6));
+            leftTask.fork();
+            f.right = new BuildTask(s.pivot, r, depth + 1,
+                    Arrays.copyOfRange(s.centroids, out + 6, out + 12)).compute();
+            f.left = leftTask.join();
+            return f;
+        }
+    }
+
+    private int buildSerial(Fragment f, int l, int r, int depth, int in, Scratch s) {
+        int node = f.alloc();
+        if ((r - l) < maxTrisPerNode || depth > BIHTree.MAX_TREE_DEPTH) {
+            f.set(node, 3, l, r, 0, 0);
+            return node;
+        }
+
+        findSplit(l, r, depth, in, s);
+        int axis = s.axis;
+        int pivot = s.pivot;
+        float leftPlane = s.leftPlane;
+        float rightPlane = s.rightPlane;
+
+        int out = (depth + 1) * 12;
+        int left = buildSerial(f, l, pivot - 1, depth + 1, out, s);
+        int right = buildSerial(f, pivot, r, depth + 1, out + 6, s);
+        f.set(node, axis, left, right, leftPlane, rightPlane);
+        return node;
+    }
+
+    /**
+     * Copies the fragment into the final arrays at the given node index.
+     * @return the index after the last node copied
+     */
+    private int flatten(Fragment f, int base) {
+        if (f.left == null) {
+            System.arraycopy(f.nodes, 0, nodes, base * 3, f.count * 3);
+            System.arraycopy(f.planes, 0, planes, base * 2, f.count * 2);
+            for (int i = base; i < base + f.count; i++) {
+                if (nodes[i * 3] != 3) {
+                    nodes[i * 3 + 1] += base;
+                    nodes[i * 3 + 2] += base;
+                }
+            }
+            return base + f.count;
+        }
+
+        int left = base + 1;
+        int right = flatten(f.left, left);
+        int end = flatten(f.right, right);
+        nodes[base * 3] = f.axis;
+        nodes[base * 3 + 1] = left;
+        nodes[base * 3 + 2] = right;
+        planes[base * 2] = f.leftPlane;
+        planes[base * 2 + 1] = f.rightPlane;
+        return end;
+    }
+
+    /**
+     * Stores the bounds of three times the centroids of the triangles
+     * from l to r.
+     */
+    private void centroidBounds(int l, int r, float[] store) {
+        resetBox(store, 0);
+        for (int i = l; i <= r; i++) {
+            int p = i * 9;
+            for (int k = 0; k < 3; k++) {
+                float c = points[p + k] + points[p + 3 + k] + points[p + 6 + k];
+                if (c < store[k]) store[k] = c;
+                if (c > store[k + 3]) store[k + 3] = c;
+            }
+        }
+    }
+
+    private static float area(float[] box) {
+        float dx = box[3] - box[0];
+        float dy = box[4] - box[1];
+        float dz = box[5] - box[2];
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    private static void resetBox(float[] box, int offset) {
+        box[offset] = box[offset + 1] = box[offset + 2] = Float.POSITIVE_INFINITY;
+        box[offset + 3] = box[offset + 4] = box[offset + 5] = Float.NEGATIVE_INFINITY;
+    }
+
+    private static void growBox(float[] box, float[] bounds, int offset) {
+        for (int k = 0; k < 3; k++) {
+            if (bounds[offset + k] < box[k]) box[k] = bounds[offset + k];
+            if (bounds[offset + k + 3] > box[k + 3]) box[k + 3] = bounds[offset + k + 3];
+        }
+    }
+
+    /**
+     * Finds the split of the triangles from l to r with the lowest surface
+     * area cost along the axis the centroids spread the most on and
+     * partitions them. Stores the axis, the index of the first triangle on
+     * the right and the planes in the scratch, and the centroid bounds of
+     * both sides for the next depth.
+     *
+     * @param in the offset of the centroid bounds of the triangles
+     */
+    private void findSplit(int l, int r, int depth, int in, Scratch s) {
+        float[] centroids = s.centroids;
+        int axis = 0;
+        float extent = centroids[in + 3] - centroids[in];
+        for (int k = 1; k < 3; k++) {
+            float e = centroids[in + 3 + k] - centroids[in + k];
+            if (e > extent) {
+                axis = k;
+                extent = e;
+            }
+        }
+
+        int out = (depth + 1) * 12;
+        if (extent <= 0) {
+            // all centroids are the same, split in the middle
+            splitMiddle(l, r, s);
+            System.arraycopy(centroids, in, centroids, out, 6);
+            System.arraycopy(centroids, in, centroids, out + 6, 6);
+            return;
+        }
+
+        float axisMin = centroids[in + axis];
+        float scale = BINS / extent;
+        int[] counts = s.counts;
+        float[] bounds = s.bounds;
+        Arrays.fill(counts, 0);
+        for (int b = 0; b < BINS; b++) {
+            resetBox(bounds, b * 6);
+        }
+
+        for (int i = l; i <= r; i++) {
+            int p = i * 9;
+            float c = points[p + axis] + points[p + 3 + axis] + points[p + 6 + axis];
+            int b = (int) ((c - axisMin) * scale);
+            if (b >= BINS) {
+                b = BINS - 1;
+            }
+            counts[b]++;
+            int o = b * 6;
+            for (int k = 0; k < 3; k++) {
+                float v1 = points[p + k], v2 = points[p + 3 + k], v3 = points[p + 6 + k];
+                float min = v1 < v2 ? v1 : v2;
+                float max = v1 < v2 ? v2 : v1;
+                if (v3 < min) min = v3;
+                if (v3 > max) max = v3;
+                if (min < bounds[o + k]) bounds[o + k] = min;
+                if (max > bounds[o + k + 3]) bounds[o + k + 3] = max;
+            }
+        }
+
+        // sweep the bins for the cheapest split
+        float[] box = s.box;
+        resetBox(box, 0);
+        for (int b = BINS - 1; b > 0; b--) {
+            if (counts[b] > 0) {
+                growBox(box, bounds, b * 6);
+            }
+            s.rightArea[b] = area(box);
+        }
+
+        float bestCost = Float.POSITIVE_INFINITY;
+        int bestBin = -1;
+        resetBox(box, 0);
+        int leftCount = 0;
+        int total = r - l + 1;
+        for (int b = 0; b < BINS - 1; b++) {
+            if (counts[b] > 0) {
+                growBox(box, bounds, b * 6);
+                leftCount += counts[b];
+            }
+            int rightCount = total - leftCount;
+            if (leftCount == 0 || rightCount == 0) {
+                continue;
+            }
+            float cost = area(box) * leftCount + s.rightArea[b + 1] * rightCount;
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestBin = b;
+            }
+        }
+
+        // partition the same way the triangles were binned, keeping
+        // track of the centroid bounds of each side
+        resetBox(centroids, out);
+        resetBox(centroids, out + 6);
+        int i = l;
+        int j = r;
+        while (i <= j) {
+            int p = i * 9;
+            float c = points[p + axis] + points[p + 3 + axis] + points[p + 6 + axis];
+            int side;
+            if ((int) ((c - axisMin) * scale) <= bestBin) {
+                side = out;
+                i++;
+            } else {
+                side = out + 6;
+                swap(i, j);
+                p = j * 9;
+                j--;
+            }
+            for (int k = 0; k < 3; k++) {
+                float ck = points[p + k] + points[p + 3 + k] + points[p + 6 + k];
+                if (ck < centroids[side + k]) centroids[side + k] = ck;
+                if (ck > centroids[side + k + 3]) centroids[side + k + 3] = ck;
+            }
+        }
+
+        float leftPlane = Float.NEGATIVE_INFINITY;
+        float rightPlane = Float.POSITIVE_INFINITY;
+        for (int b = 0; b < BINS; b++) {
+            if (counts[b] == 0) {
+                continue;
+            }
+            if (b <= bestBin) {
+                leftPlane = Math.max(leftPlane, bounds[b * 6 + 3 + axis]);
+            } else {
+                rightPlane = Math.min(rightPlane, bounds[b * 6 + axis]);
+            }
+        }
+
+        s.axis = axis;
+        s.pivot = i;
+        s.leftPlane = leftPlane;
+        s.rightPlane = rightPlane;
+    }
+
+    private void splitMiddle(int l, int r, Scratch s) {
+        int pivot = (l + r + 1) / 2;
+        float leftPlane = Float.NEGATIVE_INFINITY;
+        float rightPlane = Float.POSITIVE_INFINITY;
+        for (int i = l; i <= r; i++) {
+            int p = i * 9;
+            if (i < pivot) {
+                leftPlane = Math.max(leftPlane, Math.max(points[p], Math.max(points[p + 3], points[p + 6])));
+            } else {
+                rightPlane = Math.min(rightPlane, Math.min(points[p], Math.min(points[p + 3], points[p + 6])));
+            }
+        }
+        s.axis = 0;
+        s.pivot = pivot;
+        s.leftPlane = leftPlane;
+        s.rightPlane = rightPlane;
+    }
+
+    private void swap(int index1, int index2) {
+        int p1 = index1 * 9;
+        int p2 = index2 * 9;
+        for (int k = 0; k < 9; k++) {
+            float tmp = points[p1 + k];
+            points[p1 + k] = points[p2 + k];
+            points[p2 + k] = tmp;
+        }
+        int tmp = indices[index1];
+        indices[index1] = indices[index2];
+        indices[index2] = tmp;
+    }
+}
@@ -111,6 +111,37 @@ public final class BIHNode implements Savable {
         this.rightPlane = rightPlane;
     }
 
+    /**
+     * @return the number of nodes in this subtree
+     */
+    int countNodes() {
+        return axis == 3 ? 1 : 1 + left.countNodes() + right.countNodes();
+    }
+
+    /**
+     * Stores this subtree in the flat layout {@link BIHBuilder} builds,
+     * starting at the given node index.
+     *
+     * @return the index after the last node stored
+     */
+    int flatten(int[] nodes, float[] planes, int index) {
+        nodes[index * 3] = axis;
+        if (axis == 3) {
+            nodes[index * 3 + 1] = leftIndex;
+            nodes[index * 3 + 2] = rightIndex;
+            return index + 1;
+        }
+
+        int leftNode = index + 1;
+        int rightNode = left.flatten(nodes, planes, leftNode);
+        int end = right.flatten(nodes, planes, rightNode);
+        nodes[index * 3 + 1] = leftNode;
+        nodes[index * 3 + 2] = rightNode;
+        planes[index * 2] = leftPlane;
+        planes[index * 2 + 1] = rightPlane;
+        return end;
+    }
+
     public void write(JmeExporter ex) throws IOException {
         OutputCapsule oc = ex.getCapsule(this);
         oc.write(leftIndex, "left_index", 0);
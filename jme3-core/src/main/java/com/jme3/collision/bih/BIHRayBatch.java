@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.collision.bih;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Matrix4f;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the closest hits of many rays against a {@link BIHTree}.
+ * <p>
+ * Consecutive rays are traced in packets: every node is visited once
+ * for the whole packet, testing the splits against each ray still
+ * inside it, and every triangle of a leaf is loaded once and tested
+ * against all of those rays. Rays are transformed into mesh space,
+ * where the direction keeps the world scale so distances along it stay
+ * world distances.
+ */
+final class BIHRayBatch {
+
+    /**
+     * Rays traced together.
+     */
+    static final int PACKET = 8;
+
+    /**
+     * Rays traced by one fork join task.
+     */
+    private static final int CHUNK = 256;
+
+    private static final int STACK = BIHTree.MAX_TREE_DEPTH + 2;
+
+    private final int[] nodes;
+    private final float[] planes;
+    private final float[] points;
+    private final int[] indices;
+    private final float[] bounds;
+    // rows of the inverse world matrix
+    private final float[] inv = new float[12];
+
+    private final float[] origins;
+    private final float[] directions;
+    private final float[] maxDistances;
+    private final int[] triangleIndices;
+    private final float[] distances;
+    private final float[] contactPoints;
+
+    BIHRayBatch(int[] nodes, float[] planes, float[] points, int[] indices, float[] bounds,
+            Matrix4f worldMatrix, float[] origins, float[] directions, float[] maxDistances,
+            int[] triangleIndices, float[] distances, float[] contactPoints) {
+        this.nodes = nodes;
+        this.planes = planes;
+        this.points = points;
+        this.indices = indices;
+        this.bounds = bounds;
+        this.origins = origins;
+        this.directions = directions;
+        this.maxDistances = maxDistances;
+        this.triangleIndices = triangleIndices;
+        this.distances = distances;
+        this.contactPoints = contactPoints;
+
+        Matrix4f m = worldMatrix == null ? new Matrix4f() : worldMatrix.invert();
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 4; col++) {
+                inv[row * 4 + col] = m.get(row, col);
+            }
+        }
+    }
+
+    /**
+     * Traces the rays from 0 to count.
+     *
+     * @param pool the pool to trace on, or null to trace on the calling thread
+     * @return the number of rays that hit
+     */
+    int trace(int count, ForkJoinPool pool) {
+        if (pool == null || count <= CHUNK) {
+            new Packet().trace(0, count);
+        } else {
+            pool.invoke(new TraceTask(0, count));
+        }
+
+        int hits = 0;
+        for (int i = 0; i < count; i++) {
+            if (triangleIndices[i] >= 0) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    private final class TraceTask extends RecursiveAction {
+        private final int from, to;
+
+        TraceTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK) {
+                new Packet().trace(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TraceTask(from, mid), new TraceTask(mid, to));
+        }
+    }
+
+    /**
+     * The state of one packet, reused for all the packets of a task.
+     */
+    private final class Packet {
+        // mesh space origins, directions and inverse directions,
+        // x, y and z for each ray
+        final float[] o = new float[PACKET * 3];
+        final float[] d = new float[PACKET * 3];
+        final float[] invD = new float[PACKET * 3];
+        final float[] best = new float[PACKET];
+        final int[] hit = new int[PACKET];
+
+        final float[] tMin = new float[PACKET];
+        final float[] tMax = new float[PACKET];
+        final float[] leftMin = new float[PACKET];
+        final float[] leftMax = new float[PACKET];
+        final float[] rightMin = new float[PACKET];
+        final float[] rightMax = new float[PACKET];
+
+        final int[] stackNodes = new int[STACK];
+        final float[] stackMin = new float[STACK * PACKET];
+        final float[] stackMax = new float[STACK * PACKET];
+
+        void trace(int from, int to) {
+            for (int first = from; first < to; first += PACKET) {
+                int n = Math.min(PACKET, to - first);
+                if (setup(first, n)) {
+                    traverse(n);
+                }
+                store(first, n);
+            }
+        }
+
+        /**
+         * Transforms the rays into mesh space and clips them against the
+         * bounds of the mesh.
+         *
+         * @return true if any ray enters the bounds
+         */
+        boolean setup(int first, int n) {
+            boolean any = false;
+            for (int k = 0; k < n; k++) {
+                int i = (first + k) * 3;
+                float dx = directions[i], dy = directions[i + 1], dz = directions[i + 2];
+                float length = FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+                float max = maxDistances == null ? Float.POSITIVE_INFINITY : maxDistances[first + k];
+                hit[k] = -1;
+                best[k] = max;
+                tMin[k] = 0;
+                tMax[k] = max;
+                if (length == 0) {
+                    tMin[k] = Float.POSITIVE_INFINITY;
+                    continue;
+                }
+                dx /= length;
+                dy /= length;
+                dz /= length;
+                float ox = origins[i], oy = origins[i + 1], oz = origins[i + 2];
+
+                for (int a = 0; a < 3; a++) {
+                    float origin = inv[a * 4] * ox + inv[a * 4 + 1] * oy + inv[a * 4 + 2] * oz + inv[a * 4 + 3];
+                    float dir = inv[a * 4] * dx + inv[a * 4 + 1] * dy + inv[a * 4 + 2] * dz;
+                    o[k * 3 + a] = origin;
+                    d[k * 3 + a] = dir;
+                    invD[k * 3 + a] = 1f / dir;
+
+                    // slab test against the bounds
+                    float t1 = (bounds[a] - origin) * invD[k * 3 + a];
+                    float t2 = (bounds[a + 3] - origin) * invD[k * 3 + a];
+                    if (t1 > t2) {
+                        float tmp = t1;
+                        t1 = t2;
+                        t2 = tmp;
+                    }
+                    if (t1 > tMin[k]) {
+                        tMin[k] = t1;
+                    }
+                    if (t2 < tMax[k]) {
+                        tMax[k] = t2;
+                    }
+                }
+                if (tMin[k] <= tMax[k]) {
+                    any = true;
+                }
+            }
+            return any;
+        }
+
+        void traverse(int n) {
+            int top = 0;
+            stackNodes[0] = 0;
+            System.arraycopy(tMin, 0, stackMin, 0, n);
+            System.arraycopy(tMax, 0, stackMax, 0, n);
+            top++;
+
+            stackloop:
+            while (top > 0) {
+                top--;
+                int node = stackNodes[top];
+                boolean any = false;
+                for (int k = 0; k < n; k++) {
+                    tMin[k] = stackMin[top * PACKET + k];
+                    tMax[k] = Math.min(stackMax[top * PACKET + k], best[k]);
+                    any |= tMin[k] <= tMax[k];
+                }
+                if (!any) {
+                    continue;
+                }
+
+                while (nodes[node * 3] != 3) {
+                    int a = nodes[node * 3];
+                    float leftPlane = planes[node * 2];
+                    float rightPlane = planes[node * 2 + 1];
+
+                    boolean anyLeft = false, anyRight = false;
+                    int nearSign = 0;
+                    for (int k = 0; k < n; k++) {
+                        float min = tMin[k], max = tMax[k];
+                        if (min > max) {
+                            leftMin[k] = rightMin[k] = Float.POSITIVE_INFINITY;
+                            leftMax[k] = rightMax[k] = Float.NEGATIVE_INFINITY;
+                            continue;
+                        }
+                        float origin = o[k * 3 + a];
+                        float invDirection = invD[k * 3 + a];
+                        float tLeft = (leftPlane - origin) * invDirection;
+                        float tRight = (rightPlane - origin) * invDirection;
+                        // the comparisons keep the whole interval when
+                        // the ray runs along the plane and t is NaN
+                        if (invDirection >= 0) {
+                            // left is below the left plane, so before it
+                            leftMin[k] = min;
+                            leftMax[k] = tLeft < max ? tLeft : max;
+                            rightMin[k] = tRight > min ? tRight : min;
+                            rightMax[k] = max;
+                        } else {
+                            leftMin[k] = tLeft > min ? tLeft : min;
+                            leftMax[k] = max;
+                            rightMin[k] = min;
+                            rightMax[k] = tRight < max ? tRight : max;
+                        }
+                        anyLeft |= leftMin[k] <= leftMax[k];
+                        anyRight |= rightMin[k] <= rightMax[k];
+                        if (nearSign == 0) {
+                            nearSign = invDirection >= 0 ? 1 : -1;
+                        }
+                    }
+
+                    int leftNode = nodes[node * 3 + 1];
+                    int rightNode = nodes[node * 3 + 2];
+                    if (anyLeft && anyRight) {
+                        // visit the side the packet reaches first, the
+                        // hits found there shorten the rays for the other
+                        boolean leftFirst = nearSign >= 0;
+                        float[] farMin = leftFirst ? rightMin : leftMin;
+                        float[] farMax = leftFirst ? rightMax : leftMax;
+                        stackNodes[top] = leftFirst ? rightNode : leftNode;
+                        System.arraycopy(farMin, 0, stackMin, top * PACKET, n);
+                        System.arraycopy(farMax, 0, stackMax, top * PACKET, n);
+                        top++;
+                        node = leftFirst ? leftNode : rightNode;
+                        System.arraycopy(leftFirst ? leftMin : rightMin, 0, tMin, 0, n);
+                        System.arraycopy(leftFirst ? leftMax : rightMax, 0, tMax, 0, n);
+                    } else if (anyLeft) {
+                        node = leftNode;
+                        System.arraycopy(leftMin, 0, tMin, 0, n);
+                        System.arraycopy(leftMax, 0, tMax, 0, n);
+                    } else if (anyRight) {
+                        node = rightNode;
+                        System.arraycopy(rightMin, 0, tMin, 0, n);
+                        System.arraycopy(rightMax, 0, tMax, 0, n);
+                    } else {
+                        continue stackloop;
+                    }
+                }
+
+                for (int i = nodes[node * 3 + 1]; i <= nodes[node * 3 + 2]; i++) {
+                    intersect(i, n);
+                }
+            }
+        }
+
+        /**
+         * Tests the triangle against the rays of the packet inside the
+         * current leaf, the same way as {@link com.jme3.math.Ray#intersects}.
+         */
+        void intersect(int tri, int n) {
+            int p = tri * 9;
+            float v0x = points[p], v0y = points[p + 1], v0z = points[p + 2];
+            float edge1X = points[p + 3] - v0x;
+            float edge1Y = points[p + 4] - v0y;
+            float edge1Z = points[p + 5] - v0z;
+            float edge2X = points[p + 6] - v0x;
+            float edge2Y = points[p + 7] - v0y;
+            float edge2Z = points[p + 8] - v0z;
+
+            float normX = ((edge1Y * edge2Z) - (edge1Z * edge2Y));
+            float normY = ((edge1Z * edge2X) - (edge1X * edge2Z));
+            float normZ = ((edge1X * edge2Y) - (edge1Y * edge2X));
+
+            for (int k = 0; k < n; k++) {
+                if (tMin[k] > tMax[k]) {
+                    continue;
+                }
+                float dirX = d[k * 3], dirY = d[k * 3 + 1], dirZ = d[k * 3 + 2];
+                float dirDotNorm = dirX * normX + dirY * normY + dirZ * normZ;
+
+                float sign;
+                if (dirDotNorm > FastMath.FLT_EPSILON) {
+                    sign = 1;
+                } else if (dirDotNorm < -FastMath.FLT_EPSILON) {
+                    sign = -1f;
+                    dirDotNorm = -dirDotNorm;
+                } else {
+                    // ray and triangle are parallel
+                    continue;
+                }
+
+                float diffX = o[k * 3] - v0x;
+                float diffY = o[k * 3 + 1] - v0y;
+                float diffZ = o[k * 3 + 2] - v0z;
+
+                float dirDotDiffxEdge2 = sign * (dirX * ((diffY * edge2Z) - (diffZ * edge2Y))
+                        + dirY * ((diffZ * edge2X) - (diffX * edge2Z))
+                        + dirZ * ((diffX * edge2Y) - (diffY * edge2X)));
+                if (dirDotDiffxEdge2 < 0.0f) {
+                    continue;
+                }
+
+                float dirDotEdge1xDiff = sign * (dirX * ((edge1Y * diffZ) - (edge1Z * diffY))
+                        + dirY * ((edge1Z * diffX) - (edge1X * diffZ))
+                        + dirZ * ((edge1X * diffY) - (edge1Y * diffX)));
+                if (dirDotEdge1xDiff < 0.0f || dirDotDiffxEdge2 + dirDotEdge1xDiff > dirDotNorm) {
+                    continue;
+                }
+
+                float diffDotNorm = -sign * (diffX * normX + diffY * normY + diffZ * normZ);
+                if (diffDotNorm >= 0.0f) {
+                    float t = diffDotNorm / dirDotNorm;
+                    if (t < best[k] || (hit[k] < 0 && t == best[k])) {
+                        best[k] = t;
+                        hit[k] = tri;
+                        if (t < tMax[k]) {
+                            tMax[k] = t;
+                        }
+                    }
+                }
+            }
+        }
+
+        void store(int first, int n) {
+            for (int k = 0; k < n; k++) {
+                int i = first + k;
+                if (hit[k] < 0) {
+                    triangleIndices[i] = -1;
+                    distances[i] = Float.POSITIVE_INFINITY;
+                    continue;
+                }
+                float t = best[k];
+                triangleIndices[i] = indices[hit[k]];
+                distances[i] = t;
+                if (contactPoints != null) {
+                    float dx = directions[i * 3], dy = directions[i * 3 + 1], dz = directions[i * 3 + 2];
+                    float scale = t / FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+                    contactPoints[i * 3] = origins[i * 3] + dx * scale;
+                    contactPoints[i * 3 + 1] = origins[i * 3 + 1] + dy * scale;
+                    contactPoints[i * 3 + 2] = origins[i * 3 + 2] + dz * scale;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.effect;
+
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Vector3f;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <code>ParticleData</code> keeps the particles of a {@link ParticleEmitter}
+ * in parallel primitive arrays, one array per component, instead of an
+ * array of {@link Particle} objects.
+ * <p>
+ * The live particles are packed at the start of the arrays, from index 0
+ * to {@link #size()}. When a particle dies the last live particle is moved
+ * into its place, so the order of the particles changes over time.
+ * <p>
+ * {@link #update(float, com.jme3.math.Vector3f, com.jme3.math.ColorRGBA, com.jme3.math.ColorRGBA, float, float, int, float[]) update}
+ * advances all the particles in a few loops over the arrays without
+ * allocating, and splits large emitters across a fork join pool if one
+ * is set. The particle meshes write the arrays straight into their
+ * vertex buffers.
+ *
+ * @see ParticleEmitter#setParticleDataEnabled(boolean)
+ */
+public final class ParticleData {
+
+    /**
+     * Number of particles each fork join task updates.
+     */
+    private static final int CHUNK = 2048;
+
+    private final int capacity;
+    private int size = 0;
+
+    private final float[] positions;
+    private final float[] velocities;
+    private final float[] colors;
+    private final float[] sizes;
+    private final float[] lives;
+    private final float[] startLives;
+    private final float[] angles;
+    private final float[] rotateSpeeds;
+    private final int[] imageIndices;
+
+    private ForkJoinPool pool;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param capacity the maximum number of live particles.
+     */
+    public ParticleData(int capacity) {
+        this.capacity = capacity;
+        positions = new float[capacity * 3];
+        velocities = new float[capacity * 3];
+        colors = new float[capacity * 4];
+        sizes = new float[capacity];
+        lives = new float[capacity];
+        startLives = new float[capacity];
+        angles = new float[capacity];
+        rotateSpeeds = new float[capacity];
+        imageIndices = new int[capacity];
+    }
+
+    /**
+     * @return the number of live particles.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of live particles.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the pool large updates are split across, or null to update
+     * on the calling thread only. The default is null.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Adds a particle with all components zero.
+     *
+     * @return the index of the new particle, or -1 if the store is full.
+     */
+    public int add() {
+        if (size == capacity) {
+            return -1;
+        }
+        int i = size++;
+        positions[i * 3] = positions[i * 3 + 1] = positions[i * 3 + 2] = 0;
+        velocities[i * 3] = velocities[i * 3 + 1] = velocities[i * 3 + 2] = 0;
+        colors[i * 4] = colors[i * 4 + 1] = colors[i * 4 + 2] = colors[i * 4 + 3] = 0;
+        sizes[i] = lives[i] = startLives[i] = angles[i] = rotateSpeeds[i] = 0;
+        imageIndices[i] = 0;
+        return i;
+    }
+
+    /**
+     * Removes the particle at the index, moving the last particle into
+     * its place.
+     */
+    public void remove(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Particle " + index + " of " + size);
+        }
+        int last = --size;
+        if (index != last) {
+            System.arraycopy(positions, last * 3, positions, index * 3, 3);
+            System.arraycopy(velocities, last * 3, velocities, index * 3, 3);
+            System.arraycopy(colors, last * 4, colors, index * 4, 4);
+            sizes[index] = sizes[last];
+            lives[index] = lives[last];
+            startLives[index] = startLives[last];
+            angles[index] = angles[last];
+            rotateSpeeds[index] = rotateSpeeds[last];
+            imageIndices[index] = imageIndices[last];
+        }
+    }
+
+    /**
+     * Removes all the particles.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Copies the particle at the index into the store.
+     */
+    public Particle get(int index, Particle store) {
+        store.position.set(positions[index * 3], positions[index * 3 + 1], positions[index * 3 + 2]);
+        store.velocity.set(velocities[index * 3], velocities[index * 3 + 1], velocities[index * 3 + 2]);
+        store.color.set(colors[index * 4], colors[index * 4 + 1], colors[index * 4 + 2], colors[index * 4 + 3]);
+        store.size = sizes[index];
+        store.life = lives[index];
+        store.startlife = startLives[index];
+        store.angle = angles[index];
+        store.rotateSpeed = rotateSpeeds[index];
+        store.imageIndex = imageIndices[index];
+        return store;
+    }
+
+    /**
+     * Copies the particle into the store at the index.
+     */
+    public void set(int index, Particle p) {
+        positions[index * 3] = p.position.x;
+        positions[index * 3 + 1] = p.position.y;
+        positions[index * 3 + 2] = p.position.z;
+        velocities[index * 3] = p.velocity.x;
+        velocities[index * 3 + 1] = p.velocity.y;
+        velocities[index * 3 + 2] = p.velocity.z;
+        colors[index * 4] = p.color.r;
+        colors[index * 4 + 1] = p.color.g;
+        colors[index * 4 + 2] = p.color.b;
+        colors[index * 4 + 3] = p.color.a;
+        sizes[index] = p.size;
+        lives[index] = p.life;
+        startLives[index] = p.startlife;
+        angles[index] = p.angle;
+        rotateSpeeds[index] = p.rotateSpeed;
+        imageIndices[index] = p.imageIndex;
+    }
+
+    /**
+     * @return the positions, x, y and z of each particle.
+     */
+    public float[] getPositions() {
+        return positions;
+    }
+
+    /**
+     * @return the velocities, x, y and z of each particle.
+     */
+    public float[] getVelocities() {
+        return velocities;
+    }
+
+    /**
+     * @return the colors, r, g, b and a of each particle.
+     */
+    public float[] getColors() {
+        return colors;
+    }
+
+    public float[] getSizes() {
+        return sizes;
+    }
+
+    /**
+     * @return the remaining life of each particle in seconds.
+     */
+    public float[] getLives() {
+        return lives;
+    }
+
+    public float[] getStartLives() {
+        return startLives;
+    }
+
+    public float[] getAngles() {
+        return angles;
+    }
+
+    public float[] getRotateSpeeds() {
+        return rotateSpeeds;
+    }
+
+    public int[] getImageIndices() {
+        return imageIndices;
+    }
+
+    /**
+     * Ages all the particles by tpf, removes the ones that died and moves
+     * the rest the same way {@link ParticleEmitter} moves {@link Particle}s.
+     *
+     * @param images the number of images to animate through over the life
+     * of a particle, or 0 to keep the image of each particle.
+     * @param bounds stores the min and max corner of the bounds of the
+     * particles, grown by their sizes, x, y and z each.
+     */
+    public void update(float tpf, Vector3f gravity, ColorRGBA startColor, ColorRGBA endColor,
+            float startSize, float endSize, int images, float[] bounds) {
+        // remove the particles that die this frame first, the rest are
+        // then updated in place in any order
+        for (int i = 0; i < size; i++) {
+            while (i < size && lives[i] - tpf <= 0) {
+                remove(i);
+            }
+        }
+
+        Settings settings = new Settings(tpf, gravity, startColor, endColor, startSize, endSize, images);
+        bounds[0] = bounds[1] = bounds[2] = Float.POSITIVE_INFINITY;
+        bounds[3] = bounds[4] = bounds[5] = Float.NEGATIVE_INFINITY;
+        if (pool == null || size <= CHUNK) {
+            update(0, size, settings, bounds);
+        } else {
+            UpdateTask task = new UpdateTask(0, size, settings);
+            pool.invoke(task);
+            System.arraycopy(task.bounds, 0, bounds, 0, 6);
+        }
+    }
+
+    /**
+     * Moves the particles from start to end by tpf, without aging them.
+     * Used for particles emitted part way through a frame.
+     */
+    void update(int start, int end, float tpf, Vector3f gravity, ColorRGBA startColor, ColorRGBA endColor,
+            float startSize, float endSize, int images, float[] bounds) {
+        update(start, end, new Settings(tpf, gravity, startColor, endColor, startSize, endSize, images), bounds);
+    }
+
+    /**
+     * The parameters of an update, copied out of the emitter so the tasks
+     * do not share its vectors and colors.
+     */
+    private static final class Settings {
+        final float tpf;
+        final float gravityX, gravityY, gravityZ;
+        final float startR, startG, startB, startA;
+        final float endR, endG, endB, endA;
+        final float startSize, endSize;
+        final int images;
+
+        Settings(float tpf, Vector3f gravity, ColorRGBA startColor, ColorRGBA endColor,
+                float startSize, float endSize, int images) {
+            this.tpf = tpf;
+            gravityX = gravity.x;
+            gravityY = gravity.y;
+            gravityZ = gravity.z;
+            startR = startColor.r;
+            startG = startColor.g;
+            startB = startColor.b;
+            startA = startColor.a;
+            endR = endColor.r;
+            endG = endColor.g;
+            endB = endColor.b;
+            endA = endColor.a;
+            this.startSize = startSize;
+            this.endSize = endSize;
+            this.images = images;
+        }
+    }
+
+    private final class UpdateTask extends RecursiveAction {
+        private final int start, end;
+        private final Settings settings;
+        final float[] bounds = new float[6];
+
+        UpdateTask(int start, int end, Settings settings) {
+            this.start = start;
+            this.end = end;
+            this.settings = settings;
+        }
+
+        @Override
+        protected void compute() {
+            bounds[0] = bounds[1] = bounds[2] = Float.POSITIVE_INFINITY;
+            bounds[3] = bounds[4] = bounds[5] = Float.NEGATIVE_INFINITY;
+            if (end - start <= CHUNK) {
+                update(start, end, settings, bounds);
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            UpdateTask left = new UpdateTask(start, mid, settings);
+            UpdateTask right = new UpdateTask(mid, end, settings);
+            invokeAll(left, right);
+            for (int k = 0; k < 3; k++) {
+                bounds[k] = Math.min(left.bounds[k], right.bounds[k]);
+                bounds[k + 3] = Math.max(left.bounds[k + 3], right.bounds[k + 3]);
+            }
+        }
+    }
+
+    private void update(int start, int end, Settings s, float[] bounds) {
+        float tpf = s.tpf;
+        float minX = bounds[0], minY = bounds[1], minZ = bounds[2];
+        float maxX = bounds[3], maxY = bounds[4], maxZ = bounds[5];
+
+        for (int i = start; i < end; i++) {
+            float life = lives[i] - tpf;
+            lives[i] = life;
+
+            // applying gravity
+            int v = i * 3;
+            float vx = velocities[v] - s.gravityX * tpf;
+            float vy = velocities[v + 1] - s.gravityY * tpf;
+            float vz = velocities[v + 2] - s.gravityZ * tpf;
+            velocities[v] = vx;
+            velocities[v + 1] = vy;
+            velocities[v + 2] = vz;
+            float x = positions[v] + vx * tpf;
+            float y = positions[v + 1] + vy * tpf;
+            float z = positions[v + 2] + vz * tpf;
+            positions[v] = x;
+            positions[v + 1] = y;
+            positions[v + 2] = z;
+
+            // affecting color, size and angle
+            float b = (startLives[i] - life) / startLives[i];
+            float a = 1 - b;
+            int c = i * 4;
+            colors[c] = a * s.startR + b * s.endR;
+            colors[c + 1] = a * s.startG + b * s.endG;
+            colors[c + 2] = a * s.startB + b * s.endB;
+            colors[c + 3] = a * s.startA + b * s.endA;
+            float size = a * s.startSize + b * s.endSize;
+            sizes[i] = size;
+            angles[i] += rotateSpeeds[i] * tpf;
+
+            if (s.images > 0) {
+                imageIndices[i] = (int) (b * s.images);
+            }
+
+            // computing bounding volume
+            if (x - size < minX) minX = x - size;
+            if (y - size < minY) minY = y - size;
+            if (z - size < minZ) minZ = z - size;
+            if (x + size > maxX) maxX = x + size;
+            if (y + size > maxY) maxY = y + size;
+            if (z + size > maxZ) maxZ = z + size;
+        }
+
+        bounds[0] = minX;
+        bounds[1] = minY;
+        bounds[2] = minZ;
+        bounds[3] = maxX;
+        bounds[4] = maxY;
+        bounds[5] = maxZ;
+    }
+}
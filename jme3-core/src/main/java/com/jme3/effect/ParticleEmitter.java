@@ -55,6 +55,7 @@ import com.jme3.scene.Spatial;
 import com.jme3.scene.control.Control;
 import com.jme3.util.TempVars;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * <code>ParticleEmitter</code> is a special kind of geometry which simulates
@@ -104,9 +105,15 @@ public class ParticleEmitter extends Geometry {
     private float startSize = 0.2f;
     private float endSize = 2f;
     private boolean worldSpace = true;
+    private boolean particleDataEnabled = false;
     //variable that helps with computations
     private transient Vector3f temp = new Vector3f();
     private transient Vector3f lastPos;
+    // particles when particleDataEnabled, and the state for updating them
+    private transient ParticleData particleData;
+    private transient ForkJoinPool simulationPool;
+    private transient Particle emitted;
+    private transient float[] dataBounds;
 
     public static class ParticleEmitterControl implements Control {
 
@@ -341,6 +348,9 @@ public class ParticleEmitter extends Geometry {
      */
     public int getNumVisibleParticles() {
 //        return unusedIndices.size() + next;
+        if (particleData != null) {
+            return particleData.size();
+        }
         return lastUsed + 1;
     }
 
@@ -362,12 +372,85 @@ public class ParticleEmitter extends Geometry {
         particleMesh.setImagesXY(this.imagesX, this.imagesY);
         firstUnUsed = 0;
         lastUsed = -1;
+        if (particleDataEnabled) {
+            particleData = new ParticleData(numParticles);
+            particleData.setPool(simulationPool);
+            emitted = new Particle();
+            dataBounds = new float[6];
+        } else {
+            particleData = null;
+        }
     }
 
     public int getMaxNumParticles() {
         return particles.length;
     }
 
+    /**
+     * Set to true to keep the particles in a {@link ParticleData}, which
+     * stores each component of all particles in one primitive array and
+     * updates them in tight loops, instead of in {@link Particle} objects.
+     * This is a lot faster for emitters with thousands of particles.
+     * 
+     * <p>The particle influencer still initializes each new particle, but
+     * {@link #getParticles() } is not updated while this is enabled, use
+     * {@link #getParticleData() } instead. The particle mesh must support
+     * {@link ParticleMesh#updateParticleData(com.jme3.effect.ParticleData, com.jme3.renderer.Camera, com.jme3.math.Matrix3f) },
+     * both built in meshes do. Changing this kills all the particles.
+     * The default is false.
+     * 
+     * @param enabled true to keep the particles in a <code>ParticleData</code>
+     * 
+     * @see #setSimulationPool(java.util.concurrent.ForkJoinPool) 
+     */
+    public void setParticleDataEnabled(boolean enabled) {
+        if (enabled == particleDataEnabled) {
+            return;
+        }
+        particleDataEnabled = enabled;
+        setNumParticles(particles.length);
+    }
+
+    /**
+     * @return true if the particles are kept in a {@link ParticleData}.
+     * 
+     * @see #setParticleDataEnabled(boolean) 
+     */
+    public boolean isParticleDataEnabled() {
+        return particleDataEnabled;
+    }
+
+    /**
+     * Returns the particles, if they are kept in a {@link ParticleData}.
+     * 
+     * @return the particles, or null if {@link #setParticleDataEnabled(boolean) }
+     * is not enabled.
+     */
+    public ParticleData getParticleData() {
+        return particleData;
+    }
+
+    /**
+     * Sets the pool the particles of large emitters are updated on when
+     * they are kept in a {@link ParticleData}, or null to update them on
+     * the calling thread only. The pool is not shut down by the emitter.
+     * The default is null.
+     * 
+     * @param pool the pool to update particles on, or null
+     * 
+     * @see #setParticleDataEnabled(boolean) 
+     */
+    public void setSimulationPool(ForkJoinPool pool) {
+        this.simulationPool = pool;
+        if (particleData != null) {
+            particleData.setPool(pool);
+        }
+    }
+
+    public ForkJoinPool getSimulationPool() {
+        return simulationPool;
+    }
+
     /**
      * Returns a list of all particles (shouldn't be used in most cases).
      * 
@@ -833,6 +916,48 @@ public class ParticleEmitter extends Geometry {
         }
 
         Particle p = particles[idx];
+        initParticle(p);
+
+        temp.set(p.position).addLocal(p.size, p.size, p.size);
+        max.maxLocal(temp);
+        temp.set(p.position).subtractLocal(p.size, p.size, p.size);
+        min.minLocal(temp);
+
+        ++lastUsed;
+        firstUnUsed = idx + 1;
+        return p;
+    }
+
+    /**
+     * Emits a particle into the particle data, growing the data bounds.
+     * 
+     * @return the index of the particle or -1 if there is no room
+     */
+    private int emitParticleData() {
+        int idx = particleData.add();
+        if (idx < 0) {
+            return -1;
+        }
+
+        // start from a freed particle
+        Particle p = emitted;
+        p.imageIndex = 0;
+        p.angle = 0;
+        p.rotateSpeed = 0;
+        initParticle(p);
+        particleData.set(idx, p);
+
+        float[] bounds = dataBounds;
+        bounds[0] = Math.min(bounds[0], p.position.x - p.size);
+        bounds[1] = Math.min(bounds[1], p.position.y - p.size);
+        bounds[2] = Math.min(bounds[2], p.position.z - p.size);
+        bounds[3] = Math.max(bounds[3], p.position.x + p.size);
+        bounds[4] = Math.max(bounds[4], p.position.y + p.size);
+        bounds[5] = Math.max(bounds[5], p.position.z + p.size);
+        return idx;
+    }
+
+    private void initParticle(Particle p) {
         if (selectRandomImage) {
             p.imageIndex = FastMath.nextRandomInt(0, imagesY - 1) * imagesX + FastMath.nextRandomInt(0, imagesX - 1);
         }
@@ -854,15 +979,6 @@ public class ParticleEmitter extends Geometry {
         if (rotateSpeed != 0) {
             p.rotateSpeed = rotateSpeed * (0.2f + (FastMath.nextRandomFloat() * 2f - 1f) * .8f);
         }
-
-        temp.set(p.position).addLocal(p.size, p.size, p.size);
-        max.maxLocal(temp);
-        temp.set(p.position).subtractLocal(p.size, p.size, p.size);
-        min.minLocal(temp);
-
-        ++lastUsed;
-        firstUnUsed = idx + 1;
-        return p;
     }
 
     /**
@@ -897,8 +1013,21 @@ public class ParticleEmitter extends Geometry {
             max.set(Vector3f.NEGATIVE_INFINITY);
         }
 
-        for(int i=0;i<num;i++) {
-            if( emitParticle(min, max) == null ) break;
+        if (particleData != null) {
+            float[] bounds = dataBounds;
+            min.toArray(bounds);
+            bounds[3] = max.x;
+            bounds[4] = max.y;
+            bounds[5] = max.z;
+            for (int i = 0; i < num; i++) {
+                if (emitParticleData() < 0) break;
+            }
+            min.set(bounds[0], bounds[1], bounds[2]);
+            max.set(bounds[3], bounds[4], bounds[5]);
+        } else {
+            for(int i=0;i<num;i++) {
+                if( emitParticle(min, max) == null ) break;
+            }
         }
 
         bbox.setMinMax(min, max);
@@ -912,6 +1041,10 @@ public class ParticleEmitter extends Geometry {
      * particles will be dead and no longer visible.
      */
     public void killAllParticles() {
+        if (particleData != null) {
+            particleData.clear();
+            return;
+        }
         for (int i = 0; i < particles.length; ++i) {
             if (particles[i].life > 0) {
                 this.freeParticle(i);
@@ -926,6 +1059,10 @@ public class ParticleEmitter extends Geometry {
      * @see #getParticles() 
      */
     public void killParticle(int index){
+        if (particleData != null) {
+            particleData.remove(index);
+            return;
+        }
         freeParticle(index);
     }
 
@@ -980,6 +1117,11 @@ public class ParticleEmitter extends Geometry {
     }
     
     private void updateParticleState(float tpf) {
+        if (particleData != null) {
+            updateParticleDataState(tpf);
+            return;
+        }
+
         // Force world transform to update
         this.getWorldTransform();
 
@@ -1046,6 +1188,58 @@ public class ParticleEmitter extends Geometry {
         vars.release();
     }
 
+    /**
+     * Same as {@link #updateParticleState(float) } for particles kept in the
+     * particle data.
+     */
+    private void updateParticleDataState(float tpf) {
+        // Force world transform to update
+        this.getWorldTransform();
+
+        float[] bounds = dataBounds;
+        int images = selectRandomImage ? 0 : imagesX * imagesY;
+        particleData.update(tpf, gravity, startColor, endColor, startSize, endSize, images, bounds);
+
+        // Spawns particles within the tpf timeslot with proper age
+        float[] positions = particleData.getPositions();
+        float[] lives = particleData.getLives();
+        float interval = 1f / particlesPerSec;
+        float originalTpf = tpf;
+        tpf += timeDifference;
+        while (tpf > interval){
+            tpf -= interval;
+            int idx = emitParticleData();
+            if (idx >= 0){
+                if (lastPos != null && isInWorldSpace()) {
+                    float amount = 1 - tpf / originalTpf;
+                    for (int k = 0; k < 3; k++) {
+                        positions[idx * 3 + k] = (1 - amount) * positions[idx * 3 + k] + amount * lastPos.get(k);
+                    }
+                }
+                if (lives[idx] - tpf <= 0){
+                    particleData.remove(idx);
+                }else{
+                    particleData.update(idx, idx + 1, tpf, gravity, startColor, endColor,
+                            startSize, endSize, images, bounds);
+                }
+            }
+        }
+        timeDifference = tpf;
+
+        if (lastPos == null) {
+            lastPos = new Vector3f();
+        }
+
+        lastPos.set(getWorldTranslation());
+
+        TempVars vars = TempVars.get();
+        BoundingBox bbox = (BoundingBox) this.getMesh().getBound();
+        bbox.setMinMax(vars.vect1.set(bounds[0], bounds[1], bounds[2]),
+                vars.vect2.set(bounds[3], bounds[4], bounds[5]));
+        this.setBoundRefresh();
+        vars.release();
+    }
+
     /**
      * Set to enable or disable the particle emitter
      * 
@@ -1103,7 +1297,11 @@ public class ParticleEmitter extends Geometry {
 
             inverseRotation = this.getWorldRotation().toRotationMatrix(vars.tempMat3).invertLocal();
         }
-        particleMesh.updateParticleData(particles, cam, inverseRotation);
+        if (particleData != null) {
+            particleMesh.updateParticleData(particleData, cam, inverseRotation);
+        } else {
+            particleMesh.updateParticleData(particles, cam, inverseRotation);
+        }
         if (!worldSpace) {
             vars.release();
         }
@@ -1111,7 +1309,11 @@ public class ParticleEmitter extends Geometry {
 
     public void preload(RenderManager rm, ViewPort vp) {
         this.updateParticleState(0);
-        particleMesh.updateParticleData(particles, vp.getCamera(), Matrix3f.IDENTITY);
+        if (particleData != null) {
+            particleMesh.updateParticleData(particleData, vp.getCamera(), Matrix3f.IDENTITY);
+        } else {
+            particleMesh.updateParticleData(particles, vp.getCamera(), Matrix3f.IDENTITY);
+        }
     }
 
     @Override
@@ -1139,6 +1341,7 @@ public class ParticleEmitter extends Geometry {
         oc.write(selectRandomImage, "selectRandomImage", false);
         oc.write(randomAngle, "randomAngle", false);
         oc.write(rotateSpeed, "rotateSpeed", 0);
+        oc.write(particleDataEnabled, "particleData", false);
 
         oc.write(particleInfluencer, "influencer", DEFAULT_INFLUENCER);
     }
@@ -1177,6 +1380,7 @@ public class ParticleEmitter extends Geometry {
         selectRandomImage = ic.readBoolean("selectRandomImage", false);
         randomAngle = ic.readBoolean("randomAngle", false);
         rotateSpeed = ic.readFloat("rotateSpeed", 0);
+        particleDataEnabled = ic.readBoolean("particleData", false);
 
         switch (meshType) {
             case Point:
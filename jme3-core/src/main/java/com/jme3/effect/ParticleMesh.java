@@ -82,4 +82,16 @@ public abstract class ParticleMesh extends Mesh {
      */
     public abstract void updateParticleData(Particle[] particles, Camera cam, Matrix3f inverseRotation);
 
+    /**
+     * Update the particle visual data from the arrays of a {@link ParticleData}.
+     * Used instead of {@link #updateParticleData(com.jme3.effect.Particle[], com.jme3.renderer.Camera, com.jme3.math.Matrix3f) }
+     * when the emitter keeps its particles in a <code>ParticleData</code>.
+     * 
+     * @throws UnsupportedOperationException if the mesh does not support it
+     * @see ParticleEmitter#setParticleDataEnabled(boolean)
+     */
+    public void updateParticleData(ParticleData particles, Camera cam, Matrix3f inverseRotation) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support ParticleData");
+    }
+
 }
@@ -39,6 +39,8 @@ import com.jme3.scene.VertexBuffer.Usage;
 import com.jme3.util.BufferUtils;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
 public class ParticlePointMesh extends ParticleMesh {
 
@@ -47,6 +49,16 @@ public class ParticlePointMesh extends ParticleMesh {
     private int imagesX = 1;
     private int imagesY = 1;
 
+    // vertex data of a ParticleData, put into the buffers in bulk
+    private float[] sizeData;
+    private int[] colorData;
+    private float[] texCoordData;
+    private IntBuffer colorInts;
+    private ByteBuffer colorIntsSource;
+    // particles written from a ParticleData last time, the points after
+    // them already have no size. -1 if they all have to be written.
+    private int streamedCount = -1;
+
     @Override
     public void setImagesXY(int imagesX, int imagesY) {
         this.imagesX = imagesX;
@@ -58,6 +70,7 @@ public class ParticlePointMesh extends ParticleMesh {
         setMode(Mode.Points);
 
         this.emitter = emitter;
+        streamedCount = -1;
 
         // set positions
         FloatBuffer pb = BufferUtils.createVector3Buffer(numParticles);
@@ -163,5 +176,88 @@ public class ParticlePointMesh extends ParticleMesh {
         cvb.updateData(colors);
         svb.updateData(sizes);
         tvb.updateData(texcoords);
+        streamedCount = -1;
+    }
+
+    @Override
+    public void updateParticleData(ParticleData particles, Camera cam, Matrix3f inverseRotation) {
+        VertexBuffer pvb = getBuffer(VertexBuffer.Type.Position);
+        FloatBuffer positions = (FloatBuffer) pvb.getData();
+
+        VertexBuffer cvb = getBuffer(VertexBuffer.Type.Color);
+        ByteBuffer colors = (ByteBuffer) cvb.getData();
+
+        VertexBuffer svb = getBuffer(VertexBuffer.Type.Size);
+        FloatBuffer sizes = (FloatBuffer) svb.getData();
+
+        VertexBuffer tvb = getBuffer(VertexBuffer.Type.TexCoord);
+        FloatBuffer texcoords = (FloatBuffer) tvb.getData();
+
+        int capacity = sizes.capacity();
+        if (sizeData == null || sizeData.length != capacity) {
+            sizeData = new float[capacity];
+            colorData = new int[capacity];
+            texCoordData = new float[capacity * 4];
+            streamedCount = -1;
+        }
+        if (colorIntsSource != colors) {
+            colorInts = ((ByteBuffer) colors.duplicate().clear()).order(colors.order()).asIntBuffer();
+            colorIntsSource = colors;
+        }
+
+        int count = Math.min(particles.size(), capacity);
+        int written = streamedCount < 0 ? capacity : Math.max(count, streamedCount);
+
+        float sizeScale = emitter.getWorldScale().x;
+
+        float[] col = particles.getColors();
+        float[] particleSizes = particles.getSizes();
+        int[] images = particles.getImageIndices();
+
+        for (int i = 0; i < count; i++) {
+            sizeData[i] = particleSizes[i] * sizeScale;
+
+            int c = i * 4;
+            colorData[i] = (((int) (col[c + 3] * 255) & 0xFF) << 24)
+                    | (((int) (col[c + 2] * 255) & 0xFF) << 16)
+                    | (((int) (col[c + 1] * 255) & 0xFF) << 8)
+                    | (((int) (col[c] * 255) & 0xFF));
+
+            int imgX = images[i] % imagesX;
+            int imgY = (images[i] - imgX) / imagesY;
+
+            float startX = ((float) imgX) / imagesX;
+            float startY = ((float) imgY) / imagesY;
+            texCoordData[c] = startX;
+            texCoordData[c + 1] = startY;
+            texCoordData[c + 2] = startX + (1f / imagesX);
+            texCoordData[c + 3] = startY + (1f / imagesY);
+        }
+
+        // points of particles that died since the last update
+        Arrays.fill(sizeData, count, written, 0);
+
+        positions.clear();
+        positions.put(particles.getPositions(), 0, count * 3);
+        positions.clear();
+
+        sizes.clear();
+        sizes.put(sizeData, 0, written);
+        sizes.clear();
+
+        colorInts.clear();
+        colorInts.put(colorData, 0, count);
+        colors.clear();
+
+        texcoords.clear();
+        texcoords.put(texCoordData, 0, count * 4);
+        texcoords.clear();
+
+        // force renderer to re-send data to GPU
+        pvb.updateData(positions);
+        cvb.updateData(colors);
+        svb.updateData(sizes);
+        tvb.updateData(texcoords);
+        streamedCount = count;
     }
 }
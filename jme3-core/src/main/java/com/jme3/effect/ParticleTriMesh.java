@@ -42,7 +42,9 @@ import com.jme3.util.BufferUtils;
 import com.jme3.util.TempVars;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
 
 public class ParticleTriMesh extends ParticleMesh {
 
@@ -53,11 +55,22 @@ public class ParticleTriMesh extends ParticleMesh {
     private ParticleEmitter emitter;
 //    private Particle[] particlesCopy;
 
+    // vertex data of a ParticleData, put into the buffers in bulk
+    private float[] positionData;
+    private int[] colorData;
+    private float[] texCoordData;
+    private IntBuffer colorInts;
+    private ByteBuffer colorIntsSource;
+    // particles written from a ParticleData last time, the quads after
+    // them are already degenerate. -1 if they all have to be written.
+    private int streamedCount = -1;
+
     @Override
     public void initParticleData(ParticleEmitter emitter, int numParticles) {
         setMode(Mode.Triangles);
 
         this.emitter = emitter;
+        streamedCount = -1;
 
 //        particlesCopy = new Particle[numParticles];
 
@@ -283,6 +296,206 @@ public class ParticleTriMesh extends ParticleMesh {
         // force renderer to re-send data to GPU
         pvb.updateData(positions);
         cvb.updateData(colors);
+        streamedCount = -1;
+    }
+
+    @Override
+    public void updateParticleData(ParticleData particles, Camera cam, Matrix3f inverseRotation) {
+        VertexBuffer pvb = getBuffer(VertexBuffer.Type.Position);
+        FloatBuffer positions = (FloatBuffer) pvb.getData();
+
+        VertexBuffer cvb = getBuffer(VertexBuffer.Type.Color);
+        ByteBuffer colors = (ByteBuffer) cvb.getData();
+
+        VertexBuffer tvb = getBuffer(VertexBuffer.Type.TexCoord);
+        FloatBuffer texcoords = (FloatBuffer) tvb.getData();
+
+        int capacity = positions.capacity() / 12;
+        if (positionData == null || positionData.length != capacity * 12) {
+            positionData = new float[capacity * 12];
+            colorData = new int[capacity * 4];
+            texCoordData = new float[capacity * 8];
+            streamedCount = -1;
+        }
+        if (colorIntsSource != colors) {
+            colorInts = ((ByteBuffer) colors.duplicate().clear()).order(colors.order()).asIntBuffer();
+            colorIntsSource = colors;
+        }
+
+        int count = Math.min(particles.size(), capacity);
+        int written = streamedCount < 0 ? capacity : Math.max(count, streamedCount);
+
+        Vector3f camUp   = cam.getUp();
+        Vector3f camLeft = cam.getLeft();
+        Vector3f camDir  = cam.getDirection();
+
+        inverseRotation.multLocal(camUp);
+        inverseRotation.multLocal(camLeft);
+        inverseRotation.multLocal(camDir);
+
+        boolean facingVelocity = emitter.isFacingVelocity();
+        Vector3f faceNormal = emitter.getFaceNormal();
+
+        // the unscaled up and left of particles facing the normal, and
+        // the axis they are rotated around
+        float faceUpX = 0, faceUpY = 0, faceUpZ = 0;
+        float faceLeftX = 0, faceLeftY = 0, faceLeftZ = 0;
+        float axisX = 0, axisY = 0, axisZ = 0;
+        if (faceNormal != null) {
+            faceUpX = 0;
+            faceUpY = faceNormal.z;
+            faceUpZ = -faceNormal.y;
+            faceLeftX = faceNormal.y * faceUpZ - faceNormal.z * faceUpY;
+            faceLeftY = faceNormal.z * faceUpX - faceNormal.x * faceUpZ;
+            faceLeftZ = faceNormal.x * faceUpY - faceNormal.y * faceUpX;
+            float length = faceNormal.length();
+            axisX = faceNormal.x / length;
+            axisY = faceNormal.y / length;
+            axisZ = faceNormal.z / length;
+        }
+
+        float[] pos = particles.getPositions();
+        float[] vel = particles.getVelocities();
+        float[] col = particles.getColors();
+        float[] sizes = particles.getSizes();
+        float[] angles = particles.getAngles();
+        int[] images = particles.getImageIndices();
+
+        for (int i = 0; i < count; i++) {
+            float size = sizes[i];
+            float angle = angles[i];
+            float leftX, leftY, leftZ, upX, upY, upZ;
+
+            if (facingVelocity) {
+                leftX = vel[i * 3];
+                leftY = vel[i * 3 + 1];
+                leftZ = vel[i * 3 + 2];
+                float length = leftX * leftX + leftY * leftY + leftZ * leftZ;
+                if (length != 1f && length != 0f) {
+                    length = 1.0f / FastMath.sqrt(length);
+                    leftX *= length;
+                    leftY *= length;
+                    leftZ *= length;
+                }
+                upX = (camDir.y * leftZ - camDir.z * leftY) * size;
+                upY = (camDir.z * leftX - camDir.x * leftZ) * size;
+                upZ = (camDir.x * leftY - camDir.y * leftX) * size;
+                leftX *= size;
+                leftY *= size;
+                leftZ *= size;
+            } else if (faceNormal != null) {
+                upX = faceUpX * size;
+                upY = faceUpY * size;
+                upZ = faceUpZ * size;
+                leftX = faceLeftX * size;
+                leftY = faceLeftY * size;
+                leftZ = faceLeftZ * size;
+                if (angle != 0) {
+                    // both are perpendicular to the axis, so the rotation
+                    // is v * cos + (axis x v) * sin
+                    float cos = FastMath.cos(angle);
+                    float sin = FastMath.sin(angle);
+                    float x = leftX * cos + (axisY * leftZ - axisZ * leftY) * sin;
+                    float y = leftY * cos + (axisZ * leftX - axisX * leftZ) * sin;
+                    float z = leftZ * cos + (axisX * leftY - axisY * leftX) * sin;
+                    leftX = x;
+                    leftY = y;
+                    leftZ = z;
+                    x = upX * cos + (axisY * upZ - axisZ * upY) * sin;
+                    y = upY * cos + (axisZ * upX - axisX * upZ) * sin;
+                    z = upZ * cos + (axisX * upY - axisY * upX) * sin;
+                    upX = x;
+                    upY = y;
+                    upZ = z;
+                }
+            } else if (angle != 0) {
+                float cos = FastMath.cos(angle) * size;
+                float sin = FastMath.sin(angle) * size;
+
+                leftX = camLeft.x * cos + camUp.x * sin;
+                leftY = camLeft.y * cos + camUp.y * sin;
+                leftZ = camLeft.z * cos + camUp.z * sin;
+
+                upX = camLeft.x * -sin + camUp.x * cos;
+                upY = camLeft.y * -sin + camUp.y * cos;
+                upZ = camLeft.z * -sin + camUp.z * cos;
+            } else {
+                upX = camUp.x * size;
+                upY = camUp.y * size;
+                upZ = camUp.z * size;
+                leftX = camLeft.x * size;
+                leftY = camLeft.y * size;
+                leftZ = camLeft.z * size;
+            }
+
+            float x = pos[i * 3], y = pos[i * 3 + 1], z = pos[i * 3 + 2];
+            int p = i * 12;
+            positionData[p] = x + leftX + upX;
+            positionData[p + 1] = y + leftY + upY;
+            positionData[p + 2] = z + leftZ + upZ;
+            positionData[p + 3] = x - leftX + upX;
+            positionData[p + 4] = y - leftY + upY;
+            positionData[p + 5] = z - leftZ + upZ;
+            positionData[p + 6] = x + leftX - upX;
+            positionData[p + 7] = y + leftY - upY;
+            positionData[p + 8] = z + leftZ - upZ;
+            positionData[p + 9] = x - leftX - upX;
+            positionData[p + 10] = y - leftY - upY;
+            positionData[p + 11] = z - leftZ - upZ;
+
+            if (uniqueTexCoords) {
+                int imgX = images[i] % imagesX;
+                int imgY = (images[i] - imgX) / imagesY;
+
+                float startX = ((float) imgX) / imagesX;
+                float startY = ((float) imgY) / imagesY;
+                float endX   = startX + (1f / imagesX);
+                float endY   = startY + (1f / imagesY);
+
+                int t = i * 8;
+                texCoordData[t] = startX;
+                texCoordData[t + 1] = endY;
+                texCoordData[t + 2] = endX;
+                texCoordData[t + 3] = endY;
+                texCoordData[t + 4] = startX;
+                texCoordData[t + 5] = startY;
+                texCoordData[t + 6] = endX;
+                texCoordData[t + 7] = startY;
+            }
+
+            int c = i * 4;
+            int abgr = (((int) (col[c + 3] * 255) & 0xFF) << 24)
+                    | (((int) (col[c + 2] * 255) & 0xFF) << 16)
+                    | (((int) (col[c + 1] * 255) & 0xFF) << 8)
+                    | (((int) (col[c] * 255) & 0xFF));
+            colorData[c] = abgr;
+            colorData[c + 1] = abgr;
+            colorData[c + 2] = abgr;
+            colorData[c + 3] = abgr;
+        }
+
+        // quads of particles that died since the last update
+        Arrays.fill(positionData, count * 12, written * 12, 0);
+
+        positions.clear();
+        positions.put(positionData, 0, written * 12);
+        positions.clear();
+
+        colorInts.clear();
+        colorInts.put(colorData, 0, count * 4);
+        colors.clear();
+
+        if (uniqueTexCoords) {
+            texcoords.clear();
+            texcoords.put(texCoordData, 0, count * 8);
+            texcoords.clear();
+            tvb.updateData(texcoords);
+        }
+
+        // force renderer to re-send data to GPU
+        pvb.updateData(positions);
+        cvb.updateData(colors);
+        streamedCount = count;
     }
 
 }
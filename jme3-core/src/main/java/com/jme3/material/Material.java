@@ -715,7 +715,7 @@ public class Material implements CloneableSmartAsset, Cloneable, Savable {
         int lodLevel = geom.getLodLevel();
         if (geom instanceof InstancedGeometry) {
             InstancedGeometry instGeom = (InstancedGeometry) geom;
-            int numInstances = instGeom.getActualNumInstances();
+            int numInstances = instGeom.getNumVisibleInstances();
             if (numInstances == 0) {
                 return;
             }
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.renderer;
+
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.renderer.queue.RenderQueue.Bucket;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.util.SafeArrayList;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Culls the children of large nodes on a fork-join pool on behalf of
+ * the {@link RenderManager}.
+ * <p>
+ * The children of a node are split into contiguous ranges, each range is
+ * culled by a worker against its own copy of the viewport camera, and
+ * the visible geometries are recorded into a per-worker buffer. The
+ * buffers are then drained in child order on the render thread so the
+ * content and order of the render queue buckets are identical to the
+ * serial traversal.
+ * <p>
+ * Spatials that carry controls are never descended into by the workers:
+ * once they pass culling, they are handed back to the render thread which
+ * runs {@link Spatial#runControlRender(com.jme3.renderer.RenderManager, com.jme3.renderer.ViewPort) }
+ * and continues the traversal serially, so controls are only ever called
+ * from the render thread.
+ */
+final class ParallelCuller {
+
+    /**
+     * Minimum number of children handed to a single worker, below that
+     * the fork overhead outweighs the culling work.
+     */
+    private static final int MIN_CHUNK_SIZE = 16;
+
+    private final ForkJoinPool pool;
+
+    // one set of tasks per nesting level, a spatial with controls
+    // handed back to the render thread may contain large nodes itself.
+    private final ArrayList<SplitTask> levels = new ArrayList<SplitTask>();
+    private int depth = 0;
+
+    ParallelCuller(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Culls the children of an already culled node and flattens the
+     * visible geometries into the viewport's queue.
+     *
+     * @param rm The render manager, used to continue the traversal of
+     * spatials with controls on the calling thread.
+     * @param node The node, the camera plane state must be the one after
+     * the node itself has been culled.
+     * @param vp The viewport
+     */
+    void cullChildren(RenderManager rm, Node node, ViewPort vp) {
+        Camera cam = vp.getCamera();
+        int camState = cam.getPlaneState();
+        SafeArrayList<Spatial> childList = (SafeArrayList<Spatial>) node.getChildren();
+        Spatial[] children = childList.getArray();
+        int numChildren = children.length;
+
+        int numTasks = Math.min(pool.getParallelism() * 4,
+                                Math.max(1, numChildren / MIN_CHUNK_SIZE));
+        if (levels.size() == depth) {
+            levels.add(new SplitTask());
+        }
+        SplitTask splitter = levels.get(depth);
+        CullTask[] tasks = splitter.ensureCapacity(numTasks);
+
+        int chunk = numChildren / numTasks;
+        int extra = numChildren % numTasks;
+        int start = 0;
+        for (int i = 0; i < numTasks; i++) {
+            int end = start + chunk + (i < extra ? 1 : 0);
+            tasks[i].set(children, start, end, cam, camState);
+            start = end;
+        }
+
+        splitter.numTasks = numTasks;
+        splitter.reinitialize();
+        depth++;
+        try {
+            pool.invoke(splitter);
+
+            // Merge in child order on the calling thread
+            RenderQueue queue = vp.getQueue();
+            for (int i = 0; i < numTasks; i++) {
+                CullTask task = tasks[i];
+                for (int j = 0; j < task.size; j++) {
+                    Spatial s = task.spatials[j];
+                    Bucket bucket = task.buckets[j];
+                    if (bucket != null) {
+                        queue.addToQueue((Geometry) s, bucket);
+                    } else {
+                        cam.setPlaneState(task.planeStates[j]);
+                        rm.renderCulledSubScene(s, vp);
+                    }
+                }
+            }
+        } finally {
+            depth--;
+            for (int i = 0; i < numTasks; i++) {
+                tasks[i].clear();
+            }
+        }
+        cam.setPlaneState(camState);
+    }
+
+    private static final class SplitTask extends RecursiveAction {
+
+        CullTask[] tasks = new CullTask[0];
+        int numTasks;
+
+        CullTask[] ensureCapacity(int numTasks) {
+            if (tasks.length < numTasks) {
+                CullTask[] newTasks = new CullTask[numTasks];
+                System.arraycopy(tasks, 0, newTasks, 0, tasks.length);
+                for (int i = tasks.length; i < numTasks; i++) {
+                    newTasks[i] = new CullTask();
+                }
+                tasks = newTasks;
+            }
+            return tasks;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = numTasks - 1; i > 0; i--) {
+                tasks[i].reinitialize();
+                tasks[i].fork();
+            }
+            tasks[0].reinitialize();
+            tasks[0].invoke();
+            for (int i = 1; i < numTasks; i++) {
+                tasks[i].join();
+            }
+        }
+    }
+
+    private static final class CullTask extends RecursiveAction {
+
+        private final Camera cam = new Camera(1, 1);
+        private Spatial[] children;
+        private int start, end;
+        private int camState;
+
+        // the per-worker output, a null bucket marks a spatial that
+        // passed culling but whose traversal has to continue on the
+        // render thread.
+        Spatial[] spatials = new Spatial[64];
+        Bucket[] buckets = new Bucket[64];
+        int[] planeStates = new int[64];
+        int size;
+
+        void set(Spatial[] children, int start, int end, Camera source, int camState) {
+            this.children = children;
+            this.start = start;
+            this.end = end;
+            this.camState = camState;
+            cam.copyFrom(source);
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                spatials[i] = null;
+            }
+            size = 0;
+            children = null;
+        }
+
+        private void add(Spatial s, Bucket bucket, int planeState) {
+            if (size == spatials.length) {
+                int newLength = size * 2;
+                Spatial[] newSpatials = new Spatial[newLength];
+                Bucket[] newBuckets = new Bucket[newLength];
+                int[] newStates = new int[newLength];
+                System.arraycopy(spatials, 0, newSpatials, 0, size);
+                System.arraycopy(buckets, 0, newBuckets, 0, size);
+                System.arraycopy(planeStates, 0, newStates, 0, size);
+                spatials = newSpatials;
+                buckets = newBuckets;
+                planeStates = newStates;
+            }
+            spatials[size] = s;
+            buckets[size] = bucket;
+            planeStates[size] = planeState;
+            size++;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = start; i < end; i++) {
+                cam.setPlaneState(camState);
+                cull(children[i]);
+            }
+        }
+
+        private void cull(Spatial scene) {
+            if (!scene.checkCulling(cam)) {
+                return;
+            }
+
+            if (scene.getNumControls() > 0) {
+                // controls must be run on the render thread
+                add(scene, null, cam.getPlaneState());
+            } else if (scene instanceof Node) {
+                Spatial[] sub = ((SafeArrayList<Spatial>) ((Node) scene).getChildren()).getArray();
+                int state = cam.getPlaneState();
+                for (int i = 0; i < sub.length; i++) {
+                    cam.setPlaneState(state);
+                    cull(sub[i]);
+                }
+            } else if (scene instanceof Geometry) {
+                Geometry gm = (Geometry) scene;
+                if (gm.getMaterial() == null) {
+                    throw new IllegalStateException("No material is set for Geometry: " + gm.getName());
+                }
+                add(gm, scene.getQueueBucket(), 0);
+            }
+        }
+    }
+}
@@ -55,6 +55,7 @@ import com.jme3.util.SafeArrayList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 /**
@@ -88,6 +89,9 @@ public class RenderManager {
     private LightFilter lightFilter = new DefaultLightFilter();
     private TechniqueDef.LightMode preferredLightMode = TechniqueDef.LightMode.MultiPass;
     private int singlePassLightBatchSize = 1;
+    private ParallelCuller parallelCuller = null;
+    private boolean ownsCullingPool = false;
+    private int parallelCullingThreshold = 256;
 
     /**
      * Create a high-level rendering interface over the
@@ -462,6 +466,101 @@ public class RenderManager {
         this.handleTranlucentBucket = handleTranslucentBucket;
     }
 
+    /**
+     * Returns true if large nodes are culled in parallel.
+     *
+     * @return True if parallel culling is enabled.
+     *
+     * @see #setParallelCulling(boolean)
+     */
+    public boolean isParallelCulling() {
+        return parallelCuller != null;
+    }
+
+    /**
+     * Enable or disable parallel culling of large nodes.
+     * <p>
+     * When enabled, the children of any node with at least
+     * {@link #setParallelCullingThreshold(int) threshold} children are
+     * culled against the camera frustum on a fork-join pool, then merged
+     * into the {@link ViewPort#getQueue() render queue} in scene graph
+     * order, so the queue content is the same as with serial culling.
+     * Spatials with controls are always processed on the render thread,
+     * however their {@link com.jme3.scene.control.Control#render(com.jme3.renderer.RenderManager, com.jme3.renderer.ViewPort) render}
+     * callbacks run only after their siblings have been culled, so they
+     * must not modify spatials outside of their own subtree.
+     * The default is disabled.
+     *
+     * @param enabled True to enable parallel culling, false to cull
+     * the scene on the render thread only.
+     *
+     * @see #setParallelCulling(java.util.concurrent.ForkJoinPool)
+     */
+    public void setParallelCulling(boolean enabled) {
+        if (enabled && parallelCuller == null) {
+            parallelCuller = new ParallelCuller(new ForkJoinPool());
+            ownsCullingPool = true;
+        } else if (!enabled && parallelCuller != null) {
+            releaseCullingPool();
+        }
+    }
+
+    /**
+     * Enable parallel culling of large nodes using the given pool,
+     * or disable it if the pool is null. The given pool is never shut
+     * down by the render manager, a pool previously created by
+     * {@link #setParallelCulling(boolean)} is shut down when replaced.
+     *
+     * @param pool The pool to cull on, or null to disable parallel culling.
+     *
+     * @see #setParallelCulling(boolean)
+     */
+    public void setParallelCulling(ForkJoinPool pool) {
+        if (parallelCuller != null && parallelCuller.getPool() == pool) {
+            return;
+        }
+        releaseCullingPool();
+        if (pool != null) {
+            parallelCuller = new ParallelCuller(pool);
+        }
+    }
+
+    // disables parallel culling, shutting down the pool only if it
+    // was created by this render manager.
+    private void releaseCullingPool() {
+        if (parallelCuller != null && ownsCullingPool) {
+            parallelCuller.getPool().shutdown();
+        }
+        parallelCuller = null;
+        ownsCullingPool = false;
+    }
+
+    /**
+     * Returns the minimum number of children a node needs to have its
+     * children culled in parallel.
+     *
+     * @return the parallel culling threshold.
+     *
+     * @see #setParallelCullingThreshold(int)
+     */
+    public int getParallelCullingThreshold() {
+        return parallelCullingThreshold;
+    }
+
+    /**
+     * Sets the minimum number of children a node needs to have its
+     * children culled in parallel. Nodes with fewer children are culled
+     * on the render thread. The default is 256.
+     *
+     * @param threshold the minimum number of children, at least 2.
+     */
+    public void setParallelCullingThreshold(int threshold) {
+        if (threshold < 2) {
+            throw new IllegalArgumentException("threshold must be at least 2");
+        }
+        this.parallelCullingThreshold = threshold;
+    }
+
     /**
      * Internal use only. Sets the world matrix to use for future
      * rendering. This has no effect unless objects are rendered manually
@@ -664,11 +763,21 @@ public class RenderManager {
             return;
         }
 
+        renderCulledSubScene(scene, vp);
+    }
+
+    // renders a scene which already passed culling, the camera plane state
+    // must be the one left by the culling check of the scene.
+    void renderCulledSubScene(Spatial scene, ViewPort vp) {
         scene.runControlRender(this, vp);
         if (scene instanceof Node) {
             // Recurse for all children
             Node n = (Node) scene;
             List<Spatial> children = n.getChildren();
+            if (parallelCuller != null && children.size() >= parallelCullingThreshold) {
+                parallelCuller.cullChildren(this, n, vp);
+                return;
+            }
             // Saving cam state for culling
             int camState = vp.getCamera().getPlaneState();
             for (int i = 0; i < children.size(); i++) {
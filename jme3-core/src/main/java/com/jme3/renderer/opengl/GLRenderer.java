@@ -2271,6 +2271,12 @@ public final class GLRenderer implements Renderer {
             }
         }
 
+        if (!created && vb.getUpdateRangeStart() != -1
+                && updateBufferDataRange(target, vb, vb.getUpdateRangeStart(), vb.getUpdateRangeEnd())) {
+            vb.clearUpdateNeeded();
+            return;
+        }
+
         int usage = convertUsage(vb.getUsage());
         vb.getData().rewind();
 
@@ -2297,6 +2303,42 @@ public final class GLRenderer implements Renderer {
         vb.clearUpdateNeeded();
     }
 
+    /**
+     * Sends only the given elements of a buffer that was already uploaded,
+     * see {@link VertexBuffer#updateDataRange(int, int) }.
+     *
+     * @return false if the format has no partial update, the whole buffer
+     * has to be sent then.
+     */
+    private boolean updateBufferDataRange(int target, VertexBuffer vb, int startElement, int endElement) {
+        Buffer data = vb.getData();
+        int limit = data.limit();
+        int components = vb.getNumComponents();
+        int start = Math.min(startElement * components, limit);
+        int end = Math.min(endElement * components, limit);
+        long offset = (long) start * vb.getFormat().getComponentSize();
+
+        data.limit(end).position(start);
+        boolean updated = true;
+        switch (vb.getFormat()) {
+            case Byte:
+            case UnsignedByte:
+                gl.glBufferSubData(target, offset, (ByteBuffer) data);
+                break;
+            case Short:
+            case UnsignedShort:
+                gl.glBufferSubData(target, offset, (ShortBuffer) data);
+                break;
+            case Float:
+                gl.glBufferSubData(target, offset, (FloatBuffer) data);
+                break;
+            default:
+                updated = false;
+        }
+        data.limit(limit).rewind();
+        return updated;
+    }
+
     public void deleteBuffer(VertexBuffer vb) {
         int bufId = vb.getId();
         if (bufId != -1) {
@@ -46,6 +46,7 @@ import com.jme3.scene.VertexBuffer.Type;
 import com.jme3.util.TempVars;
 import java.io.IOException;
 import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -455,6 +456,43 @@ public class Geometry extends Spatial {
         return 0;
     }
 
+    /**
+     * Finds the closest triangle of this geometry hit by each of the rays,
+     * without allocating anything for each ray.
+     *
+     * @param origins the world space origin of each ray, x, y and z
+     * @param directions the world space direction of each ray, x, y and z
+     * @param maxDistances the distance along each ray hits are looked for
+     * within, or null for no limit
+     * @param count the number of rays
+     * @param triangleIndices stores the index of the triangle hit by each
+     * ray, or -1 if it hit nothing
+     * @param distances stores the distance to the hit of each ray, or
+     * positive infinity if it hit nothing
+     * @param contactPoints stores the world space hit of each ray, x, y
+     * and z, can be null
+     * @param pool the pool to trace the rays on, or null to trace them on
+     * the calling thread
+     * @return the number of rays that hit
+     *
+     * @see com.jme3.collision.bih.BIHTree#collideWithRays(float[], float[], float[], int, Matrix4f, int[], float[], float[], ForkJoinPool)
+     */
+    public int collideWithRays(float[] origins, float[] directions, float[] maxDistances, int count,
+            int[] triangleIndices, float[] distances, float[] contactPoints, ForkJoinPool pool) {
+        // Update transform, and compute cached world matrix
+        computeWorldMatrix();
+
+        if (mesh == null) {
+            for (int i = 0; i < count; i++) {
+                triangleIndices[i] = -1;
+                distances[i] = Float.POSITIVE_INFINITY;
+            }
+            return 0;
+        }
+        return mesh.collideWithRays(origins, directions, maxDistances, count, cachedWorldMat,
+                triangleIndices, distances, contactPoints, pool);
+    }
+
     @Override
     public void depthFirstTraversal(SceneGraphVisitor visitor) {
         visitor.visit(this);
@@ -53,6 +53,7 @@ import com.jme3.util.SafeArrayList;
 import java.io.IOException;
 import java.nio.*;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * <code>Mesh</code> is used to store rendering data.
@@ -959,6 +960,33 @@ public class Mesh implements Savable, Cloneable {
         return collisionTree.collideWith(other, worldMatrix, worldBound, results);
     }
 
+    /**
+     * Finds the closest triangle hit by each of the rays, internal use only.
+     * User code should use
+     * {@link Geometry#collideWithRays(float[], float[], float[], int, int[], float[], float[], ForkJoinPool) }.
+     *
+     * @see BIHTree#collideWithRays(float[], float[], float[], int, Matrix4f, int[], float[], float[], ForkJoinPool)
+     */
+    public int collideWithRays(float[] origins, float[] directions, float[] maxDistances, int count,
+                               Matrix4f worldMatrix, int[] triangleIndices, float[] distances,
+                               float[] contactPoints, ForkJoinPool pool){
+
+        if (getVertexCount() == 0) {
+            for (int i = 0; i < count; i++) {
+                triangleIndices[i] = -1;
+                distances[i] = Float.POSITIVE_INFINITY;
+            }
+            return 0;
+        }
+
+        if (collisionTree == null){
+            createCollisionData();
+        }
+
+        return ((BIHTree) collisionTree).collideWithRays(origins, directions, maxDistances, count,
+                worldMatrix, triangleIndices, distances, contactPoints, pool);
+    }
+
     /**
      * Sets the {@link VertexBuffer} on the mesh.
      * This will update the vertex/triangle counts if needed.
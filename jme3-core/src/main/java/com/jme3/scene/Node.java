@@ -38,6 +38,7 @@ import com.jme3.export.JmeExporter;
 import com.jme3.export.JmeImporter;
 import com.jme3.export.Savable;
 import com.jme3.material.Material;
+import com.jme3.math.Ray;
 import com.jme3.util.SafeArrayList;
 import com.jme3.util.TempVars;
 import java.io.IOException;
@@ -83,6 +84,37 @@ public class Node extends Spatial {
      */     
     private boolean updateListValid = false;    
 
+    /**
+     * The children which geometric state changed since the last update,
+     * null unless incremental updates are enabled.
+     */
+    private ArrayList<Spatial> dirtyChildren = null;
+
+    /**
+     * True if all children must be visited on the next update, because
+     * their changes may not have been tracked.
+     */
+    private boolean dirtyListValid = false;
+
+    /**
+     * True if the world bound must be recomputed from all children on
+     * the next update, because a child was removed.
+     */
+    private boolean exactBoundNeeded = false;
+
+    /**
+     * Number of incremental bound refits since the last exact one.
+     */
+    private int boundRefits = 0;
+    private int boundRefitInterval = 60;
+
+    /**
+     * True if ray collisions go through a collision tree, which is
+     * built on the first collision.
+     */
+    private boolean collisionTreeEnabled = false;
+    transient SceneCollisionTree collisionTree = null;
+
     /**
      * Serialization only. Do not use.
      */
@@ -107,6 +139,143 @@ public class Node extends Spatial {
         setRequiresUpdates(Node.class != getClass()); 
     }
 
+    /**
+     * Enables or disables incremental geometric state updates for this
+     * node.
+     * <p>
+     * By default, {@link #updateGeometricState() } visits every child
+     * of a node as soon as one of them changed, and the world bound of
+     * the node is merged from the bounds of all children. With incremental
+     * updates, the children register themselves in a dirty list of this
+     * node when their transform, bound or lights change, and only those
+     * children are visited. The world bound of this node is then grown to
+     * include the new bounds of the changed children, and only recomputed
+     * exactly every {@link #setBoundRefitInterval(int) refit interval}
+     * updates, when a child is detached or when most of the children
+     * changed. Between two exact recomputes the world bound can thus be
+     * larger than the merged bounds of the children.
+     * <p>
+     * This is meant for nodes with many mostly static children, for which
+     * the update cost then scales with the number of changed children. It
+     * only applies to the direct children of this node.
+     *
+     * @param enabled true to enable incremental updates.
+     */
+    public void setIncrementalUpdate(boolean enabled) {
+        if (enabled && dirtyChildren == null) {
+            dirtyChildren = new ArrayList<Spatial>();
+            dirtyListValid = false;
+            setBoundRefresh();
+        } else if (!enabled && dirtyChildren != null) {
+            for (Spatial child : dirtyChildren) {
+                if (child.parent == this) {
+                    child.inDirtyList = false;
+                }
+            }
+            dirtyChildren = null;
+        }
+    }
+
+    /**
+     * @return true if incremental updates are enabled.
+     *
+     * @see #setIncrementalUpdate(boolean)
+     */
+    public boolean isIncrementalUpdate() {
+        return dirtyChildren != null;
+    }
+
+    /**
+     * Sets the maximum number of incremental updates of the world bound
+     * between two exact recomputes, when incremental updates are enabled.
+     * The default is 60.
+     *
+     * @param interval the number of incremental updates, 0 to always
+     * recompute the world bound exactly.
+     *
+     * @see #setIncrementalUpdate(boolean)
+     */
+    public void setBoundRefitInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval cannot be negative");
+        }
+        this.boundRefitInterval = interval;
+    }
+
+    /**
+     * @return the maximum number of incremental updates of the world bound
+     * between two exact recomputes.
+     *
+     * @see #setBoundRefitInterval(int)
+     */
+    public int getBoundRefitInterval() {
+        return boundRefitInterval;
+    }
+
+    /**
+     * Enables or disables the collision tree of this node.
+     * <p>
+     * By default, {@link #collideWith(com.jme3.collision.Collidable, com.jme3.collision.CollisionResults) }
+     * tests every child of the node. With the collision tree, the geometries
+     * below this node are kept in a {@link com.jme3.collision.DynamicAabbTree}
+     * by their world bounds, and ray collisions only test the geometries whose
+     * bounds the ray hits. The tree is kept up to date incrementally as
+     * spatials move or are attached and detached. Nodes below this one that
+     * implement collideWith() themselves, like terrain, are kept as a whole.
+     * <p>
+     * This is meant for nodes with many children that are picked often,
+     * the results are the same as without the tree. Other collidables than
+     * rays still test every child.
+     *
+     * @param enabled true to enable the collision tree.
+     */
+    public void setCollisionTreeEnabled(boolean enabled) {
+        collisionTreeEnabled = enabled;
+        if (!enabled && collisionTree != null) {
+            collisionTree.release();
+            collisionTree = null;
+        }
+    }
+
+    /**
+     * @return true if the collision tree is enabled.
+     *
+     * @see #setCollisionTreeEnabled(boolean)
+     */
+    public boolean isCollisionTreeEnabled() {
+        return collisionTreeEnabled;
+    }
+
+    /**
+     * Collides each of the rays with the children of this node, using the
+     * collision tree if it is enabled. The tree is only brought up to date
+     * once for all of the rays.
+     *
+     * @param rays the rays to collide with.
+     * @param results the results of each ray, same length as the rays.
+     * @return the total number of collisions.
+     */
+    public int collideWith(Ray[] rays, CollisionResults[] results) {
+        if (rays.length != results.length) {
+            throw new IllegalArgumentException("One CollisionResults per ray is needed");
+        }
+        int total = 0;
+        for (int i = 0; i < rays.length; i++) {
+            total += collideWith(rays[i], results[i]);
+        }
+        return total;
+    }
+
+    /**
+     * Called by children when their refresh flags get set.
+     */
+    void addDirtyChild(Spatial child) {
+        if (dirtyChildren != null && dirtyListValid) {
+            child.inDirtyList = true;
+            dirtyChildren.add(child);
+        }
+    }
+
     /**
      * 
      * <code>getQuantity</code> returns the number of children this node
@@ -142,6 +311,17 @@ public class Node extends Spatial {
 
     @Override
     protected void updateWorldBound(){
+        if (dirtyChildren != null) {
+            if (dirtyListValid && !exactBoundNeeded && worldBound != null
+                    && boundRefits < boundRefitInterval
+                    && dirtyChildren.size() * 2 < children.size()) {
+                refitWorldBound();
+                return;
+            }
+            boundRefits = 0;
+            exactBoundNeeded = false;
+        }
+
         super.updateWorldBound();
         
         // for a node, the world bound is a combination of all it's children
@@ -163,6 +343,44 @@ public class Node extends Spatial {
         this.worldBound = resultBound;
     }
 
+    /**
+     * Grows the world bound to include the bounds of the dirty children.
+     */
+    private void refitWorldBound() {
+        super.updateWorldBound();
+        boundRefits++;
+        for (int i = 0; i < dirtyChildren.size(); i++) {
+            Spatial child = dirtyChildren.get(i);
+            if (child.parent != this) {
+                // detached since
+                continue;
+            }
+            // child bound is assumed to be updated
+            assert (child.refreshFlags & RF_BOUND) == 0;
+            BoundingVolume childBound = child.getWorldBound();
+            if (childBound != null) {
+                worldBound.mergeLocal(childBound);
+            }
+        }
+    }
+
+    private void clearDirtyChildren() {
+        if (dirtyListValid) {
+            for (int i = 0; i < dirtyChildren.size(); i++) {
+                Spatial child = dirtyChildren.get(i);
+                if (child.parent == this) {
+                    child.inDirtyList = false;
+                }
+            }
+        } else {
+            for (Spatial child : children.getArray()) {
+                child.inDirtyList = false;
+            }
+            dirtyListValid = true;
+        }
+        dirtyChildren.clear();
+    }
+
     @Override
     protected void setParent(Node parent) {
         if( this.parent == null && parent != null ) {
@@ -257,8 +475,18 @@ public class Node extends Spatial {
             // a round-trip later on.
             // NOTE 9/19/09
             // Although it does save a round trip,
-            for (Spatial child : children.getArray()) {
-                child.updateGeometricState();
+            if (dirtyChildren != null && dirtyListValid) {
+                // only visit the children which changed
+                for (int i = 0; i < dirtyChildren.size(); i++) {
+                    Spatial child = dirtyChildren.get(i);
+                    if (child.parent == this) {
+                        child.updateGeometricState();
+                    }
+                }
+            } else {
+                for (Spatial child : children.getArray()) {
+                    child.updateGeometricState();
+                }
             }
         }            
 
@@ -266,6 +494,10 @@ public class Node extends Spatial {
             updateWorldBound();
         }
 
+        if (dirtyChildren != null) {
+            clearDirtyChildren();
+        }
+
         assert refreshFlags == 0;
     }
 
@@ -344,6 +576,7 @@ public class Node extends Spatial {
             }
             child.setParent(this);
             children.add(index, child);
+            SceneCollisionTree.childChanged(this, child, true);
             
             // XXX: Not entirely correct? Forces bound update up the
             // tree stemming from the attached child. Also forces
@@ -419,12 +652,14 @@ public class Node extends Spatial {
     public Spatial detachChildAt(int index) {
         Spatial child =  children.remove(index);
         if ( child != null ) {
+            SceneCollisionTree.childChanged(this, child, false);
             child.setParent( null );
             logger.log(Level.FINE, "{0}: Child removed.", this.toString());
 
             // since a child with a bound was detached;
             // our own bound will probably change.
             setBoundRefresh();
+            exactBoundNeeded = true;
 
             // our world transform no longer influences the child.
             // XXX: Not neccessary? Since child will have transform updated
@@ -608,6 +843,12 @@ public class Node extends Spatial {
           if (bv.collideWith(other) == 0) return 0;
         }
         */
+        if (collisionTreeEnabled && other instanceof Ray) {
+            if (collisionTree == null) {
+                collisionTree = new SceneCollisionTree(this);
+            }
+            return collisionTree.collideWith((Ray) other, results);
+        }
         for (Spatial child : children.getArray()){
             total += child.collideWith(other, results);
         }
@@ -691,6 +932,11 @@ public class Node extends Spatial {
         // Reset the fields of the clone that should be in a 'new' state.
         nodeClone.updateList = null;
         nodeClone.updateListValid = false; // safe because parent is nulled out in super.clone()
+        nodeClone.collisionTree = null;
+        if (dirtyChildren != null) {
+            nodeClone.dirtyChildren = new ArrayList<Spatial>();
+            nodeClone.dirtyListValid = false;
+        }
             
         return nodeClone;
     }
@@ -699,6 +945,11 @@ public class Node extends Spatial {
     public Spatial deepClone(){
         Node nodeClone = (Node) super.clone();
         nodeClone.children = new SafeArrayList<Spatial>(Spatial.class);
+        nodeClone.collisionTree = null;
+        if (dirtyChildren != null) {
+            nodeClone.dirtyChildren = new ArrayList<Spatial>();
+            nodeClone.dirtyListValid = false;
+        }
         for (Spatial child : children){
             Spatial childClone = child.deepClone();
             childClone.parent = nodeClone;
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.scene;
+
+/**
+ * <code>PackedNode</code> is a {@link Node} which computes the world
+ * transforms of its whole subtree in a single pass over a
+ * {@link TransformStore}, instead of one spatial at a time while
+ * recursing through the scene graph.
+ * <p>
+ * The spatials of the subtree are flattened into the store in depth
+ * first order. On update, the local transforms of the spatials which
+ * changed since the last update are copied into the store, the world transforms and the
+ * {@link Geometry#getWorldMatrix() world matrices} are computed by a loop
+ * over its arrays, and the results are copied back into the spatials, so
+ * the usual getters keep working. Bounds and light lists are then updated
+ * as for a Node.
+ * <p>
+ * This is meant for large hierarchies which are mostly static relative to
+ * this node, for example a building or a forest moved as a whole. Only
+ * plain <code>Node</code> and <code>Geometry</code> instances are managed
+ * through the store; subclasses, and the subtrees below them, update their
+ * world transforms as usual. The subtree is flattened again after any
+ * spatial is attached to or detached from it.
+ */
+public class PackedNode extends Node {
+
+    private transient TransformStore store;
+    private transient Spatial[] packed;
+    private transient boolean[] managed;
+    // the local transform changed since it was copied into the store
+    private transient boolean[] dirty;
+    private transient int packedCount = 0;
+    private transient boolean packValid = false;
+
+    /**
+     * Serialization only. Do not use.
+     */
+    public PackedNode() {
+        this(null);
+    }
+
+    /**
+     * Creates a new <code>PackedNode</code>.
+     *
+     * @param name the name of the scene element. This is required for
+     * identification and comparison purposes.
+     */
+    public PackedNode(String name) {
+        super(name);
+        // Only clear the "requires update" flag if we are not a subclass,
+        // for the same reason as Node does.
+        setRequiresUpdates(PackedNode.class != getClass());
+        resetStore();
+    }
+
+    private void resetStore() {
+        store = new TransformStore(64);
+        packed = new Spatial[64];
+        managed = new boolean[64];
+        dirty = new boolean[64];
+        packedCount = 0;
+        packValid = false;
+    }
+
+    @Override
+    void invalidateUpdateList() {
+        // called whenever a spatial is attached or detached in the subtree
+        packValid = false;
+        super.invalidateUpdateList();
+    }
+
+    /**
+     * Flattens the subtree into the store, parents before children.
+     */
+    private void pack() {
+        for (int i = 0; i < packedCount; i++) {
+            if (packed[i].packedOwner == this) {
+                packed[i].packedOwner = null;
+            }
+            packed[i] = null;
+        }
+        store.clear();
+        packedCount = 0;
+        pack(this, -1);
+        packValid = true;
+    }
+
+    private void pack(Node node, int parentId) {
+        for (Spatial child : node.children.getArray()) {
+            int id = store.add(parentId);
+            if (id == packed.length) {
+                Spatial[] newPacked = new Spatial[id * 2];
+                boolean[] newManaged = new boolean[id * 2];
+                boolean[] newDirty = new boolean[id * 2];
+                System.arraycopy(packed, 0, newPacked, 0, id);
+                System.arraycopy(managed, 0, newManaged, 0, id);
+                System.arraycopy(dirty, 0, newDirty, 0, id);
+                packed = newPacked;
+                managed = newManaged;
+                dirty = newDirty;
+            }
+            packed[id] = child;
+            packedCount++;
+            child.packedOwner = this;
+            child.packedIndex = id;
+            // copied into the store on the next update
+            dirty[id] = true;
+
+            // subclasses may override the transform update
+            Class<?> type = child.getClass();
+            managed[id] = type == Node.class || type == Geometry.class;
+            if (type == Node.class) {
+                pack((Node) child, id);
+            }
+        }
+    }
+
+    /**
+     * Called by a packed spatial when its transform needs to be updated.
+     * The world transform queries of Spatial clear the transform refresh
+     * flag before the next update, so the store can't rely on it to know
+     * which local transforms changed.
+     */
+    void transformChanged(int index) {
+        if (index < packedCount) {
+            dirty[index] = true;
+        }
+    }
+
+    private void updatePackedTransforms() {
+        if ((refreshFlags & RF_TRANSFORM) != 0) {
+            updateWorldTransforms();
+        }
+        if (!packValid) {
+            pack();
+        }
+
+        int first = -1;
+        for (int i = 0; i < packedCount; i++) {
+            if (dirty[i]) {
+                dirty[i] = false;
+                store.setLocalTransform(i, packed[i].localTransform);
+                if (first < 0) {
+                    first = i;
+                }
+            }
+        }
+        if (first < 0) {
+            return;
+        }
+
+        store.updateWorldTransforms(worldTransform, first);
+
+        for (int i = first; i < packedCount; i++) {
+            Spatial s = packed[i];
+            if ((s.refreshFlags & RF_TRANSFORM) == 0 || !managed[i]) {
+                continue;
+            }
+            if (s instanceof Geometry) {
+                Geometry geom = (Geometry) s;
+                if ((geom.refreshFlags & RF_LIGHTLIST) != 0) {
+                    // the lights need to be sorted after the light list
+                    // update, leave it to the regular update
+                    continue;
+                }
+                store.getWorldTransform(i, geom.worldTransform);
+                store.getWorldMatrix(i, geom.cachedWorldMat);
+                geom.refreshFlags &= ~RF_TRANSFORM;
+                if (geom.isGrouped()) {
+                    geom.groupNode.onTransformChange(geom);
+                }
+                geom.worldLights.sort(true);
+            } else {
+                store.getWorldTransform(i, s.worldTransform);
+                s.refreshFlags &= ~RF_TRANSFORM;
+            }
+        }
+    }
+
+    @Override
+    public void updateGeometricState() {
+        if (refreshFlags != 0) {
+            updatePackedTransforms();
+        }
+        super.updateGeometricState();
+    }
+
+    @Override
+    public PackedNode clone(boolean cloneMaterials) {
+        PackedNode nodeClone = (PackedNode) super.clone(cloneMaterials);
+        nodeClone.resetStore();
+        return nodeClone;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.scene;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.collision.Collidable;
+import com.jme3.collision.CollisionResults;
+import com.jme3.collision.DynamicAabbTree;
+import com.jme3.math.Ray;
+import com.jme3.math.Vector3f;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The collision tree of a node, see {@link Node#setCollisionTreeEnabled(boolean) }.
+ * <p>
+ * It holds the geometries below the node in a {@link DynamicAabbTree},
+ * by their world bounds. Nodes that implement collideWith() themselves
+ * are kept as a whole instead of their geometries, so they still get
+ * to decide how they are collided with.
+ * <p>
+ * Spatials notify the trees above them when their bound needs a refresh
+ * and the tree refits them lazily, on the next query. Only spatials with
+ * a tree among their ancestors do so, each spatial counts the trees above
+ * it in {@link Spatial#collisionTreesAbove}.
+ */
+class SceneCollisionTree implements DynamicAabbTree.Visitor<Spatial> {
+
+    private static final ConcurrentHashMap<Class<?>, Boolean> customCollision = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    private final DynamicAabbTree<Spatial> tree = new DynamicAabbTree<Spatial>(64);
+    private final IdentityHashMap<Spatial, Item> items = new IdentityHashMap<Spatial, Item>();
+    private final ArrayList<Item> dirty = new ArrayList<Item>();
+    private final ArrayList<Item> unbounded = new ArrayList<Item>();
+    private final Vector3f min = new Vector3f();
+    private final Vector3f max = new Vector3f();
+
+    // the query in progress
+    private Collidable other;
+    private CollisionResults results;
+    private int total;
+
+    private final Node node;
+
+    SceneCollisionTree(Node node) {
+        this.node = node;
+        for (Spatial child : node.getChildren()) {
+            countTrees(child, 1);
+            add(child);
+        }
+    }
+
+    /**
+     * Stops the tree from being notified.
+     */
+    void release() {
+        for (Spatial child : node.getChildren()) {
+            countTrees(child, -1);
+        }
+    }
+
+    /**
+     * Adds delta to the number of trees above each spatial of the subtree.
+     */
+    static void countTrees(Spatial spatial, int delta) {
+        spatial.collisionTreesAbove += delta;
+        if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                countTrees(child, delta);
+            }
+        }
+    }
+
+    /**
+     * Called when the child was attached to or detached from the node.
+     * The trees of the node and its ancestors add or remove the child,
+     * unless one of the nodes in between is kept as a whole by the tree.
+     */
+    static void childChanged(Node node, Spatial child, boolean attached) {
+        int trees = node.collisionTreesAbove + (node.collisionTree != null ? 1 : 0);
+        if (trees == 0) {
+            return;
+        }
+        countTrees(child, attached ? trees : -trees);
+        for (Node p = node; p != null; p = p.parent) {
+            if (p.collisionTree != null) {
+                if (attached) {
+                    p.collisionTree.add(child);
+                } else {
+                    p.collisionTree.remove(child);
+                }
+            }
+            if (isItem(p)) {
+                // the trees above only hold p
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds the geometries of the spatial.
+     */
+    void add(Spatial spatial) {
+        if (isItem(spatial)) {
+            if (!items.containsKey(spatial)) {
+                Item item = new Item(spatial);
+                items.put(spatial, item);
+                // the bound is read on the next query
+                markDirty(item);
+            }
+        } else if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                add(child);
+            }
+        }
+    }
+
+    /**
+     * Removes the geometries of the spatial.
+     */
+    void remove(Spatial spatial) {
+        if (isItem(spatial)) {
+            Item item = items.remove(spatial);
+            if (item != null) {
+                item.removed = true;
+                if (item.proxy != DynamicAabbTree.NULL) {
+                    tree.destroyProxy(item.proxy);
+                    item.proxy = DynamicAabbTree.NULL;
+                } else {
+                    unbounded.remove(item);
+                }
+            }
+        } else if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                remove(child);
+            }
+        }
+    }
+
+    /**
+     * Called when the bound of the spatial needs a refresh.
+     */
+    void boundChanged(Spatial spatial) {
+        Item item = items.get(spatial);
+        if (item != null) {
+            markDirty(item);
+        }
+    }
+
+    private void markDirty(Item item) {
+        if (!item.dirty) {
+            item.dirty = true;
+            dirty.add(item);
+        }
+    }
+
+    /**
+     * Brings the tree up to date with the world bounds of the changed items.
+     */
+    private void sync() {
+        for (int i = 0, size = dirty.size(); i < size; i++) {
+            Item item = dirty.get(i);
+            item.dirty = false;
+            if (item.removed) {
+                continue;
+            }
+            BoundingVolume bound = item.spatial.getWorldBound();
+            boolean hasBox = getBox(bound, min, max);
+            if (hasBox && item.proxy != DynamicAabbTree.NULL) {
+                tree.moveProxy(item.proxy, min, max);
+            } else if (hasBox) {
+                unbounded.remove(item);
+                item.proxy = tree.createProxy(min, max, item.spatial);
+            } else {
+                if (item.proxy != DynamicAabbTree.NULL) {
+                    tree.destroyProxy(item.proxy);
+                    item.proxy = DynamicAabbTree.NULL;
+                }
+                if (!unbounded.contains(item)) {
+                    unbounded.add(item);
+                }
+            }
+        }
+        dirty.clear();
+    }
+
+    int collideWith(Ray ray, CollisionResults results) {
+        sync();
+        this.other = ray;
+        this.results = results;
+        this.total = 0;
+        try {
+            float limit = ray.limit;
+            float length = ray.direction.length();
+            if (length > 0 && length < 1) {
+                // the limit is either a distance or in units of the
+                // direction, use the larger of both
+                limit /= length;
+            }
+            tree.rayQuery(ray.origin, ray.direction, limit, this);
+            for (int i = 0, size = unbounded.size(); i < size; i++) {
+                total += unbounded.get(i).spatial.collideWith(ray, results);
+            }
+            return total;
+        } finally {
+            this.other = null;
+            this.results = null;
+        }
+    }
+
+    public boolean visit(int proxy, Spatial spatial) {
+        total += spatial.collideWith(other, results);
+        return true;
+    }
+
+    int getItemCount() {
+        return items.size();
+    }
+
+    DynamicAabbTree<Spatial> getTree() {
+        sync();
+        return tree;
+    }
+
+    /**
+     * Notifies the trees above the spatial that its bound needs a refresh.
+     * The nodes in between are notified as well, since the bound refresh
+     * of the ancestors does not go through setBoundRefresh().
+     */
+    static void boundChanged(Spatial spatial, Node parent) {
+        for (Node p = parent; p != null; p = p.parent) {
+            if (p.collisionTree != null) {
+                for (Spatial s = spatial; s != p; s = s.parent) {
+                    p.collisionTree.boundChanged(s);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the spatial is kept in the tree as a whole
+     */
+    static boolean isItem(Spatial spatial) {
+        if (spatial instanceof Geometry) {
+            return true;
+        }
+        if (!(spatial instanceof Node)) {
+            return false;
+        }
+        Class<?> type = spatial.getClass();
+        Boolean custom = customCollision.get(type);
+        if (custom == null) {
+            try {
+                custom = type.getMethod("collideWith", Collidable.class, CollisionResults.class).getDeclaringClass() != Node.class;
+            } catch (NoSuchMethodException e) {
+                custom = Boolean.FALSE;
+            }
+            customCollision.put(type, custom);
+        }
+        return custom;
+    }
+
+    private static boolean getBox(BoundingVolume bound, Vector3f min, Vector3f max) {
+        if (bound instanceof BoundingBox) {
+            BoundingBox bb = (BoundingBox) bound;
+            bb.getMin(min);
+            bb.getMax(max);
+            return true;
+        } else if (bound instanceof BoundingSphere) {
+            float r = ((BoundingSphere) bound).getRadius();
+            Vector3f center = bound.getCenter();
+            min.set(center.x - r, center.y - r, center.z - r);
+            max.set(center.x + r, center.y + r, center.z + r);
+            return true;
+        }
+        return false;
+    }
+
+    private static class Item {
+        final Spatial spatial;
+        int proxy = DynamicAabbTree.NULL;
+        boolean dirty;
+        boolean removed;
+
+        Item(Spatial spatial) {
+            this.spatial = spatial;
+        }
+    }
+}
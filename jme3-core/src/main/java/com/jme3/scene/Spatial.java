@@ -161,6 +161,25 @@ public abstract class Spatial implements Savable, Cloneable, Collidable, Cloneab
      */
     protected transient int refreshFlags = 0;
 
+    /**
+     * The {@link PackedNode} whose store holds the local transform of this
+     * spatial and the index of it in the store, or null.
+     */
+    transient PackedNode packedOwner;
+    transient int packedIndex;
+
+    /**
+     * Number of ancestors with a collision tree, they are notified of
+     * bound changes while it is above 0.
+     */
+    transient int collisionTreesAbove = 0;
+
+    /**
+     * True if this spatial is in the dirty list of its parent, see
+     * {@link Node#setIncrementalUpdate(boolean) }.
+     */
+    transient boolean inDirtyList = false;
+
     /**
      * Set to true if a subclass requires updateLogicalState() even
      * if it doesn't have any controls.  Defaults to true thus implementing
@@ -265,10 +284,14 @@ public abstract class Spatial implements Savable, Cloneable, Collidable, Cloneab
     protected void setTransformRefresh() {
         refreshFlags |= RF_TRANSFORM;
         setBoundRefresh();
+        if (packedOwner != null) {
+            packedOwner.transformChanged(packedIndex);
+        }
     }
 
     protected void setLightListRefresh() {
         refreshFlags |= RF_LIGHTLIST;
+        addToDirtyList();
         
         // Make sure next updateGeometricState() visits this branch
         // to update lights.
@@ -294,6 +317,7 @@ public abstract class Spatial implements Savable, Cloneable, Collidable, Cloneab
             }
             
             p.refreshFlags |= RF_CHILD_LIGHTLIST;
+            p.addToDirtyList();
             p = p.parent;
         }
     }
@@ -304,6 +328,10 @@ public abstract class Spatial implements Savable, Cloneable, Collidable, Cloneab
      */
     protected void setBoundRefresh() {
         refreshFlags |= RF_BOUND;
+        addToDirtyList();
+        if (collisionTreesAbove > 0) {
+            SceneCollisionTree.boundChanged(this, parent);
+        }
 
         Spatial p = parent;
         while (p != null) {
@@ -312,9 +340,21 @@ public abstract class Spatial implements Savable, Cloneable, Collidable, Cloneab
             }
 
             p.refreshFlags |= RF_BOUND;
+            p.addToDirtyList();
             p = p.parent;
         }
     }
+
+    /**
+     * Registers this spatial in the dirty list of its parent, so that
+     * the parent only visits the changed children if it uses
+     * {@link Node#setIncrementalUpdate(boolean) incremental updates}.
+     */
+    private void addToDirtyList() {
+        if (!inDirtyList && parent != null) {
+            parent.addDirtyChild(this);
+        }
+    }
     
     /**
      * (Internal use only) Forces a refresh of the given types of data.
@@ -890,6 +930,7 @@ public abstract class Spatial implements Savable, Cloneable, Collidable, Cloneab
      */
     protected void setParent(Node parent) {
         this.parent = parent;
+        inDirtyList = false;
     }
 
     /**
@@ -1284,6 +1325,8 @@ public abstract class Spatial implements Savable, Cloneable, Collidable, Cloneab
             // set below so it will have to update anyway.
             clone.worldTransform = worldTransform.clone();
             clone.localTransform = localTransform.clone();
+            clone.packedOwner = null;
+            clone.collisionTreesAbove = 0;
 
             if (clone instanceof Node) {
                 Node node = (Node) this;
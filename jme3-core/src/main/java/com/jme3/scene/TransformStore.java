@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.scene;
+
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+
+/**
+ * <code>TransformStore</code> keeps the local and world transforms of a
+ * hierarchy in contiguous primitive arrays, one array per component, so
+ * that world transforms and world matrices can be computed in a single
+ * loop over the arrays.
+ * <p>
+ * Entries are identified by their index, in the order they were
+ * {@link #add(int) added}. The parent of an entry must be added before
+ * the entry itself, so that a single pass in index order computes the
+ * world transforms of the whole hierarchy. Entries without a parent are
+ * relative to the root transform given to
+ * {@link #updateWorldTransforms(com.jme3.math.Transform, int) }.
+ * <p>
+ * The world transforms are computed exactly as
+ * {@link Transform#combineWithParent(com.jme3.math.Transform) } does, and
+ * the world matrices as {@link Geometry#computeWorldMatrix() } does.
+ *
+ * @see PackedNode
+ */
+public final class TransformStore {
+
+    private int size = 0;
+    private int[] parents;
+
+    private float[] localTranslations;
+    private float[] localRotations;
+    private float[] localScales;
+
+    private float[] worldTranslations;
+    private float[] worldRotations;
+    private float[] worldScales;
+
+    // the upper 3 rows of the world matrices, row major
+    private float[] worldMatrices;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param capacity the initial number of entries to allocate room for.
+     */
+    public TransformStore(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    private void allocate(int capacity) {
+        int copy = size;
+        parents = copyOf(parents, capacity, copy);
+        localTranslations = copyOf(localTranslations, capacity * 3, copy * 3);
+        localRotations = copyOf(localRotations, capacity * 4, copy * 4);
+        localScales = copyOf(localScales, capacity * 3, copy * 3);
+        worldTranslations = copyOf(worldTranslations, capacity * 3, copy * 3);
+        worldRotations = copyOf(worldRotations, capacity * 4, copy * 4);
+        worldScales = copyOf(worldScales, capacity * 3, copy * 3);
+        worldMatrices = copyOf(worldMatrices, capacity * 12, copy * 12);
+    }
+
+    private static float[] copyOf(float[] array, int length, int copy) {
+        float[] result = new float[length];
+        if (array != null) {
+            System.arraycopy(array, 0, result, 0, copy);
+        }
+        return result;
+    }
+
+    private static int[] copyOf(int[] array, int length, int copy) {
+        int[] result = new int[length];
+        if (array != null) {
+            System.arraycopy(array, 0, result, 0, copy);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of entries in this store.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all the entries, the allocated arrays are kept.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Adds an entry with an identity local transform.
+     *
+     * @param parent the index of the parent entry, or -1 if the entry is
+     * relative to the root transform.
+     * @return the index of the new entry.
+     */
+    public int add(int parent) {
+        if (parent < -1 || parent >= size) {
+            throw new IllegalArgumentException("Parent must be added first: " + parent);
+        }
+        if (size == parents.length) {
+            allocate(size * 2);
+        }
+        int id = size++;
+        parents[id] = parent;
+        setLocalTransform(id, Transform.IDENTITY);
+        return id;
+    }
+
+    /**
+     * @param id the index of the entry.
+     * @return the index of the parent entry, or -1 if the entry is relative
+     * to the root transform.
+     */
+    public int getParent(int id) {
+        checkIndex(id);
+        return parents[id];
+    }
+
+    private void checkIndex(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Index: " + id + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Sets the local transform of an entry. The world transform is only
+     * updated by the next call to
+     * {@link #updateWorldTransforms(com.jme3.math.Transform, int) }.
+     *
+     * @param id the index of the entry.
+     * @param transform the local transform.
+     */
+    public void setLocalTransform(int id, Transform transform) {
+        checkIndex(id);
+        Vector3f t = transform.getTranslation();
+        Quaternion r = transform.getRotation();
+        Vector3f s = transform.getScale();
+        int i3 = id * 3, i4 = id * 4;
+        localTranslations[i3] = t.x;
+        localTranslations[i3 + 1] = t.y;
+        localTranslations[i3 + 2] = t.z;
+        localRotations[i4] = r.getX();
+        localRotations[i4 + 1] = r.getY();
+        localRotations[i4 + 2] = r.getZ();
+        localRotations[i4 + 3] = r.getW();
+        localScales[i3] = s.x;
+        localScales[i3 + 1] = s.y;
+        localScales[i3 + 2] = s.z;
+    }
+
+    /**
+     * @param id the index of the entry.
+     * @param store the transform to store the result in, or null to create
+     * a new one.
+     * @return the local transform of the entry.
+     */
+    public Transform getLocalTransform(int id, Transform store) {
+        checkIndex(id);
+        return get(localTranslations, localRotations, localScales, id, store);
+    }
+
+    /**
+     * @param id the index of the entry.
+     * @param store the transform to store the result in, or null to create
+     * a new one.
+     * @return the world transform of the entry, as of the last update.
+     */
+    public Transform getWorldTransform(int id, Transform store) {
+        checkIndex(id);
+        return get(worldTranslations, worldRotations, worldScales, id, store);
+    }
+
+    private static Transform get(float[] translations, float[] rotations, float[] scales,
+                                 int id, Transform store) {
+        if (store == null) {
+            store = new Transform();
+        }
+        int i3 = id * 3, i4 = id * 4;
+        store.getTranslation().set(translations[i3], translations[i3 + 1], translations[i3 + 2]);
+        store.getRotation().set(rotations[i4], rotations[i4 + 1], rotations[i4 + 2], rotations[i4 + 3]);
+        store.getScale().set(scales[i3], scales[i3 + 1], scales[i3 + 2]);
+        return store;
+    }
+
+    /**
+     * @param id the index of the entry.
+     * @param store the matrix to store the result in, or null to create
+     * a new one.
+     * @return the world matrix of the entry, as of the last update.
+     */
+    public Matrix4f getWorldMatrix(int id, Matrix4f store) {
+        checkIndex(id);
+        if (store == null) {
+            store = new Matrix4f();
+        }
+        float[] m = worldMatrices;
+        int i = id * 12;
+        store.m00 = m[i];
+        store.m01 = m[i + 1];
+        store.m02 = m[i + 2];
+        store.m03 = m[i + 3];
+        store.m10 = m[i + 4];
+        store.m11 = m[i + 5];
+        store.m12 = m[i + 6];
+        store.m13 = m[i + 7];
+        store.m20 = m[i + 8];
+        store.m21 = m[i + 9];
+        store.m22 = m[i + 10];
+        store.m23 = m[i + 11];
+        store.m30 = 0;
+        store.m31 = 0;
+        store.m32 = 0;
+        store.m33 = 1;
+        return store;
+    }
+
+    /**
+     * Computes the world transforms and world matrices of the entries
+     * starting at the given index. Entries before it are assumed to be up
+     * to date.
+     *
+     * @param root the transform the entries without parent are relative to.
+     * @param first the index of the first entry to update.
+     */
+    public void updateWorldTransforms(Transform root, int first) {
+        Vector3f rt = root.getTranslation();
+        Quaternion rr = root.getRotation();
+        Vector3f rs = root.getScale();
+        float rtx = rt.x, rty = rt.y, rtz = rt.z;
+        float rrx = rr.getX(), rry = rr.getY(), rrz = rr.getZ(), rrw = rr.getW();
+        float rsx = rs.x, rsy = rs.y, rsz = rs.z;
+
+        int[] parents = this.parents;
+        float[] lt = localTranslations, lr = localRotations, ls = localScales;
+        float[] wt = worldTranslations, wr = worldRotations, ws = worldScales;
+        float[] m = worldMatrices;
+
+        for (int id = first; id < size; id++) {
+            float ptx, pty, ptz, prx, pry, prz, prw, psx, psy, psz;
+            int p = parents[id];
+            if (p < 0) {
+                ptx = rtx; pty = rty; ptz = rtz;
+                prx = rrx; pry = rry; prz = rrz; prw = rrw;
+                psx = rsx; psy = rsy; psz = rsz;
+            } else {
+                int p3 = p * 3, p4 = p * 4;
+                ptx = wt[p3]; pty = wt[p3 + 1]; ptz = wt[p3 + 2];
+                prx = wr[p4]; pry = wr[p4 + 1]; prz = wr[p4 + 2]; prw = wr[p4 + 3];
+                psx = ws[p3]; psy = ws[p3 + 1]; psz = ws[p3 + 2];
+            }
+
+            int i3 = id * 3, i4 = id * 4;
+
+            // scale.multLocal(parent.scale)
+            float sx = ls[i3] * psx;
+            float sy = ls[i3 + 1] * psy;
+            float sz = ls[i3 + 2] * psz;
+
+            // parent.rot.mult(rot, rot)
+            float qx = lr[i4], qy = lr[i4 + 1], qz = lr[i4 + 2], qw = lr[i4 + 3];
+            float rx = prx * qw + pry * qz - prz * qy + prw * qx;
+            float ry = -prx * qz + pry * qw + prz * qx + prw * qy;
+            float rz = prx * qy - pry * qx + prz * qw + prw * qz;
+            float rw = -prx * qx - pry * qy - prz * qz + prw * qw;
+
+            // translation.multLocal(parent.scale)
+            float vx = lt[i3] * psx;
+            float vy = lt[i3 + 1] * psy;
+            float vz = lt[i3 + 2] * psz;
+
+            // parent.rot.multLocal(translation).addLocal(parent.translation)
+            float x = prx, y = pry, z = prz, w = prw;
+            float tx = w * w * vx + 2 * y * w * vz - 2 * z * w * vy + x * x * vx
+                    + 2 * y * x * vy + 2 * z * x * vz - z * z * vx - y * y * vx;
+            float ty = 2 * x * y * vx + y * y * vy + 2 * z * y * vz + 2 * w * z
+                    * vx - z * z * vy + w * w * vy - 2 * x * w * vz - x * x
+                    * vy;
+            float tz = 2 * x * z * vx + 2 * y * z * vy + z * z * vz - 2 * w * y * vx
+                    - y * y * vz + 2 * w * x * vy - x * x * vz + w * w * vz;
+            tx += ptx;
+            ty += pty;
+            tz += ptz;
+
+            wt[i3] = tx; wt[i3 + 1] = ty; wt[i3 + 2] = tz;
+            wr[i4] = rx; wr[i4 + 1] = ry; wr[i4 + 2] = rz; wr[i4 + 3] = rw;
+            ws[i3] = sx; ws[i3 + 1] = sy; ws[i3 + 2] = sz;
+
+            // rotation matrix of the world rotation, see Quaternion.toRotationMatrix()
+            float norm = rw * rw + rx * rx + ry * ry + rz * rz;
+            float s = (norm == 1f) ? 2f : (norm > 0f) ? 2f / norm : 0;
+            float xs = rx * s, ys = ry * s, zs = rz * s;
+            float xx = rx * xs, xy = rx * ys, xz = rx * zs, xw = rw * xs;
+            float yy = ry * ys, yz = ry * zs, yw = rw * ys;
+            float zz = rz * zs, zw = rw * zs;
+
+            // the world matrix is translation * rotation * scale
+            int i12 = id * 12;
+            m[i12] = (1 - (yy + zz)) * sx;
+            m[i12 + 1] = (xy - zw) * sy;
+            m[i12 + 2] = (xz + yw) * sz;
+            m[i12 + 3] = tx;
+            m[i12 + 4] = (xy + zw) * sx;
+            m[i12 + 5] = (1 - (xx + zz)) * sy;
+            m[i12 + 6] = (yz - xw) * sz;
+            m[i12 + 7] = ty;
+            m[i12 + 8] = (xz - yw) * sx;
+            m[i12 + 9] = (yz + xw) * sy;
+            m[i12 + 10] = (1 - (xx + yy)) * sz;
+            m[i12 + 11] = tz;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[size=" + size + "]";
+    }
+}
@@ -335,6 +335,8 @@ public class VertexBuffer extends NativeObject implements Savable, Cloneable {
     protected boolean normalized = false;
     protected int instanceSpan = 0;
     protected transient boolean dataSizeChanged = false;
+    protected transient int updateRangeStart = -1;
+    protected transient int updateRangeEnd = -1;
 
     /**
      * Creates an empty, uninitialized buffer.
@@ -707,10 +709,72 @@ public class VertexBuffer extends NativeObject implements Savable, Cloneable {
         return dataSizeChanged;
     }
 
+    /**
+     * Indicates that only the elements from startElement up to endElement
+     * (exclusive) of the data buffer have changed. Unlike
+     * {@link #updateData(java.nio.Buffer) } the renderer may then send
+     * just that part of the buffer to the GPU again. If the whole buffer
+     * already needs an update, or its limit changed since the last call
+     * to updateData(), the whole buffer is sent.
+     *
+     * @param startElement The first element that changed
+     * @param endElement The element after the last one that changed
+     */
+    public void updateDataRange(int startElement, int endElement) {
+        if (startElement < 0 || endElement < startElement) {
+            throw new IllegalArgumentException("Invalid range: " + startElement + " to " + endElement);
+        }
+        if (data.limit() != lastLimit) {
+            updateData(data);
+            return;
+        }
+        if (startElement == endElement) {
+            return;
+        }
+        if (!isUpdateNeeded()) {
+            updateRangeStart = startElement;
+            updateRangeEnd = endElement;
+        } else if (updateRangeStart != -1) {
+            updateRangeStart = Math.min(updateRangeStart, startElement);
+            updateRangeEnd = Math.max(updateRangeEnd, endElement);
+        }
+        super.setUpdateNeeded();
+    }
+
+    /**
+     * Internal use only. Returns the first element that changed since the
+     * last update, or -1 if the whole buffer has to be sent.
+     *
+     * @see #updateDataRange(int, int)
+     */
+    public int getUpdateRangeStart() {
+        return updateRangeStart;
+    }
+
+    /**
+     * Internal use only. Returns the element after the last one that
+     * changed since the last update, or -1 if the whole buffer has to be
+     * sent.
+     *
+     * @see #updateDataRange(int, int)
+     */
+    public int getUpdateRangeEnd() {
+        return updateRangeEnd;
+    }
+
+    @Override
+    public void setUpdateNeeded(){
+        super.setUpdateNeeded();
+        updateRangeStart = -1;
+        updateRangeEnd = -1;
+    }
+
     @Override
     public void clearUpdateNeeded(){
         super.clearUpdateNeeded();
         dataSizeChanged = false;
+        updateRangeStart = -1;
+        updateRangeEnd = -1;
     }
 
     /**
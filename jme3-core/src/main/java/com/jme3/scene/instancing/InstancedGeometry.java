@@ -31,6 +31,10 @@
  */
 package com.jme3.scene.instancing;
 
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.collision.DynamicAabbTree;
 import com.jme3.export.InputCapsule;
 import com.jme3.export.JmeExporter;
 import com.jme3.export.JmeImporter;
@@ -39,6 +43,8 @@ import com.jme3.export.Savable;
 import com.jme3.math.Matrix3f;
 import com.jme3.math.Matrix4f;
 import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Spatial;
 import com.jme3.scene.VertexBuffer;
@@ -61,6 +67,22 @@ public class InstancedGeometry extends Geometry {
     private Geometry[] geometries = new Geometry[1];
     
     private int firstUnusedIndex = 0;
+    private int numInstances = 0;
+
+    // Instance culling, see setInstanceCulling(). The encoded transform
+    // of every instance is kept in transforms and only redone when the
+    // instance moved, the visible ones are copied into visibleData which
+    // mirrors the instance buffer.
+    private DynamicAabbTree<Geometry> instanceTree;
+    private int[] proxies;
+    private float[] transforms;
+    private boolean[] moved;
+    private ArrayList<Geometry> movedInstances;
+    private float[] visibleData;
+    private int[] visibleSlots;
+    private int numVisibleInstances;
+    private boolean culled = false;
+    private final VisibleCollector visibleCollector = new VisibleCollector();
 
     /**
      * Serialization only. Do not use.
@@ -202,8 +224,84 @@ public class InstancedGeometry extends Geometry {
                     Format.Float,
                     BufferUtils.createFloatBuffer(geometries.length * INSTANCE_SIZE));
         }
+
+        if (instanceTree != null) {
+            allocateCullingData(originalGeometries.length);
+        }
     }
     
+    /**
+     * Enables culling of the single instances against the camera frustum.
+     * <p>
+     * When enabled, {@link #updateInstances(com.jme3.renderer.Camera) }
+     * only writes the instances whose bound is in the frustum of the
+     * camera to the instance data, and only the part of the data that
+     * changed since the last frame is sent to the GPU again. The instances
+     * are kept in a {@link DynamicAabbTree} so the cost of culling depends
+     * on the number of visible instances rather than on the total number.
+     * <p>
+     * Instances culled by the camera are also missing from other passes
+     * that use the same instance data, e.g. shadow maps. The
+     * {@link #setGlobalUserInstanceData(com.jme3.scene.VertexBuffer[]) global
+     * user instance data} is not compacted, so culling is not done when it
+     * is set.
+     *
+     * @param enabled true to cull the single instances
+     */
+    public void setInstanceCulling(boolean enabled) {
+        if (enabled == (instanceTree != null)) {
+            return;
+        }
+        if (enabled) {
+            instanceTree = new DynamicAabbTree<Geometry>(geometries.length * 2);
+            movedInstances = new ArrayList<Geometry>();
+            allocateCullingData(0);
+            for (int i = 0; i < firstUnusedIndex; i++) {
+                if (geometries[i] != null) {
+                    instanceMoved(geometries[i]);
+                }
+            }
+        } else {
+            instanceTree = null;
+            proxies = null;
+            transforms = null;
+            moved = null;
+            movedInstances = null;
+            visibleData = null;
+            visibleSlots = null;
+            culled = false;
+        }
+    }
+
+    /**
+     * @return true if the single instances are culled
+     * @see #setInstanceCulling(boolean)
+     */
+    public boolean isInstanceCulling() {
+        return instanceTree != null;
+    }
+
+    private void allocateCullingData(int oldLength) {
+        int length = geometries.length;
+        if (oldLength == 0) {
+            proxies = new int[length];
+            transforms = new float[length * INSTANCE_SIZE];
+            moved = new boolean[length];
+            visibleSlots = new int[length];
+            Arrays.fill(proxies, DynamicAabbTree.NULL);
+        } else {
+            proxies = Arrays.copyOf(proxies, length);
+            transforms = Arrays.copyOf(transforms, length * INSTANCE_SIZE);
+            moved = Arrays.copyOf(moved, length);
+            visibleSlots = new int[length];
+            Arrays.fill(proxies, oldLength, length, DynamicAabbTree.NULL);
+        }
+        // not a number never equals anything, the whole instance
+        // buffer gets written again
+        visibleData = new float[length * INSTANCE_SIZE];
+        Arrays.fill(visibleData, Float.NaN);
+    }
+
     public int getMaxNumInstances() {
         return geometries.length;
     }
@@ -211,6 +309,25 @@ public class InstancedGeometry extends Geometry {
     public int getActualNumInstances() {
         return firstUnusedIndex;
     }
+
+    /**
+     * Returns the number of instances in the instance data, those that
+     * passed culling in the last call to
+     * {@link #updateInstances(com.jme3.renderer.Camera) } if
+     * {@link #setInstanceCulling(boolean) instance culling} is enabled.
+     *
+     * @return the number of instances to render
+     */
+    public int getNumVisibleInstances() {
+        return culled ? numVisibleInstances : firstUnusedIndex;
+    }
+
+    /**
+     * Returns one of the instances that passed culling.
+     */
+    Geometry getVisibleInstance(int index) {
+        return culled ? geometries[visibleSlots[index]] : geometries[index];
+    }
     
     private void swap(int idx1, int idx2) {
         Geometry g = geometries[idx1];
@@ -223,6 +340,22 @@ public class InstancedGeometry extends Geometry {
         if (geometries[idx2] != null) {
             InstancedNode.setGeometryStartIndex2(geometries[idx2], idx2);
         }
+
+        if (instanceTree != null) {
+            int proxy = proxies[idx1];
+            proxies[idx1] = proxies[idx2];
+            proxies[idx2] = proxy;
+
+            boolean m = moved[idx1];
+            moved[idx1] = moved[idx2];
+            moved[idx2] = m;
+
+            for (int i = idx1 * INSTANCE_SIZE, j = idx2 * INSTANCE_SIZE, end = i + INSTANCE_SIZE; i < end; i++, j++) {
+                float f = transforms[i];
+                transforms[i] = transforms[j];
+                transforms[j] = f;
+            }
+        }
     }
     
     private void sanitize(boolean insideEntriesNonNull) {
@@ -247,6 +380,12 @@ public class InstancedGeometry extends Geometry {
     }
     
     public void updateInstances() {
+        culled = false;
+        if (visibleData != null) {
+            // the instance buffer no longer holds the visible instances
+            Arrays.fill(visibleData, Float.NaN);
+        }
+
         FloatBuffer fb = (FloatBuffer) transformInstanceData.getData();
         fb.limit(fb.capacity());
         fb.position(0);
@@ -287,12 +426,171 @@ public class InstancedGeometry extends Geometry {
 
         transformInstanceData.updateData(fb);
     }
+
+    /**
+     * Updates the instance data for rendering with the given camera.
+     * <p>
+     * If {@link #setInstanceCulling(boolean) instance culling} is enabled,
+     * only the instances in the frustum of the camera are written and
+     * only the part of the instance data that changed is marked for
+     * update. Otherwise this is the same as {@link #updateInstances() }.
+     *
+     * @param cam The camera to cull the instances with
+     */
+    public void updateInstances(Camera cam) {
+        if (instanceTree == null || globalInstanceData != null) {
+            updateInstances();
+            return;
+        }
+
+        if (numInstances != firstUnusedIndex) {
+            compactInstances();
+        }
+        if (!movedInstances.isEmpty()) {
+            updateMovedInstances();
+        }
+
+        visibleCollector.count = 0;
+        visibleCollector.changeStart = Integer.MAX_VALUE;
+        visibleCollector.changeEnd = 0;
+        instanceTree.frustumQuery(cam, visibleCollector);
+        numVisibleInstances = visibleCollector.count;
+        culled = true;
+
+        // the buffer keeps its whole capacity, so its size on the GPU
+        // stays the same and parts of it can be updated
+        FloatBuffer fb = (FloatBuffer) transformInstanceData.getData();
+        fb.limit(fb.capacity());
+        int start = visibleCollector.changeStart;
+        int end = visibleCollector.changeEnd;
+        if (start < end) {
+            fb.position(start * INSTANCE_SIZE);
+            fb.put(visibleData, start * INSTANCE_SIZE, (end - start) * INSTANCE_SIZE);
+            fb.rewind();
+            transformInstanceData.updateDataRange(start, end);
+        }
+    }
+
+    /**
+     * Called when the transform of an instance changed, its bound in the
+     * culling tree and its encoded transform are updated before the
+     * next frame is culled.
+     */
+    void instanceMoved(Geometry geom) {
+        if (instanceTree == null) {
+            return;
+        }
+        int idx = InstancedNode.getGeometryStartIndex2(geom);
+        if (idx >= 0 && geometries[idx] == geom && !moved[idx]) {
+            moved[idx] = true;
+            movedInstances.add(geom);
+        }
+    }
+
+    private void updateMovedInstances() {
+        TempVars vars = TempVars.get();
+        Vector3f min = vars.vect1;
+        Vector3f max = vars.vect2;
+        for (int i = 0; i < movedInstances.size(); i++) {
+            Geometry geom = movedInstances.get(i);
+            int idx = InstancedNode.getGeometryStartIndex2(geom);
+            if (idx < 0 || geometries[idx] != geom || !moved[idx]) {
+                // deleted since
+                continue;
+            }
+            moved[idx] = false;
+
+            updateInstance(geom.getWorldMatrix(), transforms, idx * INSTANCE_SIZE, vars.tempMat3, vars.quat1);
+
+            getBox(geom, min, max);
+            if (proxies[idx] == DynamicAabbTree.NULL) {
+                proxies[idx] = instanceTree.createProxy(min, max, geom);
+            } else {
+                instanceTree.moveProxy(proxies[idx], min, max);
+            }
+        }
+        movedInstances.clear();
+        vars.release();
+    }
+
+    private static void getBox(Geometry geom, Vector3f min, Vector3f max) {
+        BoundingVolume bound = geom.getWorldBound();
+        if (bound instanceof BoundingBox) {
+            BoundingBox bb = (BoundingBox) bound;
+            bb.getMin(min);
+            bb.getMax(max);
+        } else if (bound instanceof BoundingSphere) {
+            float r = ((BoundingSphere) bound).getRadius();
+            Vector3f center = bound.getCenter();
+            min.set(center.x - r, center.y - r, center.z - r);
+            max.set(center.x + r, center.y + r, center.z + r);
+        } else {
+            min.set(geom.getWorldTranslation());
+            max.set(min);
+        }
+    }
+
+    /**
+     * Moves the last instances into the slots of deleted ones.
+     */
+    private void compactInstances() {
+        for (int i = 0; i < firstUnusedIndex; i++) {
+            if (geometries[i] == null) {
+                if (geometries[firstUnusedIndex - 1] == null) {
+                    throw new AssertionError();
+                }
+
+                swap(i, firstUnusedIndex - 1);
+
+                while (geometries[firstUnusedIndex - 1] == null) {
+                    firstUnusedIndex--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the transforms of the instances found by culling to the
+     * visible data, remembering which part of it changed.
+     */
+    private class VisibleCollector implements DynamicAabbTree.Visitor<Geometry> {
+
+        int count;
+        int changeStart;
+        int changeEnd;
+
+        @Override
+        public boolean visit(int proxy, Geometry geom) {
+            int idx = InstancedNode.getGeometryStartIndex2(geom);
+            int src = idx * INSTANCE_SIZE;
+            int dst = count * INSTANCE_SIZE;
+            for (int i = 0; i < INSTANCE_SIZE; i++) {
+                if (visibleData[dst + i] != transforms[src + i]) {
+                    System.arraycopy(transforms, src, visibleData, dst, INSTANCE_SIZE);
+                    changeStart = Math.min(changeStart, count);
+                    changeEnd = count + 1;
+                    break;
+                }
+            }
+            visibleSlots[count++] = idx;
+            return true;
+        }
+    }
     
     public void deleteInstance(Geometry geom) {
         int idx = InstancedNode.getGeometryStartIndex2(geom);
         InstancedNode.setGeometryStartIndex2(geom, -1);
         
         geometries[idx] = null;
+        numInstances--;
+
+        if (instanceTree != null) {
+            if (proxies[idx] != DynamicAabbTree.NULL) {
+                instanceTree.destroyProxy(proxies[idx]);
+                proxies[idx] = DynamicAabbTree.NULL;
+            }
+            moved[idx] = false;
+        }
         
         if (idx == firstUnusedIndex - 1) {
             // Deleting the last element.
@@ -326,6 +624,11 @@ public class InstancedGeometry extends Geometry {
         
         geometries[freeIndex] = geometry;
         InstancedNode.setGeometryStartIndex2(geometry, freeIndex);
+        numInstances++;
+
+        // the bound may not be updated yet, the instance is
+        // put into the culling tree before the next frame
+        instanceMoved(geometry);
     }
     
     public Geometry[] getGeometries() {
@@ -32,6 +32,7 @@
 package com.jme3.scene.instancing;
 
 import com.jme3.material.Material;
+import com.jme3.renderer.Camera;
 import com.jme3.renderer.RenderManager;
 import com.jme3.renderer.ViewPort;
 import com.jme3.scene.Geometry;
@@ -41,10 +42,14 @@ import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import com.jme3.scene.UserData;
 import com.jme3.scene.control.Control;
+import com.jme3.export.InputCapsule;
 import com.jme3.export.JmeExporter;
 import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
 import com.jme3.material.MatParam;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 public class InstancedNode extends GeometryGroupNode {
@@ -128,10 +133,11 @@ public class InstancedNode extends GeometryGroupNode {
         }
         
         public void update(float tpf){
+            node.applyLodChanges();
         }
         
         public void render(RenderManager rm, ViewPort vp) {
-            node.renderFromControl();
+            node.renderFromControl(vp.getCamera());
         }
         
         public void write(JmeExporter ex) throws IOException {
@@ -150,6 +156,12 @@ public class InstancedNode extends GeometryGroupNode {
     
     private HashMap<InstanceTypeKey, InstancedGeometry> instancesMap = 
             new HashMap<InstanceTypeKey, InstancedGeometry>();
+
+    private boolean instanceCulling = false;
+    private float[] lodDistances;
+    // LOD levels picked while rendering, applied on the next update
+    private ArrayList<Geometry> lodChanges = new ArrayList<Geometry>();
+    private int[] lodChangeLevels = new int[16];
     
     public InstancedNode() {
         super();
@@ -163,12 +175,114 @@ public class InstancedNode extends GeometryGroupNode {
         addControl(control);
     }
     
-    private void renderFromControl() {
+    /**
+     * Enables culling of the single instances against the camera frustum,
+     * so only the visible instances are sent to the GPU.
+     *
+     * @param instanceCulling true to cull the single instances
+     * @see InstancedGeometry#setInstanceCulling(boolean)
+     */
+    public void setInstanceCulling(boolean instanceCulling) {
+        this.instanceCulling = instanceCulling;
+        for (InstancedGeometry ig : instancesMap.values()) {
+            ig.setInstanceCulling(instanceCulling);
+        }
+    }
+
+    /**
+     * @return true if the single instances are culled
+     * @see #setInstanceCulling(boolean)
+     */
+    public boolean isInstanceCulling() {
+        return instanceCulling;
+    }
+
+    /**
+     * Sets the camera distances at which the instances switch to the next
+     * LOD level of their mesh. An instance farther away than distances[i]
+     * uses LOD level i + 1, up to the last level of the mesh. The levels
+     * are picked when rendering, from the distance of the camera to the
+     * center of the world bound of each rendered instance, and the
+     * instances move to the instanced geometry of their new level on the
+     * next update. Instances culled by
+     * {@link #setInstanceCulling(boolean) instance culling} keep their
+     * level. Only meshes with {@link Mesh#setLodLevels(com.jme3.scene.VertexBuffer[])
+     * LOD levels} are affected.
+     *
+     * @param distances The distances in increasing order, or null to
+     * not change the LOD levels of the instances.
+     */
+    public void setLodDistances(float... distances) {
+        if (distances != null) {
+            for (int i = 1; i < distances.length; i++) {
+                if (distances[i] < distances[i - 1]) {
+                    throw new IllegalArgumentException("LOD distances must be in increasing order");
+                }
+            }
+        }
+        lodDistances = distances == null || distances.length == 0 ? null : distances.clone();
+    }
+
+    /**
+     * @return The LOD distances or null
+     * @see #setLodDistances(float[])
+     */
+    public float[] getLodDistances() {
+        return lodDistances;
+    }
+
+    private void renderFromControl(Camera cam) {
         for (InstancedGeometry ig : instancesMap.values()) {
-            ig.updateInstances();
+            if (instanceCulling) {
+                ig.updateInstances(cam);
+            } else {
+                ig.updateInstances();
+            }
+            if (lodDistances != null && ig.getMesh().getNumLodLevels() > 1) {
+                selectLodLevels(ig, cam);
+            }
         }
     }
 
+    private void selectLodLevels(InstancedGeometry ig, Camera cam) {
+        int maxLevel = ig.getMesh().getNumLodLevels() - 1;
+        int numVisible = ig.getNumVisibleInstances();
+        for (int i = 0; i < numVisible; i++) {
+            Geometry geom = ig.getVisibleInstance(i);
+            float distanceSq = geom.getWorldBound() != null
+                    ? geom.getWorldBound().getCenter().distanceSquared(cam.getLocation())
+                    : geom.getWorldTranslation().distanceSquared(cam.getLocation());
+            int level = 0;
+            while (level < lodDistances.length && level < maxLevel
+                    && distanceSq > lodDistances[level] * lodDistances[level]) {
+                level++;
+            }
+            if (level != geom.getLodLevel()) {
+                if (lodChanges.size() == lodChangeLevels.length) {
+                    lodChangeLevels = Arrays.copyOf(lodChangeLevels, lodChangeLevels.length * 2);
+                }
+                lodChangeLevels[lodChanges.size()] = level;
+                lodChanges.add(geom);
+            }
+        }
+    }
+
+    /**
+     * Moves the instances whose LOD level changed while rendering to the
+     * instanced geometry of their new level. This changes the scene graph
+     * so it is done on update rather than while rendering.
+     */
+    private void applyLodChanges() {
+        for (int i = 0; i < lodChanges.size(); i++) {
+            Geometry geom = lodChanges.get(i);
+            if (igByGeom.containsKey(geom)) {
+                // Will invoke onMeshChange automatically.
+                geom.setLodLevel(lodChangeLevels[i]);
+            }
+        }
+        lodChanges.clear();
+    }
+
     private InstancedGeometry lookUpByGeometry(Geometry geom) {
         lookUp.mesh = geom.getMesh();
         lookUp.material = geom.getMaterial();
@@ -183,8 +297,12 @@ public class InstancedNode extends GeometryGroupNode {
                     + "lod-" + lookUp.lodLevel);
             ig.setMaterial(lookUp.material);
             ig.setMesh(lookUp.mesh);
+            if (lookUp.lodLevel > 0) {
+                ig.setLodLevel(lookUp.lodLevel);
+            }
             ig.setUserData(UserData.JME_PHYSICSIGNORE, true);
             ig.setCullHint(CullHint.Never);
+            ig.setInstanceCulling(instanceCulling);
             instancesMap.put(lookUp.clone(), ig);
             attachChild(ig);
         }
@@ -307,6 +425,8 @@ public class InstancedNode extends GeometryGroupNode {
         clone.lookUp = new InstanceTypeKey();
         clone.igByGeom = new HashMap<Geometry, InstancedGeometry>();
         clone.instancesMap = new HashMap<InstanceTypeKey, InstancedGeometry>();
+        clone.lodChanges = new ArrayList<Geometry>();
+        clone.lodChangeLevels = new int[16];
         
         clone.instance();
         
@@ -315,7 +435,13 @@ public class InstancedNode extends GeometryGroupNode {
     
     @Override
     public void onTransformChange(Geometry geom) {
-        // Handled automatically
+        // Handled automatically, unless the instances are culled
+        if (instanceCulling) {
+            InstancedGeometry ig = igByGeom.get(geom);
+            if (ig != null) {
+                ig.instanceMoved(geom);
+            }
+        }
     }
 
     @Override
@@ -332,4 +458,20 @@ public class InstancedNode extends GeometryGroupNode {
     public void onGeometryUnassociated(Geometry geom) {
         removeFromInstancedGeometry(geom);
     }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(instanceCulling, "instanceCulling", false);
+        oc.write(lodDistances, "lodDistances", null);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        super.read(im);
+        InputCapsule ic = im.getCapsule(this);
+        instanceCulling = ic.readBoolean("instanceCulling", false);
+        lodDistances = ic.readFloatArray("lodDistances", null);
+    }
 }
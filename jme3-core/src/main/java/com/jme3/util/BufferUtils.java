@@ -1334,7 +1334,13 @@ public final class BufferUtils {
                     // Try the alternate approach of getting the viewed buffer first
                     Object viewedBuffer = viewedBufferMethod.invoke(toBeDestroyed);
                     if (viewedBuffer != null) {
-                        destroyDirectBuffer((Buffer) viewedBuffer);
+                        // Only free the viewed buffer if this is a view of all
+                        // of it, a slice (e.g. of a memory-mapped file loaded
+                        // by the BinaryImporter) must not free the memory
+                        // still used by the other slices.
+                        if (isWholeView(toBeDestroyed, (Buffer) viewedBuffer)) {
+                            destroyDirectBuffer((Buffer) viewedBuffer);
+                        }
                     } else {
                         Logger.getLogger(BufferUtils.class.getName()).log(Level.SEVERE, "Buffer cannot be destroyed: {0}", toBeDestroyed);
                     }
@@ -1351,6 +1357,26 @@ public final class BufferUtils {
         }
     }
     
+    private static boolean isWholeView(Buffer view, Buffer viewed) {
+        long viewBytes = view.capacity();
+        if (view instanceof FloatBuffer || view instanceof IntBuffer) {
+            viewBytes *= 4;
+        } else if (view instanceof ShortBuffer) {
+            viewBytes *= 2;
+        } else if (view instanceof DoubleBuffer || view instanceof LongBuffer) {
+            viewBytes *= 8;
+        }
+        long viewedBytes = viewed.capacity();
+        if (viewed instanceof FloatBuffer || viewed instanceof IntBuffer) {
+            viewedBytes *= 4;
+        } else if (viewed instanceof ShortBuffer) {
+            viewedBytes *= 2;
+        } else if (viewed instanceof DoubleBuffer || viewed instanceof LongBuffer) {
+            viewedBytes *= 8;
+        }
+        return viewBytes == viewedBytes;
+    }
+
     /*
      * FIXME when java 1.5 supprt is dropped - replace calls to this method with Buffer.isDirect 
      * 
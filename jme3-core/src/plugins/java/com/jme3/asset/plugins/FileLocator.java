@@ -58,7 +58,11 @@ public class FileLocator implements AssetLocator {
         }
     }
 
-    private static class AssetInfoFile extends AssetInfo {
+    /**
+     * The {@link AssetInfo} of an asset found by a <code>FileLocator</code>,
+     * gives access to the file for loaders which can read it directly.
+     */
+    public static class AssetInfoFile extends AssetInfo {
 
         private File file;
 
@@ -67,6 +71,13 @@ public class FileLocator implements AssetLocator {
             this.file = file;
         }
 
+        /**
+         * @return The located file
+         */
+        public File getFile() {
+            return file;
+        }
+
         @Override
         public InputStream openStream() {
             try{
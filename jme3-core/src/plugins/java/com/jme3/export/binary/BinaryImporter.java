@@ -33,11 +33,14 @@ package com.jme3.export.binary;
 
 import com.jme3.asset.AssetInfo;
 import com.jme3.asset.AssetManager;
+import com.jme3.asset.plugins.FileLocator;
 import com.jme3.export.*;
 import com.jme3.math.FastMath;
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.logging.Level;
@@ -68,7 +71,10 @@ public final class BinaryImporter implements JmeImporter {
 
     public static boolean debug = false;
 
-    private byte[] dataArray;
+    private static volatile boolean memoryMapping = false;
+
+    private ByteBuffer dataBuffer;
+    private int dataOffset;
     private int aliasWidth;
     private int formatVersion;
 
@@ -85,6 +91,30 @@ public final class BinaryImporter implements JmeImporter {
         return fastRead;
     }
 
+    /**
+     * Enables or disables memory-mapping of files loaded through
+     * {@link #load(java.io.File)} and of assets found by a
+     * {@link FileLocator}. Disabled by default.
+     * <p>
+     * The mapping is read-only, so NIO buffers of the loaded objects may
+     * be read-only as well. Only enable this for data which is not
+     * modified after loading, e.g. static meshes.
+     *
+     * @param enabled True to memory-map files
+     * @see #loadMapped(java.io.File, com.jme3.export.ReadListener)
+     */
+    public static void setMemoryMapping(boolean enabled) {
+        memoryMapping = enabled;
+    }
+
+    /**
+     * @return True if files are memory-mapped
+     * @see #setMemoryMapping(boolean)
+     */
+    public static boolean isMemoryMapping() {
+        return memoryMapping;
+    }
+
     public static BinaryImporter getInstance() {
         return new BinaryImporter();
     }
@@ -103,6 +133,15 @@ public final class BinaryImporter implements JmeImporter {
 
         assetManager = info.getManager();
 
+        if (memoryMapping && info instanceof FileLocator.AssetInfoFile) {
+            try {
+                return loadMapped(((FileLocator.AssetInfoFile) info).getFile(), null);
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "An error occured while loading jME binary object", ex);
+                return null;
+            }
+        }
+
         InputStream is = null;
         try {
             is = info.openStream();
@@ -129,10 +168,12 @@ public final class BinaryImporter implements JmeImporter {
         return load(is, listener, null);
     }
 
-    public Savable load(InputStream is, ReadListener listener, ByteArrayOutputStream baos) throws IOException {
-        contentTable.clear();
-        BufferedInputStream bis = new BufferedInputStream(is);
-        
+    /**
+     * Reads the class and location tables.
+     *
+     * @return The id of the root object
+     */
+    private int readHeader(InputStream bis, ReadListener listener) throws IOException {
         int numClasses;
         
         // Try to read signature
@@ -223,8 +264,17 @@ public final class BinaryImporter implements JmeImporter {
         bytes += 8;
         if (listener != null) listener.readBytes(bytes);
 
+        return id;
+    }
+
+    public Savable load(InputStream is, ReadListener listener, ByteArrayOutputStream baos) throws IOException {
+        contentTable.clear();
+        BufferedInputStream bis = new BufferedInputStream(is);
+        
+        int id = readHeader(bis, listener);
+
         if (baos == null) {
-                baos = new ByteArrayOutputStream(bytes);
+                baos = new ByteArrayOutputStream(4096);
         } else {
                 baos.reset();
         }
@@ -236,17 +286,66 @@ public final class BinaryImporter implements JmeImporter {
         }
         bis = null;
 
-        dataArray = baos.toByteArray();
+        ByteBuffer data = ByteBuffer.wrap(baos.toByteArray());
         baos = null;
 
+        return readRoot(data, 0, id);
+    }
+
+    /**
+     * Loads a binary file by memory-mapping it.
+     * <p>
+     * Vertex, index and image data is not copied but returned as slices of
+     * the mapped file where alignment allows, which keeps the memory usage
+     * and the loading time of large files down. The mapping is read-only,
+     * so those buffers are read-only too and must be copied before they
+     * are modified. Files larger than 2 GB are read into memory instead.
+     *
+     * @param f The file to load
+     * @param listener The listener notified of the progress, or null
+     * @return The root object of the file
+     * @throws IOException If the file cannot be read
+     */
+    public Savable loadMapped(File f, ReadListener listener) throws IOException {
+        RandomAccessFile raf;
+        try {
+            raf = new RandomAccessFile(f, "r");
+        } catch (SecurityException ex) {
+            return loadStream(f, listener);
+        }
+
+        ByteBuffer data;
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return loadStream(f, listener);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+
+        contentTable.clear();
+        ByteBuffer header = data.duplicate();
+        int id = readHeader(new BufferInputStream(header), listener);
+        if (listener != null) listener.readBytes(header.remaining());
+        return readRoot(data, header.position(), id);
+    }
+
+    private Savable readRoot(ByteBuffer data, int offset, int id) {
+        dataBuffer = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        dataOffset = offset;
+
         Savable rVal = readObject(id);
         if (debug) {
             logger.fine("Importer Stats: ");
-            logger.log(Level.FINE, "Tags: {0}", numClasses);
-            logger.log(Level.FINE, "Objects: {0}", numLocs);
-            logger.log(Level.FINE, "Data Size: {0}", dataArray.length);
+            logger.log(Level.FINE, "Tags: {0}", classes.size());
+            logger.log(Level.FINE, "Objects: {0}", locationTable.size());
+            logger.log(Level.FINE, "Data Size: {0}", dataBuffer.capacity() - offset);
         }
-        dataArray = null;
+        dataBuffer = null;
         return rVal;
     }
 
@@ -266,6 +365,13 @@ public final class BinaryImporter implements JmeImporter {
     }
 
     public Savable load(File f, ReadListener listener) throws IOException {
+        if (memoryMapping) {
+            return loadMapped(f, listener);
+        }
+        return loadStream(f, listener);
+    }
+
+    private Savable loadStream(File f, ReadListener listener) throws IOException {
         FileInputStream fis = new FileInputStream(f);
         try {
             return load(fis, listener);
@@ -298,7 +404,7 @@ public final class BinaryImporter implements JmeImporter {
     protected String readString(int length, int offset) throws IOException {
         byte[] data = new byte[length];
         for(int j = 0; j < length; j++) {
-            data[j] = dataArray[j+offset];
+            data[j] = dataBuffer.get(j+offset);
         }
 
         return new String(data);
@@ -311,7 +417,7 @@ public final class BinaryImporter implements JmeImporter {
         }
 
         try {
-            int loc = locationTable.get(id);
+            int loc = locationTable.get(id) + dataOffset;
 
             String alias = readString(aliasWidth, loc);
             loc+=aliasWidth;
@@ -323,7 +429,7 @@ public final class BinaryImporter implements JmeImporter {
                 return null;
             }
 
-            int dataLength = ByteUtils.convertIntFromBytes(dataArray, loc);
+            int dataLength = dataBuffer.getInt(loc);
             loc+=4;
 
             Savable out = null;
@@ -334,7 +440,7 @@ public final class BinaryImporter implements JmeImporter {
             }
 
             BinaryInputCapsule cap = new BinaryInputCapsule(this, out, bco);
-            cap.setContent(dataArray, loc, loc+dataLength);
+            cap.setContent(dataBuffer, loc, loc+dataLength);
 
             capsuleTable.put(out, cap);
             contentTable.put(id, out);
@@ -359,4 +465,31 @@ public final class BinaryImporter implements JmeImporter {
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads the header of a memory-mapped file.
+     */
+    private static final class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+}
@@ -39,6 +39,7 @@ import com.jme3.util.IntMap;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
@@ -71,9 +72,23 @@ final class BinaryInputCapsule implements InputCapsule {
     }
 
     public void setContent(byte[] content, int start, int limit) {
+        setContent(ByteBuffer.wrap(content), start, limit);
+    }
+
+    /**
+     * Reads the fields from the given buffer, between the absolute
+     * positions <code>start</code> and <code>limit</code>.
+     * <p>
+     * If the buffer is direct, e.g. a memory-mapped file, NIO buffer fields
+     * are returned as slices of it instead of copies when they are suitably
+     * aligned. The position of the buffer is not changed.
+     */
+    public void setContent(ByteBuffer content, int start, int limit) {
+        // primitives are stored big endian, buffers little endian
+        content = content.duplicate().order(ByteOrder.BIG_ENDIAN);
         fieldData = new HashMap<Byte, Object>();
         for (index = start; index < limit;) {
-            byte alias = content[index];
+            byte alias = content.get(index);
 
             index++;
 
@@ -252,7 +267,7 @@ final class BinaryInputCapsule implements InputCapsule {
 
             } catch (IOException e) {
                 logger.logp(Level.SEVERE, this.getClass().toString(),
-                        "setContent(byte[] content)", "Exception", e);
+                        "setContent(ByteBuffer content)", "Exception", e);
             }
         }
     }
@@ -744,19 +759,19 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // byte primitive
 
-    protected byte readByte(byte[] content) throws IOException {
-        byte value = content[index];
+    protected byte readByte(ByteBuffer content) throws IOException {
+        byte value = content.get(index);
         index++;
         return value;
     }
 
-    protected byte readByteForBuffer(byte[] content) throws IOException {
-        byte value = content[index];
+    protected byte readByteForBuffer(ByteBuffer content) throws IOException {
+        byte value = content.get(index);
         index++;
         return value;
     }
 
-    protected byte[] readByteArray(byte[] content) throws IOException {
+    protected byte[] readByteArray(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -766,7 +781,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return value;
     }
 
-    protected byte[][] readByteArray2D(byte[] content) throws IOException {
+    protected byte[][] readByteArray2D(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -778,16 +793,16 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // int primitive
 
-    protected int readIntForBuffer(byte[] content){
-        int number = ((content[index+3] & 0xFF) << 24)
-                   + ((content[index+2] & 0xFF) << 16)
-                   + ((content[index+1] & 0xFF) << 8)
-                   +  (content[index]   & 0xFF);
+    protected int readIntForBuffer(ByteBuffer content){
+        int number = ((content.get(index+3) & 0xFF) << 24)
+                   + ((content.get(index+2) & 0xFF) << 16)
+                   + ((content.get(index+1) & 0xFF) << 8)
+                   +  (content.get(index)   & 0xFF);
         index += 4;
         return number;
     }
 
-    protected int readInt(byte[] content) throws IOException {
+    protected int readInt(ByteBuffer content) throws IOException {
         byte[] bytes = inflateFrom(content, index);
         index += 1 + bytes.length;
         bytes = ByteUtils.rightAlignBytes(bytes, 4);
@@ -798,7 +813,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return value;
     }
 
-    protected int[] readIntArray(byte[] content) throws IOException {
+    protected int[] readIntArray(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -808,7 +823,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return value;
     }
 
-    protected int[][] readIntArray2D(byte[] content) throws IOException {
+    protected int[][] readIntArray2D(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -820,18 +835,18 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // float primitive
 
-    protected float readFloat(byte[] content) throws IOException {
-        float value = ByteUtils.convertFloatFromBytes(content, index);
+    protected float readFloat(ByteBuffer content) throws IOException {
+        float value = content.getFloat(index);
         index += 4;
         return value;
     }
 
-    protected float readFloatForBuffer(byte[] content) throws IOException {
+    protected float readFloatForBuffer(ByteBuffer content) throws IOException {
         int number = readIntForBuffer(content);
         return Float.intBitsToFloat(number);
     }
 
-    protected float[] readFloatArray(byte[] content) throws IOException {
+    protected float[] readFloatArray(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -841,7 +856,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return value;
     }
 
-    protected float[][] readFloatArray2D(byte[] content) throws IOException {
+    protected float[][] readFloatArray2D(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -853,13 +868,13 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // double primitive
 
-    protected double readDouble(byte[] content) throws IOException {
-        double value = ByteUtils.convertDoubleFromBytes(content, index);
+    protected double readDouble(ByteBuffer content) throws IOException {
+        double value = content.getDouble(index);
         index += 8;
         return value;
     }
 
-    protected double[] readDoubleArray(byte[] content) throws IOException {
+    protected double[] readDoubleArray(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -869,7 +884,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return value;
     }
 
-    protected double[][] readDoubleArray2D(byte[] content) throws IOException {
+    protected double[][] readDoubleArray2D(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -881,7 +896,7 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // long primitive
 
-    protected long readLong(byte[] content) throws IOException {
+    protected long readLong(ByteBuffer content) throws IOException {
         byte[] bytes = inflateFrom(content, index);
         index += 1 + bytes.length;
         bytes = ByteUtils.rightAlignBytes(bytes, 8);
@@ -889,7 +904,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return value;
     }
 
-    protected long[] readLongArray(byte[] content) throws IOException {
+    protected long[] readLongArray(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -899,7 +914,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return value;
     }
 
-    protected long[][] readLongArray2D(byte[] content) throws IOException {
+    protected long[][] readLongArray2D(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -911,20 +926,20 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // short primitive
 
-    protected short readShort(byte[] content) throws IOException {
-        short value = ByteUtils.convertShortFromBytes(content, index);
+    protected short readShort(ByteBuffer content) throws IOException {
+        short value = content.getShort(index);
         index += 2;
         return value;
     }
 
-    protected short readShortForBuffer(byte[] content) throws IOException {
-        short number = (short) ((content[index+0] & 0xFF)
-                             + ((content[index+1] & 0xFF) << 8));
+    protected short readShortForBuffer(ByteBuffer content) throws IOException {
+        short number = (short) ((content.get(index+0) & 0xFF)
+                             + ((content.get(index+1) & 0xFF) << 8));
         index += 2;
         return number;
     }
 
-    protected short[] readShortArray(byte[] content) throws IOException {
+    protected short[] readShortArray(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -934,7 +949,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return value;
     }
 
-    protected short[][] readShortArray2D(byte[] content) throws IOException {
+    protected short[][] readShortArray2D(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -946,13 +961,13 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // boolean primitive
 
-    protected boolean readBoolean(byte[] content) throws IOException {
-        boolean value = ByteUtils.convertBooleanFromBytes(content, index);
+    protected boolean readBoolean(ByteBuffer content) throws IOException {
+        boolean value = content.get(index) != 0;
         index += 1;
         return value;
     }
 
-    protected boolean[] readBooleanArray(byte[] content) throws IOException {
+    protected boolean[] readBooleanArray(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -962,7 +977,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return value;
     }
 
-    protected boolean[][] readBooleanArray2D(byte[] content) throws IOException {
+    protected boolean[][] readBooleanArray2D(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -995,7 +1010,7 @@ final class BinaryInputCapsule implements InputCapsule {
     private final static int UTF8_ILLEGAL = 10; // not an UTF8 string
 
     // String
-    protected String readString(byte[] content) throws IOException {
+    protected String readString(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -1035,7 +1050,7 @@ final class BinaryInputCapsule implements InputCapsule {
         int utf8State = UTF8_START;
         int b;
         for (int x = 0; x < length; x++) {
-            bytes[x] =  content[index++];
+            bytes[x] =  content.get(index++);
             b = (int) bytes[x] & 0xFF; // unsign our byte
 
             switch (utf8State) {
@@ -1097,7 +1112,7 @@ final class BinaryInputCapsule implements InputCapsule {
         }
     }
 
-    protected String[] readStringArray(byte[] content) throws IOException {
+    protected String[] readStringArray(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -1107,7 +1122,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return value;
     }
 
-    protected String[][] readStringArray2D(byte[] content) throws IOException {
+    protected String[][] readStringArray2D(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -1119,7 +1134,7 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // BitSet
 
-    protected BitSet readBitSet(byte[] content) throws IOException {
+    protected BitSet readBitSet(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -1132,7 +1147,11 @@ final class BinaryInputCapsule implements InputCapsule {
     // INFLATOR for int and long
 
     protected static byte[] inflateFrom(byte[] contents, int index) {
-        byte firstByte = contents[index];
+        return inflateFrom(ByteBuffer.wrap(contents), index);
+    }
+
+    protected static byte[] inflateFrom(ByteBuffer contents, int index) {
+        byte firstByte = contents.get(index);
         if (firstByte == BinaryOutputCapsule.NULL_OBJECT)
             return ByteUtils.convertToBytes(BinaryOutputCapsule.NULL_OBJECT);
         else if (firstByte == BinaryOutputCapsule.DEFAULT_OBJECT)
@@ -1142,14 +1161,14 @@ final class BinaryInputCapsule implements InputCapsule {
         else {
             byte[] rVal = new byte[firstByte];
             for (int x = 0; x < rVal.length; x++)
-                rVal[x] = contents[x + 1 + index];
+                rVal[x] = contents.get(x + 1 + index);
             return rVal;
         }
     }
 
     // BinarySavable
 
-    protected ID readSavable(byte[] content) throws IOException {
+    protected ID readSavable(ByteBuffer content) throws IOException {
         int id = readInt(content);
         if (id == BinaryOutputCapsule.NULL_OBJECT) {
             return null;
@@ -1160,7 +1179,7 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // BinarySavable array
 
-    protected ID[] readSavableArray(byte[] content) throws IOException {
+    protected ID[] readSavableArray(ByteBuffer content) throws IOException {
         int elements = readInt(content);
         if (elements == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -1171,7 +1190,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return rVal;
     }
 
-    protected ID[][] readSavableArray2D(byte[] content) throws IOException {
+    protected ID[][] readSavableArray2D(ByteBuffer content) throws IOException {
         int elements = readInt(content);
         if (elements == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -1182,7 +1201,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return rVal;
     }
 
-    protected ID[][][] readSavableArray3D(byte[] content) throws IOException {
+    protected ID[][][] readSavableArray3D(ByteBuffer content) throws IOException {
         int elements = readInt(content);
         if (elements == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -1195,7 +1214,7 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // BinarySavable map
 
-    protected ID[][] readSavableMap(byte[] content) throws IOException {
+    protected ID[][] readSavableMap(ByteBuffer content) throws IOException {
         int elements = readInt(content);
         if (elements == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -1206,7 +1225,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return rVal;
     }
 
-    protected StringIDMap readStringSavableMap(byte[] content) throws IOException {
+    protected StringIDMap readStringSavableMap(ByteBuffer content) throws IOException {
         int elements = readInt(content);
         if (elements == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -1218,7 +1237,7 @@ final class BinaryInputCapsule implements InputCapsule {
         return rVal;
     }
 
-    protected IntIDMap readIntSavableMap(byte[] content) throws IOException {
+    protected IntIDMap readIntSavableMap(ByteBuffer content) throws IOException {
         int elements = readInt(content);
         if (elements == BinaryOutputCapsule.NULL_OBJECT)
             return null;
@@ -1233,7 +1252,7 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // ArrayList<FloatBuffer>
 
-    protected ArrayList<FloatBuffer> readFloatBufferArrayList(byte[] content)
+    protected ArrayList<FloatBuffer> readFloatBufferArrayList(ByteBuffer content)
             throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT) {
@@ -1248,7 +1267,7 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // ArrayList<ByteBuffer>
 
-    protected ArrayList<ByteBuffer> readByteBufferArrayList(byte[] content)
+    protected ArrayList<ByteBuffer> readByteBufferArrayList(ByteBuffer content)
             throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT) {
@@ -1264,16 +1283,13 @@ final class BinaryInputCapsule implements InputCapsule {
     // NIO BUFFERS
     // float buffer
 
-    protected FloatBuffer readFloatBuffer(byte[] content) throws IOException {
+    protected FloatBuffer readFloatBuffer(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
 
         if (BinaryImporter.canUseFastBuffers()){
-            ByteBuffer value = BufferUtils.createByteBuffer(length * 4);
-            value.put(content, index, length * 4).rewind();
-            index += length * 4;
-            return value.asFloatBuffer();
+            return readBufferData(content, length * 4, 4).asFloatBuffer();
         }else{
             FloatBuffer value = BufferUtils.createFloatBuffer(length);
             for (int x = 0; x < length; x++) {
@@ -1286,16 +1302,13 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // int buffer
 
-    protected IntBuffer readIntBuffer(byte[] content) throws IOException {
+    protected IntBuffer readIntBuffer(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
 
         if (BinaryImporter.canUseFastBuffers()){
-            ByteBuffer value = BufferUtils.createByteBuffer(length * 4);
-            value.put(content, index, length * 4).rewind();
-            index += length * 4;
-            return value.asIntBuffer();
+            return readBufferData(content, length * 4, 4).asIntBuffer();
         }else{
             IntBuffer value = BufferUtils.createIntBuffer(length);
             for (int x = 0; x < length; x++) {
@@ -1308,16 +1321,13 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // byte buffer
 
-    protected ByteBuffer readByteBuffer(byte[] content) throws IOException {
+    protected ByteBuffer readByteBuffer(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
 
         if (BinaryImporter.canUseFastBuffers()){
-            ByteBuffer value = BufferUtils.createByteBuffer(length);
-            value.put(content, index, length).rewind();
-            index += length;
-            return value;
+            return readBufferData(content, length, 1);
         }else{
             ByteBuffer value = BufferUtils.createByteBuffer(length);
             for (int x = 0; x < length; x++) {
@@ -1330,16 +1340,13 @@ final class BinaryInputCapsule implements InputCapsule {
 
     // short buffer
 
-    protected ShortBuffer readShortBuffer(byte[] content) throws IOException {
+    protected ShortBuffer readShortBuffer(ByteBuffer content) throws IOException {
         int length = readInt(content);
         if (length == BinaryOutputCapsule.NULL_OBJECT)
             return null;
 
         if (BinaryImporter.canUseFastBuffers()){
-            ByteBuffer value = BufferUtils.createByteBuffer(length * 2);
-            value.put(content, index, length * 2).rewind();
-            index += length * 2;
-            return value.asShortBuffer();
+            return readBufferData(content, length * 2, 2).asShortBuffer();
         }else{
             ShortBuffer value = BufferUtils.createShortBuffer(length);
             for (int x = 0; x < length; x++) {
@@ -1350,6 +1357,25 @@ final class BinaryInputCapsule implements InputCapsule {
         }
     }
 
+    /**
+     * Returns the next <code>bytes</code> bytes of the content in a little
+     * endian direct buffer, as a slice if the content is direct and the data
+     * is aligned to <code>alignment</code> bytes, as a copy otherwise.
+     */
+    private ByteBuffer readBufferData(ByteBuffer content, int bytes, int alignment) {
+        ByteBuffer data = content.duplicate();
+        data.limit(index + bytes).position(index);
+        index += bytes;
+        // a direct buffer given by the importer starts at the beginning
+        // of a memory-mapped file, which is page aligned
+        if (content.isDirect() && data.position() % alignment == 0) {
+            return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer value = BufferUtils.createByteBuffer(bytes);
+        value.put(data).rewind();
+        return value;
+    }
+
     static private class ID {
         public int id;
 
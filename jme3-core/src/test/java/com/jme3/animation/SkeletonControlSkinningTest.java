@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.animation;
+
+import static org.junit.Assert.*;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.VertexBuffer.Type;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the software skinning of the {@link SkeletonControl}, done on the
+ * render thread or {@link SkeletonControl#setSoftwareSkinningPool(ForkJoinPool)
+ * on a pool}, against each other and across pose and target changes.
+ */
+public class SkeletonControlSkinningTest {
+
+    private static final int NUM_BONES = 4;
+    private static final int NUM_VERTS = 5000;
+    private static final float EPSILON = 1e-4f;
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * A chain of bones going up the y axis.
+     */
+    private static Skeleton createSkeleton() {
+        Bone[] bones = new Bone[NUM_BONES];
+        for (int i = 0; i < NUM_BONES; i++) {
+            bones[i] = new Bone("bone" + i);
+            bones[i].setBindTransforms(new Vector3f(0, i == 0 ? 0 : 1, 0),
+                    new Quaternion(), new Vector3f(1, 1, 1));
+            if (i > 0) {
+                bones[i - 1].addChild(bones[i]);
+            }
+        }
+        return new Skeleton(bones);
+    }
+
+    /**
+     * A column of vertices, each one weighted to up to four bones. Every
+     * 50th vertex has no weights and must keep its bind pose.
+     */
+    private static Mesh createMesh(boolean tangents) {
+        float[] pos = new float[NUM_VERTS * 3];
+        float[] norm = new float[NUM_VERTS * 3];
+        float[] tan = new float[NUM_VERTS * 4];
+        byte[] indices = new byte[NUM_VERTS * 4];
+        float[] weights = new float[NUM_VERTS * 4];
+        for (int i = 0; i < NUM_VERTS; i++) {
+            float y = (float) i / NUM_VERTS * NUM_BONES;
+            float angle = i * 0.37f;
+            pos[i * 3] = FastMath.cos(angle);
+            pos[i * 3 + 1] = y;
+            pos[i * 3 + 2] = FastMath.sin(angle);
+            norm[i * 3] = FastMath.cos(angle);
+            norm[i * 3 + 2] = FastMath.sin(angle);
+            tan[i * 4] = -FastMath.sin(angle);
+            tan[i * 4 + 2] = FastMath.cos(angle);
+            tan[i * 4 + 3] = i % 2 == 0 ? 1 : -1;
+
+            if (i % 50 == 0) {
+                continue;
+            }
+            int bone = Math.min((int) y, NUM_BONES - 1);
+            float[] w = {0.4f, 0.3f, 0.2f, 0.1f};
+            for (int j = 0; j < 4; j++) {
+                indices[i * 4 + j] = (byte) ((bone + j) % NUM_BONES);
+                weights[i * 4 + j] = w[j];
+            }
+        }
+
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(Type.Position, 3, pos);
+        mesh.setBuffer(Type.Normal, 3, norm);
+        if (tangents) {
+            mesh.setBuffer(Type.Tangent, 4, tan);
+        }
+        mesh.setBuffer(Type.BoneIndex, 4, indices);
+        mesh.setBuffer(Type.BoneWeight, 4, weights);
+        mesh.setMaxNumWeights(4);
+        mesh.generateBindPose(true);
+        mesh.updateCounts();
+        return mesh;
+    }
+
+    /**
+     * Bends every bone of the skeleton around the z axis by the given
+     * angle and moves it along x by the given offset.
+     */
+    private static void setPose(Skeleton skeleton, float angle, float offset) {
+        Quaternion rot = new Quaternion().fromAngleAxis(angle, Vector3f.UNIT_Z);
+        for (int i = 0; i < skeleton.getBoneCount(); i++) {
+            Bone bone = skeleton.getBone(i);
+            bone.setUserControl(true);
+            bone.setUserTransforms(new Vector3f(offset, 0, 0), rot, Vector3f.UNIT_XYZ);
+        }
+        skeleton.updateWorldVectors();
+    }
+
+    private static SkeletonControl createControl(Skeleton skeleton, Mesh mesh, ForkJoinPool pool) {
+        SkeletonControl control = new SkeletonControl(skeleton);
+        control.setHardwareSkinningPreferred(false);
+        control.setSoftwareSkinningPool(pool);
+        Node model = new Node("model");
+        model.attachChild(new Geometry("geom", mesh));
+        model.addControl(control);
+        return control;
+    }
+
+    private static void render(SkeletonControl control) {
+        control.update(0);
+        control.render(null, null);
+    }
+
+    /**
+     * Skins a new mesh with a new skeleton set to the given pose on the
+     * render thread.
+     */
+    private static Mesh skinSerial(boolean tangents, float angle, float offset) {
+        Skeleton skeleton = createSkeleton();
+        Mesh mesh = createMesh(tangents);
+        setPose(skeleton, angle, offset);
+        render(createControl(skeleton, mesh, null));
+        return mesh;
+    }
+
+    private static void assertBuffer(Mesh expected, Mesh actual, Type type) {
+        FloatBuffer e = (FloatBuffer) expected.getBuffer(type).getData();
+        FloatBuffer a = (FloatBuffer) actual.getBuffer(type).getData();
+        assertEquals(type + " limit", e.limit(), a.limit());
+        for (int i = 0; i < e.limit(); i++) {
+            assertEquals(type + " at " + i, e.get(i), a.get(i), EPSILON);
+        }
+    }
+
+    private static void assertSkinned(Mesh expected, Mesh actual) {
+        assertBuffer(expected, actual, Type.Position);
+        assertBuffer(expected, actual, Type.Normal);
+        if (expected.getBuffer(Type.Tangent) != null) {
+            assertBuffer(expected, actual, Type.Tangent);
+        }
+    }
+
+    private static boolean differs(Mesh a, Mesh b) {
+        FloatBuffer pa = (FloatBuffer) a.getBuffer(Type.Position).getData();
+        FloatBuffer pb = (FloatBuffer) b.getBuffer(Type.Position).getData();
+        for (int i = 0; i < pa.limit(); i++) {
+            if (Math.abs(pa.get(i) - pb.get(i)) > EPSILON) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testParallelMatchesSerial() {
+        for (boolean tangents : new boolean[]{false, true}) {
+            Skeleton skeleton = createSkeleton();
+            Mesh mesh = createMesh(tangents);
+            SkeletonControl control = createControl(skeleton, mesh, pool);
+            assertSame(pool, control.getSoftwareSkinningPool());
+
+            // several frames, so the back buffers get swapped back in
+            for (int frame = 0; frame < 4; frame++) {
+                float angle = 0.2f + frame * 0.15f;
+                float offset = frame * 0.5f;
+                setPose(skeleton, angle, offset);
+                render(control);
+                assertSkinned(skinSerial(tangents, angle, offset), mesh);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSerialWithSeveralTargets() {
+        Skeleton skeleton = createSkeleton();
+        Mesh first = createMesh(false);
+        Mesh second = createMesh(true);
+        SkeletonControl control = createControl(skeleton, first, pool);
+        ((Node) control.getSpatial()).attachChild(new Geometry("second", second));
+
+        setPose(skeleton, 0.6f, 0.25f);
+        render(control);
+        assertEquals(2, control.getTargets().length);
+        assertSkinned(skinSerial(false, 0.6f, 0.25f), first);
+        assertSkinned(skinSerial(true, 0.6f, 0.25f), second);
+    }
+
+    @Test
+    public void testUnchangedPoseSkipped() {
+        for (ForkJoinPool p : new ForkJoinPool[]{null, pool}) {
+            Skeleton skeleton = createSkeleton();
+            Mesh mesh = createMesh(false);
+            SkeletonControl control = createControl(skeleton, mesh, p);
+
+            setPose(skeleton, 0.5f, 0);
+            render(control);
+            Mesh expected = skinSerial(false, 0.5f, 0);
+            assertSkinned(expected, mesh);
+
+            // the same pose again is not skinned, a marker in the buffer stays
+            FloatBuffer pos = (FloatBuffer) mesh.getBuffer(Type.Position).getData();
+            float old = pos.get(1);
+            pos.put(1, 1234f);
+            setPose(skeleton, 0.5f, 0);
+            render(control);
+            assertEquals(1234f, ((FloatBuffer) mesh.getBuffer(Type.Position).getData()).get(1), 0f);
+            ((FloatBuffer) mesh.getBuffer(Type.Position).getData()).put(1, old);
+        }
+    }
+
+    @Test
+    public void testOffsetChangeNotStale() {
+        for (ForkJoinPool p : new ForkJoinPool[]{null, pool}) {
+            Skeleton skeleton = createSkeleton();
+            Mesh mesh = createMesh(true);
+            SkeletonControl control = createControl(skeleton, mesh, p);
+
+            setPose(skeleton, 0.5f, 0);
+            render(control);
+            Mesh first = skinSerial(true, 0.5f, 0);
+            assertSkinned(first, mesh);
+
+            // only the translation changes
+            setPose(skeleton, 0.5f, 0.75f);
+            render(control);
+            Mesh second = skinSerial(true, 0.5f, 0.75f);
+            assertTrue(differs(first, second));
+            assertSkinned(second, mesh);
+
+            // only the rotation changes
+            setPose(skeleton, -0.3f, 0.75f);
+            render(control);
+            assertSkinned(skinSerial(true, -0.3f, 0.75f), mesh);
+
+            // back to the first pose
+            setPose(skeleton, 0.5f, 0);
+            render(control);
+            assertSkinned(first, mesh);
+
+            // a single bone moving is enough
+            skeleton.getBone(NUM_BONES - 1).setUserTransforms(
+                    new Vector3f(0, 0, 1), new Quaternion(), Vector3f.UNIT_XYZ);
+            skeleton.updateWorldVectors();
+            render(control);
+            assertTrue(differs(first, mesh));
+        }
+    }
+
+    @Test
+    public void testTargetChangeNotStale() {
+        for (ForkJoinPool p : new ForkJoinPool[]{null, pool}) {
+            Skeleton skeleton = createSkeleton();
+            Mesh mesh = createMesh(false);
+            SkeletonControl control = createControl(skeleton, mesh, p);
+            Node model = (Node) control.getSpatial();
+
+            setPose(skeleton, 0.5f, 0.25f);
+            render(control);
+            Mesh expected = skinSerial(false, 0.5f, 0.25f);
+            assertSkinned(expected, mesh);
+
+            // a new target in the same pose still gets skinned
+            Mesh added = createMesh(false);
+            model.attachChild(new Geometry("added", added));
+            render(control);
+            assertSkinned(expected, added);
+
+            // so does a replacement for the only target
+            model.detachAllChildren();
+            Mesh replaced = createMesh(false);
+            model.attachChild(new Geometry("replaced", replaced));
+            render(control);
+            assertEquals(1, control.getTargets().length);
+            assertSkinned(expected, replaced);
+        }
+    }
+
+    @Test
+    public void testPoolChangeNotStale() {
+        Skeleton skeleton = createSkeleton();
+        Mesh mesh = createMesh(true);
+        SkeletonControl control = createControl(skeleton, mesh, pool);
+
+        setPose(skeleton, 0.5f, 0.25f);
+        render(control);
+        Mesh expected = skinSerial(true, 0.5f, 0.25f);
+        assertSkinned(expected, mesh);
+
+        // switching the backend forgets the last pose
+        FloatBuffer pos = (FloatBuffer) mesh.getBuffer(Type.Position).getData();
+        pos.put(1, 1234f);
+        control.setSoftwareSkinningPool(null);
+        assertNull(control.getSoftwareSkinningPool());
+        render(control);
+        assertSkinned(expected, mesh);
+
+        pos = (FloatBuffer) mesh.getBuffer(Type.Position).getData();
+        pos.put(1, 1234f);
+        control.setSoftwareSkinningPool(pool);
+        render(control);
+        assertSkinned(expected, mesh);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.app;
+
+import static org.junit.Assert.*;
+
+import com.jme3.profile.AppStep;
+import com.jme3.profile.VpStep;
+import com.jme3.renderer.queue.RenderQueue.Bucket;
+import org.junit.Test;
+
+/**
+ * Checks the frame times recorded by {@link TraceProfiler}.
+ */
+public class TraceProfilerTest {
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    @Test
+    public void testFrameTime() {
+        TraceProfiler profiler = new TraceProfiler(4, 8);
+        long start = System.nanoTime();
+        profiler.appStep(AppStep.BeginFrame);
+        profiler.appStep(AppStep.StateManagerUpdate);
+        sleep(20);
+        profiler.appStep(AppStep.RenderFrame);
+        long end = System.nanoTime();
+        profiler.appStep(AppStep.BeginFrame);
+
+        assertEquals(1, profiler.getRecordedFrameCount());
+        long frame = profiler.getFramePercentile(50);
+        assertTrue(frame >= 20000000L);
+        assertTrue(frame <= end - start + 1000000L);
+    }
+
+    @Test
+    public void testFrameLongerThanBuffer() {
+        // Room for 2 steps while the frame has many more, the frame
+        // time must still cover the whole frame
+        TraceProfiler profiler = new TraceProfiler(1, 2);
+        profiler.appStep(AppStep.BeginFrame);
+        sleep(20);
+        for (int i = 0; i < 100; i++) {
+            profiler.vpStep(VpStep.RenderBucket, null, Bucket.Opaque);
+        }
+        profiler.appStep(AppStep.BeginFrame);
+
+        assertEquals(1, profiler.getRecordedFrameCount());
+        assertTrue(profiler.getFramePercentile(50) >= 20000000L);
+    }
+}
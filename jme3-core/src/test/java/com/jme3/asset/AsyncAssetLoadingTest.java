@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.asset;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the order, the staging and the dependency joining of assets
+ * loaded through {@link ThreadingManager} and
+ * {@link DesktopAssetManager#loadAssetAsync(com.jme3.asset.AssetKey, float, com.jme3.asset.AssetRequestListener) }.
+ */
+public class AsyncAssetLoadingTest {
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    // shared with the loader, which the asset manager creates itself
+    private static final List<String> loaded = new ArrayList<String>();
+    private static final Semaphore gate = new Semaphore(0);
+    private static volatile CountDownLatch gatesStarted;
+
+    /**
+     * Finds every asset, with no data.
+     */
+    public static class TestLocator implements AssetLocator {
+
+        public void setRootPath(String rootPath) {
+        }
+
+        public AssetInfo locate(AssetManager manager, AssetKey key) {
+            return new AssetInfo(manager, key) {
+                @Override
+                public InputStream openStream() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+            };
+        }
+    }
+
+    /**
+     * Loads the name of the asset. "gate" assets block until the test
+     * lets them go and "model" assets load "dep.test" as a dependency.
+     */
+    public static class TestLoader implements AssetLoader {
+
+        public Object load(AssetInfo assetInfo) throws IOException {
+            String name = assetInfo.getKey().getName();
+            if (name.startsWith("gate")) {
+                gatesStarted.countDown();
+                gate.acquireUninterruptibly();
+                return name;
+            }
+            synchronized (loaded) {
+                loaded.add(name);
+            }
+            if (name.startsWith("model")) {
+                return name + "+" + assetInfo.getManager().loadAsset(new AssetKey<String>("dep.test"));
+            }
+            return name;
+        }
+    }
+
+    private static class RecordingListener implements AssetRequestListener<String> {
+
+        final List<String> assets = new ArrayList<String>();
+
+        public void assetLoaded(AssetKey<String> key, String asset) {
+            assets.add(asset);
+        }
+
+        public void assetFailed(AssetKey<String> key, Throwable cause) {
+            fail(cause.toString());
+        }
+    }
+
+    private DesktopAssetManager assetManager;
+
+    @Before
+    public void setUp() {
+        synchronized (loaded) {
+            loaded.clear();
+        }
+        gate.drainPermits();
+        assetManager = new DesktopAssetManager();
+        assetManager.registerLocator("/", TestLocator.class);
+        assetManager.registerLoader(TestLoader.class, "test");
+    }
+
+    @After
+    public void tearDown() {
+        // let go of any loading thread still blocked
+        gate.release(THREADS * 2);
+    }
+
+    private static AssetKey<String> key(String name) {
+        return new AssetKey<String>(name + ".test");
+    }
+
+    private static List<String> getLoaded() {
+        synchronized (loaded) {
+            return new ArrayList<String>(loaded);
+        }
+    }
+
+    private static void waitFor(int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (getLoaded().size() < count) {
+            assertTrue("Timed out", System.currentTimeMillis() < end);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void waitForStaged(ThreadingManager manager, int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (manager.getLoadedAssetCount() < count) {
+            assertTrue("Timed out", System.currentTimeMillis() < end);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Blocks all loading threads of the manager.
+     */
+    private static void blockThreads(ThreadingManager manager) throws InterruptedException {
+        gatesStarted = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            manager.loadAsset(key("gate" + i), -100, null);
+        }
+        assertTrue(gatesStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        ThreadingManager manager = new ThreadingManager(assetManager);
+        blockThreads(manager);
+        manager.loadAsset(key("a"), 5, null);
+        manager.loadAsset(key("b"), 1, null);
+        manager.loadAsset(key("c"), 3, null);
+        manager.loadAsset(key("d"), 1, null);
+        manager.loadAsset(key("e"), -1, null);
+
+        // a single free thread loads the queue in order, equal priorities
+        // in the order they were requested
+        gate.release();
+        waitFor(5);
+        assertEquals(Arrays.asList("e.test", "b.test", "d.test", "c.test", "a.test"), getLoaded());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        ThreadingManager manager = new ThreadingManager(assetManager);
+        blockThreads(manager);
+        RecordingListener listener = new RecordingListener();
+        AssetRequest<String> cancelled = manager.loadAsset(key("a"), 0, listener);
+        manager.loadAsset(key("b"), 1, listener);
+        assertTrue(cancelled.cancel(false));
+
+        gate.release(THREADS);
+        waitForStaged(manager, THREADS + 1);
+        manager.finishLoadedAssets(null, Long.MAX_VALUE);
+        assertEquals(Arrays.asList("b.test"), getLoaded());
+        assertEquals(Arrays.asList("b.test"), listener.assets);
+    }
+
+    @Test
+    public void testUploadBudget() throws Exception {
+        ThreadingManager manager = new ThreadingManager(assetManager);
+        RecordingListener listener = new RecordingListener();
+        for (int i = 0; i < 3; i++) {
+            manager.loadAsset(key("asset" + i), i, listener);
+        }
+        waitForStaged(manager, 3);
+        assertTrue(listener.assets.isEmpty());
+
+        // at least one asset per call, even without any time
+        manager.finishLoadedAssets(null, 0);
+        assertEquals(1, listener.assets.size());
+        assertEquals(2, manager.getLoadedAssetCount());
+
+        manager.finishLoadedAssets(null, TimeUnit.SECONDS.toNanos(10));
+        assertEquals(3, listener.assets.size());
+        assertEquals(0, manager.getLoadedAssetCount());
+    }
+
+    @Test
+    public void testFutureNotStaged() throws Exception {
+        ThreadingManager manager = new ThreadingManager(assetManager);
+        assertEquals("a.test", manager.loadAsset(key("a")).get(5, TimeUnit.SECONDS));
+        manager.loadAsset(key("b"), 0, null);
+        waitForStaged(manager, 1);
+        Thread.sleep(50);
+        assertEquals(1, manager.getLoadedAssetCount());
+    }
+
+    @Test
+    public void testDependencyJoined() throws Exception {
+        gatesStarted = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            assetManager.loadAssetAsync(key("gate" + i), -100, null);
+        }
+        assertTrue(gatesStarted.await(5, TimeUnit.SECONDS));
+        RecordingListener listener = new RecordingListener();
+        assetManager.loadAssetAsync(key("dep"), 10, listener);
+        assetManager.loadAssetAsync(key("model"), 0, listener);
+
+        // the model loader asks for the dependency while it is still
+        // queued, and loads it once on its own thread
+        gate.release();
+        long end = System.currentTimeMillis() + 5000;
+        while (listener.assets.size() < 2) {
+            assertTrue("Timed out", System.currentTimeMillis() < end);
+            assetManager.finishLoadedAssets(null, 1);
+            Thread.sleep(1);
+        }
+        assertEquals(Arrays.asList("model.test", "dep.test"), getLoaded());
+        assertTrue(listener.assets.contains("model.test+dep.test"));
+        assertTrue(listener.assets.contains("dep.test"));
+    }
+}
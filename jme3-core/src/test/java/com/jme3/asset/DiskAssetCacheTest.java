@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.asset;
+
+import static org.junit.Assert.*;
+
+import com.jme3.asset.plugins.FileLocator;
+import com.jme3.scene.Node;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that {@link DiskAssetCache} reads back stored assets, reloads them
+ * when their data, loader or dependencies change, and prunes old results.
+ */
+public class DiskAssetCacheTest {
+
+    private static int loads;
+
+    /**
+     * Loads a node named after the first line of the file. A second line
+     * names a dependency which is requested through the asset manager.
+     */
+    public static class NodeLoader implements AssetLoader {
+
+        public Object load(AssetInfo assetInfo) throws IOException {
+            loads++;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(assetInfo.openStream(), "UTF-8"));
+            try {
+                String name = reader.readLine();
+                String dependency = reader.readLine();
+                if (dependency != null) {
+                    name += "+" + assetInfo.getManager().loadAsset(new AssetKey<Object>(dependency));
+                }
+                return new Node(name);
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Same as NodeLoader, but a different class.
+     */
+    public static class OtherNodeLoader extends NodeLoader {
+    }
+
+    /**
+     * Loads the first line of the file, not cached on disk.
+     */
+    public static class TextLoader implements AssetLoader {
+
+        public Object load(AssetInfo assetInfo) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(assetInfo.openStream(), "UTF-8"));
+            try {
+                return reader.readLine();
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private File root;
+    private File assets;
+    private File cacheDir;
+    private DiskAssetCache cache;
+    private DesktopAssetManager assetManager;
+
+    @Before
+    public void setUp() throws IOException {
+        root = File.createTempFile("diskcache", "test");
+        root.delete();
+        assets = new File(root, "assets");
+        cacheDir = new File(root, "cache");
+        assertTrue(assets.mkdirs());
+
+        loads = 0;
+        cache = new DiskAssetCache(cacheDir);
+        cache.addExtension("node");
+        assetManager = new DesktopAssetManager();
+        assetManager.registerLocator(assets.getAbsolutePath(), FileLocator.class);
+        assetManager.registerLoader(NodeLoader.class, "node");
+        assetManager.registerLoader(TextLoader.class, "txt");
+        assetManager.setDiskCache(cache);
+    }
+
+    @After
+    public void tearDown() {
+        delete(root);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void write(String name, String text) throws IOException {
+        OutputStream out = new FileOutputStream(new File(assets, name));
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private String load(String name) {
+        // skip the memory cache, every load goes to the disk cache
+        assetManager.clearCache();
+        return assetManager.loadModel(new ModelKey(name)).getName();
+    }
+
+    private Set<File> getCachedFiles(String suffix) {
+        Set<File> files = new HashSet<File>();
+        File[] list = cacheDir.listFiles();
+        if (list != null) {
+            for (File file : list) {
+                if (file.getName().endsWith(suffix)) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        write("a.node", "first");
+        assertEquals("first", load("a.node"));
+        assertEquals(1, loads);
+        assertEquals(1, getCachedFiles(".j3o").size());
+        assertEquals(1, getCachedFiles(".dep").size());
+
+        assertEquals("first", load("a.node"));
+        assertEquals(1, loads);
+
+        // a new cache on the same directory, as on the next run
+        assetManager.setDiskCache(new DiskAssetCache(cacheDir));
+        cache = assetManager.getDiskCache();
+        cache.addExtension("node");
+        assertEquals("first", load("a.node"));
+        assertEquals(1, loads);
+
+        cache.clear();
+        assertTrue(getCachedFiles(".j3o").isEmpty());
+        assertEquals("first", load("a.node"));
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void testExtensionNotCached() throws IOException {
+        write("a.node", "first");
+        cache.removeExtension("node");
+        load("a.node");
+        load("a.node");
+        assertEquals(2, loads);
+        assertTrue(getCachedFiles(".j3o").isEmpty());
+    }
+
+    @Test
+    public void testDataChanged() throws IOException {
+        write("a.node", "first");
+        assertEquals("first", load("a.node"));
+        write("a.node", "second");
+        assertEquals("second", load("a.node"));
+        assertEquals(2, loads);
+        // both versions are kept, going back is a hit
+        write("a.node", "first");
+        assertEquals("first", load("a.node"));
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void testKeyAndLoaderChanged() throws IOException {
+        write("a.node", "first");
+        write("b.node", "first");
+        load("a.node");
+        load("b.node");
+        assertEquals(2, loads);
+
+        assetManager.registerLoader(OtherNodeLoader.class, "node");
+        load("a.node");
+        assertEquals(3, loads);
+    }
+
+    @Test
+    public void testDependencyChanged() throws IOException {
+        write("a.node", "model\ndep.txt");
+        write("dep.txt", "one");
+        assertEquals("model+one", load("a.node"));
+        assertEquals("model+one", load("a.node"));
+        assertEquals(1, loads);
+
+        write("dep.txt", "three");
+        assertEquals("model+three", load("a.node"));
+        assertEquals(2, loads);
+
+        // a missing dependency list means the result is out of date
+        for (File file : getCachedFiles(".dep")) {
+            assertTrue(file.delete());
+        }
+        assertEquals("model+three", load("a.node"));
+        assertEquals(3, loads);
+
+        // a deleted dependency cannot be checked, the loader reports it
+        assertTrue(new File(assets, "dep.txt").delete());
+        try {
+            load("a.node");
+            fail("Expected the missing dependency to be reported");
+        } catch (AssetNotFoundException ex) {
+        }
+    }
+
+    @Test
+    public void testPruneSize() throws IOException {
+        cache.setMaxSize(0);
+        long now = System.currentTimeMillis();
+        File[] data = new File[3];
+        for (int i = 0; i < 3; i++) {
+            write("a" + i + ".node", "asset" + i);
+            Set<File> before = getCachedFiles(".j3o");
+            load("a" + i + ".node");
+            Set<File> after = getCachedFiles(".j3o");
+            after.removeAll(before);
+            data[i] = after.iterator().next();
+        }
+        // 1 was used last, then 2, then 0
+        data[0].setLastModified(now - 30000);
+        data[2].setLastModified(now - 20000);
+        data[1].setLastModified(now - 10000);
+
+        long size = 0;
+        for (File file : cacheDir.listFiles()) {
+            size += file.length();
+        }
+        cache.setMaxSize(size - 1);
+        cache.prune();
+        assertFalse(data[0].exists());
+        assertTrue(data[1].exists());
+        assertTrue(data[2].exists());
+        assertEquals(2, getCachedFiles(".dep").size());
+
+        // a hit makes a result the most recently used
+        load("a2.node");
+        assertEquals(3, loads);
+        assertTrue(data[2].lastModified() > data[1].lastModified());
+        cache.setMaxSize(data[2].length() + 100);
+        cache.prune();
+        assertFalse(data[1].exists());
+        assertTrue(data[2].exists());
+    }
+
+    @Test
+    public void testPruneAge() throws IOException {
+        write("a.node", "old");
+        write("b.node", "new");
+        load("a.node");
+        Set<File> old = getCachedFiles(".j3o");
+        load("b.node");
+        for (File file : old) {
+            file.setLastModified(System.currentTimeMillis() - 60000);
+        }
+
+        cache.setMaxAge(30000);
+        cache.prune();
+        assertEquals(1, getCachedFiles(".j3o").size());
+        assertEquals(1, getCachedFiles(".dep").size());
+        assertFalse(old.iterator().next().exists());
+
+        assertEquals("old", load("a.node"));
+        assertEquals(3, loads);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSize() {
+        cache.setMaxSize(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeAge() {
+        cache.setMaxAge(-1);
+    }
+}
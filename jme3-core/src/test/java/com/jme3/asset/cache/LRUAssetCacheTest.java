@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.asset.cache;
+
+import static org.junit.Assert.*;
+
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/**
+ * Checks the size estimates and the eviction order of {@link LRUAssetCache}.
+ */
+public class LRUAssetCacheTest {
+
+    private static final long IMAGE_SIZE = 1000;
+
+    private static Image image() {
+        return new Image(Image.Format.Luminance8, 10, 100, ByteBuffer.allocate((int) IMAGE_SIZE));
+    }
+
+    private static AssetKey<Image> key(String name) {
+        return new AssetKey<Image>(name);
+    }
+
+    @Test
+    public void testEstimateSize() {
+        LRUAssetCache cache = new LRUAssetCache();
+        long overhead = cache.estimateSize(key("a"), new Object());
+        assertTrue(overhead > 0);
+
+        assertEquals(overhead + IMAGE_SIZE, cache.estimateSize(key("a"), image()));
+        Texture texture = new Texture2D(image());
+        assertEquals(overhead + IMAGE_SIZE, cache.estimateSize(new AssetKey<Texture>("a"), texture));
+
+        // 4 positions of 3 floats
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, new float[12]);
+        assertEquals(overhead + 48, cache.estimateSize(new AssetKey<Mesh>("a"), mesh));
+
+        // a mesh shared by two geometries counts once
+        Node model = new Node("Model");
+        model.attachChild(new Geometry("A", mesh));
+        Node child = new Node("Child");
+        child.attachChild(new Geometry("B", mesh));
+        model.attachChild(child);
+        assertEquals(overhead + 48, cache.estimateSize(new AssetKey<Spatial>("a"), model));
+    }
+
+    @Test
+    public void testEviction() {
+        long entrySize = new LRUAssetCache().estimateSize(key("a"), image());
+        LRUAssetCache cache = new LRUAssetCache(entrySize * 3);
+        cache.addToCache(key("a"), image());
+        cache.addToCache(key("b"), image());
+        cache.addToCache(key("c"), image());
+        assertEquals(3, cache.getAssetCount());
+        assertEquals(entrySize * 3, cache.getMemoryUsed());
+
+        // a lookup makes "a" the most recently used, "b" goes first
+        assertNotNull(cache.getFromCache(key("a")));
+        cache.addToCache(key("d"), image());
+        assertEquals(3, cache.getAssetCount());
+        assertNull(cache.getFromCache(key("b")));
+        assertNotNull(cache.getFromCache(key("a")));
+        assertNotNull(cache.getFromCache(key("c")));
+        assertNotNull(cache.getFromCache(key("d")));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(4, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // replacing an asset does not count it twice
+        cache.addToCache(key("d"), image());
+        assertEquals(3, cache.getAssetCount());
+        assertEquals(entrySize * 3, cache.getMemoryUsed());
+
+        // a smaller budget evicts right away, least recently used first
+        cache.setMemoryBudget(entrySize * 2);
+        assertEquals(2, cache.getAssetCount());
+        assertNull(cache.getFromCache(key("a")));
+        assertEquals(entrySize * 2, cache.getMemoryUsed());
+
+        assertTrue(cache.deleteFromCache(key("c")));
+        assertFalse(cache.deleteFromCache(key("c")));
+        assertEquals(entrySize, cache.getMemoryUsed());
+        cache.clearCache();
+        assertEquals(0, cache.getAssetCount());
+        assertEquals(0, cache.getMemoryUsed());
+
+        cache.resetStatistics();
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void testKeepsNewestAsset() {
+        LRUAssetCache cache = new LRUAssetCache(IMAGE_SIZE / 2);
+        cache.addToCache(key("a"), image());
+        assertNotNull(cache.getFromCache(key("a")));
+        cache.addToCache(key("b"), image());
+        assertEquals(1, cache.getAssetCount());
+        assertNotNull(cache.getFromCache(key("b")));
+    }
+
+    @Test
+    public void testAssetManagerCache() {
+        DesktopAssetManager assetManager = new DesktopAssetManager();
+        LRUAssetCache cache = new LRUAssetCache();
+        assetManager.setCache(SimpleAssetCache.class, cache);
+        assertSame(cache, assetManager.getCache(SimpleAssetCache.class));
+
+        // plain asset keys use the simple cache
+        Image image = image();
+        assetManager.addToCache(key("a"), image);
+        assertSame(image, cache.getFromCache(key("a")));
+        assertSame(image, assetManager.getFromCache(key("a")));
+
+        assetManager.setCache(SimpleAssetCache.class, null);
+        assertTrue(assetManager.getCache(SimpleAssetCache.class) instanceof SimpleAssetCache);
+        assertNull(assetManager.getFromCache(key("a")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeBudget() {
+        new LRUAssetCache(-1);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.collision;
+
+import static org.junit.Assert.*;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Checks the queries of {@link DynamicAabbTree} against testing every
+ * object, while objects are added, moved and removed.
+ */
+public class DynamicAabbTreeTest {
+
+    private static final int COUNT = 500;
+
+    private final Random random = new Random(7);
+    private final DynamicAabbTree<Integer> tree = new DynamicAabbTree<Integer>();
+    private final Vector3f[] mins = new Vector3f[COUNT];
+    private final Vector3f[] maxs = new Vector3f[COUNT];
+    private final int[] proxies = new int[COUNT];
+
+    private void randomBox(int i) {
+        Vector3f center = new Vector3f(random.nextFloat() * 100, random.nextFloat() * 100, random.nextFloat() * 100);
+        Vector3f extent = new Vector3f(random.nextFloat() * 3, random.nextFloat() * 3, random.nextFloat() * 3);
+        mins[i] = center.subtract(extent);
+        maxs[i] = center.add(extent);
+    }
+
+    private void fill() {
+        for (int i = 0; i < COUNT; i++) {
+            randomBox(i);
+            proxies[i] = tree.createProxy(mins[i], maxs[i], i);
+        }
+    }
+
+    private void shuffle() {
+        for (int i = 0; i < COUNT; i++) {
+            int action = random.nextInt(4);
+            if (action == 0 && proxies[i] != DynamicAabbTree.NULL) {
+                tree.destroyProxy(proxies[i]);
+                proxies[i] = DynamicAabbTree.NULL;
+            } else if (action == 1 && proxies[i] == DynamicAabbTree.NULL) {
+                randomBox(i);
+                proxies[i] = tree.createProxy(mins[i], maxs[i], i);
+            } else if (proxies[i] != DynamicAabbTree.NULL) {
+                // small moves are refitted, large ones reinserted
+                float distance = action == 2 ? 0.2f : 30f;
+                Vector3f offset = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f).multLocal(distance);
+                mins[i].addLocal(offset);
+                maxs[i].addLocal(offset);
+                tree.moveProxy(proxies[i], mins[i], maxs[i]);
+            }
+        }
+    }
+
+    private int liveCount() {
+        int count = 0;
+        for (int i = 0; i < COUNT; i++) {
+            if (proxies[i] != DynamicAabbTree.NULL) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean overlaps(Vector3f minA, Vector3f maxA, Vector3f minB, Vector3f maxB) {
+        return minA.x <= maxB.x && minA.y <= maxB.y && minA.z <= maxB.z
+                && maxA.x >= minB.x && maxA.y >= minB.y && maxA.z >= minB.z;
+    }
+
+    private static boolean rayHits(Vector3f origin, Vector3f direction, float limit, Vector3f min, Vector3f max) {
+        float tMin = 0, tMax = limit;
+        for (int axis = 0; axis < 3; axis++) {
+            float o = origin.get(axis), d = direction.get(axis);
+            float t1 = (min.get(axis) - o) / d;
+            float t2 = (max.get(axis) - o) / d;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+        return tMin <= tMax;
+    }
+
+    private static class Collector implements DynamicAabbTree.Visitor<Integer> {
+        final Set<Integer> found = new HashSet<Integer>();
+
+        public boolean visit(int proxy, Integer item) {
+            assertTrue("visited twice: " + item, found.add(item));
+            return true;
+        }
+    }
+
+    private void checkFatBoxes() {
+        Vector3f min = new Vector3f(), max = new Vector3f();
+        for (int i = 0; i < COUNT; i++) {
+            if (proxies[i] != DynamicAabbTree.NULL) {
+                assertEquals(Integer.valueOf(i), tree.getItem(proxies[i]));
+                tree.getFatBox(proxies[i], min, max);
+                assertTrue(min.x <= mins[i].x && min.y <= mins[i].y && min.z <= mins[i].z);
+                assertTrue(max.x >= maxs[i].x && max.y >= maxs[i].y && max.z >= maxs[i].z);
+            }
+        }
+    }
+
+    private void checkBoxQueries() {
+        Vector3f min = new Vector3f(), max = new Vector3f();
+        for (int q = 0; q < 50; q++) {
+            Vector3f qMin = new Vector3f(random.nextFloat() * 100, random.nextFloat() * 100, random.nextFloat() * 100);
+            Vector3f qMax = qMin.add(random.nextFloat() * 20, random.nextFloat() * 20, random.nextFloat() * 20);
+            Collector collector = new Collector();
+            assertEquals(tree.boxQuery(qMin, qMax, collector), collector.found.size());
+            for (int i = 0; i < COUNT; i++) {
+                if (proxies[i] == DynamicAabbTree.NULL) {
+                    assertFalse(collector.found.contains(i));
+                    continue;
+                }
+                tree.getFatBox(proxies[i], min, max);
+                assertEquals(overlaps(qMin, qMax, min, max), collector.found.contains(i));
+            }
+        }
+    }
+
+    private void checkRayQueries() {
+        Vector3f min = new Vector3f(), max = new Vector3f();
+        for (int q = 0; q < 50; q++) {
+            Vector3f origin = new Vector3f(random.nextFloat() * 100, random.nextFloat() * 100, -10);
+            Vector3f direction = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, 1).normalizeLocal();
+            float limit = 40 + random.nextFloat() * 100;
+            Collector collector = new Collector();
+            tree.rayQuery(origin, direction, limit, collector);
+            for (int i = 0; i < COUNT; i++) {
+                if (proxies[i] == DynamicAabbTree.NULL) {
+                    assertFalse(collector.found.contains(i));
+                    continue;
+                }
+                if (rayHits(origin, direction, limit, mins[i], maxs[i])) {
+                    assertTrue("missed " + i, collector.found.contains(i));
+                }
+                if (collector.found.contains(i)) {
+                    tree.getFatBox(proxies[i], min, max);
+                    min.subtractLocal(0.001f, 0.001f, 0.001f);
+                    max.addLocal(0.001f, 0.001f, 0.001f);
+                    assertTrue("extra " + i, rayHits(origin, direction, limit, min, max));
+                }
+            }
+        }
+    }
+
+    private void checkFrustumQueries() {
+        Camera cam = new Camera(640, 480);
+        Vector3f min = new Vector3f(), max = new Vector3f();
+        for (int q = 0; q < 20; q++) {
+            cam.setFrustumPerspective(30 + random.nextFloat() * 60, 4f / 3f, 1f, 20 + random.nextFloat() * 100);
+            cam.setLocation(new Vector3f(random.nextFloat() * 100, random.nextFloat() * 100, random.nextFloat() * 100));
+            cam.lookAt(new Vector3f(random.nextFloat() * 100, random.nextFloat() * 100, random.nextFloat() * 100), Vector3f.UNIT_Y);
+            Collector collector = new Collector();
+            assertEquals(tree.frustumQuery(cam, collector), collector.found.size());
+            for (int i = 0; i < COUNT; i++) {
+                if (proxies[i] == DynamicAabbTree.NULL) {
+                    assertFalse(collector.found.contains(i));
+                    continue;
+                }
+                tree.getFatBox(proxies[i], min, max);
+                BoundingBox box = new BoundingBox(min, max);
+                cam.setPlaneState(0);
+                boolean visible = cam.contains(box) != Camera.FrustumIntersect.Outside;
+                assertEquals("object " + i, visible, collector.found.contains(i));
+            }
+        }
+    }
+
+    @Test
+    public void testQueries() {
+        fill();
+        checkFatBoxes();
+        checkBoxQueries();
+        checkRayQueries();
+        checkFrustumQueries();
+        for (int round = 0; round < 5; round++) {
+            shuffle();
+            assertEquals(liveCount(), tree.getProxyCount());
+            checkFatBoxes();
+            checkBoxQueries();
+            checkRayQueries();
+            checkFrustumQueries();
+        }
+    }
+
+    @Test
+    public void testFrustumQueryStops() {
+        fill();
+        Camera cam = new Camera(640, 480);
+        cam.setFrustumPerspective(90, 1, 1, 1000);
+        cam.setLocation(new Vector3f(50, 50, -50));
+        cam.lookAt(new Vector3f(50, 50, 50), Vector3f.UNIT_Y);
+        final int[] count = new int[1];
+        int visited = tree.frustumQuery(cam, new DynamicAabbTree.Visitor<Integer>() {
+            public boolean visit(int proxy, Integer item) {
+                return ++count[0] < 10;
+            }
+        });
+        assertEquals(10, visited);
+        assertEquals(10, count[0]);
+    }
+
+    @Test
+    public void testBalance() {
+        fill();
+        for (int round = 0; round < 5; round++) {
+            shuffle();
+        }
+        int n = tree.getProxyCount();
+        assertTrue("height " + tree.getHeight(), tree.getHeight() <= 2 * (int) Math.ceil(Math.log(n) / Math.log(2)) + 2);
+    }
+
+    @Test
+    public void testStopQuery() {
+        fill();
+        final int[] visits = new int[1];
+        tree.boxQuery(new Vector3f(-10, -10, -10), new Vector3f(110, 110, 110), new DynamicAabbTree.Visitor<Integer>() {
+            public boolean visit(int proxy, Integer item) {
+                visits[0]++;
+                return visits[0] < 3;
+            }
+        });
+        assertEquals(3, visits[0]);
+    }
+
+    @Test
+    public void testClear() {
+        fill();
+        tree.clear();
+        assertEquals(0, tree.getProxyCount());
+        assertEquals(0, tree.getHeight());
+        Collector collector = new Collector();
+        assertEquals(0, tree.boxQuery(new Vector3f(-10, -10, -10), new Vector3f(110, 110, 110), collector));
+        int proxy = tree.createProxy(new Vector3f(0, 0, 0), new Vector3f(1, 1, 1), 42);
+        assertEquals(Integer.valueOf(42), tree.getItem(proxy));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDestroyedProxy() {
+        int proxy = tree.createProxy(new Vector3f(0, 0, 0), new Vector3f(1, 1, 1), 1);
+        tree.createProxy(new Vector3f(5, 0, 0), new Vector3f(6, 1, 1), 2);
+        tree.destroyProxy(proxy);
+        tree.destroyProxy(proxy);
+    }
+}
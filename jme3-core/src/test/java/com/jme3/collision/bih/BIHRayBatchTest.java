@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.collision.bih;
+
+import static org.junit.Assert.*;
+
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.collision.CollisionResult;
+import com.jme3.collision.CollisionResults;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Ray;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+/**
+ * Checks the closest hits found by
+ * {@link BIHTree#collideWithRays(float[], float[], float[], int, Matrix4f, int[], float[], float[], ForkJoinPool) }
+ * against tracing each ray with
+ * {@link BIHTree#collideWith(com.jme3.collision.Collidable, Matrix4f, BoundingVolume, CollisionResults) }.
+ */
+public class BIHRayBatchTest {
+
+    // not a multiple of the packet size, and more than one chunk
+    private static final int RAYS = 1003;
+    private static final float EPSILON = 1e-3f;
+
+    private final Random random = new Random(11);
+
+    private Mesh createMesh() {
+        float[] positions = new float[2000 * 9];
+        for (int i = 0; i < positions.length; i += 9) {
+            float cx = random.nextFloat() * 50;
+            float cy = random.nextFloat() * 50;
+            float cz = random.nextFloat() * 50;
+            for (int v = 0; v < 9; v += 3) {
+                positions[i + v] = cx + random.nextFloat() * 4 - 2;
+                positions[i + v + 1] = cy + random.nextFloat() * 4 - 2;
+                positions[i + v + 2] = cz + random.nextFloat() * 4 - 2;
+            }
+        }
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, BufferUtils.createFloatBuffer(positions));
+        mesh.updateBound();
+        return mesh;
+    }
+
+    private static Matrix4f createWorldMatrix() {
+        Matrix4f worldMatrix = new Matrix4f();
+        worldMatrix.setTransform(new Vector3f(-10, 4, 30), new Vector3f(1.5f, 1.5f, 1.5f),
+                new Quaternion().fromAngles(0.4f, -0.8f, 0.2f).toRotationMatrix());
+        return worldMatrix;
+    }
+
+    /**
+     * Rays from all around the mesh, with directions that are not
+     * normalized, and neighbouring rays that point the same way.
+     */
+    private void createRays(Matrix4f worldMatrix, float[] origins, float[] directions, float[] maxDistances) {
+        Vector3f origin = new Vector3f();
+        Vector3f target = new Vector3f();
+        for (int i = 0; i < RAYS; i++) {
+            if (i % 8 == 0) {
+                origin.set(random.nextFloat() * 90 - 20, random.nextFloat() * 90 - 20, random.nextFloat() * 90 - 20);
+                target.set(random.nextFloat() * 50, random.nextFloat() * 50, random.nextFloat() * 50);
+            }
+            Vector3f o = worldMatrix.mult(origin.add(random.nextFloat(), random.nextFloat(), random.nextFloat()), null);
+            Vector3f t = worldMatrix.mult(target.add(random.nextFloat(), random.nextFloat(), random.nextFloat()), null);
+            Vector3f d = t.subtractLocal(o).multLocal(0.1f + random.nextFloat());
+            origins[i * 3] = o.x;
+            origins[i * 3 + 1] = o.y;
+            origins[i * 3 + 2] = o.z;
+            directions[i * 3] = d.x;
+            directions[i * 3 + 1] = d.y;
+            directions[i * 3 + 2] = d.z;
+            maxDistances[i] = i % 3 == 0 ? random.nextFloat() * 60 : Float.POSITIVE_INFINITY;
+        }
+    }
+
+    private static void checkSameHits(BIHTree tree, Matrix4f worldMatrix, BoundingVolume worldBound,
+            float[] origins, float[] directions, float[] maxDistances,
+            int[] triangleIndices, float[] distances, float[] contactPoints) {
+        int hits = 0;
+        for (int i = 0; i < RAYS; i++) {
+            Ray ray = new Ray(new Vector3f(origins[i * 3], origins[i * 3 + 1], origins[i * 3 + 2]),
+                    new Vector3f(directions[i * 3], directions[i * 3 + 1], directions[i * 3 + 2]).normalizeLocal());
+            ray.setLimit(maxDistances[i]);
+            CollisionResults results = new CollisionResults();
+            tree.collideWith(ray, worldMatrix, worldBound, results);
+            CollisionResult closest = null;
+            for (CollisionResult result : results) {
+                if (result.getDistance() <= maxDistances[i]
+                        && (closest == null || result.getDistance() < closest.getDistance())) {
+                    closest = result;
+                }
+            }
+
+            if (closest == null) {
+                assertEquals(-1, triangleIndices[i]);
+                assertTrue(Float.isInfinite(distances[i]));
+                continue;
+            }
+            hits++;
+            assertEquals(closest.getDistance(), distances[i], EPSILON);
+            assertEquals(closest.getContactPoint().x, contactPoints[i * 3], EPSILON);
+            assertEquals(closest.getContactPoint().y, contactPoints[i * 3 + 1], EPSILON);
+            assertEquals(closest.getContactPoint().z, contactPoints[i * 3 + 2], EPSILON);
+            if (closest.getTriangleIndex() != triangleIndices[i]) {
+                // another triangle at the same distance
+                boolean tie = false;
+                for (CollisionResult result : results) {
+                    tie |= result.getTriangleIndex() == triangleIndices[i]
+                            && Math.abs(result.getDistance() - distances[i]) < EPSILON;
+                }
+                assertTrue(tie);
+            }
+        }
+        assertTrue(hits > RAYS / 10);
+        assertTrue(hits < RAYS);
+    }
+
+    private void checkTree(BIHTree.BuildMode mode) {
+        Mesh mesh = createMesh();
+        BIHTree tree = new BIHTree(mesh);
+        tree.construct(mode);
+
+        Matrix4f worldMatrix = createWorldMatrix();
+        BoundingVolume worldBound = mesh.getBound().transform(worldMatrix, null);
+        float[] origins = new float[RAYS * 3];
+        float[] directions = new float[RAYS * 3];
+        float[] maxDistances = new float[RAYS];
+        createRays(worldMatrix, origins, directions, maxDistances);
+
+        int[] triangleIndices = new int[RAYS];
+        float[] distances = new float[RAYS];
+        float[] contactPoints = new float[RAYS * 3];
+        int hits = tree.collideWithRays(origins, directions, maxDistances, RAYS, worldMatrix,
+                triangleIndices, distances, contactPoints);
+        checkSameHits(tree, worldMatrix, worldBound, origins, directions, maxDistances,
+                triangleIndices, distances, contactPoints);
+
+        // the same hits when traced in parallel
+        int[] poolIndices = new int[RAYS];
+        float[] poolDistances = new float[RAYS];
+        float[] poolContacts = new float[RAYS * 3];
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(hits, tree.collideWithRays(origins, directions, maxDistances, RAYS, worldMatrix,
+                    poolIndices, poolDistances, poolContacts, pool));
+        } finally {
+            pool.shutdown();
+        }
+        assertArrayEquals(triangleIndices, poolIndices);
+        assertArrayEquals(distances, poolDistances, 0);
+        assertArrayEquals(contactPoints, poolContacts, 0);
+    }
+
+    @Test
+    public void testMedianTree() {
+        checkTree(BIHTree.BuildMode.Median);
+    }
+
+    @Test
+    public void testBinnedTree() {
+        checkTree(BIHTree.BuildMode.BinnedSAH);
+    }
+
+    @Test
+    public void testGeometry() {
+        Mesh mesh = createMesh();
+        Geometry geom = new Geometry("Mesh", mesh);
+        geom.setLocalTranslation(3, 0, -2);
+        geom.setLocalScale(0.5f);
+        geom.updateGeometricState();
+
+        // aimed at the center of a triangle, then the same ray limited
+        // before the mesh, then a ray pointing away from it
+        Vector3f v1 = new Vector3f(), v2 = new Vector3f(), v3 = new Vector3f();
+        mesh.getTriangle(0, v1, v2, v3);
+        Vector3f target = geom.localToWorld(v1.addLocal(v2).addLocal(v3).divideLocal(3), null);
+        Vector3f origin = target.add(0, 100, 0);
+        float[] origins = {origin.x, origin.y, origin.z, origin.x, origin.y, origin.z, origin.x, origin.y, origin.z};
+        float[] directions = {0, -1, 0, 0, -2, 0, 0, 1, 0};
+        float[] maxDistances = {Float.POSITIVE_INFINITY, 10, Float.POSITIVE_INFINITY};
+        int[] triangleIndices = new int[3];
+        float[] distances = new float[3];
+        float[] contactPoints = new float[9];
+        assertEquals(1, geom.collideWithRays(origins, directions, maxDistances, 3,
+                triangleIndices, distances, contactPoints, null));
+
+        CollisionResults results = new CollisionResults();
+        geom.collideWith(new Ray(origin, new Vector3f(0, -1, 0)), results);
+        CollisionResult closest = results.getClosestCollision();
+        assertEquals(closest.getTriangleIndex(), triangleIndices[0]);
+        assertEquals(closest.getDistance(), distances[0], EPSILON);
+        assertEquals(closest.getContactPoint().y, contactPoints[1], EPSILON);
+        assertEquals(-1, triangleIndices[1]);
+        assertEquals(Float.POSITIVE_INFINITY, distances[1], 0);
+        assertEquals(-1, triangleIndices[2]);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.collision.bih;
+
+import static org.junit.Assert.*;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.collision.Collidable;
+import com.jme3.collision.CollisionResult;
+import com.jme3.collision.CollisionResults;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.export.binary.BinaryImporter;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Ray;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+/**
+ * Checks that {@link BIHTree.BuildMode#BinnedSAH} trees give the same
+ * collisions as {@link BIHTree.BuildMode#Median} trees.
+ */
+public class BIHTreeBuildModeTest {
+
+    private static final int TRIANGLES = 3000;
+
+    private final Random random = new Random(5);
+
+    /**
+     * Random triangles with a dense cluster, so the cheapest split is
+     * rarely the median.
+     */
+    private Mesh createMesh() {
+        float[] positions = new float[TRIANGLES * 9];
+        for (int i = 0; i < TRIANGLES; i++) {
+            float scale = i % 3 == 0 ? 100 : 10;
+            float cx = random.nextFloat() * scale;
+            float cy = random.nextFloat() * scale;
+            float cz = random.nextFloat() * scale;
+            for (int v = 0; v < 3; v++) {
+                positions[i * 9 + v * 3] = cx + random.nextFloat() * 2 - 1;
+                positions[i * 9 + v * 3 + 1] = cy + random.nextFloat() * 2 - 1;
+                positions[i * 9 + v * 3 + 2] = cz + random.nextFloat() * 2 - 1;
+            }
+        }
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, BufferUtils.createFloatBuffer(positions));
+        mesh.updateBound();
+        return mesh;
+    }
+
+    private static BIHTree build(Mesh mesh, BIHTree.BuildMode mode) {
+        BIHTree tree = new BIHTree(mesh);
+        tree.construct(mode);
+        assertEquals(mode, tree.getBuildMode());
+        return tree;
+    }
+
+    private Vector3f randomPoint(float scale) {
+        return new Vector3f(random.nextFloat() * scale, random.nextFloat() * scale, random.nextFloat() * scale);
+    }
+
+    /**
+     * Returns the triangle indices and distances of the collisions, sorted.
+     * Leaves are not clipped to the limit of a ray, so hits past it depend
+     * on the shape of the tree and are left out.
+     */
+    private static List<String> collide(BIHTree tree, Collidable other, Matrix4f worldMatrix,
+            BoundingVolume worldBound) {
+        CollisionResults results = new CollisionResults();
+        int count = tree.collideWith(other, worldMatrix, worldBound, results);
+        assertEquals(count, results.size());
+        float limit = other instanceof Ray ? ((Ray) other).getLimit() : Float.POSITIVE_INFINITY;
+        List<String> list = new ArrayList<String>();
+        for (CollisionResult result : results) {
+            if (result.getDistance() <= limit) {
+                list.add(result.getTriangleIndex() + " " + result.getDistance());
+            }
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    private void checkSameCollisions(BIHTree expected, BIHTree actual, Mesh mesh, Matrix4f worldMatrix) {
+        BoundingVolume worldBound = mesh.getBound().transform(worldMatrix, null);
+        int hits = 0;
+        for (int i = 0; i < 200; i++) {
+            Vector3f origin = worldMatrix.mult(randomPoint(100), null);
+            Vector3f target = worldMatrix.mult(randomPoint(100), null);
+            Ray ray = new Ray(origin, target.subtract(origin).normalizeLocal());
+            if (i % 4 == 0) {
+                ray.setLimit(20);
+            }
+            List<String> results = collide(expected, ray.clone(), worldMatrix, worldBound);
+            assertEquals(results, collide(actual, ray.clone(), worldMatrix, worldBound));
+            hits += results.size();
+        }
+        assertTrue(hits > 0);
+
+        hits = 0;
+        for (int i = 0; i < 50; i++) {
+            Vector3f center = worldMatrix.mult(randomPoint(100), null);
+            float size = random.nextFloat() * 8;
+            BoundingVolume bv = i % 2 == 0
+                    ? new BoundingBox(center, size, size * 0.5f, size)
+                    : new BoundingSphere(size, center);
+            List<String> results = collide(expected, bv, worldMatrix, worldBound);
+            assertEquals(results, collide(actual, bv, worldMatrix, worldBound));
+            hits += results.size();
+        }
+        assertTrue(hits > 0);
+    }
+
+    @Test
+    public void testSameCollisions() {
+        Mesh mesh = createMesh();
+        BIHTree median = build(mesh, BIHTree.BuildMode.Median);
+        BIHTree binned = build(mesh, BIHTree.BuildMode.BinnedSAH);
+        checkSameCollisions(median, binned, mesh, Matrix4f.IDENTITY);
+
+        Matrix4f worldMatrix = new Matrix4f();
+        worldMatrix.setTransform(new Vector3f(5, -3, 20), new Vector3f(2, 2, 2),
+                new Quaternion().fromAngles(0.3f, 1.2f, -0.5f).toRotationMatrix());
+        checkSameCollisions(median, binned, mesh, worldMatrix);
+    }
+
+    @Test
+    public void testParallelBuild() {
+        Mesh mesh = createMesh();
+        BIHTree median = build(mesh, BIHTree.BuildMode.Median);
+        ForkJoinPool oldPool = BIHTree.getBuildPool();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BIHTree.setBuildPool(pool);
+            BIHTree parallel = build(mesh, BIHTree.BuildMode.BinnedSAH);
+            checkSameCollisions(median, parallel, mesh, Matrix4f.IDENTITY);
+
+            BIHTree.setBuildPool(new ForkJoinPool(1));
+            BIHTree serial = build(mesh, BIHTree.BuildMode.BinnedSAH);
+            checkSameCollisions(median, serial, mesh, Matrix4f.IDENTITY);
+        } finally {
+            BIHTree.setBuildPool(oldPool);
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        Mesh mesh = createMesh();
+        BIHTree median = build(mesh, BIHTree.BuildMode.Median);
+        BIHTree binned = build(mesh, BIHTree.BuildMode.BinnedSAH);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryExporter.getInstance().save(binned, out);
+        BIHTree loaded = (BIHTree) BinaryImporter.getInstance().load(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(BIHTree.BuildMode.BinnedSAH, loaded.getBuildMode());
+        checkSameCollisions(median, loaded, mesh, Matrix4f.IDENTITY);
+    }
+
+    @Test
+    public void testFewTriangles() {
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, new float[]{0, 0, 0, 1, 0, 0, 0, 1, 0});
+        mesh.updateBound();
+        BIHTree binned = build(mesh, BIHTree.BuildMode.BinnedSAH);
+        Ray ray = new Ray(new Vector3f(0.2f, 0.2f, 5), new Vector3f(0, 0, -1));
+        List<String> results = collide(binned, ray, Matrix4f.IDENTITY, mesh.getBound());
+        assertEquals(Collections.singletonList("0 5.0"), results);
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.effect;
+
+import static org.junit.Assert.*;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.FastMath;
+import com.jme3.math.Matrix3f;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.scene.VertexBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+/**
+ * Checks {@link ParticleData} and that an emitter using it simulates and
+ * draws the same particles as one using {@link Particle} objects.
+ */
+public class ParticleDataTest {
+
+    private static final float EPSILON = 1e-3f;
+
+    /**
+     * Sorts the quads or points of a mesh by their coordinates, rounded
+     * so tiny differences do not change the order.
+     */
+    private static final Comparator<float[]> VERTEX_ORDER = new Comparator<float[]>() {
+        @Override
+        public int compare(float[] a, float[] b) {
+            for (int i = 0; i < a.length; i++) {
+                int c = Float.compare(Math.round(a[i] * 10), Math.round(b[i] * 10));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    };
+
+    @Test
+    public void testAddRemove() {
+        ParticleData data = new ParticleData(3);
+        Particle p = new Particle();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, data.add());
+            p.life = i + 1;
+            p.position.set(i, 0, 0);
+            p.imageIndex = i;
+            data.set(i, p);
+        }
+        assertEquals(-1, data.add());
+        assertEquals(3, data.size());
+
+        // the last particle takes the place of the removed one
+        data.remove(0);
+        assertEquals(2, data.size());
+        data.get(0, p);
+        assertEquals(3, p.life, 0);
+        assertEquals(new Vector3f(2, 0, 0), p.position);
+        assertEquals(2, p.imageIndex);
+
+        // a new particle starts with all components zero
+        assertEquals(2, data.add());
+        data.get(2, p);
+        assertEquals(0, p.life, 0);
+        assertEquals(Vector3f.ZERO, p.position);
+
+        data.clear();
+        assertEquals(0, data.size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testRemoveDead() {
+        ParticleData data = new ParticleData(4);
+        data.add();
+        data.remove(1);
+    }
+
+    @Test
+    public void testUpdate() {
+        ParticleData data = new ParticleData(8);
+        Particle p = new Particle();
+        p.life = p.startlife = 1;
+        p.velocity.set(1, 0, 0);
+        data.set(data.add(), p);
+        p.life = 0.01f;
+        data.set(data.add(), p);
+
+        float[] bounds = new float[6];
+        data.update(0.5f, new Vector3f(0, 2, 0), p.color, p.color, 1, 1, 0, bounds);
+        assertEquals(1, data.size());
+        data.get(0, p);
+        assertEquals(0.5f, p.life, EPSILON);
+        // the gravity pulls the particle down
+        assertTrue(p.velocity.y < 0);
+        assertTrue(p.position.x > 0);
+        assertTrue(bounds[0] <= p.position.x && p.position.x <= bounds[3]);
+    }
+
+    private static ParticleEmitter createEmitter(ParticleMesh.Type type, int facing, float perSecond,
+            boolean useData) {
+        ParticleEmitter emitter = new ParticleEmitter("Emitter", type, 10000);
+        emitter.setParticlesPerSec(perSecond);
+        emitter.setGravity(0, 2, 0);
+        emitter.setLowLife(1);
+        emitter.setHighLife(3);
+        emitter.getParticleInfluencer().setInitialVelocity(new Vector3f(0, 4, 0));
+        emitter.getParticleInfluencer().setVelocityVariation(0.6f);
+        emitter.setImagesX(2);
+        emitter.setImagesY(2);
+        emitter.setRotateSpeed(3);
+        emitter.setRandomAngle(true);
+        if (facing == 1) {
+            emitter.setFacingVelocity(true);
+        } else if (facing == 2) {
+            emitter.setFaceNormal(new Vector3f(0.3f, 1, 0.2f));
+        }
+        emitter.setLocalTranslation(1, 2, 3);
+        emitter.updateGeometricState();
+        emitter.setParticleDataEnabled(useData);
+        return emitter;
+    }
+
+    private static String toString(Particle p) {
+        return String.format("%.3f %.3f %.3f %.3f %.3f %.3f %.3f %.3f %.3f %d %.3f",
+                p.position.x, p.position.y, p.position.z, p.velocity.x, p.velocity.y,
+                p.color.r, p.color.a, p.size, p.life, p.imageIndex, p.angle);
+    }
+
+    /**
+     * Returns the live particles of the emitter, sorted.
+     */
+    private static List<String> getParticles(ParticleEmitter emitter) {
+        List<String> list = new ArrayList<String>();
+        ParticleData data = emitter.getParticleData();
+        if (data != null) {
+            Particle p = new Particle();
+            for (int i = 0; i < data.size(); i++) {
+                list.add(toString(data.get(i, p)));
+            }
+        } else {
+            for (Particle p : emitter.getParticles()) {
+                if (p.life > 0) {
+                    list.add(toString(p));
+                }
+            }
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * Returns the vertex positions of each particle with a size, sorted.
+     */
+    private static List<float[]> getVertices(ParticleEmitter emitter, int floatsPerParticle) {
+        FloatBuffer positions = (FloatBuffer) emitter.getMesh().getBuffer(VertexBuffer.Type.Position).getData();
+        VertexBuffer sizeBuffer = emitter.getMesh().getBuffer(VertexBuffer.Type.Size);
+        FloatBuffer sizes = sizeBuffer == null ? null : (FloatBuffer) sizeBuffer.getData();
+        List<float[]> list = new ArrayList<float[]>();
+        for (int i = 0; i < positions.capacity() / floatsPerParticle; i++) {
+            float[] vertices = new float[floatsPerParticle];
+            boolean empty = true;
+            for (int k = 0; k < floatsPerParticle; k++) {
+                vertices[k] = positions.get(i * floatsPerParticle + k);
+                empty &= vertices[k] == 0;
+            }
+            if (sizes != null && sizes.get(i) == 0) {
+                empty = true;
+            }
+            if (!empty) {
+                list.add(vertices);
+            }
+        }
+        Collections.sort(list, VERTEX_ORDER);
+        return list;
+    }
+
+    private static void checkSameVertices(List<float[]> expected, List<float[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i), EPSILON);
+        }
+    }
+
+    private static void checkSameSimulation(ParticleMesh.Type type, int facing, float perSecond,
+            ForkJoinPool pool) {
+        ParticleEmitter objects = createEmitter(type, facing, perSecond, false);
+        ParticleEmitter data = createEmitter(type, facing, perSecond, true);
+        data.setSimulationPool(pool);
+        int floatsPerParticle = type == ParticleMesh.Type.Triangle ? 12 : 3;
+
+        Camera cam = new Camera(640, 480);
+        cam.setLocation(new Vector3f(0, 5, 20));
+        cam.lookAt(Vector3f.ZERO, Vector3f.UNIT_Y);
+
+        for (int frame = 0; frame < 60; frame++) {
+            float tpf = 0.016f + (frame % 3) * 0.003f;
+            // both emitters draw the same random numbers
+            FastMath.rand.setSeed(frame);
+            objects.updateFromControl(tpf);
+            FastMath.rand.setSeed(frame);
+            data.updateFromControl(tpf);
+
+            if (frame == 30) {
+                objects.killAllParticles();
+                data.killAllParticles();
+                FastMath.rand.setSeed(99);
+                objects.emitParticles(500);
+                FastMath.rand.setSeed(99);
+                data.emitParticles(500);
+            }
+
+            if (frame % 5 != 4) {
+                continue;
+            }
+            ((ParticleMesh) objects.getMesh()).updateParticleData(objects.getParticles(), cam, Matrix3f.IDENTITY);
+            ((ParticleMesh) data.getMesh()).updateParticleData(data.getParticleData(), cam, Matrix3f.IDENTITY);
+
+            List<String> particles = getParticles(objects);
+            assertFalse(particles.isEmpty());
+            assertEquals(particles, getParticles(data));
+            checkSameVertices(getVertices(objects, floatsPerParticle), getVertices(data, floatsPerParticle));
+
+            BoundingBox expectedBound = (BoundingBox) objects.getMesh().getBound();
+            BoundingBox bound = (BoundingBox) data.getMesh().getBound();
+            assertEquals(0, expectedBound.getCenter().distance(bound.getCenter()), EPSILON);
+            assertEquals(expectedBound.getXExtent(), bound.getXExtent(), EPSILON);
+            assertEquals(expectedBound.getYExtent(), bound.getYExtent(), EPSILON);
+            assertEquals(expectedBound.getZExtent(), bound.getZExtent(), EPSILON);
+        }
+        assertEquals(objects.getNumVisibleParticles(), data.getNumVisibleParticles());
+    }
+
+    @Test
+    public void testSameAsParticles() {
+        for (ParticleMesh.Type type : ParticleMesh.Type.values()) {
+            for (int facing = 0; facing < 3; facing++) {
+                checkSameSimulation(type, facing, 3000, null);
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsParticlesInParallel() {
+        // enough particles to be split into several tasks
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            checkSameSimulation(ParticleMesh.Type.Triangle, 0, 12000, pool);
+            checkSameSimulation(ParticleMesh.Type.Point, 0, 12000, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.renderer;
+
+import com.jme3.material.Material;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.queue.GeometryComparator;
+import com.jme3.renderer.queue.RenderQueue.Bucket;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+import com.jme3.scene.shape.Box;
+import com.jme3.system.NullRenderer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that parallel culling produces the same render queue as the
+ * serial scene traversal, and that only internally created pools are
+ * shut down.
+ */
+public class ParallelCullingTest {
+
+    private static final Bucket[] BUCKETS = {
+        Bucket.Opaque, Bucket.Transparent, Bucket.Translucent, Bucket.Sky, Bucket.Gui
+    };
+
+    /**
+     * Records the geometries in the order the queue hands them out.
+     */
+    private static class RecordingRenderManager extends RenderManager {
+
+        final List<String> rendered = new ArrayList<String>();
+        final List<String> controls = new ArrayList<String>();
+
+        RecordingRenderManager() {
+            super(new NullRenderer());
+        }
+
+        @Override
+        public void renderGeometry(Geometry g) {
+            rendered.add(g.getName());
+        }
+    }
+
+    /**
+     * Keeps the insertion order of the queue buckets.
+     */
+    private static class InsertionOrderComparator implements GeometryComparator {
+
+        public void setCamera(Camera cam) {
+        }
+
+        public int compare(Geometry o1, Geometry o2) {
+            return 0;
+        }
+    }
+
+    /**
+     * Records the spatials it is rendered for, controls must only run on
+     * the render thread.
+     */
+    private static class RecordingControl extends AbstractControl {
+
+        final Thread renderThread;
+
+        RecordingControl(Thread renderThread) {
+            this.renderThread = renderThread;
+        }
+
+        @Override
+        protected void controlUpdate(float tpf) {
+        }
+
+        @Override
+        protected void controlRender(RenderManager rm, ViewPort vp) {
+            assertSame(renderThread, Thread.currentThread());
+            ((RecordingRenderManager) rm).controls.add(spatial.getName());
+        }
+    }
+
+    private static Geometry createGeometry(String name, Random random, Material mat) {
+        Geometry geom = new Geometry(name, new Box(0.5f, 0.5f, 0.5f));
+        geom.setMaterial(mat);
+        geom.setLocalTranslation(random.nextFloat() * 200f - 100f,
+                                 random.nextFloat() * 200f - 100f,
+                                 random.nextFloat() * 200f - 100f);
+        geom.setQueueBucket(BUCKETS[random.nextInt(BUCKETS.length)]);
+        return geom;
+    }
+
+    private static Node createNode(String name, int numChildren, int depth, Random random, Material mat) {
+        Node node = new Node(name);
+        for (int i = 0; i < numChildren; i++) {
+            String childName = name + "/" + i;
+            int kind = random.nextInt(10);
+            if (depth > 0 && kind == 0) {
+                // a large nested node
+                node.attachChild(createNode(childName, 80, depth - 1, random, mat));
+            } else if (depth > 0 && kind == 1) {
+                // a small node with controls, continued on the render thread
+                Node sub = createNode(childName, 40, depth - 1, random, mat);
+                sub.addControl(new RecordingControl(Thread.currentThread()));
+                node.attachChild(sub);
+            } else if (kind == 2) {
+                Geometry geom = createGeometry(childName, random, mat);
+                geom.addControl(new RecordingControl(Thread.currentThread()));
+                node.attachChild(geom);
+            } else {
+                node.attachChild(createGeometry(childName, random, mat));
+            }
+        }
+        return node;
+    }
+
+    private static Camera createCamera() {
+        Camera cam = new Camera(640, 480);
+        cam.setFrustumPerspective(60f, 640f / 480f, 1f, 150f);
+        cam.setLocation(new Vector3f(0, 0, 0));
+        cam.lookAt(new Vector3f(0.3f, 0.1f, -1f), Vector3f.UNIT_Y);
+        cam.update();
+        return cam;
+    }
+
+    private static List<String> cull(RecordingRenderManager rm, Spatial scene) {
+        Camera cam = createCamera();
+        ViewPort vp = new ViewPort("Test", cam);
+        for (Bucket bucket : BUCKETS) {
+            vp.getQueue().setGeometryComparator(bucket, new InsertionOrderComparator());
+        }
+        rm.renderScene(scene, vp);
+        for (Bucket bucket : BUCKETS) {
+            rm.rendered.add("[" + bucket + "]");
+            vp.getQueue().renderQueue(bucket, rm, cam, true);
+        }
+        return rm.rendered;
+    }
+
+    @Test
+    public void testQueueMatchesSerial() {
+        Material mat = new Material();
+        Node scene = createNode("root", 1000, 2, new Random(42), mat);
+        scene.updateGeometricState();
+
+        RecordingRenderManager serial = new RecordingRenderManager();
+        List<String> expected = cull(serial, scene);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            RecordingRenderManager parallel = new RecordingRenderManager();
+            parallel.setParallelCulling(pool);
+            parallel.setParallelCullingThreshold(32);
+            List<String> actual = cull(parallel, scene);
+
+            // make sure the scene actually exercises culling
+            assertTrue(expected.size() > BUCKETS.length);
+            assertTrue(expected.size() < scene.getTriangleCount() / 12 + BUCKETS.length);
+            assertFalse(serial.controls.isEmpty());
+
+            assertEquals(expected, actual);
+            assertEquals(serial.controls, parallel.controls);
+
+            // culling again reuses the per-level tasks
+            parallel.rendered.clear();
+            parallel.controls.clear();
+            assertEquals(expected, cull(parallel, scene));
+            assertEquals(serial.controls, parallel.controls);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCallerPoolNotShutDown() {
+        RenderManager rm = new RenderManager(new NullRenderer());
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            rm.setParallelCulling(pool);
+            assertTrue(rm.isParallelCulling());
+            rm.setParallelCulling(false);
+            assertFalse(rm.isParallelCulling());
+            assertFalse(pool.isShutdown());
+
+            rm.setParallelCulling(pool);
+            rm.setParallelCulling((ForkJoinPool) null);
+            assertFalse(rm.isParallelCulling());
+            assertFalse(pool.isShutdown());
+
+            // enabling again keeps the caller's pool
+            rm.setParallelCulling(pool);
+            rm.setParallelCulling(true);
+            assertTrue(rm.isParallelCulling());
+            rm.setParallelCulling(false);
+            assertFalse(pool.isShutdown());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.scene;
+
+import static org.junit.Assert.*;
+
+import com.jme3.collision.Collidable;
+import com.jme3.collision.CollisionResults;
+import com.jme3.math.Ray;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.shape.Box;
+import org.junit.Test;
+
+/**
+ * Checks that ray collisions through the collision tree of a node give
+ * the same results as without it, see
+ * {@link Node#setCollisionTreeEnabled(boolean) }.
+ */
+public class NodeCollisionTreeTest {
+
+    /**
+     * A node that does its own collision, like terrain.
+     */
+    private static class CustomNode extends Node {
+
+        CustomNode(String name) {
+            super(name);
+        }
+
+        @Override
+        public int collideWith(Collidable other, CollisionResults results) {
+            return super.collideWith(other, results);
+        }
+    }
+
+    private static Geometry box(float x) {
+        Geometry geom = new Geometry("box", new Box(0.5f, 0.5f, 0.5f));
+        geom.setLocalTranslation(x, 0, 0);
+        return geom;
+    }
+
+    private static CustomNode buildScene(Node root) {
+        for (int i = 0; i < 4; i++) {
+            root.attachChild(box(i * 2));
+        }
+        CustomNode custom = new CustomNode("custom");
+        custom.attachChild(box(10));
+        custom.attachChild(box(12));
+        Node group = new Node("group");
+        group.attachChild(custom);
+        root.attachChild(group);
+        root.updateGeometricState();
+        return custom;
+    }
+
+    private static int pick(Node root) {
+        root.updateGeometricState();
+        Ray ray = new Ray(new Vector3f(-5, 0.1f, 0.2f), Vector3f.UNIT_X);
+        CollisionResults results = new CollisionResults();
+        int count = root.collideWith(ray, results);
+        assertEquals(count, results.size());
+        return count;
+    }
+
+    @Test
+    public void testSameResults() {
+        Node plain = new Node("plain");
+        Node treed = new Node("treed");
+        treed.setCollisionTreeEnabled(true);
+        CustomNode plainCustom = buildScene(plain);
+        CustomNode treedCustom = buildScene(treed);
+        assertEquals(12, pick(plain));
+        assertEquals(pick(plain), pick(treed));
+
+        // attached below a node that is kept as a whole by the tree
+        plainCustom.attachChild(box(14));
+        treedCustom.attachChild(box(14));
+        assertEquals(14, pick(plain));
+        assertEquals(pick(plain), pick(treed));
+
+        plainCustom.detachChildAt(0);
+        treedCustom.detachChildAt(0);
+        assertEquals(pick(plain), pick(treed));
+
+        // moved out of the ray
+        plain.getChild(0).move(0, 5, 0);
+        treed.getChild(0).move(0, 5, 0);
+        assertEquals(10, pick(plain));
+        assertEquals(pick(plain), pick(treed));
+
+        // attached to a plain node below the tree
+        Node group = (Node) treed.getChild(4);
+        ((Node) plain.getChild(4)).attachChild(box(20));
+        group.attachChild(box(20));
+        assertEquals(12, pick(plain));
+        assertEquals(pick(plain), pick(treed));
+    }
+
+    @Test
+    public void testTreeCount() {
+        Node root = new Node("root");
+        root.setCollisionTreeEnabled(true);
+        buildScene(root);
+        Geometry geom = (Geometry) root.getChild(0);
+        Spatial deep = ((Node) ((Node) root.getChild(4)).getChild(0)).getChild(0);
+        assertEquals(0, geom.collisionTreesAbove);
+
+        // the tree is created on the first query
+        pick(root);
+        assertEquals(1, geom.collisionTreesAbove);
+        assertEquals(1, deep.collisionTreesAbove);
+
+        Geometry added = box(30);
+        root.attachChild(added);
+        assertEquals(1, added.collisionTreesAbove);
+        added.removeFromParent();
+        assertEquals(0, added.collisionTreesAbove);
+
+        // a nested tree
+        Node group = (Node) root.getChild(4);
+        group.setCollisionTreeEnabled(true);
+        pick(group);
+        assertEquals(2, deep.collisionTreesAbove);
+
+        group.removeFromParent();
+        assertEquals(1, deep.collisionTreesAbove);
+        group.setCollisionTreeEnabled(false);
+        assertEquals(0, deep.collisionTreesAbove);
+
+        root.setCollisionTreeEnabled(false);
+        assertEquals(0, geom.collisionTreesAbove);
+
+        Spatial clone = root.clone(false);
+        assertEquals(0, ((Node) clone).getChild(0).collisionTreesAbove);
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.scene;
+
+import static org.junit.Assert.*;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.light.DirectionalLight;
+import com.jme3.light.Light;
+import com.jme3.light.LightList;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.shape.Box;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that a scene using {@link Node#setIncrementalUpdate(boolean)
+ * incremental updates} ends up with the same world transforms, bounds and
+ * light lists as the same scene updated the regular way.
+ */
+public class NodeIncrementalUpdateTest {
+
+    /**
+     * Two identical scenes, one of them using incremental updates, the
+     * spatials are listed in the same order for both.
+     */
+    private static class Scenes {
+
+        final Node plainRoot;
+        final Node incrementalRoot;
+        final ArrayList<Spatial> plain = new ArrayList<Spatial>();
+        final ArrayList<Spatial> incremental = new ArrayList<Spatial>();
+
+        Scenes(int refitInterval) {
+            plainRoot = build(false, refitInterval, plain);
+            incrementalRoot = build(true, refitInterval, incremental);
+        }
+
+        private static Node build(boolean enabled, int refitInterval, ArrayList<Spatial> spatials) {
+            Random random = new Random(7);
+            Node root = createNode("root", enabled, refitInterval);
+            root.addLight(createLight("rootLight"));
+            spatials.add(root);
+            for (int i = 0; i < 6; i++) {
+                Node group = createNode("group" + i, enabled, refitInterval);
+                group.setLocalTranslation(i * 10f, 0, 0);
+                root.attachChild(group);
+                spatials.add(group);
+                for (int j = 0; j < 6; j++) {
+                    Node sub = createNode("sub" + i + "." + j, enabled, refitInterval);
+                    sub.setLocalTranslation(0, j * 5f, 0);
+                    if (j % 3 == 0) {
+                        sub.addLight(createLight("light" + i + "." + j));
+                    }
+                    group.attachChild(sub);
+                    spatials.add(sub);
+                    for (int k = 0; k < 8; k++) {
+                        Geometry geom = new Geometry("geom" + i + "." + j + "." + k, new Box(0.5f, 0.5f, 0.5f));
+                        geom.setLocalTranslation(random.nextFloat() * 4f, random.nextFloat() * 4f, random.nextFloat() * 4f);
+                        sub.attachChild(geom);
+                        spatials.add(geom);
+                    }
+                }
+            }
+            return root;
+        }
+
+        private static Node createNode(String name, boolean enabled, int refitInterval) {
+            Node node = new Node(name);
+            node.setBoundRefitInterval(refitInterval);
+            node.setIncrementalUpdate(enabled);
+            return node;
+        }
+
+        int size() {
+            return plain.size();
+        }
+
+        void update() {
+            plainRoot.updateGeometricState();
+            incrementalRoot.updateGeometricState();
+        }
+
+        void move(int index, Vector3f offset) {
+            plain.get(index).move(offset);
+            incremental.get(index).move(offset);
+        }
+
+        void rotate(int index, Quaternion rotation) {
+            plain.get(index).rotate(rotation);
+            incremental.get(index).rotate(rotation);
+        }
+
+        void attach(int parent, int child) {
+            ((Node) plain.get(parent)).attachChild(plain.get(child));
+            ((Node) incremental.get(parent)).attachChild(incremental.get(child));
+        }
+
+        void detach(int child) {
+            plain.get(child).removeFromParent();
+            incremental.get(child).removeFromParent();
+        }
+
+        int indexOf(String name) {
+            for (int i = 0; i < plain.size(); i++) {
+                if (name.equals(plain.get(i).getName())) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException(name);
+        }
+
+        /**
+         * Checks the world state of all spatials, nodes with incremental
+         * updates may have a larger world bound.
+         */
+        void check() {
+            for (int i = 0; i < plain.size(); i++) {
+                Spatial expected = plain.get(i);
+                Spatial actual = incremental.get(i);
+                assertEquals(expected.getName(), actual.getName());
+                assertSame(expected.getParent() == null, actual.getParent() == null);
+                assertTransform(expected, actual);
+                assertLights(expected, actual);
+                if (expected instanceof Geometry) {
+                    assertBoundEquals(expected.getName(), expected.getWorldBound(), actual.getWorldBound());
+                } else {
+                    assertBoundContains(expected.getName(), expected.getWorldBound(), actual.getWorldBound());
+                }
+            }
+        }
+
+        void checkExactBound(int index) {
+            Spatial expected = plain.get(index);
+            assertBoundEquals(expected.getName(), expected.getWorldBound(), incremental.get(index).getWorldBound());
+        }
+    }
+
+    private static Light createLight(String name) {
+        DirectionalLight light = new DirectionalLight(new Vector3f(0, -1, 0));
+        light.setName(name);
+        return light;
+    }
+
+    private static void assertVector(String message, Vector3f expected, Vector3f actual) {
+        assertEquals(message, expected.x, actual.x, 1e-3f);
+        assertEquals(message, expected.y, actual.y, 1e-3f);
+        assertEquals(message, expected.z, actual.z, 1e-3f);
+    }
+
+    private static void assertTransform(Spatial expected, Spatial actual) {
+        String name = expected.getName();
+        assertVector(name, expected.getWorldTranslation(), actual.getWorldTranslation());
+        assertVector(name, expected.getWorldScale(), actual.getWorldScale());
+        Quaternion a = expected.getWorldRotation();
+        Quaternion b = actual.getWorldRotation();
+        assertEquals(name, 1f, FastMath.abs(a.dot(b)), 1e-4f);
+    }
+
+    private static void assertLights(Spatial expected, Spatial actual) {
+        LightList a = expected.getWorldLightList();
+        LightList b = actual.getWorldLightList();
+        assertEquals(expected.getName(), a.size(), b.size());
+        for (int i = 0; i < a.size(); i++) {
+            assertEquals(expected.getName(), a.get(i).getName(), b.get(i).getName());
+        }
+    }
+
+    private static void assertBoundEquals(String name, BoundingVolume expected, BoundingVolume actual) {
+        if (expected == null) {
+            assertNull(name, actual);
+            return;
+        }
+        BoundingBox a = (BoundingBox) expected;
+        BoundingBox b = (BoundingBox) actual;
+        assertVector(name, a.getMin(null), b.getMin(null));
+        assertVector(name, a.getMax(null), b.getMax(null));
+    }
+
+    private static void assertBoundContains(String name, BoundingVolume expected, BoundingVolume actual) {
+        if (expected == null) {
+            assertNull(name, actual);
+            return;
+        }
+        BoundingBox a = (BoundingBox) expected;
+        BoundingBox b = (BoundingBox) actual;
+        Vector3f aMin = a.getMin(null), aMax = a.getMax(null);
+        Vector3f bMin = b.getMin(null), bMax = b.getMax(null);
+        float eps = 1e-3f;
+        assertTrue(name, bMin.x <= aMin.x + eps && bMin.y <= aMin.y + eps && bMin.z <= aMin.z + eps);
+        assertTrue(name, bMax.x >= aMax.x - eps && bMax.y >= aMax.y - eps && bMax.z >= aMax.z - eps);
+    }
+
+    @Test
+    public void testDeepLocalMoves() {
+        Scenes scenes = new Scenes(60);
+        scenes.update();
+        scenes.check();
+
+        Random random = new Random(11);
+        Quaternion rotation = new Quaternion().fromAngles(0.1f, 0.2f, 0.3f);
+        for (int frame = 0; frame < 100; frame++) {
+            int moves = frame % 10 == 0 ? 0 : 1 + random.nextInt(4);
+            for (int i = 0; i < moves; i++) {
+                // skip the root, its world transform is its local one
+                int index = 1 + random.nextInt(scenes.size() - 1);
+                if (random.nextBoolean()) {
+                    scenes.move(index, new Vector3f(random.nextFloat() - 0.5f,
+                                                    random.nextFloat() - 0.5f,
+                                                    random.nextFloat() - 0.5f));
+                } else {
+                    scenes.rotate(index, rotation);
+                }
+            }
+            scenes.update();
+            scenes.check();
+        }
+    }
+
+    @Test
+    public void testAttachDetachWhileDirty() {
+        Scenes scenes = new Scenes(60);
+        scenes.update();
+
+        int geom = scenes.indexOf("geom0.0.0");
+        int oldParent = scenes.indexOf("sub0.0");
+        int newParent = scenes.indexOf("sub3.4");
+
+        // moved and detached before the update
+        scenes.move(geom, new Vector3f(100, 0, 0));
+        scenes.detach(geom);
+        scenes.update();
+        scenes.check();
+        scenes.checkExactBound(oldParent);
+
+        // attached to another node and moved again
+        scenes.attach(newParent, geom);
+        scenes.move(geom, new Vector3f(0, 50, 0));
+        scenes.update();
+        scenes.check();
+        assertSame(scenes.incremental.get(newParent), scenes.incremental.get(geom).getParent());
+
+        // moved, detached and attached back to the same parent in one frame
+        scenes.move(geom, new Vector3f(0, -20, 0));
+        scenes.detach(geom);
+        scenes.attach(newParent, geom);
+        scenes.move(geom, new Vector3f(1, 1, 1));
+        scenes.update();
+        scenes.check();
+
+        // a dirty node moved to another group
+        int sub = scenes.indexOf("sub1.2");
+        scenes.move(sub, new Vector3f(0, 0, 30));
+        scenes.detach(sub);
+        scenes.attach(scenes.indexOf("group5"), sub);
+        scenes.update();
+        scenes.check();
+        scenes.checkExactBound(scenes.indexOf("group1"));
+
+        // the light of a moved node follows it
+        int lit = scenes.indexOf("sub2.3");
+        scenes.detach(lit);
+        scenes.attach(scenes.indexOf("group4"), lit);
+        scenes.update();
+        scenes.check();
+
+        // and later changes of the moved spatials are still tracked
+        scenes.move(geom, new Vector3f(5, 5, 5));
+        scenes.move(sub, new Vector3f(-5, 0, 0));
+        scenes.update();
+        scenes.check();
+    }
+
+    @Test
+    public void testLightChanges() {
+        Scenes scenes = new Scenes(60);
+        scenes.update();
+
+        int sub = scenes.indexOf("sub4.1");
+        Light plainLight = createLight("added");
+        Light incrementalLight = createLight("added");
+        scenes.plain.get(sub).addLight(plainLight);
+        scenes.incremental.get(sub).addLight(incrementalLight);
+        scenes.update();
+        scenes.check();
+
+        scenes.plain.get(sub).removeLight(plainLight);
+        scenes.incremental.get(sub).removeLight(incrementalLight);
+        scenes.move(scenes.indexOf("geom4.1.3"), new Vector3f(1, 0, 0));
+        scenes.update();
+        scenes.check();
+    }
+
+    @Test
+    public void testWorldBoundBeforeUpdate() {
+        Scenes scenes = new Scenes(60);
+        scenes.update();
+
+        int geom = scenes.indexOf("geom2.2.2");
+        int group = scenes.indexOf("group2");
+        for (int frame = 0; frame < 5; frame++) {
+            scenes.move(geom, new Vector3f(3, 0, 0));
+            scenes.move(scenes.indexOf("sub5.5"), new Vector3f(0, 1, 0));
+
+            // lazily updated bounds of the moved spatials and an ancestor
+            assertBoundEquals("geom", scenes.plain.get(geom).getWorldBound(),
+                                      scenes.incremental.get(geom).getWorldBound());
+            assertBoundContains("group", scenes.plain.get(group).getWorldBound(),
+                                         scenes.incremental.get(group).getWorldBound());
+            assertBoundContains("root", scenes.plainRoot.getWorldBound(),
+                                        scenes.incrementalRoot.getWorldBound());
+
+            scenes.update();
+            scenes.check();
+        }
+    }
+
+    @Test
+    public void testBoundRefitInterval() {
+        int interval = 3;
+        Scenes scenes = new Scenes(interval);
+        scenes.update();
+        scenes.check();
+        int sub = scenes.indexOf("sub1.1");
+        int geom = scenes.indexOf("geom1.1.1");
+        scenes.checkExactBound(sub);
+
+        // the bound grows to include the moved child...
+        scenes.move(geom, new Vector3f(50, 0, 0));
+        scenes.update();
+        scenes.check();
+        scenes.checkExactBound(sub);
+
+        // ... but does not shrink when it moves back
+        scenes.move(geom, new Vector3f(-50, 0, 0));
+        scenes.update();
+        scenes.check();
+        BoundingBox plainBound = (BoundingBox) scenes.plain.get(sub).getWorldBound();
+        BoundingBox incrementalBound = (BoundingBox) scenes.incremental.get(sub).getWorldBound();
+        assertTrue(incrementalBound.getMax(null).x > plainBound.getMax(null).x + 40f);
+
+        // until the interval is reached, this is the third refit
+        scenes.move(geom, new Vector3f(0.1f, 0, 0));
+        scenes.update();
+        scenes.check();
+        plainBound = (BoundingBox) scenes.plain.get(sub).getWorldBound();
+        incrementalBound = (BoundingBox) scenes.incremental.get(sub).getWorldBound();
+        assertTrue(incrementalBound.getMax(null).x > plainBound.getMax(null).x + 40f);
+
+        // and the next update recomputes it exactly
+        scenes.move(geom, new Vector3f(0.1f, 0, 0));
+        scenes.update();
+        scenes.check();
+        scenes.checkExactBound(sub);
+    }
+
+    @Test
+    public void testZeroRefitInterval() {
+        Scenes scenes = new Scenes(0);
+        scenes.update();
+        Random random = new Random(5);
+        for (int frame = 0; frame < 20; frame++) {
+            int index = 1 + random.nextInt(scenes.size() - 1);
+            scenes.move(index, new Vector3f(random.nextFloat() * 10f - 5f, 0, 0));
+            scenes.update();
+            scenes.check();
+            for (int i = 0; i < scenes.size(); i++) {
+                scenes.checkExactBound(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.scene;
+
+import static org.junit.Assert.*;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that {@link PackedNode} computes the same world transforms as a
+ * plain {@link Node}.
+ */
+public class PackedNodeTest {
+
+    private static void assertVector(Vector3f expected, Vector3f actual) {
+        assertEquals(expected.x, actual.x, 1e-4f);
+        assertEquals(expected.y, actual.y, 1e-4f);
+        assertEquals(expected.z, actual.z, 1e-4f);
+    }
+
+    private static Node buildTree(Node root) {
+        Node parent = new Node("parent");
+        parent.setLocalTranslation(0, 1, 0);
+        Node child = new Node("child");
+        child.attachChild(new Geometry("geom", new Mesh()));
+        parent.attachChild(child);
+        root.attachChild(parent);
+        return child;
+    }
+
+    @Test
+    public void testWorldQueryBeforeUpdate() {
+        Node plain = new Node("plain");
+        PackedNode packed = new PackedNode("packed");
+        Node plainChild = buildTree(plain);
+        Node packedChild = buildTree(packed);
+        plain.updateGeometricState();
+        packed.updateGeometricState();
+
+        plainChild.setLocalTranslation(10, 0, 0);
+        packedChild.setLocalTranslation(10, 0, 0);
+
+        // clears the transform refresh flag before the update
+        plainChild.getWorldTranslation();
+        packedChild.getWorldTranslation();
+
+        plain.updateGeometricState();
+        packed.updateGeometricState();
+
+        assertVector(new Vector3f(10, 1, 0), plainChild.getWorldTranslation());
+        assertVector(new Vector3f(10, 1, 0), packedChild.getWorldTranslation());
+        assertVector(new Vector3f(10, 1, 0), packedChild.getChild(0).getWorldTranslation());
+
+        // a later change of the parent must use the new local transform
+        plainChild.getParent().move(0, 1, 0);
+        packedChild.getParent().move(0, 1, 0);
+        plain.updateGeometricState();
+        packed.updateGeometricState();
+        assertVector(new Vector3f(10, 2, 0), packedChild.getChild(0).getWorldTranslation());
+    }
+
+    @Test
+    public void testMatchesNode() {
+        Random random = new Random(3);
+        Node plain = new Node("plain");
+        PackedNode packed = new PackedNode("packed");
+        ArrayList<Spatial> plainSpatials = new ArrayList<Spatial>();
+        ArrayList<Spatial> packedSpatials = new ArrayList<Spatial>();
+        plainSpatials.add(plain);
+        packedSpatials.add(packed);
+        for (int i = 0; i < 200; i++) {
+            int parent = random.nextInt(plainSpatials.size());
+            while (!(plainSpatials.get(parent) instanceof Node)) {
+                parent = random.nextInt(plainSpatials.size());
+            }
+            boolean geom = random.nextInt(3) == 0;
+            Spatial a = geom ? new Geometry("g" + i, new Mesh()) : new Node("n" + i);
+            Spatial b = geom ? new Geometry("g" + i, new Mesh()) : new Node("n" + i);
+            ((Node) plainSpatials.get(parent)).attachChild(a);
+            ((Node) packedSpatials.get(parent)).attachChild(b);
+            plainSpatials.add(a);
+            packedSpatials.add(b);
+        }
+
+        for (int frame = 0; frame < 20; frame++) {
+            for (int i = 0; i < 30; i++) {
+                int index = random.nextInt(plainSpatials.size());
+                Vector3f translation = new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat());
+                Quaternion rotation = new Quaternion().fromAngles(random.nextFloat(), random.nextFloat(), 0);
+                float scale = 0.5f + random.nextFloat();
+                for (ArrayList<Spatial> spatials : new ArrayList[]{plainSpatials, packedSpatials}) {
+                    Spatial s = spatials.get(index);
+                    s.setLocalTranslation(translation);
+                    s.setLocalRotation(rotation);
+                    s.setLocalScale(scale);
+                }
+                if (random.nextBoolean()) {
+                    // world queries between the changes and the update
+                    int query = random.nextInt(plainSpatials.size());
+                    plainSpatials.get(query).getWorldTransform();
+                    packedSpatials.get(query).getWorldTransform();
+                }
+            }
+            plain.updateGeometricState();
+            packed.updateGeometricState();
+
+            for (int i = 0; i < plainSpatials.size(); i++) {
+                assertVector(plainSpatials.get(i).getWorldTranslation(), packedSpatials.get(i).getWorldTranslation());
+                assertVector(plainSpatials.get(i).getWorldScale(), packedSpatials.get(i).getWorldScale());
+                if (plainSpatials.get(i) instanceof Geometry) {
+                    Geometry pg = (Geometry) plainSpatials.get(i);
+                    Geometry kg = (Geometry) packedSpatials.get(i);
+                    assertVector(pg.getWorldMatrix().toTranslationVector(), kg.getWorldMatrix().toTranslationVector());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReattach() {
+        PackedNode packed = new PackedNode("packed");
+        Node child = buildTree(packed);
+        packed.updateGeometricState();
+
+        // moved to another parent in the subtree
+        Node other = new Node("other");
+        other.setLocalTranslation(5, 0, 0);
+        packed.attachChild(other);
+        other.attachChild(child);
+        packed.updateGeometricState();
+        assertVector(new Vector3f(5, 0, 0), child.getChild(0).getWorldTranslation());
+
+        // detached, the packed node stops tracking it on the next update
+        child.removeFromParent();
+        child.setLocalTranslation(1, 0, 0);
+        child.updateGeometricState();
+        assertVector(new Vector3f(1, 0, 0), child.getChild(0).getWorldTranslation());
+        packed.updateGeometricState();
+        assertNull(child.packedOwner);
+        assertVector(new Vector3f(5, 0, 0), other.getWorldTranslation());
+    }
+
+    @Test
+    public void testClone() {
+        PackedNode packed = new PackedNode("packed");
+        Node child = buildTree(packed);
+        packed.updateGeometricState();
+
+        PackedNode clone = packed.clone(false);
+        Node cloneChild = (Node) ((Node) clone.getChild(0)).getChild(0);
+        assertNull(cloneChild.packedOwner);
+
+        cloneChild.setLocalTranslation(3, 0, 0);
+        clone.updateGeometricState();
+        packed.updateGeometricState();
+        assertVector(new Vector3f(3, 1, 0), cloneChild.getWorldTranslation());
+        assertVector(new Vector3f(0, 1, 0), child.getWorldTranslation());
+    }
+}
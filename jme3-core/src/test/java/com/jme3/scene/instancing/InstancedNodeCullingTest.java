@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.scene.instancing;
+
+import static org.junit.Assert.*;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.material.Material;
+import com.jme3.material.MaterialDef;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.shape.Box;
+import com.jme3.shader.VarType;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the instances written by an {@link InstancedNode} with instance
+ * culling against testing every instance with the camera.
+ */
+public class InstancedNodeCullingTest {
+
+    private static final int SIZE = 40;
+    private static final float MARGIN = 1f;
+
+    private final Box box = new Box(0.5f, 0.5f, 0.5f);
+    private final List<Geometry> geometries = new ArrayList<Geometry>();
+    private InstancedNode node;
+    private Camera cam;
+    private ViewPort vp;
+
+    @Before
+    public void setUp() {
+        MaterialDef def = new MaterialDef(null, "Test");
+        def.addMaterialParam(VarType.Boolean, "UseInstancing", true);
+        Material mat = new Material(def);
+        mat.setBoolean("UseInstancing", true);
+
+        node = new InstancedNode("Instanced");
+        node.setInstanceCulling(true);
+        for (int x = 0; x < SIZE; x++) {
+            for (int z = 0; z < SIZE; z++) {
+                Geometry geom = new Geometry("Box", box);
+                geom.setMaterial(mat);
+                geom.setLocalTranslation(x * 3, 0, z * 3);
+                geom.setLocalRotation(new Quaternion().fromAngles(0, x * 0.1f, 0));
+                node.attachChild(geom);
+                geometries.add(geom);
+            }
+        }
+        node.instance();
+        setCamera(0, 0);
+    }
+
+    private void setCamera(float x, float z) {
+        cam = new Camera(640, 480);
+        cam.setFrustumPerspective(60, 640f / 480, 1, 300);
+        cam.setLocation(new Vector3f(x, 5, z));
+        cam.lookAt(new Vector3f(x + 10, 0, z + 10), Vector3f.UNIT_Y);
+        cam.update();
+        vp = new ViewPort("Test", cam);
+    }
+
+    private List<InstancedGeometry> getInstancedGeometries() {
+        List<InstancedGeometry> list = new ArrayList<InstancedGeometry>();
+        for (Spatial child : node.getChildren()) {
+            if (child instanceof InstancedGeometry) {
+                list.add((InstancedGeometry) child);
+            }
+        }
+        return list;
+    }
+
+    private void frame() {
+        node.updateLogicalState(0.016f);
+        node.updateGeometricState();
+        node.runControlRender(null, vp);
+    }
+
+    /**
+     * Returns the instances in the instance data after checking that their
+     * transforms were written.
+     */
+    private Set<Geometry> getWrittenInstances() {
+        Set<Geometry> written = new HashSet<Geometry>();
+        for (InstancedGeometry ig : getInstancedGeometries()) {
+            FloatBuffer data = (FloatBuffer) ig.getTransformUserInstanceData().getData();
+            for (int i = 0; i < ig.getNumVisibleInstances(); i++) {
+                Geometry geom = ig.getVisibleInstance(i);
+                Vector3f translation = geom.getWorldTranslation();
+                assertEquals(translation.x, data.get(i * 16 + 12), 1e-4f);
+                assertEquals(translation.y, data.get(i * 16 + 13), 1e-4f);
+                assertEquals(translation.z, data.get(i * 16 + 14), 1e-4f);
+                assertTrue(written.add(geom));
+            }
+        }
+        return written;
+    }
+
+    private void checkVisible() {
+        Set<Geometry> expected = new HashSet<Geometry>();
+        for (Geometry geom : geometries) {
+            if (geom.getParent() == null) {
+                continue;
+            }
+            cam.setPlaneState(0);
+            if (cam.contains(geom.getWorldBound()) != Camera.FrustumIntersect.Outside) {
+                expected.add(geom);
+            }
+        }
+        assertFalse(expected.isEmpty());
+        assertTrue(expected.size() < geometries.size());
+        Set<Geometry> written = getWrittenInstances();
+        assertTrue(written.containsAll(expected));
+        // the tree keeps enlarged bounds, instances just outside may pass
+        for (Geometry geom : written) {
+            if (!expected.contains(geom)) {
+                BoundingBox bound = (BoundingBox) geom.getWorldBound().clone();
+                bound.setXExtent(bound.getXExtent() + MARGIN);
+                bound.setYExtent(bound.getYExtent() + MARGIN);
+                bound.setZExtent(bound.getZExtent() + MARGIN);
+                cam.setPlaneState(0);
+                assertNotSame(Camera.FrustumIntersect.Outside, cam.contains(bound));
+            }
+        }
+    }
+
+    private void clearUpdates() {
+        for (InstancedGeometry ig : getInstancedGeometries()) {
+            ig.getTransformUserInstanceData().clearUpdateNeeded();
+        }
+    }
+
+    @Test
+    public void testVisibleInstances() {
+        frame();
+        checkVisible();
+
+        setCamera(100, 60);
+        frame();
+        checkVisible();
+    }
+
+    @Test
+    public void testPartialUpload() {
+        frame();
+        clearUpdates();
+
+        frame();
+        for (InstancedGeometry ig : getInstancedGeometries()) {
+            assertFalse(ig.getTransformUserInstanceData().isUpdateNeeded());
+        }
+
+        // move a visible instance that stays in the same slot
+        InstancedGeometry ig = getInstancedGeometries().get(0);
+        Geometry geom = ig.getVisibleInstance(3);
+        geom.move(0, 0.5f, 0);
+        frame();
+        checkVisible();
+        VertexBuffer vb = ig.getTransformUserInstanceData();
+        assertTrue(vb.isUpdateNeeded());
+        assertEquals(3, vb.getUpdateRangeStart());
+        assertEquals(4, vb.getUpdateRangeEnd());
+    }
+
+    @Test
+    public void testRemoveAndAttach() {
+        frame();
+        for (int i = 0; i < geometries.size(); i += 7) {
+            geometries.get(i).removeFromParent();
+        }
+        frame();
+        checkVisible();
+
+        for (int i = 0; i < geometries.size(); i += 7) {
+            node.attachChild(geometries.get(i));
+        }
+        node.instance();
+        frame();
+        checkVisible();
+    }
+
+    @Test
+    public void testCullingDisabled() {
+        frame();
+        node.setInstanceCulling(false);
+        frame();
+        int count = 0;
+        for (InstancedGeometry ig : getInstancedGeometries()) {
+            assertFalse(ig.isInstanceCulling());
+            assertEquals(ig.getActualNumInstances(), ig.getNumVisibleInstances());
+            count += ig.getNumVisibleInstances();
+        }
+        assertEquals(geometries.size(), count);
+
+        node.setInstanceCulling(true);
+        frame();
+        checkVisible();
+    }
+
+    @Test
+    public void testLodLevels() {
+        VertexBuffer indices = box.getBuffer(VertexBuffer.Type.Index);
+        box.setLodLevels(new VertexBuffer[]{indices, indices.clone(), indices.clone()});
+        node.setLodDistances(40, 80);
+        // instances change their level in one frame and are moved in the next
+        frame();
+        frame();
+        frame();
+        checkVisible();
+
+        Set<Integer> levels = new HashSet<Integer>();
+        for (InstancedGeometry ig : getInstancedGeometries()) {
+            levels.add(ig.getLodLevel());
+            for (Geometry geom : ig.getGeometries()) {
+                if (geom != null) {
+                    assertEquals(ig.getLodLevel(), geom.getLodLevel());
+                }
+            }
+            for (int i = 0; i < ig.getNumVisibleInstances(); i++) {
+                float distance = ig.getVisibleInstance(i).getWorldTranslation().distance(cam.getLocation());
+                if (Math.abs(distance - 40) > 1.5f && Math.abs(distance - 80) > 1.5f) {
+                    int level = distance > 80 ? 2 : distance > 40 ? 1 : 0;
+                    assertEquals(level, ig.getLodLevel());
+                }
+            }
+        }
+        assertEquals(3, levels.size());
+    }
+}
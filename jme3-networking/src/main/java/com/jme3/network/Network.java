@@ -36,6 +36,8 @@ import com.jme3.network.base.DefaultServer;
 import com.jme3.network.base.TcpConnectorFactory;
 import com.jme3.network.kernel.tcp.SelectorKernel;
 import com.jme3.network.kernel.tcp.SocketConnector;
+import com.jme3.network.kernel.udp.ReliableUdpConnector;
+import com.jme3.network.kernel.udp.ReliableUdpKernel;
 import com.jme3.network.kernel.udp.UdpConnector;
 import com.jme3.network.kernel.udp.UdpKernel;
 import java.io.IOException;
@@ -94,6 +96,25 @@ public class Network
  
         return new DefaultServer( gameName, version, reliable, fast );       
     }
+
+    /**
+     *  Creates a named and versioned Server that delivers reliable messages
+     *  over UDP instead of TCP.  Reliable messages are acknowledged, resent when
+     *  lost and delivered in order.
+     *
+     *  @param reliablePort  The UDP port upon which reliable messages are hosted.
+     *  @param udpPort  The UDP port upon which the 'fast' unreliable messages are
+     *                  hosted.  This must be different than the reliable port.  Set to
+     *                  -1 if 'fast' traffic should also be sent reliably.
+     */
+    public static Server createReliableUdpServer( String gameName, int version, int reliablePort, 
+                                                  int udpPort ) throws IOException
+    {
+        UdpKernel fast = udpPort == -1 ? null : new UdpKernel(udpPort);
+        ReliableUdpKernel reliable = new ReliableUdpKernel(reliablePort);
+ 
+        return new DefaultServer( gameName, version, reliable, fast );       
+    }
     
     /**
      *  Creates a client that can be connected at a later time.
@@ -166,6 +187,26 @@ public class Network
        
         return new DefaultClient( gameName, version, reliable, fast, new TcpConnectorFactory(remoteAddress) );
     }
+
+    /**
+     *  Creates a Client that communicates with a server created by
+     *  createReliableUdpServer(), sending reliable messages over UDP.
+     *
+     *  @param reliablePort  The remote UDP port on the server to which this client
+     *                  should send reliable messages.
+     *  @param remoteUdpPort  The remote UDP port on the server to which this client should
+     *                  send 'fast'/unreliable messages.  Set to -1 if 'fast' traffic should
+     *                  also be sent reliably.
+     */   
+    public static Client connectToReliableUdpServer( String gameName, int version, String host,
+                                                     int reliablePort, int remoteUdpPort ) throws IOException
+    {
+        InetAddress remoteAddress = InetAddress.getByName(host);   
+        UdpConnector fast = remoteUdpPort == -1 ? null : new UdpConnector( remoteAddress, remoteUdpPort ); 
+        ReliableUdpConnector reliable = new ReliableUdpConnector( remoteAddress, reliablePort );        
+       
+        return new DefaultClient( gameName, version, reliable, fast, new TcpConnectorFactory(remoteAddress) );
+    }
  
  
     protected static class NetworkClientImpl extends DefaultClient implements NetworkClient
@@ -36,6 +36,7 @@ import com.jme3.network.Message;
 import com.jme3.network.MessageListener;
 import com.jme3.network.kernel.Connector;
 import com.jme3.network.kernel.ConnectorException;
+import com.jme3.network.stats.ConnectionStats;
 import java.nio.ByteBuffer;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -74,6 +75,10 @@ public class ConnectorAdapter extends Thread
     // Marks the messages as reliable or not if they came
     // through this connector.
     private boolean reliable;
+
+    // Optional traffic stats and the channel they are counted for
+    private ConnectionStats stats;
+    private int channel;
  
     public ConnectorAdapter( Connector connector, MessageListener<Object> dispatcher, 
                              ErrorListener<Object> errorHandler, boolean reliable )
@@ -127,6 +132,24 @@ public class ConnectorAdapter extends Thread
             }
     }
  
+    /**
+     *  Sets the stats that the messages received by this adapter are
+     *  counted in as having arrived on the specified channel.
+     */
+    public void setStats( ConnectionStats stats, int channel )
+    {
+        this.stats = stats;
+        this.channel = channel;
+    }
+
+    /**
+     *  Returns the number of buffers waiting to be written.
+     */
+    public int getQueueSize()
+    {
+        return outbound.size();
+    }
+
     protected void dispatch( Message m )
     {
         dispatcher.messageReceived( null, m );                        
@@ -171,6 +194,10 @@ public class ConnectorAdapter extends Thread
                 Message m = null;
                 while( (m = protocol.getMessage()) != null ) {
                     m.setReliable( reliable );
+                    if( stats != null ) {
+                        stats.messageReceived( channel, protocol.getLastMessageClassId(),
+                                               protocol.getLastMessageSize() );
+                    }
                     dispatch( m );
                 }
             }
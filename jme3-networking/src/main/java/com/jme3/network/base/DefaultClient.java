@@ -37,8 +37,10 @@ import com.jme3.network.kernel.Connector;
 import com.jme3.network.message.ChannelInfoMessage;
 import com.jme3.network.message.ClientRegistrationMessage;
 import com.jme3.network.message.DisconnectMessage;
+import com.jme3.network.message.PingMessage;
 import com.jme3.network.service.ClientServiceManager;
 import com.jme3.network.service.serializer.ClientSerializerRegistrationsService;
+import com.jme3.network.stats.ConnectionStats;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
@@ -83,6 +85,9 @@ public class DefaultClient implements Client
     private ConnectorFactory connectorFactory;
     
     private ClientServiceManager services;
+
+    private final ConnectionStats stats = new ConnectionStats();
+    private long serverRoundTripSamples = 0;
     
     public DefaultClient( String gameName, int version )
     {
@@ -90,6 +95,7 @@ public class DefaultClient implements Client
         this.version = version;
         this.services = new ClientServiceManager(this);
         addStandardServices();
+        stats.setQueueMonitor(new QueueMonitor());
     }
     
     public DefaultClient( String gameName, int version, Connector reliable, Connector fast,
@@ -114,9 +120,13 @@ public class DefaultClient implements Client
             throw new IllegalStateException( "Channels already exist." );
             
         this.connectorFactory = connectorFactory;
-        channels.add(new ConnectorAdapter(reliable, dispatcher, dispatcher, true));
+        ConnectorAdapter ca = new ConnectorAdapter(reliable, dispatcher, dispatcher, true);
+        ca.setStats(stats, CHANNEL_DEFAULT_RELIABLE);
+        channels.add(ca);
         if( fast != null ) {
-            channels.add(new ConnectorAdapter(fast, dispatcher, dispatcher, false));
+            ca = new ConnectorAdapter(fast, dispatcher, dispatcher, false);
+            ca.setStats(stats, CHANNEL_DEFAULT_UNRELIABLE);
+            channels.add(ca);
         } else {
             // Add the null adapter to keep the indexes right
             channels.add(null);
@@ -227,6 +237,17 @@ public class DefaultClient implements Client
     {
         return services;
     }
+
+    /**
+     *  Returns the traffic statistics for this client's connection
+     *  to the server.  They can be read at any time from any thread.
+     *  The round trip times are the ones measured by the server's
+     *  pings, see DefaultServer.setPingInterval().
+     */
+    public ConnectionStats getStats()
+    {
+        return stats;
+    }
    
     @Override
     public void send( Message message )
@@ -287,6 +308,9 @@ public class DefaultClient implements Client
         byte[] temp = new byte[buffer.remaining()];
         System.arraycopy(buffer.array(), buffer.position(), temp, 0, buffer.remaining());
         buffer = ByteBuffer.wrap(temp);
+
+        // The class ID follows the two byte length
+        stats.messageSent(channel - CH_FIRST, buffer.getShort(2), temp.length);
         
         channels.get(channel).write(buffer);
     }
@@ -432,6 +456,7 @@ public class DefaultClient implements Client
             for( int i = 0; i < ports.length; i++ ) {
                 Connector c = connectorFactory.createConnector( i, ports[i] );
                 ConnectorAdapter ca = new ConnectorAdapter(c, dispatcher, dispatcher, true);
+                ca.setStats(stats, i);
                 int ch = channels.size(); 
                 channels.add( ca );
                 
@@ -483,6 +508,27 @@ public class DefaultClient implements Client
             // now we need to add a bunch of connections
             configureChannels( ((ChannelInfoMessage)m).getId(), ((ChannelInfoMessage)m).getPorts() );
             return; 
+        } else if( m instanceof PingMessage ) {
+            PingMessage ping = (PingMessage)m;
+            if( ping.isResponse() )
+                return;
+
+            // Follow the round trip times measured by the server,
+            // each of its samples is only counted once
+            synchronized( stats ) {
+                if( ping.getRoundTripSamples() > serverRoundTripSamples ) {
+                    serverRoundTripSamples = ping.getRoundTripSamples();
+                    stats.addRoundTripSample(ping.getLastRoundTripTime());
+                }
+            }
+            if( isRunning ) {
+                // Answer on the channel it came in on without waiting
+                // for the connection to be established.  The server may
+                // ping before our registration has been confirmed.
+                int ch = ping.isReliable() || channels.get(CH_UNRELIABLE) == null ? CH_RELIABLE : CH_UNRELIABLE;
+                send(ch, ping.createResponse(), false);
+            }
+            return;
         } else if( m instanceof DisconnectMessage ) {
             // Can't do too much else yet
             String reason = ((DisconnectMessage)m).getReason();
@@ -500,6 +546,22 @@ public class DefaultClient implements Client
         }
     }
  
+    /**
+     *  Reports the outbound queue sizes of the connector adapters.
+     */
+    protected class QueueMonitor implements ConnectionStats.QueueMonitor
+    {
+        @Override
+        public int getQueueDepth( int channel )
+        {
+            int ch = channel + CH_FIRST;
+            if( ch < 0 || ch >= channels.size() )
+                return 0;
+            ConnectorAdapter ca = channels.get(ch);
+            return ca == null ? 0 : ca.getQueueSize();
+        }
+    }
+ 
     protected class Redispatch implements MessageListener<Object>, ErrorListener<Object>
     {
         @Override
@@ -34,16 +34,24 @@ package com.jme3.network.base;
 import com.jme3.network.*;
 import com.jme3.network.kernel.Endpoint;
 import com.jme3.network.kernel.Kernel;
+import com.jme3.network.kernel.tcp.NioEndpoint;
+import com.jme3.network.kernel.udp.ReliableUdpEndpoint;
 import com.jme3.network.message.ChannelInfoMessage;
 import com.jme3.network.message.ClientRegistrationMessage;
 import com.jme3.network.message.DisconnectMessage;
+import com.jme3.network.message.PingMessage;
 import com.jme3.network.service.HostedServiceManager;
 import com.jme3.network.service.serializer.ServerSerializerRegistrationsService;
+import com.jme3.network.stats.ConnectionStats;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -89,6 +97,16 @@ public class DefaultServer implements Server
     
     private HostedServiceManager services;
     
+    private final ThreadLocal<ByteBuffer> dataBuffer = new ThreadLocal<ByteBuffer>();
+
+    private int batchSize = 0;
+    private long batchDelay = 10;
+    private long pingInterval = 1000;
+    private ScheduledExecutorService timer;
+
+    // The totals of the connections that have closed
+    private final ConnectionStats closedStats = new ConnectionStats();
+    
     public DefaultServer( String gameName, int version, Kernel reliable, Kernel fast )
     {
         if( reliable == null )
@@ -161,6 +179,85 @@ public class DefaultServer implements Server
         } 
     } 
 
+    /**
+     *  Sets the size in bytes of the buffers that messages sent to
+     *  a single connection are collected in before being written.  Each
+     *  connection gets one per channel.  Collected messages are written
+     *  together when the buffer fills up, when flush() is called, or after
+     *  the batch delay has passed.  The default of 0 writes each message
+     *  as it is sent.  Batches for the unreliable channel go out as one
+     *  datagram so the size should stay below the network MTU.
+     *
+     *  <p>Broadcasts are added to the batch of each connection they are
+     *  sent to, so messages stay in order.  While batching is enabled
+     *  broadcasts only reach connections that have finished connecting.</p>
+     */
+    public void setMessageBatchSize( int size )
+    {
+        if( isRunning )
+            throw new IllegalStateException( "Batch size cannot be changed once server is started." );
+        if( size < 0 )
+            throw new IllegalArgumentException( "Batch size cannot be negative:" + size );
+        this.batchSize = size;
+    }
+
+    public int getMessageBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     *  Sets how often in milliseconds the collected messages are
+     *  written when batching is enabled.  A delay of 0 means that batches
+     *  are only written when full or when flush() is called.
+     */
+    public void setMessageBatchDelay( long millis )
+    {
+        if( isRunning )
+            throw new IllegalStateException( "Batch delay cannot be changed once server is started." );
+        if( millis < 0 )
+            throw new IllegalArgumentException( "Batch delay cannot be negative:" + millis );
+        this.batchDelay = millis;
+    }
+
+    public long getMessageBatchDelay()
+    {
+        return batchDelay;
+    }
+
+    /**
+     *  Sets how often in milliseconds each connection is sent a ping
+     *  message to measure its round trip time.  Defaults to 1000.  A value
+     *  of 0 disables the pings.  Clients only answer the pings and follow
+     *  the round trip times measured here.
+     */
+    public void setPingInterval( long millis )
+    {
+        if( isRunning )
+            throw new IllegalStateException( "Ping interval cannot be changed once server is started." );
+        if( millis < 0 )
+            throw new IllegalArgumentException( "Ping interval cannot be negative:" + millis );
+        this.pingInterval = millis;
+    }
+
+    public long getPingInterval()
+    {
+        return pingInterval;
+    }
+
+    /**
+     *  Writes any messages collected for batching to the connections.
+     *  Usually called once at the end of a server tick.
+     */
+    public void flush()
+    {
+        if( batchSize == 0 )
+            return;
+        for( HostedConnection hc : connections.values() ) {
+            ((Connection)hc).flush();
+        }
+    }
+
     protected void checkChannel( int channel )
     {
         if( channel < MessageConnection.CHANNEL_DEFAULT_RELIABLE 
@@ -186,6 +283,39 @@ public class DefaultServer implements Server
         }
         
         isRunning = true;
+
+        boolean batching = batchSize > 0 && batchDelay > 0;
+        if( batching || pingInterval > 0 ) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread( Runnable r ) {
+                        Thread t = new Thread(r, "ServerTimer");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        if( batching ) {
+            timer.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        try {
+                            flush();
+                        } catch( RuntimeException e ) {
+                            log.log( Level.WARNING, "Error flushing message batches", e );
+                        }
+                    }
+                }, batchDelay, batchDelay, TimeUnit.MILLISECONDS);
+        }
+        if( pingInterval > 0 ) {
+            timer.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        try {
+                            ping();
+                        } catch( RuntimeException e ) {
+                            log.log( Level.WARNING, "Error sending pings", e );
+                        }
+                    }
+                }, pingInterval, pingInterval, TimeUnit.MILLISECONDS);
+        }
         
         // Start the services
         services.start();             
@@ -206,6 +336,13 @@ public class DefaultServer implements Server
         // First stop the services since we are about to
         // kill the connections they are using
         services.stop();
+
+        // Get out anything the services left behind
+        flush();
+        if( timer != null ) {
+            timer.shutdown();
+            timer = null;
+        }
  
         try {
             // Kill the adpaters, they will kill the kernels
@@ -237,17 +374,26 @@ public class DefaultServer implements Server
         
         if( connections.isEmpty() )
             return;
+
+        ByteBuffer buffer = messageToBuffer(message);
+
+        if( batchSize > 0 ) {
+            for( HostedConnection hc : connections.values() ) {
+                if( filter == null || filter.apply(hc) ) {
+                    ((Connection)hc).send( message, buffer.duplicate() );
+                }
+            }
+            return;
+        }
  
-        ByteBuffer buffer = MessageProtocol.messageToBuffer(message, null);
- 
-        FilterAdapter adapter = filter == null ? null : new FilterAdapter(filter);
-               
+        // The buffer is reused by the next call so the kernels
+        // must copy it, they do that only once for all endpoints
         if( message.isReliable() || fastAdapter == null ) {
-            // Don't need to copy the data because message protocol is already
-            // giving us a fresh buffer
-            reliableAdapter.broadcast( adapter, buffer, true, false );
+            FilterAdapter adapter = new FilterAdapter(filter, CH_RELIABLE, buffer);
+            reliableAdapter.broadcast( adapter, buffer, true, true );
         } else {
-            fastAdapter.broadcast( adapter, buffer, false, false );
+            FilterAdapter adapter = new FilterAdapter(filter, CH_UNRELIABLE, buffer);
+            fastAdapter.broadcast( adapter, buffer, false, true );
         }               
     }
 
@@ -262,12 +408,98 @@ public class DefaultServer implements Server
             return;
 
         checkChannel(channel);
-        
-        ByteBuffer buffer = MessageProtocol.messageToBuffer(message, null);
+
+        ByteBuffer buffer = messageToBuffer(message);
+
+        if( batchSize > 0 ) {
+            for( HostedConnection hc : connections.values() ) {
+                if( filter == null || filter.apply(hc) ) {
+                    ((Connection)hc).send( channel+CH_FIRST, buffer.duplicate() );
+                }
+            }
+            return;
+        }
  
-        FilterAdapter adapter = filter == null ? null : new FilterAdapter(filter);
+        FilterAdapter adapter = new FilterAdapter(filter, channel+CH_FIRST, buffer);
+
+        channels.get(channel+CH_FIRST).broadcast( adapter, buffer, true, true );               
+    }
+
+    /**
+     *  Sends the specified message to each of the specified connections.
+     *  Unlike broadcast(), only the specified connections are visited so the
+     *  cost depends on the number of targets rather than on the number of
+     *  connected clients.  The message is only serialized once.
+     */
+    public void send( Collection<? extends HostedConnection> targets, Message message )
+    {
+        if( log.isLoggable(Level.FINER) ) {
+            log.log(Level.FINER, "send({0}, {1})", new Object[]{targets, message});
+        }
+
+        if( targets.isEmpty() )
+            return;
+
+        ByteBuffer buffer = messageToBuffer(message);
+        for( HostedConnection hc : targets ) {
+            // Each connection consumes its own view of the shared data
+            ((Connection)hc).send( message, buffer.duplicate() );
+        }
+    }
+
+    /**
+     *  Serializes the message into a buffer that is reused by
+     *  the next call on the same thread.
+     */
+    protected ByteBuffer messageToBuffer( Message message )
+    {
+        ByteBuffer buffer = dataBuffer.get();
+        if( buffer == null ) {
+            buffer = ByteBuffer.allocate( 32767 + 2 );
+            dataBuffer.set(buffer);
+        }
+        buffer.clear();
+        return MessageProtocol.messageToBuffer(message, buffer);
+    }
+
+    /**
+     *  Sends a ping to every connection, the responses update
+     *  the connections' round trip times.
+     */
+    protected void ping()
+    {
+        long time = System.nanoTime();
+        for( HostedConnection hc : connections.values() ) {
+            // Each client is told its own last round trip time
+            ConnectionStats s = ((Connection)hc).getStats();
+            hc.send( new PingMessage(time, s.getRoundTripSamples(), s.getLastRoundTripTime()) );
+        }
+    }
 
-        channels.get(channel+CH_FIRST).broadcast( adapter, buffer, true, false );               
+    /**
+     *  Returns new stats that total the traffic of all current connections
+     *  and of those that have closed since the server started.  Round trip
+     *  times are the average of the current connections.  This only reads
+     *  the connections' counters so it can be polled without holding up
+     *  the network threads.
+     */
+    public ConnectionStats getStats()
+    {
+        ConnectionStats result = new ConnectionStats();
+        closedStats.addCountsTo(result);
+        for( HostedConnection hc : connections.values() ) {
+            ((Connection)hc).getStats().addTo(result);
+        }
+        return result;
+    }
+
+    /**
+     *  Returns the traffic statistics of the specified connection of
+     *  this server.  They can be read at any time from any thread.
+     */
+    public ConnectionStats getStats( HostedConnection conn )
+    {
+        return ((Connection)conn).getStats();
     }
 
     @Override
@@ -329,6 +561,15 @@ public class DefaultServer implements Server
         if( log.isLoggable(Level.FINER) ) {
             log.log(Level.FINER, "{0} received:{1}", new Object[]{source, m});
         }
+
+        // Ping responses are handled here and never reach the listeners
+        if( m instanceof PingMessage ) {
+            PingMessage ping = (PingMessage)m;
+            if( source != null && ping.isResponse() ) {
+                ((Connection)source).getStats().addRoundTripSample((System.nanoTime() - ping.getTime()) / 1000000.0);
+            }
+            return;
+        }
         
         if( source == null ) {
             messageListeners.messageReceived( source, m );
@@ -362,6 +603,18 @@ public class DefaultServer implements Server
         return channels.indexOf(ka);
     }
 
+    /**
+     *  Called by the kernel adapters for every message received so
+     *  that it can be counted in the connection's stats.
+     */
+    protected void messageReceived( KernelAdapter ka, Endpoint p, short classId, int size )
+    {
+        HostedConnection source = getConnection(p);
+        if( source == null )
+            return;
+        ((Connection)source).getStats().messageReceived( getChannel(ka) - CH_FIRST, classId, size );
+    }
+
     protected void registerClient( KernelAdapter ka, Endpoint p, ClientRegistrationMessage m )
     {
         Connection addedConnection = null;
@@ -514,7 +767,7 @@ public class DefaultServer implements Server
         }
     }
 
-    protected class Connection implements HostedConnection
+    protected class Connection implements HostedConnection, ConnectionStats.QueueMonitor
     {
         private final int id;
         private boolean closed;
@@ -522,11 +775,25 @@ public class DefaultServer implements Server
         private int setChannelCount = 0; 
        
         private final Map<String,Object> sessionData = new ConcurrentHashMap<String,Object>();       
+
+        private final ConnectionStats stats = new ConnectionStats();
+
+        // One per channel when batching is enabled
+        private final ByteBuffer[] batches;
         
         public Connection( int channelCount )
         {
             id = nextId.getAndIncrement();
             channels = new Endpoint[channelCount];
+            if( batchSize > 0 ) {
+                batches = new ByteBuffer[channelCount];
+                for( int i = 0; i < channelCount; i++ ) {
+                    batches[i] = ByteBuffer.allocate(batchSize);
+                }
+            } else {
+                batches = null;
+            }
+            stats.setQueueMonitor(this);
         }
         
         boolean hasEndpoint( Endpoint p )
@@ -579,11 +846,19 @@ public class DefaultServer implements Server
             if( log.isLoggable(Level.FINER) ) {
                 log.log(Level.FINER, "send({0})", message);
             }
-            ByteBuffer buffer = MessageProtocol.messageToBuffer(message, null);
+            send( message, messageToBuffer(message) );
+        }
+
+        /**
+         *  Sends already serialized message data on the message's
+         *  reliable or unreliable channel.
+         */
+        void send( Message message, ByteBuffer buffer )
+        {
             if( message.isReliable() || channels[CH_UNRELIABLE] == null ) {
-                channels[CH_RELIABLE].send( buffer );
+                send( CH_RELIABLE, buffer );
             } else {
-                channels[CH_UNRELIABLE].send( buffer );
+                send( CH_UNRELIABLE, buffer );
             }
         }
 
@@ -594,8 +869,86 @@ public class DefaultServer implements Server
                 log.log(Level.FINER, "send({0}, {1})", new Object[]{channel, message});
             }
             checkChannel(channel);
-            ByteBuffer buffer = MessageProtocol.messageToBuffer(message, null);
-            channels[channel+CH_FIRST].send(buffer);
+            send( channel+CH_FIRST, messageToBuffer(message) );
+        }
+
+        /**
+         *  Sends the message data on the specified channel index or
+         *  adds it to that channel's batch when batching is enabled.
+         *  Messages are framed with their own length so a batch is read
+         *  back by the MessageProtocol on the other end as if they had
+         *  arrived one at a time.
+         */
+        private void send( int ch, ByteBuffer buffer )
+        {
+            // The class ID follows the two byte length
+            stats.messageSent( ch - CH_FIRST, buffer.getShort(buffer.position() + 2), buffer.remaining() );
+
+            if( batches == null ) {
+                send( channels[ch], buffer );
+                return;
+            }
+
+            ByteBuffer batch = batches[ch];
+            synchronized( batch ) {
+                if( buffer.remaining() > batch.remaining() ) {
+                    flush( ch );
+                }
+                if( buffer.remaining() > batch.remaining() ) {
+                    // Bigger than a whole batch, it goes by itself
+                    send( channels[ch], buffer );
+                    return;
+                }
+                batch.put( buffer );
+                if( !batch.hasRemaining() ) {
+                    flush( ch );
+                }
+            }
+        }
+
+        /**
+         *  Writes the messages collected for all channels.
+         */
+        public void flush()
+        {
+            if( batches == null || closed )
+                return;
+            for( int i = 0; i < batches.length; i++ ) {
+                flush( i );
+            }
+        }
+
+        private void flush( int ch )
+        {
+            ByteBuffer batch = batches[ch];
+            synchronized( batch ) {
+                if( batch.position() == 0 )
+                    return;
+                batch.flip();
+                try {
+                    if( channels[ch] != null && channels[ch].isConnected() )
+                        send( channels[ch], batch );
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        /**
+         *  Sends the contents of the shared per-thread buffer.
+         *  NioEndpoints copy it into their kernel's buffer pool,
+         *  other endpoints may hold on to the buffer they are
+         *  given so they get a copy of their own.
+         */
+        private void send( Endpoint endpoint, ByteBuffer buffer )
+        {
+            if( endpoint instanceof NioEndpoint ) {
+                endpoint.send( buffer );
+            } else {
+                ByteBuffer copy = ByteBuffer.allocate( buffer.remaining() );
+                copy.put( buffer ).flip();
+                endpoint.send( copy );
+            }
         }
  
         protected void closeConnection()
@@ -603,6 +956,10 @@ public class DefaultServer implements Server
             if( closed ) 
                 return;
             closed = true;
+
+            // Keep the totals, the queues no longer matter
+            stats.setQueueMonitor(null);
+            stats.addCountsTo(closedStats);
             
             // Make sure all endpoints are closed.  Note: reliable
             // should always already be closed through all paths that I
@@ -625,6 +982,9 @@ public class DefaultServer implements Server
             m.setReason( reason );
             m.setReliable( true );
             send( m );
+
+            // Make sure it's not sitting in a batch
+            flush();
             
             // Just close the reliable endpoint
             // fast will be cleaned up as a side-effect
@@ -637,6 +997,30 @@ public class DefaultServer implements Server
             }
         }
         
+        public ConnectionStats getStats()
+        {
+            return stats;
+        }
+
+        /**
+         *  Returns the number of buffers waiting to be written
+         *  by the channel's endpoint.
+         */
+        @Override
+        public int getQueueDepth( int channel )
+        {
+            int ch = channel + CH_FIRST;
+            if( ch < 0 || ch >= channels.length )
+                return 0;
+            Endpoint p = channels[ch];
+            if( p instanceof NioEndpoint ) {
+                return ((NioEndpoint)p).getOutboundQueueSize();
+            } else if( p instanceof ReliableUdpEndpoint ) {
+                return ((ReliableUdpEndpoint)p).getOutboundQueueSize();
+            }
+            return 0;
+        }
+
         @Override
         public Object setAttribute( String name, Object value )
         {
@@ -678,10 +1062,32 @@ public class DefaultServer implements Server
     protected class FilterAdapter implements Filter<Endpoint>
     {
         private final Filter<? super HostedConnection> delegate;
+
+        // When set, the message is counted in the stats of each
+        // connection that it is sent to
+        private final int ch;
+        private final short classId;
+        private final int size;
         
         public FilterAdapter( Filter<? super HostedConnection> delegate )
         {
             this.delegate = delegate;
+            this.ch = -1;
+            this.classId = 0;
+            this.size = 0;
+        }
+
+        /**
+         *  Creates an adapter that also counts the message in the
+         *  specified buffer as sent on the specified channel index for
+         *  each accepted connection.  A null delegate accepts all endpoints.
+         */
+        public FilterAdapter( Filter<? super HostedConnection> delegate, int ch, ByteBuffer buffer )
+        {
+            this.delegate = delegate;
+            this.ch = ch;
+            this.classId = buffer.getShort(buffer.position() + 2);
+            this.size = buffer.remaining();
         }
         
         @Override
@@ -689,8 +1095,12 @@ public class DefaultServer implements Server
         {
             HostedConnection conn = getConnection( input );
             if( conn == null )
+                return delegate == null;
+            if( delegate != null && !delegate.apply(conn) )
                 return false;
-            return delegate.apply(conn);
+            if( ch >= 0 ) 
+                ((Connection)conn).getStats().messageSent( ch - CH_FIRST, classId, size );
+            return true;
         } 
     }     
 }
@@ -238,6 +238,8 @@ public class KernelAdapter extends Thread
         Message m = null;
         while( (m = protocol.getMessage()) != null ) {
             m.setReliable(reliable);
+            server.messageReceived( this, env.getSource(), protocol.getLastMessageClassId(), 
+                                    protocol.getLastMessageSize() );
             dispatch( env.getSource(), m );
         }
     } 
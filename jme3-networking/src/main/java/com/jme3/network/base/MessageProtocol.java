@@ -48,12 +48,21 @@ import java.util.LinkedList;
  *  where two bytes represent the (short) length of the data
  *  and the rest is the raw data for the Serializers class.</p>
  *
+ *  <p>Because each message carries its own length, a buffer may
+ *  hold any number of messages back to back.  This is how batches
+ *  of messages are sent in a single write or datagram and they are
+ *  read here the same as messages that arrive one at a time.</p>
+ *
  *  @version   $Revision$
  *  @author    Paul Speed
  */
 public class MessageProtocol
 {
     private final LinkedList<Message> messages = new LinkedList<Message>();
+    private final LinkedList<Integer> sizes = new LinkedList<Integer>();
+    private final LinkedList<Short> classIds = new LinkedList<Short>();
+    private int lastSize;
+    private short lastClassId;
     private ByteBuffer current;
     private int size;
     private Byte carry;
@@ -92,8 +101,28 @@ public class MessageProtocol
             return null;
         }
         
+        lastSize = sizes.removeFirst();
+        lastClassId = classIds.removeFirst();
         return messages.removeFirst();
     }     
+
+    /**
+     *  Returns the serialized size, including the length prefix,
+     *  of the message last returned by getMessage().
+     */
+    public int getLastMessageSize()
+    {
+        return lastSize;
+    }
+
+    /**
+     *  Returns the serializer class ID of the message last
+     *  returned by getMessage().
+     */
+    public short getLastMessageClassId()
+    {
+        return lastClassId;
+    }
    
     /**
      *  Adds the specified buffer, extracting the contained messages 
@@ -180,6 +209,8 @@ public class MessageProtocol
             Object obj = Serializer.readClassAndObject( buffer );
             Message m = (Message)obj;
             messages.add(m);
+            sizes.add(buffer.limit() + 2);
+            classIds.add(buffer.getShort(0));
         } catch( IOException e ) {
             throw new RuntimeException( "Error deserializing object, class ID:" + buffer.getShort(0), e );   
         }         
@@ -32,6 +32,7 @@
 package com.jme3.network.base;
 
 import com.jme3.network.kernel.Kernel;
+import com.jme3.network.kernel.tcp.MultiSelectorKernel;
 import com.jme3.network.kernel.tcp.SelectorKernel;
 import java.io.IOException;
 
@@ -40,13 +41,41 @@ import java.io.IOException;
  *  KernelFactory implemention for creating TCP kernels
  *  using the NIO selector model.
  *
+ *  <p>By default a single selector thread handles all of the
+ *  connections.  When the selector count is greater than one,
+ *  a MultiSelectorKernel is created instead that spreads the
+ *  connections over that many selector threads.  The default
+ *  count can be set with the "jme3.network.selectorThreads"
+ *  system property.</p>
+ *
  *  @version   $Revision$
  *  @author    Paul Speed
  */
 public class NioKernelFactory implements KernelFactory
 {
+    public static final String SELECTOR_THREADS_PROPERTY = "jme3.network.selectorThreads";
+
+    private final int selectorCount;
+
+    public NioKernelFactory()
+    {
+        this( Integer.getInteger(SELECTOR_THREADS_PROPERTY, 1) );
+    }
+
+    public NioKernelFactory( int selectorCount )
+    {
+        this.selectorCount = selectorCount;
+    }
+
+    public int getSelectorCount()
+    {
+        return selectorCount;
+    }
+
     public Kernel createKernel( int channel, int port ) throws IOException
     {
+        if( selectorCount > 1 )
+            return new MultiSelectorKernel(port, selectorCount);
         return new SelectorKernel(port);
     }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.kernel;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *  A pool of direct byte buffers used to hold outbound data
+ *  until it has been written.  Buffers are grouped by power of
+ *  two size classes from 256 bytes up to 64k.  Larger requests
+ *  are satisfied with unpooled buffers.
+ *
+ *  <p>Buffers are handed out as reference counted {@link PooledBuffer}s
+ *  so that one encoded message can be shared by many endpoints
+ *  and is only returned to the pool once the last of them
+ *  is done with it.</p>
+ *
+ *  @version   $Revision$
+ */
+public class BufferPool
+{
+    private static final int MIN_SHIFT = 8;
+    private static final int MAX_SHIFT = 16;
+
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<PooledBuffer>[] free;
+    private final AtomicInteger[] freeCounts;
+
+    /**
+     *  Creates a pool keeping up to 256 free buffers
+     *  per size class.
+     */
+    public BufferPool()
+    {
+        this( 256 );
+    }
+
+    /**
+     *  Creates a pool keeping up to maxPooled free buffers
+     *  per size class.
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool( int maxPooled )
+    {
+        this.maxPooled = maxPooled;
+        int classes = MAX_SHIFT - MIN_SHIFT + 1;
+        this.free = new ConcurrentLinkedQueue[classes];
+        this.freeCounts = new AtomicInteger[classes];
+        for( int i = 0; i < classes; i++ ) {
+            free[i] = new ConcurrentLinkedQueue<PooledBuffer>();
+            freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     *  Returns a buffer with at least the specified capacity,
+     *  its position set to 0 and its limit set to size.  The
+     *  caller holds the only reference to it and must release
+     *  it when done.
+     */
+    public PooledBuffer acquire( int size )
+    {
+        int sizeClass = sizeClass(size);
+        PooledBuffer result = null;
+        if( sizeClass >= 0 ) {
+            result = free[sizeClass].poll();
+            if( result != null ) {
+                freeCounts[sizeClass].decrementAndGet();
+            } else {
+                result = new PooledBuffer(this, sizeClass,
+                                          ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SHIFT)));
+            }
+        } else {
+            // Too big to be worth keeping around
+            result = new PooledBuffer(this, -1, ByteBuffer.allocateDirect(size));
+        }
+        result.reset(size);
+        return result;
+    }
+
+    /**
+     *  Returns the number of free buffers currently held
+     *  by the pool.
+     */
+    public int getFreeCount()
+    {
+        int result = 0;
+        for( AtomicInteger count : freeCounts ) {
+            result += count.get();
+        }
+        return result;
+    }
+
+    /**
+     *  Called by PooledBuffer when its last reference
+     *  has been released.
+     */
+    protected void recycle( PooledBuffer buffer )
+    {
+        int sizeClass = buffer.getSizeClass();
+        if( sizeClass < 0 ) {
+            return;
+        }
+        if( freeCounts[sizeClass].incrementAndGet() > maxPooled ) {
+            // Let the GC have it
+            freeCounts[sizeClass].decrementAndGet();
+            return;
+        }
+        free[sizeClass].add(buffer);
+    }
+
+    private static int sizeClass( int size )
+    {
+        if( size > (1 << MAX_SHIFT) ) {
+            return -1;
+        }
+        int shift = MIN_SHIFT;
+        while( (1 << shift) < size ) {
+            shift++;
+        }
+        return shift - MIN_SHIFT;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BufferPool[free=" + getFreeCount() + "]";
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.kernel.tcp;
+
+import com.jme3.network.kernel.KernelException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *  A SelectorKernel that spreads its connections over several
+ *  selector threads.  One thread accepts new connections and hands
+ *  each of them to one of the selector threads which then does all
+ *  of the reading and writing for that connection.  Each selector
+ *  thread has its own read buffer so that socket I/O for many
+ *  connections can use more than one core.
+ *
+ *  @version   $Revision$
+ */
+public class MultiSelectorKernel extends SelectorKernel
+{
+    private final int selectorCount;
+    private SelectorThread acceptor;
+    private SelectorThread[] selectors;
+    private final AtomicInteger nextSelector = new AtomicInteger();
+
+    public MultiSelectorKernel( InetAddress host, int port, int selectorCount )
+    {
+        this( new InetSocketAddress(host, port), selectorCount );
+    }
+
+    public MultiSelectorKernel( int port, int selectorCount ) throws IOException
+    {
+        this( new InetSocketAddress(port), selectorCount );
+    }
+
+    public MultiSelectorKernel( InetSocketAddress address, int selectorCount )
+    {
+        super( address );
+        if( selectorCount < 1 )
+            throw new IllegalArgumentException( "Selector count must be at least 1:" + selectorCount );
+        this.selectorCount = selectorCount;
+    }
+
+    public int getSelectorCount()
+    {
+        return selectorCount;
+    }
+
+    @Override
+    protected SelectorThread createSelectorThread()
+    {
+        return new AcceptorThread();
+    }
+
+    protected SelectorThread createSelectorThread( int index )
+    {
+        return new SelectorThread( "Selector-" + index + "@" + getAddress(), false );
+    }
+
+    @Override
+    public void initialize()
+    {
+        if( acceptor != null )
+            throw new IllegalStateException( "Kernel already initialized." );
+
+        // Start the selector threads first so that they are ready
+        // for connections as soon as we start accepting them
+        SelectorThread[] threads = new SelectorThread[selectorCount];
+        try {
+            for( int i = 0; i < selectorCount; i++ ) {
+                threads[i] = createSelectorThread(i);
+                threads[i].connect();
+                threads[i].start();
+            }
+            this.selectors = threads;
+
+            acceptor = createSelectorThread();
+            acceptor.connect();
+            acceptor.start();
+        } catch( IOException e ) {
+            throw new KernelException( "Error hosting:" + getAddress(), e );
+        }
+    }
+
+    @Override
+    public void terminate() throws InterruptedException
+    {
+        if( acceptor == null )
+            throw new IllegalStateException( "Kernel not initialized." );
+
+        try {
+            // Stop accepting before we shut down the threads
+            // that service the connections
+            acceptor.close();
+            acceptor = null;
+
+            for( SelectorThread t : selectors ) {
+                t.close();
+            }
+            selectors = null;
+
+            // Need to let any caller waiting for a read() wakeup
+            wakeupReader();
+        } catch( IOException e ) {
+            throw new KernelException( "Error closing host connection:" + getAddress(), e );
+        }
+    }
+
+    @Override
+    protected SelectorThread getSelectorThread( NioEndpoint p )
+    {
+        SelectorThread[] threads = selectors;
+        if( threads == null )
+            return null;
+
+        // Small enough to just ask each one
+        for( SelectorThread t : threads ) {
+            if( t.owns(p) )
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    protected void wakeupSelector()
+    {
+        SelectorThread[] threads = selectors;
+        if( threads == null )
+            return;
+
+        for( SelectorThread t : threads ) {
+            t.wakeupSelector();
+        }
+    }
+
+    /**
+     *  Hosts the server socket and passes the accepted connections
+     *  around to the selector threads.
+     */
+    protected class AcceptorThread extends SelectorThread
+    {
+        public AcceptorThread()
+        {
+            super( "Acceptor@" + getAddress(), true );
+        }
+
+        @Override
+        protected void accepted( SocketChannel remoteChan ) throws IOException
+        {
+            int index = (nextSelector.getAndIncrement() & Integer.MAX_VALUE) % selectors.length;
+            selectors[index].register( remoteChan );
+        }
+    }
+}
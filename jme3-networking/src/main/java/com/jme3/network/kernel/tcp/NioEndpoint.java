@@ -34,10 +34,12 @@ package com.jme3.network.kernel.tcp;
 import com.jme3.network.kernel.Endpoint;
 import com.jme3.network.kernel.Kernel;
 import com.jme3.network.kernel.KernelException;
+import com.jme3.network.kernel.PooledBuffer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -55,7 +57,8 @@ public class NioEndpoint implements Endpoint
     private long id;
     private SocketChannel socket;
     private SelectorKernel kernel;
-    private ConcurrentLinkedQueue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+    private ConcurrentLinkedQueue<Pending> outbound = new ConcurrentLinkedQueue<Pending>();
+    private AtomicInteger outboundSize = new AtomicInteger();
     private boolean closing = false;
 
     public NioEndpoint( SelectorKernel kernel, long id, SocketChannel socket )
@@ -119,24 +122,32 @@ public class NioEndpoint implements Endpoint
      */
     protected void send( ByteBuffer data, boolean copy, boolean wakeup )
     {
-        // We create a ByteBuffer per endpoint since we
-        // use it to track the data sent to each endpoint
-        // separately.
-        ByteBuffer buffer;
         if( !copy ) {
-            buffer = data;
-        } else {
-            // Copy the buffer
-            buffer = ByteBuffer.allocate(data.remaining());
-            buffer.put(data);
-            buffer.flip();
+            send( data, null, wakeup );
+            return;
         }
+        
+        // Copy the buffer into one from the kernel's pool, it
+        // goes back to the pool once written
+        PooledBuffer pooled = kernel.getBufferPool().acquire(data.remaining());
+        pooled.getBuffer().put(data).flip();
+        send( pooled.getBuffer().duplicate(), pooled, wakeup );
+    }
 
+    /**
+     *  Queues the data, the owner is released once all of the
+     *  data has been written or the endpoint is closed.  The
+     *  data buffer is used to track what was sent to this endpoint
+     *  so it must not be shared with other endpoints.
+     */
+    protected void send( ByteBuffer data, PooledBuffer owner, boolean wakeup )
+    {
         // Queue it up
-        outbound.add(buffer);
+        outbound.add(new Pending(data, owner));
+        outboundSize.incrementAndGet();
 
         if( wakeup )
-            kernel.wakeupSelector();
+            kernel.wakeupSelector(this);
     }
 
     /**
@@ -145,7 +156,26 @@ public class NioEndpoint implements Endpoint
      */
     protected ByteBuffer peekPending()
     {
-        return outbound.peek();
+        Pending p = outbound.peek();
+        return p == null ? null : p.data;
+    }
+
+    /**
+     *  Called by the SelectorKernel to get as many of the
+     *  pending buffers as will fit in the store for a gathering
+     *  write, stopping before the close marker.
+     *
+     *  @return The number of buffers put in the store.
+     */
+    protected int peekPending( ByteBuffer[] store )
+    {
+        int count = 0;
+        for( Pending p : outbound ) {
+            if( count == store.length || p.data == CLOSE_MARKER )
+                break;
+            store[count++] = p.data;
+        }
+        return count;
     }
 
     /**
@@ -154,7 +184,13 @@ public class NioEndpoint implements Endpoint
      */
     protected ByteBuffer removePending()
     {
-        return outbound.poll();
+        Pending p = outbound.poll();
+        if( p == null )
+            return null;
+        outboundSize.decrementAndGet();
+        if( p.owner != null )
+            p.owner.release();
+        return p.data;
     }
 
     protected boolean hasPending()
@@ -162,6 +198,24 @@ public class NioEndpoint implements Endpoint
         return !outbound.isEmpty();
     }
 
+    /**
+     *  Returns the number of buffers waiting to be written.
+     */
+    public int getOutboundQueueSize()
+    {
+        return outboundSize.get();
+    }
+
+    /**
+     *  Called by the selector thread that serviced the endpoint
+     *  once it is closed to give the pooled buffers back.
+     */
+    protected void clearPending()
+    {
+        while( removePending() != null ) {
+        }
+    }
+
     public void send( ByteBuffer data )
     {   
         if( data == null ) {
@@ -177,4 +231,16 @@ public class NioEndpoint implements Endpoint
     {
         return "NioEndpoint[" + id + ", " + socket + "]";
     }
+
+    private static class Pending
+    {
+        final ByteBuffer data;
+        final PooledBuffer owner;
+
+        Pending( ByteBuffer data, PooledBuffer owner )
+        {
+            this.data = data;
+            this.owner = owner;
+        }
+    }
 }
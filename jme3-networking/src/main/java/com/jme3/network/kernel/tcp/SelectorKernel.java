@@ -43,6 +43,7 @@ import java.nio.channels.spi.SelectorProvider;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -62,6 +63,7 @@ public class SelectorKernel extends AbstractKernel
     private SelectorThread thread;
 
     private Map<Long,NioEndpoint> endpoints = new ConcurrentHashMap<Long,NioEndpoint>();
+    private final BufferPool bufferPool = new BufferPool();
 
     public SelectorKernel( InetAddress host, int port )
     {
@@ -83,6 +85,20 @@ public class SelectorKernel extends AbstractKernel
         return new SelectorThread();
     }
 
+    protected InetSocketAddress getAddress()
+    {
+        return address;
+    }
+
+    /**
+     *  Returns the pool holding the outbound data of
+     *  the endpoints.
+     */
+    public BufferPool getBufferPool()
+    {
+        return bufferPool;
+    }
+
     public void initialize()
     {
         if( thread != null )
@@ -120,11 +136,13 @@ public class SelectorKernel extends AbstractKernel
         if( !reliable )
             throw new UnsupportedOperationException( "Unreliable send not supported by this kernel." );
 
+        PooledBuffer pooled = null;
         if( copy ) {
-            // Copy the data just once
-            byte[] temp = new byte[data.remaining()];
-            System.arraycopy(data.array(), data.position(), temp, 0, data.remaining());
-            data = ByteBuffer.wrap(temp);
+            // Copy the data just once into a pooled buffer that
+            // all of the endpoints share
+            pooled = bufferPool.acquire(data.remaining());
+            pooled.getBuffer().put(data.duplicate()).flip();
+            data = pooled.getBuffer();
         }
 
         // Hand it to all of the endpoints that match our routing
@@ -136,9 +154,14 @@ public class SelectorKernel extends AbstractKernel
             // Give it the data... but let each endpoint track their
             // own completion over the shared array of bytes by
             // duplicating it
-            p.send( data.duplicate(), false, false );
+            p.send( data.duplicate(), pooled == null ? null : pooled.retain(), false );
         }
 
+        // Drop our own reference, the endpoints release theirs
+        // as they finish writing
+        if( pooled != null )
+            pooled.release();
+
         // Wake up the selector so it can reinitialize its
         // state accordingly.
         wakeupSelector();
@@ -176,19 +199,43 @@ public class SelectorKernel extends AbstractKernel
     protected void closeEndpoint( NioEndpoint p ) throws IOException
     {
         //log.log( Level.FINE, "Closing endpoint:{0}.", p );
-            
-        thread.cancel(p);
+
+        SelectorThread owner = getSelectorThread(p);
+        if( owner != null )
+            owner.cancel(p);
     }
 
     /**
-     *  Used internally by the endpoints to wakeup the selector
-     *  when they have data to send.
+     *  Returns the selector thread that services the specified
+     *  endpoint or null if no thread currently owns it.
+     */
+    protected SelectorThread getSelectorThread( NioEndpoint p )
+    {
+        return thread;
+    }
+
+    /**
+     *  Wakes up all of the selector threads.  Used after broadcasts
+     *  that have queued data for many endpoints at once.
      */
     protected void wakeupSelector()
     {
         thread.wakeupSelector();
     }
 
+    /**
+     *  Used internally by the endpoints to wakeup the selector
+     *  when they have data to send.
+     */
+    protected void wakeupSelector( NioEndpoint p )
+    {
+        SelectorThread owner = getSelectorThread(p);
+        if( owner != null )
+            owner.wakeupSelector();
+        else
+            wakeupSelector();
+    }
+
     protected void newData( NioEndpoint p, SocketChannel c, ByteBuffer shared, int size )
     {
         // Note: if ever desirable, it would be possible to accumulate
@@ -215,10 +262,12 @@ public class SelectorKernel extends AbstractKernel
      */
     protected class SelectorThread extends Thread
     {
+        private final boolean acceptor;
         private ServerSocketChannel serverChannel;
         private Selector selector;
         private AtomicBoolean go = new AtomicBoolean(true);
         private ByteBuffer working = ByteBuffer.allocate( 8192 );
+        private ByteBuffer[] gather = new ByteBuffer[16];
 
         /**
          *  Because we want to keep the keys to ourselves, we'll do
@@ -226,9 +275,34 @@ public class SelectorKernel extends AbstractKernel
          */
         private Map<NioEndpoint,SelectionKey> endpointKeys = new ConcurrentHashMap<NioEndpoint,SelectionKey>();
 
+        /**
+         *  Channels handed to us by another thread that still need
+         *  to be registered with our selector.
+         */
+        private ConcurrentLinkedQueue<SocketChannel> registrations = new ConcurrentLinkedQueue<SocketChannel>();
+
+        /**
+         *  Endpoints that have been closed but whose pending buffers
+         *  have not been given back to the pool yet.  The buffers may
+         *  still be in the middle of a write so only this thread can
+         *  release them.
+         */
+        private ConcurrentLinkedQueue<NioEndpoint> closed = new ConcurrentLinkedQueue<NioEndpoint>();
+
         public SelectorThread()
         {
-            setName( "Selector@" + address );
+            this( "Selector@" + address, true );
+        }
+
+        /**
+         *  Creates a selector thread that will optionally host the
+         *  server socket.  Threads that do not accept connections
+         *  only service the channels given to them through register().
+         */
+        protected SelectorThread( String name, boolean acceptor )
+        {
+            this.acceptor = acceptor;
+            setName( name );
             setDaemon(true);
         }
 
@@ -237,6 +311,9 @@ public class SelectorKernel extends AbstractKernel
             // Create a new selector
             this.selector = SelectorProvider.provider().openSelector();
 
+            if( !acceptor )
+                return;
+
             // Create a new non-blocking server socket channel
             this.serverChannel = ServerSocketChannel.open();
             serverChannel.configureBlocking(false);
@@ -257,7 +334,8 @@ public class SelectorKernel extends AbstractKernel
             go.set(false);
 
             // Make sure the channel is closed
-            serverChannel.close();
+            if( serverChannel != null )
+                serverChannel.close();
 
             // Force the selector to stop blocking
             wakeupSelector();
@@ -305,6 +383,50 @@ public class SelectorKernel extends AbstractKernel
             Socket sock = remoteChan.socket();
             sock.setTcpNoDelay(true);
 
+            accepted( remoteChan );
+        }
+
+        /**
+         *  Called with each newly accepted channel.  By default the
+         *  channel is serviced by this thread.
+         */
+        protected void accepted( SocketChannel remoteChan ) throws IOException
+        {
+            addChannel( remoteChan );
+        }
+
+        /**
+         *  Queues the channel to be serviced by this thread.  Safe
+         *  to call from any thread.
+         */
+        public void register( SocketChannel remoteChan )
+        {
+            registrations.add( remoteChan );
+            wakeupSelector();
+        }
+
+        protected void addRegistrations()
+        {
+            SocketChannel remoteChan;
+            while( (remoteChan = registrations.poll()) != null ) {
+                try {
+                    addChannel( remoteChan );
+                } catch( IOException e ) {
+                    reportError( e );
+                    try {
+                        remoteChan.close();
+                    } catch( IOException e2 ) {
+                        reportError( e2 );
+                    }
+                }
+            }
+        }
+
+        /**
+         *  Must only be called from this thread.
+         */
+        protected void addChannel( SocketChannel remoteChan ) throws IOException
+        {
             // Let the selector know we're interested in reading
             // data from the channel
             SelectionKey endKey = remoteChan.register( selector, SelectionKey.OP_READ );
@@ -315,6 +437,14 @@ public class SelectorKernel extends AbstractKernel
             endpointKeys.put(p, endKey);
         }
 
+        /**
+         *  Returns true if the endpoint is serviced by this thread.
+         */
+        public boolean owns( NioEndpoint p )
+        {
+            return endpointKeys.containsKey(p);
+        }
+
         protected void cancel( NioEndpoint p ) throws IOException
         {
             SelectionKey key = endpointKeys.remove(p);
@@ -333,6 +463,11 @@ public class SelectorKernel extends AbstractKernel
             key.cancel();
             c.close();
             removeEndpoint( p, c );
+
+            // Cancel may be called from any thread so the outbound
+            // buffers are released once the selector is done with them
+            closed.add( p );
+            wakeupSelector();
         }
 
         protected void cancel( SelectionKey key, SocketChannel c ) throws IOException
@@ -346,6 +481,19 @@ public class SelectorKernel extends AbstractKernel
             key.cancel();
             c.close();
             removeEndpoint( p, c );
+            closed.add( p );
+        }
+
+        /**
+         *  Gives the pending buffers of the closed endpoints back to
+         *  the pool.  Must only be called from this thread.
+         */
+        protected void releaseClosed()
+        {
+            NioEndpoint p;
+            while( (p = closed.poll()) != null ) {
+                p.clearPending();
+            }
         }
 
         protected void read( SelectionKey key ) throws IOException
@@ -389,11 +537,22 @@ public class SelectorKernel extends AbstractKernel
                 return;
             }
 
-            c.write( current );
+            // Write as many of the pending buffers as the socket
+            // will take in one gathering write
+            int count = p.peekPending( gather );
+            try {
+                c.write( gather, 0, count );
 
-            // If we wrote all of that packet then we need to remove it
-            if( current.remaining() == 0 ) {
-                p.removePending();
+                // Remove the buffers that were fully written
+                for( int i = 0; i < count; i++ ) {
+                    if( gather[i].remaining() > 0 )
+                        break;
+                    p.removePending();
+                }
+            } finally {
+                for( int i = 0; i < count; i++ ) {
+                    gather[i] = null;
+                }
             }
 
             // If we happened to empty the pending queue then let's read
@@ -443,27 +602,37 @@ public class SelectorKernel extends AbstractKernel
         {
             log.log( Level.FINE, "Kernel started for connection:{0}.", address );
 
-            // An atomic is safest and costs almost nothing
-            while( go.get() ) {
-                // Setup any queued option changes
-                setupSelectorOptions();
+            try {
+                // An atomic is safest and costs almost nothing
+                while( go.get() ) {
+                    // Pick up any channels handed to us
+                    addRegistrations();
+
+                    // Setup any queued option changes
+                    setupSelectorOptions();
+
+                    // Check for available keys and process them
+                    try {
+                        select();                    
+                    } catch( ClosedSelectorException e ) {
+                        if( !go.get() )
+                            return;  // it's because we're shutting down
+                        throw new KernelException( "Premature selector closing", e );
+                    } catch( CancelledKeyException e ) {
+                        if( !go.get() )
+                            return;  // it's because we're shutting down
+                        throw new KernelException( "Invalid key state", e );
+                    } catch( IOException e ) {
+                        if( !go.get() )
+                            return;  // error likely due to shutting down
+                        reportError( e );
+                    }
 
-                // Check for available keys and process them
-                try {
-                    select();                    
-                } catch( ClosedSelectorException e ) {
-                    if( !go.get() )
-                        return;  // it's because we're shutting down
-                    throw new KernelException( "Premature selector closing", e );
-                } catch( CancelledKeyException e ) {
-                    if( !go.get() )
-                        return;  // it's because we're shutting down
-                    throw new KernelException( "Invalid key state", e );
-                } catch( IOException e ) {
-                    if( !go.get() )
-                        return;  // error likely due to shutting down
-                    reportError( e );
+                    // Nothing is being written anymore
+                    releaseClosed();
                 }
+            } finally {
+                releaseClosed();
             }
         }
     }
@@ -0,0 +1,545 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.kernel.udp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ *  The protocol state of one end of a reliable UDP connection.
+ *  Data is split into packets no bigger than the configured size,
+ *  each packet gets a sequence number and is resent until the other
+ *  end acknowledges it.  Every packet carries the receiver's cumulative
+ *  acknowledgement plus up to 16 ranges of packets after it that were
+ *  also received so that only the lost packets are resent.  The resend
+ *  timeout is derived from the measured round trip time.  Received data
+ *  is either delivered in the order it was sent or as soon as it is
+ *  complete.
+ *
+ *  <p>The channel does no I/O of its own.  Packets are given to the
+ *  Transport for sending, received packets are passed to receive() and
+ *  update() must be called regularly to resend lost packets and send
+ *  acknowledgements.</p>
+ *
+ *  <p>Packet layout: a type byte, the cumulative ack, a range count and
+ *  that many (offset, length) pairs of unsigned shorts relative to the
+ *  cumulative ack and, for data, the packet sequence, the message sequence,
+ *  the fragment index and the fragment count followed by the data.</p>
+ *
+ *  @version   $Revision$
+ */
+public class ReliableChannel
+{
+    public static final byte DATA = 0;
+    public static final byte ACK = 1;
+    public static final byte CLOSE = 2;
+
+    private static final int MAX_RANGES = 16;
+    private static final int HEADER_SIZE = 1 + 4 + 1;
+    private static final int MAX_HEADER_SIZE = HEADER_SIZE + MAX_RANGES * 4;
+    private static final int DATA_HEADER_SIZE = MAX_HEADER_SIZE + 4 + 4 + 2 + 2;
+
+    private static final long MIN_RTO = 30;
+    private static final long MAX_RTO = 2000;
+
+    /**
+     *  Sends the raw packets for the channel.
+     */
+    public interface Transport
+    {
+        public void sendPacket( byte[] data, int length ) throws IOException;
+    }
+
+    private final Transport transport;
+    private final boolean ordered;
+    private final int maxPacketSize;
+    private final byte[] scratch;
+    private int windowSize = 512;
+    private int maxTransmissions = 30;
+    private long keepAliveInterval = 1000;
+    private long timeout = 10000;
+
+    // Sending state
+    private int nextSeq;
+    private int nextMessageSeq;
+    private final LinkedHashMap<Integer, Outgoing> unacked = new LinkedHashMap<Integer, Outgoing>();
+    private final ArrayDeque<Outgoing> backlog = new ArrayDeque<Outgoing>();
+    private long lastSendTime;
+    private double srtt = -1;
+    private double rttvar;
+    private long rto = 200;
+    private boolean failed;
+
+    // Receiving state
+    private int receiveBase;
+    private final Set<Integer> receivedAhead = new HashSet<Integer>();
+    private final int[] ranges = new int[MAX_RANGES * 2];
+    private final Map<Integer, byte[][]> fragments = new HashMap<Integer, byte[][]>();
+    private int nextDelivery;
+    private final Map<Integer, byte[]> outOfOrder = new HashMap<Integer, byte[]>();
+    private boolean ackPending;
+    private long lastReceiveTime;
+    private boolean remoteClosed;
+
+    /**
+     *  Creates a channel that sends packets of at most 'maxPacketSize'
+     *  bytes through the specified transport.  If 'ordered' is true then
+     *  data is delivered in the order it was sent.
+     */
+    public ReliableChannel( Transport transport, boolean ordered, int maxPacketSize )
+    {
+        if( maxPacketSize <= DATA_HEADER_SIZE )
+            throw new IllegalArgumentException( "Packet size too small:" + maxPacketSize );
+        this.transport = transport;
+        this.ordered = ordered;
+        this.maxPacketSize = maxPacketSize;
+        this.scratch = new byte[maxPacketSize];
+        this.lastReceiveTime = System.currentTimeMillis();
+        this.lastSendTime = lastReceiveTime;
+    }
+
+    public boolean isOrdered()
+    {
+        return ordered;
+    }
+
+    /**
+     *  Sets the number of packets that can be sent ahead of the
+     *  oldest unacknowledged packet.  The other end must use the
+     *  same window size and it can be at most 65535.
+     */
+    public synchronized void setWindowSize( int size )
+    {
+        if( size < 1 || size > 0xffff )
+            throw new IllegalArgumentException( "Invalid window size:" + size );
+        this.windowSize = size;
+    }
+
+    public synchronized int getWindowSize()
+    {
+        return windowSize;
+    }
+
+    /**
+     *  Sets the time in milliseconds without hearing from the other
+     *  end after which the connection is considered lost.
+     */
+    public synchronized void setTimeout( long millis )
+    {
+        this.timeout = millis;
+    }
+
+    public synchronized long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     *  Returns the smoothed round trip time in milliseconds or -1 if
+     *  it has not been measured yet.
+     */
+    public synchronized double getRoundTripTime()
+    {
+        return srtt;
+    }
+
+    /**
+     *  Returns the current resend timeout in milliseconds.
+     */
+    public synchronized long getRetransmitTimeout()
+    {
+        return rto;
+    }
+
+    /**
+     *  Returns the number of packets sent but not yet acknowledged
+     *  plus those waiting for room in the window.
+     */
+    public synchronized int getPendingCount()
+    {
+        return unacked.size() + backlog.size();
+    }
+
+    /**
+     *  Returns true if everything sent has been acknowledged.
+     */
+    public synchronized boolean isFlushed()
+    {
+        return unacked.isEmpty() && backlog.isEmpty();
+    }
+
+    /**
+     *  Returns true if the other end closed the connection, it
+     *  stopped responding, or a packet could not be delivered.
+     */
+    public synchronized boolean isClosed( long now )
+    {
+        return remoteClosed || failed || now - lastReceiveTime > timeout;
+    }
+
+    /**
+     *  Queues the data for reliable delivery, splitting it into
+     *  as many packets as needed.
+     */
+    public synchronized void send( ByteBuffer data ) throws IOException
+    {
+        int fragmentSize = maxPacketSize - DATA_HEADER_SIZE;
+        int length = data.remaining();
+        int count = Math.max(1, (length + fragmentSize - 1) / fragmentSize);
+        if( count > Short.MAX_VALUE )
+            throw new IllegalArgumentException( "Data too large:" + length );
+
+        long now = System.currentTimeMillis();
+        int messageSeq = nextMessageSeq++;
+        for( int i = 0; i < count; i++ ) {
+            int size = Math.min(fragmentSize, data.remaining());
+            ByteBuffer payload = ByteBuffer.allocate(4 + 2 + 2 + size);
+            payload.putInt(messageSeq);
+            payload.putShort((short)i);
+            payload.putShort((short)count);
+            int limit = data.limit();
+            data.limit(data.position() + size);
+            payload.put(data);
+            data.limit(limit);
+
+            Outgoing out = new Outgoing(nextSeq++, payload.array());
+            if( backlog.isEmpty() && canSend(out) ) {
+                unacked.put(out.seq, out);
+                transmit(out, now);
+            } else {
+                backlog.add(out);
+            }
+        }
+    }
+
+    /**
+     *  Processes a received packet adding any data that is now
+     *  ready for the application to the 'delivered' list.
+     *  Returns the packet type.
+     */
+    public synchronized byte receive( byte[] packet, int offset, int length, List<byte[]> delivered ) 
+        throws IOException
+    {
+        if( length < HEADER_SIZE )
+            throw new IOException( "Packet too short:" + length );
+
+        ByteBuffer buffer = ByteBuffer.wrap(packet, offset, length);
+        byte type = buffer.get();
+        int ackBase = buffer.getInt();
+        int rangeCount = buffer.get() & 0xff;
+        if( rangeCount > MAX_RANGES || buffer.remaining() < rangeCount * 4 )
+            throw new IOException( "Bad ack range count:" + rangeCount );
+        int[] acked = new int[rangeCount * 2];
+        for( int i = 0; i < acked.length; i++ ) {
+            acked[i] = buffer.getShort() & 0xffff;
+        }
+
+        long now = System.currentTimeMillis();
+        lastReceiveTime = now;
+        processAcks(ackBase, acked, now);
+
+        if( type == CLOSE ) {
+            remoteClosed = true;
+            return type;
+        }
+        if( type != DATA ) {
+            return type;
+        }
+        if( buffer.remaining() < 4 + 4 + 2 + 2 )
+            throw new IOException( "Data packet too short:" + length );
+
+        int seq = buffer.getInt();
+
+        // Always acknowledge data, even duplicates, since it means our
+        // previous acknowledgement may have been lost
+        ackPending = true;
+
+        int distance = seq - receiveBase;
+        if( distance < 0 || receivedAhead.contains(seq) ) {
+            return type;  // already have it
+        }
+        if( distance >= windowSize ) {
+            return type;  // outside of the window, it will be resent
+        }
+        if( distance == 0 ) {
+            receiveBase++;
+            while( receivedAhead.remove(receiveBase) ) {
+                receiveBase++;
+            }
+        } else {
+            receivedAhead.add(seq);
+        }
+
+        int messageSeq = buffer.getInt();
+        int index = buffer.getShort();
+        int count = buffer.getShort();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+
+        if( count > 1 ) {
+            data = addFragment(messageSeq, index, count, data);
+            if( data == null ) {
+                return type;
+            }
+        }
+
+        if( !ordered ) {
+            delivered.add(data);
+            return type;
+        }
+        if( messageSeq != nextDelivery ) {
+            outOfOrder.put(messageSeq, data);
+            return type;
+        }
+        delivered.add(data);
+        nextDelivery++;
+        while( (data = outOfOrder.remove(nextDelivery)) != null ) {
+            delivered.add(data);
+            nextDelivery++;
+        }
+        return type;
+    }
+
+    /**
+     *  Resends packets whose timeout has expired and sends any
+     *  pending acknowledgement or keep-alive.
+     */
+    public synchronized void update( long now ) throws IOException
+    {
+        for( Outgoing out : unacked.values() ) {
+            if( now - out.sentTime < out.timeout ) {
+                continue;
+            }
+            if( out.transmissions >= maxTransmissions ) {
+                failed = true;
+                return;
+            }
+            transmit(out, now);
+        }
+
+        if( ackPending || now - lastSendTime >= keepAliveInterval ) {
+            sendControl(ACK);
+        }
+    }
+
+    /**
+     *  Tells the other end that we are closing.
+     */
+    public synchronized void close() throws IOException
+    {
+        sendControl(CLOSE);
+    }
+
+    private boolean canSend( Outgoing out )
+    {
+        if( unacked.isEmpty() ) {
+            return true;
+        }
+        int oldest = unacked.keySet().iterator().next();
+        return out.seq - oldest < windowSize;
+    }
+
+    private static boolean isAcked( int distance, int[] acked )
+    {
+        if( distance < 0 ) {
+            return true;
+        }
+        for( int i = 0; i < acked.length; i += 2 ) {
+            if( distance >= acked[i] && distance < acked[i] + acked[i + 1] ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void processAcks( int ackBase, int[] acked, long now ) throws IOException
+    {
+        if( unacked.isEmpty() ) {
+            return;
+        }
+
+        // The highest selectively acknowledged sequence, anything
+        // a few packets older that is still missing was likely lost
+        int highest = ackBase - 1;
+        if( acked.length > 0 ) {
+            highest = ackBase + acked[acked.length - 2] + acked[acked.length - 1] - 1;
+        }
+
+        for( Iterator<Outgoing> it = unacked.values().iterator(); it.hasNext(); ) {
+            Outgoing out = it.next();
+            if( isAcked(out.seq - ackBase, acked) ) {
+                if( out.transmissions == 1 ) {
+                    // Only packets sent once give a clear round trip sample
+                    updateRoundTrip(now - out.sentTime);
+                }
+                it.remove();
+            } else if( !out.fastResent && highest - out.seq >= 3 ) {
+                out.fastResent = true;
+                transmit(out, now);
+            }
+        }
+
+        // Make use of any room in the window
+        while( !backlog.isEmpty() && canSend(backlog.peek()) ) {
+            Outgoing out = backlog.poll();
+            unacked.put(out.seq, out);
+            transmit(out, now);
+        }
+    }
+
+    private void updateRoundTrip( long sample )
+    {
+        // Per RFC 6298
+        if( srtt < 0 ) {
+            srtt = sample;
+            rttvar = sample / 2.0;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - sample);
+            srtt = 0.875 * srtt + 0.125 * sample;
+        }
+        rto = Math.max(MIN_RTO, Math.min(MAX_RTO, (long)Math.ceil(srtt + 4 * rttvar)));
+    }
+
+    private void writeHeader( ByteBuffer buffer, byte type )
+    {
+        // Find the ranges of packets received past the cumulative
+        // ack, the closest ones matter the most
+        int count = 0;
+        int remaining = receivedAhead.size();
+        int start = -1;
+        for( int offset = 1; offset <= windowSize; offset++ ) {
+            boolean received = remaining > 0 && receivedAhead.contains(receiveBase + offset);
+            if( received ) {
+                remaining--;
+                if( start < 0 ) {
+                    start = offset;
+                }
+            } else if( start >= 0 ) {
+                ranges[count * 2] = start;
+                ranges[count * 2 + 1] = offset - start;
+                start = -1;
+                if( ++count == MAX_RANGES ) {
+                    break;
+                }
+            }
+            if( remaining == 0 && start < 0 ) {
+                break;
+            }
+        }
+
+        buffer.put(type);
+        buffer.putInt(receiveBase);
+        buffer.put((byte)count);
+        for( int i = 0; i < count * 2; i++ ) {
+            buffer.putShort((short)ranges[i]);
+        }
+        ackPending = false;
+    }
+
+    private void transmit( Outgoing out, long now ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(scratch);
+        writeHeader(buffer, DATA);
+        buffer.putInt(out.seq);
+        buffer.put(out.payload);
+
+        // Back off exponentially on each resend
+        out.timeout = rto << Math.min(out.transmissions, 5);
+        out.transmissions++;
+        out.sentTime = now;
+        lastSendTime = now;
+        transport.sendPacket(scratch, buffer.position());
+    }
+
+    private void sendControl( byte type ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(scratch);
+        writeHeader(buffer, type);
+        lastSendTime = System.currentTimeMillis();
+        transport.sendPacket(scratch, buffer.position());
+    }
+
+    private byte[] addFragment( int messageSeq, int index, int count, byte[] data ) throws IOException
+    {
+        if( index < 0 || index >= count )
+            throw new IOException( "Bad fragment index:" + index + " of:" + count );
+
+        byte[][] parts = fragments.get(messageSeq);
+        if( parts == null ) {
+            parts = new byte[count][];
+            fragments.put(messageSeq, parts);
+        }
+        parts[index] = data;
+
+        int size = 0;
+        for( byte[] part : parts ) {
+            if( part == null ) {
+                return null;
+            }
+            size += part.length;
+        }
+        fragments.remove(messageSeq);
+
+        byte[] result = new byte[size];
+        int pos = 0;
+        for( byte[] part : parts ) {
+            System.arraycopy(part, 0, result, pos, part.length);
+            pos += part.length;
+        }
+        return result;
+    }
+
+    private static class Outgoing
+    {
+        final int seq;
+        final byte[] payload;
+        long sentTime;
+        long timeout;
+        int transmissions;
+        boolean fastResent;
+
+        Outgoing( int seq, byte[] payload )
+        {
+            this.seq = seq;
+            this.payload = payload;
+        }
+    }
+}
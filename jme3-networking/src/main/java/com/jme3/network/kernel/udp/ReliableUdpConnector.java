@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.kernel.udp;
+
+import com.jme3.network.kernel.Connector;
+import com.jme3.network.kernel.ConnectorException;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ *  A Connector that provides reliable delivery over UDP
+ *  for use with the ReliableUdpKernel.
+ *
+ *  @version   $Revision$
+ */
+public class ReliableUdpConnector implements Connector
+{
+    private static final int RECEIVE_TIMEOUT = 100;
+
+    private DatagramSocket sock;
+    private SocketAddress remoteAddress;
+    private ReliableChannel channel;
+    private byte[] buffer = new byte[65535];
+    private AtomicBoolean connected = new AtomicBoolean(false);
+    private UpdateThread updater;
+
+    /**
+     *  Data that has been delivered by the channel but not yet
+     *  returned by read().  Only accessed by the reading thread.
+     */
+    private ArrayDeque<byte[]> delivered = new ArrayDeque<byte[]>();
+    private List<byte[]> received = new ArrayList<byte[]>();
+
+    public ReliableUdpConnector( InetAddress remote, int remotePort ) throws IOException
+    {
+        this( remote, remotePort, true, 1200 );
+    }
+
+    /**
+     *  Creates a new reliable UDP connection to the specified address
+     *  and port.  If 'ordered' is true then data is delivered in the
+     *  order it was sent.  Data larger than 'maxPacketSize' is split
+     *  into several datagrams.
+     */
+    public ReliableUdpConnector( InetAddress remote, int remotePort, boolean ordered,
+                                 int maxPacketSize ) throws IOException
+    {
+        this.sock = new DatagramSocket( new InetSocketAddress(0) );
+        this.remoteAddress = new InetSocketAddress( remote, remotePort );
+
+        // Setup to receive only from the remote address
+        sock.connect( remoteAddress );
+        sock.setSoTimeout( RECEIVE_TIMEOUT );
+
+        this.channel = new ReliableChannel( new DatagramTransport(), ordered, maxPacketSize );
+
+        connected.set(true);
+
+        updater = new UpdateThread();
+        updater.start();
+    }
+
+    protected void checkClosed()
+    {
+        if( sock == null )
+            throw new ConnectorException( "Connection is closed:" + remoteAddress );
+    }
+
+    /**
+     *  Returns the channel state for this connection.
+     */
+    public ReliableChannel getChannel()
+    {
+        return channel;
+    }
+
+    public boolean isConnected()
+    {
+        if( sock == null )
+            return false;
+        return connected.get() && !channel.isClosed(System.currentTimeMillis());
+    }
+
+    public void close()
+    {
+        checkClosed();
+        DatagramSocket temp = sock;
+        connected.set(false);
+        updater.interrupt();
+        try {
+            channel.close();
+        } catch( IOException e ) {
+            // We're closing anyway
+        }
+        sock = null;
+        temp.close();
+    }
+
+    /**
+     *  Returns true if data has already been received that
+     *  the next read() will return.
+     */
+    public boolean available()
+    {
+        checkClosed();
+        return !delivered.isEmpty();
+    }
+
+    public ByteBuffer read()
+    {
+        checkClosed();
+        DatagramSocket s = sock;
+        DatagramPacket packet = new DatagramPacket( buffer, buffer.length );
+        while( delivered.isEmpty() ) {
+            if( !connected.get() || channel.isClosed(System.currentTimeMillis()) ) {
+                return null;
+            }
+            try {
+                s.receive(packet);
+                channel.receive( packet.getData(), packet.getOffset(), packet.getLength(), received );
+                delivered.addAll(received);
+                received.clear();
+            } catch( SocketTimeoutException e ) {
+                // Go around and check the connection again
+            } catch( IOException e ) {
+                if( !connected.get() ) {
+                    // Nothing to see here... just move along
+                    return null;
+                }
+                throw new ConnectorException( "Error reading from connection to:" + remoteAddress, e );
+            }
+        }
+        return ByteBuffer.wrap( delivered.poll() );
+    }
+
+    public void write( ByteBuffer data )
+    {
+        checkClosed();
+        try {
+            channel.send( data );
+        } catch( IOException e ) {
+            throw new ConnectorException( "Error writing to connection:" + remoteAddress, e );
+        }
+    }
+
+    private class DatagramTransport implements ReliableChannel.Transport
+    {
+        public void sendPacket( byte[] data, int length ) throws IOException
+        {
+            DatagramSocket s = sock;
+            if( s == null )
+                return;
+            s.send( new DatagramPacket( data, 0, length, remoteAddress ) );
+        }
+    }
+
+    /**
+     *  Resends lost data and sends acknowledgements at a regular
+     *  interval.
+     */
+    private class UpdateThread extends Thread
+    {
+        public UpdateThread()
+        {
+            super( "ReliableUdpConnector@" + remoteAddress + "-updater" );
+            setDaemon(true);
+        }
+
+        public void run()
+        {
+            while( connected.get() ) {
+                try {
+                    channel.update( System.currentTimeMillis() );
+                    Thread.sleep(10);
+                } catch( InterruptedException e ) {
+                    return;
+                } catch( IOException e ) {
+                    if( !connected.get() )
+                        return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.kernel.udp;
+
+import com.jme3.network.kernel.Endpoint;
+import com.jme3.network.kernel.Kernel;
+import com.jme3.network.kernel.KernelException;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+
+/**
+ *  Endpoint implementation for the ReliableUdpKernel that
+ *  holds the ReliableChannel state for one remote address.
+ *
+ *  @version   $Revision$
+ */
+public class ReliableUdpEndpoint implements Endpoint
+{
+    private static final long FLUSH_TIMEOUT = 2000;
+
+    private long id;
+    private SocketAddress address;
+    private DatagramSocket socket;
+    private ReliableUdpKernel kernel;
+    private ReliableChannel channel;
+    private volatile boolean connected = true;
+
+    public ReliableUdpEndpoint( ReliableUdpKernel kernel, long id, SocketAddress address,
+                                DatagramSocket socket, boolean ordered, int maxPacketSize )
+    {
+        this.id = id;
+        this.address = address;
+        this.socket = socket;
+        this.kernel = kernel;
+        this.channel = new ReliableChannel( new DatagramTransport(), ordered, maxPacketSize );
+    }
+
+    public Kernel getKernel()
+    {
+        return kernel;
+    }
+
+    protected SocketAddress getRemoteAddress()
+    {
+        return address;
+    }
+
+    protected ReliableChannel getChannel()
+    {
+        return channel;
+    }
+
+    /**
+     *  Returns the number of packets sent but not yet acknowledged
+     *  plus those waiting for room in the send window.
+     */
+    public int getOutboundQueueSize()
+    {
+        return channel.getPendingCount();
+    }
+
+    public void close()
+    {
+        close( false );
+    }
+
+    public void close( boolean flush )
+    {
+        if( !connected )
+            return;
+
+        try {
+            if( flush ) {
+                // Give the other end a chance to acknowledge what
+                // we've sent so far
+                long end = System.currentTimeMillis() + FLUSH_TIMEOUT;
+                while( !channel.isFlushed() && !channel.isClosed(System.currentTimeMillis())
+                       && System.currentTimeMillis() < end ) {
+                    Thread.sleep(10);
+                }
+            }
+            channel.close();
+            connected = false;
+            kernel.closeEndpoint(this);
+        } catch( InterruptedException e ) {
+            throw new KernelException( "Interrupted while flushing:" + this, e );
+        } catch( IOException e ) {
+            throw new KernelException( "Error closing endpoint for socket:" + socket, e );
+        }
+    }
+
+    /**
+     *  Called by the kernel when the remote end closed the
+     *  connection or stopped responding.
+     */
+    protected void remoteClosed() throws IOException
+    {
+        connected = false;
+        kernel.closeEndpoint(this);
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public String getAddress()
+    {
+        return String.valueOf(address);
+    }
+
+    public boolean isConnected()
+    {
+        return connected;
+    }
+
+    public void send( ByteBuffer data )
+    {
+        if( !isConnected() ) {
+            throw new KernelException( "Endpoint is not connected:" + this );
+        }
+
+        try {
+            channel.send( data );
+        } catch( IOException e ) {
+            throw new KernelException( "Error sending datagram to:" + address, e );
+        }
+    }
+
+    public String toString()
+    {
+        return "ReliableUdpEndpoint[" + id + ", " + address + "]";
+    }
+
+    private class DatagramTransport implements ReliableChannel.Transport
+    {
+        public void sendPacket( byte[] data, int length ) throws IOException
+        {
+            socket.send( new DatagramPacket( data, 0, length, address ) );
+        }
+    }
+}
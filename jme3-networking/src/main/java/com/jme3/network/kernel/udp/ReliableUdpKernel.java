@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.kernel.udp;
+
+import com.jme3.network.Filter;
+import com.jme3.network.kernel.*;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *  A Kernel implementation that provides reliable delivery over
+ *  UDP using a ReliableChannel per endpoint.  This can be used in place
+ *  of the TCP based kernels for the reliable channel.
+ *
+ *  @version   $Revision$
+ */
+public class ReliableUdpKernel extends AbstractKernel
+{
+    static Logger log = Logger.getLogger(ReliableUdpKernel.class.getName());
+
+    private InetSocketAddress address;
+    private boolean ordered;
+    private int maxPacketSize = 1200;
+    private long updateInterval = 10;
+    private HostThread thread;
+    private ScheduledExecutorService updater;
+
+    private Map<SocketAddress,ReliableUdpEndpoint> socketEndpoints = new ConcurrentHashMap<SocketAddress,ReliableUdpEndpoint>();
+
+    public ReliableUdpKernel( InetAddress host, int port )
+    {
+        this( new InetSocketAddress(host, port), true );
+    }
+
+    public ReliableUdpKernel( int port ) throws IOException
+    {
+        this( new InetSocketAddress(port), true );
+    }
+
+    /**
+     *  Creates a kernel hosted on the specified address.  If 'ordered'
+     *  is true then data from each endpoint is delivered in the order
+     *  it was sent.
+     */
+    public ReliableUdpKernel( InetSocketAddress address, boolean ordered )
+    {
+        this.address = address;
+        this.ordered = ordered;
+    }
+
+    /**
+     *  Sets the largest datagram the kernel will send.  Larger
+     *  data is split into several datagrams.  Must be set before
+     *  the kernel is initialized.
+     */
+    public void setMaxPacketSize( int size )
+    {
+        if( thread != null )
+            throw new IllegalStateException( "Kernel already initialized." );
+        this.maxPacketSize = size;
+    }
+
+    public int getMaxPacketSize()
+    {
+        return maxPacketSize;
+    }
+
+    protected HostThread createHostThread()
+    {
+        return new HostThread();
+    }
+
+    public void initialize()
+    {
+        if( thread != null )
+            throw new IllegalStateException( "Kernel already initialized." );
+
+        thread = createHostThread();
+
+        try {
+            thread.connect();
+            thread.start();
+        } catch( IOException e ) {
+            throw new KernelException( "Error hosting:" + address, e );
+        }
+
+        updater = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(toString() + "-updater"));
+        updater.scheduleWithFixedDelay(new Runnable() {
+                public void run()
+                {
+                    update();
+                }
+            }, updateInterval, updateInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void terminate() throws InterruptedException
+    {
+        if( thread == null )
+            throw new IllegalStateException( "Kernel not initialized." );
+
+        try {
+            updater.shutdown();
+            for( ReliableUdpEndpoint p : socketEndpoints.values() ) {
+                p.getChannel().close();
+            }
+            thread.close();
+            thread = null;
+
+            // Need to let any caller waiting for a read() wakeup
+            wakeupReader();
+        } catch( IOException e ) {
+            throw new KernelException( "Error closing host connection:" + address, e );
+        }
+    }
+
+    /**
+     *  Dispatches the data to all endpoints managed by the
+     *  kernel.  Data is always sent reliably.
+     */
+    public void broadcast( Filter<? super Endpoint> filter, ByteBuffer data, boolean reliable,
+                           boolean copy )
+    {
+        // The channels copy the data into their own packets so
+        // there is no need to honor 'copy'
+        for( ReliableUdpEndpoint p : socketEndpoints.values() ) {
+            // Does it match the filter?
+            if( filter != null && !filter.apply(p) )
+                continue;
+
+            // Send the data
+            p.send( data.duplicate() );
+        }
+    }
+
+    protected ReliableUdpEndpoint getEndpoint( SocketAddress address, boolean create )
+    {
+        ReliableUdpEndpoint p = socketEndpoints.get(address);
+        if( p == null && create ) {
+            p = new ReliableUdpEndpoint( this, nextEndpointId(), address, thread.getSocket(),
+                                         ordered, maxPacketSize );
+            socketEndpoints.put( address, p );
+
+            // Add an event for it.
+            addEvent( EndpointEvent.createAdd( this, p ) );
+        }
+        return p;
+    }
+
+    /**
+     *  Called by the endpoints when they need to be closed.
+     */
+    protected void closeEndpoint( ReliableUdpEndpoint p ) throws IOException
+    {
+        // Just book-keeping to do here.
+        if( socketEndpoints.remove( p.getRemoteAddress() ) == null )
+            return;
+
+        log.log( Level.FINE, "Closing endpoint:{0}.", p );
+        log.log( Level.FINE, "Socket endpoints size:{0}", socketEndpoints.size() );
+
+        addEvent( EndpointEvent.createRemove( this, p ) );
+
+        wakeupReader();
+    }
+
+    protected void newData( DatagramPacket packet )
+    {
+        // Only data creates a new endpoint.  Stray acks or closes from
+        // an endpoint we've already forgotten about are ignored.
+        boolean create = packet.getLength() > 0 && packet.getData()[0] == ReliableChannel.DATA;
+        ReliableUdpEndpoint p = getEndpoint( packet.getSocketAddress(), create );
+        if( p == null )
+            return;
+
+        List<byte[]> delivered = new ArrayList<byte[]>();
+        try {
+            byte type = p.getChannel().receive( packet.getData(), packet.getOffset(), packet.getLength(),
+                                                delivered );
+            for( byte[] data : delivered ) {
+                addEnvelope( new Envelope( p, data, true ) );
+            }
+            if( type == ReliableChannel.CLOSE ) {
+                p.remoteClosed();
+            }
+        } catch( IOException e ) {
+            reportError( new KernelException( "Error receiving from:" + p, e ) );
+        }
+    }
+
+    /**
+     *  Resends lost data, sends acknowledgements and closes the
+     *  endpoints that have timed out.
+     */
+    protected void update()
+    {
+        long now = System.currentTimeMillis();
+        for( ReliableUdpEndpoint p : socketEndpoints.values() ) {
+            try {
+                ReliableChannel channel = p.getChannel();
+                if( channel.isClosed(now) ) {
+                    log.log( Level.FINE, "Connection lost:{0}.", p );
+                    p.remoteClosed();
+                    continue;
+                }
+                channel.update(now);
+            } catch( Exception e ) {
+                reportError( new KernelException( "Error updating:" + p, e ) );
+            }
+        }
+    }
+
+    protected class HostThread extends Thread
+    {
+        private DatagramSocket socket;
+        private AtomicBoolean go = new AtomicBoolean(true);
+
+        private byte[] buffer = new byte[65535]; // slightly bigger than needed.
+
+        public HostThread()
+        {
+            setName( "Reliable UDP Host@" + address );
+            setDaemon(true);
+        }
+
+        protected DatagramSocket getSocket()
+        {
+            return socket;
+        }
+
+        public void connect() throws IOException
+        {
+            socket = new DatagramSocket( address );
+            log.log( Level.FINE, "Hosting reliable UDP connection:{0}.", address );
+        }
+
+        public void close() throws IOException, InterruptedException
+        {
+            // Set the thread to stop
+            go.set(false);
+
+            // Make sure the channel is closed
+            socket.close();
+
+            // And wait for it
+            join();
+        }
+
+        public void run()
+        {
+            log.log( Level.FINE, "Kernel started for connection:{0}.", address );
+
+            while( go.get() ) {
+                try {
+                    DatagramPacket packet = new DatagramPacket( buffer, buffer.length );
+                    socket.receive(packet);
+
+                    newData( packet );
+                } catch( IOException e ) {
+                    if( !go.get() )
+                        return;
+                    reportError( e );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.message;
+
+import com.jme3.network.AbstractMessage;
+import com.jme3.network.serializing.Serializable;
+
+/**
+ *  Sent by the server to measure the round trip time of a
+ *  connection.  The client sends the message back marked as a response
+ *  and the server compares the time in it to the current time.  Each
+ *  ping also carries the last round trip time the server measured so
+ *  that the client's stats follow the same samples without pinging
+ *  on their own.  These are handled internally and never reach the
+ *  message listeners.
+ *
+ *  @version   $Revision$
+ */
+@Serializable()
+public class PingMessage extends AbstractMessage {
+    private long time;
+    private boolean response;
+    private long samples;
+    private double lastRoundTripTime = -1;
+
+    public PingMessage() {
+        super( false );
+    }
+
+    public PingMessage( long time ) {
+        super( false );
+        this.time = time;
+    }
+
+    public PingMessage( long time, long samples, double lastRoundTripTime ) {
+        super( false );
+        this.time = time;
+        this.samples = samples;
+        this.lastRoundTripTime = lastRoundTripTime;
+    }
+
+    /**
+     *  Returns the sender's System.nanoTime() when the
+     *  ping was sent.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public boolean isResponse() {
+        return response;
+    }
+
+    /**
+     *  Returns the number of round trip times the sender had
+     *  measured when the ping was sent.
+     */
+    public long getRoundTripSamples() {
+        return samples;
+    }
+
+    /**
+     *  Returns the last round trip time in milliseconds the sender
+     *  had measured when the ping was sent or -1 if none.
+     */
+    public double getLastRoundTripTime() {
+        return lastRoundTripTime;
+    }
+
+    /**
+     *  Returns the response to send back for this ping.
+     */
+    public PingMessage createResponse() {
+        PingMessage result = new PingMessage(time);
+        result.response = true;
+        result.setReliable(isReliable());
+        return result;
+    }
+
+    public String toString() {
+        return "PingMessage[" + time + ", response=" + response + "]";
+    }
+}
@@ -36,6 +36,7 @@ import com.jme3.network.message.ChannelInfoMessage;
 import com.jme3.network.message.ClientRegistrationMessage;
 import com.jme3.network.message.DisconnectMessage;
 import com.jme3.network.message.GZIPCompressedMessage;
+import com.jme3.network.message.PingMessage;
 import com.jme3.network.message.ZIPCompressedMessage;
 import com.jme3.network.serializing.serializers.*;
 import java.io.File;
@@ -136,6 +137,7 @@ public abstract class Serializer {
         registerClass(ZIPCompressedMessage.class, new ZIPSerializer());
 
         registerClass(ChannelInfoMessage.class);
+        registerClass(PingMessage.class);
     }
     
     /**
@@ -323,6 +325,14 @@ public abstract class Serializer {
     public static SerializerRegistration getExactSerializerRegistration(Class cls) {
         return classRegistrations.get(cls);
     }
+
+    /**
+     *  Returns the registration for the specified class ID or null
+     *  if no class has been registered with that ID.
+     */
+    public static SerializerRegistration getSerializerRegistrationForId(short id) {
+        return idRegistrations.get(id);
+    }
     
     public static SerializerRegistration getSerializerRegistration(Class cls) {
         return getSerializerRegistration(cls, strictRegistration); 
@@ -34,32 +34,62 @@ package com.jme3.network.serializing.serializers;
 import com.jme3.network.serializing.Serializer;
 import com.jme3.network.serializing.SerializerException;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The field serializer is the default serializer used for custom class.
  *
+ * <p>Fields are accessed through method handles that are bound once
+ * at registration time.  Primitive fields whose type is still handled
+ * by the default primitive serializer are read and written directly
+ * to the buffer without boxing, using the same byte layout as those
+ * serializers.</p>
+ *
+ * <p>On platforms without java.lang.invoke (Android before API 26) the
+ * fields are accessed through plain reflection instead.  Both paths
+ * produce the same bytes.</p>
+ *
  * @author Lars Wesselius, Nathan Sweet
  */
 public class FieldSerializer extends Serializer {
     
     static final Logger log = Logger.getLogger(FieldSerializer.class.getName());
 
-    private static Map<Class, SavedField[]> savedFields = new HashMap<Class, SavedField[]>();
-    private static Map<Class, Constructor> savedCtors = new HashMap<Class, Constructor>();
+    /**
+     * True if java.lang.invoke is available.  All method handle code lives
+     * in nested classes so that this class still loads when it isn't.
+     */
+    private static final boolean USE_HANDLES = checkHandles();
+
+    private static final Map<Class, SavedField[]> savedFields = new ConcurrentHashMap<Class, SavedField[]>();
+    private static final Map<Class, Creator> savedCtors = new ConcurrentHashMap<Class, Creator>();
+
+    private static boolean checkHandles() {
+        try {
+            Class.forName("java.lang.invoke.MethodHandles");
+            return true;
+        } catch( Throwable t ) {
+            log.log(Level.FINE, "Method handles not available, using reflection for fields");
+            return false;
+        }
+    }
 
     protected void checkClass(Class clazz) {
     
         // See if the class has a public no-arg constructor
         try {
-            savedCtors.put(clazz, clazz.getConstructor());
+            savedCtors.put(clazz, toCreator(clazz.getConstructor()));
             return;
         } catch( NoSuchMethodException e ) {
             //throw new RuntimeException( "Registration error: no-argument constructor not found on:" + clazz ); 
@@ -72,15 +102,38 @@ public class FieldSerializer extends Serializer {
             // Make sure we can call it later.
             ctor.setAccessible(true);
              
-            savedCtors.put(clazz, ctor);
+            savedCtors.put(clazz, toCreator(ctor));
             return;
         } catch( NoSuchMethodException e ) {
         }
         
         throw new RuntimeException( "Registration error: no-argument constructor not found on:" + clazz );  
     }        
+
+    private static Creator toCreator(Constructor ctor) {
+        if (USE_HANDLES) {
+            return new HandleCreator(ctor);
+        }
+        return new ReflectedCreator(ctor);
+    }
+
+    private static SavedField toSavedField(Field field, Serializer serializer, boolean useHandles) {
+        if (useHandles) {
+            return new HandleField(field, serializer);
+        }
+        return new ReflectedField(field, serializer);
+    }
     
     public void initialize(Class clazz) {
+        initialize(clazz, USE_HANDLES);
+    }
+
+    /**
+     * Initializes the class with its fields accessed either through
+     * method handles or through plain reflection.  Package private so
+     * that the tests can compare both.
+     */
+    void initialize(Class clazz, boolean useHandles) {
 
         checkClass(clazz);   
     
@@ -101,9 +154,7 @@ public class FieldSerializer extends Serializer {
             if (field.isSynthetic()) continue;
             field.setAccessible(true);
 
-            SavedField cachedField = new SavedField();
-            cachedField.field = field;
-
+            Serializer serializer = null;
             if (Modifier.isFinal(field.getType().getModifiers())) {
                 // The type of this field is implicit in the outer class
                 // definition and because the type is final, it can confidently
@@ -116,10 +167,10 @@ public class FieldSerializer extends Serializer {
                 // doesn't have any ordering problems.
                 // ...well, as long as the order of fields is consistent from one
                 // end to the next. 
-                cachedField.serializer = Serializer.getSerializer(field.getType(), false);
+                serializer = Serializer.getSerializer(field.getType(), false);
             }                
 
-            cachedFields.add(cachedField);
+            cachedFields.add(toSavedField(field, serializer, useHandles));
         }
 
         Collections.sort(cachedFields, new Comparator<SavedField>() {
@@ -143,28 +194,24 @@ public class FieldSerializer extends Serializer {
 
         T object;
         try {
-            Constructor<T> ctor = (Constructor<T>)savedCtors.get(c);
-            object = ctor.newInstance();
-        } catch (Exception e) {
+            object = (T)savedCtors.get(c).create();
+        } catch (Throwable e) {
             throw new SerializerException( "Error creating object of type:" + c, e );
         }
 
         for (SavedField savedField : fields) {
-            Field field = savedField.field;
-            Serializer serializer = savedField.serializer;
             if( log.isLoggable(Level.FINER) ) {
-                log.log(Level.FINER, "Reading field:{0} using serializer:{1}", new Object[]{field, serializer});
-            }
-            Object value;
-
-            if (serializer != null) {
-                value = serializer.readObject(data, field.getType());
-            } else {
-                value = Serializer.readClassAndObject(data);
+                log.log(Level.FINER, "Reading field:{0} using serializer:{1}", new Object[]{savedField.field, savedField.serializer});
             }
             try {
-                field.set(object, value);
-            } catch (IllegalAccessException e) {
+                savedField.read(data, object);
+            } catch (IOException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
                 throw new SerializerException( "Error reading object", e);
             }
         }
@@ -186,33 +233,224 @@ public class FieldSerializer extends Serializer {
                                 + " in the serializer!");
 
         for (SavedField savedField : fields) {
-            Object val = null;
-            try {
-                val = savedField.field.get(object);
-            } catch (IllegalAccessException e) {
-                throw new SerializerException("Unable to access field:" + savedField.field + " on:" + object, e);
-            }
-            Serializer serializer = savedField.serializer;
             if( log.isLoggable(Level.FINER) ) {
-                log.log(Level.FINER, "Writing field:{0} using serializer:{1}", new Object[]{savedField.field, serializer});
+                log.log(Level.FINER, "Writing field:{0} using serializer:{1}", new Object[]{savedField.field, savedField.serializer});
             }
 
             try {
-                if (serializer != null) {
-                    serializer.writeObject(buffer, val);
-                } else {
-                    Serializer.writeClassAndObject(buffer, val);
-                }
+                savedField.write(buffer, object);
             } catch (BufferOverflowException boe) {
                 throw boe;
-            } catch (Exception e) {
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
                 throw new SerializerException( "Error writing object for field:" + savedField.field, e );
             }
         }
     }
 
-    private final class SavedField {
-        public Field field;
-        public Serializer serializer;
+    private static final int OBJECT = 0;
+    private static final int BOOLEAN = 1;
+    private static final int BYTE = 2;
+    private static final int CHAR = 3;
+    private static final int SHORT = 4;
+    private static final int INT = 5;
+    private static final int LONG = 6;
+    private static final int FLOAT = 7;
+    private static final int DOUBLE = 8;
+
+    /**
+     * Returns the direct access type for a field, primitives only
+     * get it if their registered serializer is still the default one
+     * so that the bytes written are the same either way.
+     */
+    private static int getAccessType(Class type, Serializer serializer) {
+        if (!type.isPrimitive() || serializer == null)
+            return OBJECT;
+        Class sc = serializer.getClass();
+        if (type == boolean.class && sc == BooleanSerializer.class) return BOOLEAN;
+        if (type == byte.class && sc == ByteSerializer.class) return BYTE;
+        if (type == char.class && sc == CharSerializer.class) return CHAR;
+        if (type == short.class && sc == ShortSerializer.class) return SHORT;
+        if (type == int.class && sc == IntSerializer.class) return INT;
+        if (type == long.class && sc == LongSerializer.class) return LONG;
+        if (type == float.class && sc == FloatSerializer.class) return FLOAT;
+        if (type == double.class && sc == DoubleSerializer.class) return DOUBLE;
+        return OBJECT;
+    }
+
+    private static abstract class Creator {
+        abstract Object create() throws Throwable;
+    }
+
+    private static final class ReflectedCreator extends Creator {
+        final Constructor ctor;
+
+        ReflectedCreator(Constructor ctor) {
+            this.ctor = ctor;
+        }
+
+        Object create() throws Throwable {
+            return ctor.newInstance();
+        }
+    }
+
+    private static final class HandleCreator extends Creator {
+        final MethodHandle ctor;
+
+        HandleCreator(Constructor ctor) {
+            try {
+                this.ctor = MethodHandles.lookup().unreflectConstructor(ctor)
+                        .asType(MethodType.methodType(Object.class));
+            } catch( IllegalAccessException e ) {
+                throw new RuntimeException( "Registration error: constructor not accessible:" + ctor, e );
+            }
+        }
+
+        Object create() throws Throwable {
+            return (Object)ctor.invokeExact();
+        }
+    }
+
+    private static abstract class SavedField {
+        final Field field;
+        final Serializer serializer;
+
+        SavedField(Field field, Serializer serializer) {
+            this.field = field;
+            this.serializer = serializer;
+        }
+
+        abstract void read(ByteBuffer data, Object object) throws Throwable;
+
+        abstract void write(ByteBuffer buffer, Object object) throws Throwable;
+    }
+
+    /**
+     * Plain reflection, used when method handles are not available.
+     */
+    private static final class ReflectedField extends SavedField {
+
+        ReflectedField(Field field, Serializer serializer) {
+            super(field, serializer);
+        }
+
+        void read(ByteBuffer data, Object object) throws Throwable {
+            Object value;
+            if (serializer != null) {
+                value = serializer.readObject(data, field.getType());
+            } else {
+                value = Serializer.readClassAndObject(data);
+            }
+            field.set(object, value);
+        }
+
+        void write(ByteBuffer buffer, Object object) throws Throwable {
+            Object val = field.get(object);
+            if (serializer != null) {
+                serializer.writeObject(buffer, val);
+            } else {
+                Serializer.writeClassAndObject(buffer, val);
+            }
+        }
+    }
+
+    private static final class HandleField extends SavedField {
+        final int access;
+        final MethodHandle getter;
+        final MethodHandle setter;
+
+        HandleField(Field field, Serializer serializer) {
+            super(field, serializer);
+            this.access = getAccessType(field.getType(), serializer);
+
+            // Primitives keep their own type so that they are never
+            // boxed, everything else is seen as Object
+            Class type = access == OBJECT ? Object.class : field.getType();
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                this.getter = lookup.unreflectGetter(field)
+                        .asType(MethodType.methodType(type, Object.class));
+                this.setter = lookup.unreflectSetter(field)
+                        .asType(MethodType.methodType(void.class, Object.class, type));
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Registration error: field not accessible:" + field, e);
+            }
+        }
+
+        void read(ByteBuffer data, Object object) throws Throwable {
+            switch (access) {
+                case BOOLEAN:
+                    setter.invokeExact(object, data.get() == 1);
+                    break;
+                case BYTE:
+                    setter.invokeExact(object, data.get());
+                    break;
+                case CHAR:
+                    setter.invokeExact(object, data.getChar());
+                    break;
+                case SHORT:
+                    setter.invokeExact(object, data.getShort());
+                    break;
+                case INT:
+                    setter.invokeExact(object, data.getInt());
+                    break;
+                case LONG:
+                    setter.invokeExact(object, data.getLong());
+                    break;
+                case FLOAT:
+                    setter.invokeExact(object, data.getFloat());
+                    break;
+                case DOUBLE:
+                    setter.invokeExact(object, data.getDouble());
+                    break;
+                default:
+                    Object value;
+                    if (serializer != null) {
+                        value = serializer.readObject(data, field.getType());
+                    } else {
+                        value = Serializer.readClassAndObject(data);
+                    }
+                    setter.invokeExact(object, value);
+                    break;
+            }
+        }
+
+        void write(ByteBuffer buffer, Object object) throws Throwable {
+            switch (access) {
+                case BOOLEAN:
+                    buffer.put((boolean)getter.invokeExact(object) ? (byte)1 : (byte)0);
+                    break;
+                case BYTE:
+                    buffer.put((byte)getter.invokeExact(object));
+                    break;
+                case CHAR:
+                    buffer.putChar((char)getter.invokeExact(object));
+                    break;
+                case SHORT:
+                    buffer.putShort((short)getter.invokeExact(object));
+                    break;
+                case INT:
+                    buffer.putInt((int)getter.invokeExact(object));
+                    break;
+                case LONG:
+                    buffer.putLong((long)getter.invokeExact(object));
+                    break;
+                case FLOAT:
+                    buffer.putFloat((float)getter.invokeExact(object));
+                    break;
+                case DOUBLE:
+                    buffer.putDouble((double)getter.invokeExact(object));
+                    break;
+                default:
+                    Object val = (Object)getter.invokeExact(object);
+                    if (serializer != null) {
+                        serializer.writeObject(buffer, val);
+                    } else {
+                        Serializer.writeClassAndObject(buffer, val);
+                    }
+                    break;
+            }
+        }
     }
 }
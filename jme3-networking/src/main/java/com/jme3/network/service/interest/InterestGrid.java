@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.interest;
+
+import com.jme3.math.Vector3f;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *  A spatial hash of items by position.  Items are kept in the
+ *  cube shaped cell that contains them so that finding the items
+ *  near a point only visits the cells around it.  This is not
+ *  thread safe.
+ */
+class InterestGrid<T> {
+
+    private final float cellSize;
+    private final Map<Long, List<Entry<T>>> cells = new HashMap<Long, List<Entry<T>>>();
+    private final Map<T, Entry<T>> entries = new HashMap<T, Entry<T>>();
+
+    public InterestGrid( float cellSize ) {
+        if( cellSize <= 0 ) {
+            throw new IllegalArgumentException("Cell size must be greater than 0:" + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     *  Adds the item or moves it to the specified position.
+     */
+    public void set( T item, Vector3f pos ) {
+        long key = cellKey(cell(pos.x), cell(pos.y), cell(pos.z));
+        Entry<T> e = entries.get(item);
+        if( e == null ) {
+            e = new Entry<T>(item);
+            entries.put(item, e);
+        } else if( e.cell != key ) {
+            removeFromCell(e);
+        } else {
+            e.pos.set(pos);
+            return;
+        }
+        e.pos.set(pos);
+        e.cell = key;
+        List<Entry<T>> list = cells.get(key);
+        if( list == null ) {
+            list = new ArrayList<Entry<T>>();
+            cells.put(key, list);
+        }
+        list.add(e);
+    }
+
+    /**
+     *  Returns the position of the item or null if it is not
+     *  in the grid.
+     */
+    public Vector3f get( T item ) {
+        Entry<T> e = entries.get(item);
+        return e == null ? null : e.pos;
+    }
+
+    public boolean remove( T item ) {
+        Entry<T> e = entries.remove(item);
+        if( e == null ) {
+            return false;
+        }
+        removeFromCell(e);
+        return true;
+    }
+
+    /**
+     *  Adds all items within the radius of the specified position
+     *  to the store.  Only the cells that overlap the radius are
+     *  visited unless there are fewer populated cells than that.
+     */
+    public <C extends Collection<? super T>> C query( Vector3f pos, float radius, C store ) {
+        int cx = cell(pos.x);
+        int cy = cell(pos.y);
+        int cz = cell(pos.z);
+        int r = (int)Math.ceil(radius / cellSize);
+        float radiusSq = radius * radius;
+
+        double side = 2.0 * r + 1;
+        if( side * side * side > cells.size() ) {
+            // Cheaper to check every populated cell
+            for( List<Entry<T>> list : cells.values() ) {
+                addInRange(list, pos, radiusSq, store);
+            }
+            return store;
+        }
+
+        for( int x = cx - r; x <= cx + r; x++ ) {
+            for( int y = cy - r; y <= cy + r; y++ ) {
+                for( int z = cz - r; z <= cz + r; z++ ) {
+                    List<Entry<T>> list = cells.get(cellKey(x, y, z));
+                    if( list != null ) {
+                        addInRange(list, pos, radiusSq, store);
+                    }
+                }
+            }
+        }
+        return store;
+    }
+
+    private void addInRange( List<Entry<T>> list, Vector3f pos, float radiusSq,
+                             Collection<? super T> store ) {
+        for( int i = 0, size = list.size(); i < size; i++ ) {
+            Entry<T> e = list.get(i);
+            if( e.pos.distanceSquared(pos) <= radiusSq ) {
+                store.add(e.item);
+            }
+        }
+    }
+
+    private void removeFromCell( Entry<T> e ) {
+        List<Entry<T>> list = cells.get(e.cell);
+        if( list == null ) {
+            return;
+        }
+        list.remove(e);
+        if( list.isEmpty() ) {
+            cells.remove(e.cell);
+        }
+    }
+
+    private int cell( float v ) {
+        return (int)Math.floor(v / cellSize);
+    }
+
+    /**
+     *  Packs the cell coordinates into 21 bits each.
+     */
+    private static long cellKey( int x, int y, int z ) {
+        return ((long)(x & 0x1fffff) << 42) | ((long)(y & 0x1fffff) << 21) | (z & 0x1fffff);
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final Vector3f pos = new Vector3f();
+        long cell;
+
+        Entry( T item ) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.interest;
+
+import com.jme3.math.Vector3f;
+import com.jme3.network.HostedConnection;
+import com.jme3.network.Message;
+import com.jme3.network.Server;
+import com.jme3.network.base.DefaultServer;
+import com.jme3.network.service.AbstractHostedService;
+import com.jme3.network.service.HostedServiceManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ *  Area of interest service that can be added to a network Server to
+ *  send messages only to the connections near where they happen.
+ *  Connection and entity positions are kept in a spatial grid so that
+ *  finding the interested connections only visits the grid cells around
+ *  a position.  The cost of a broadcast then depends on how many clients
+ *  are nearby instead of how many are connected.
+ *
+ *  <p>A connection takes part once the application has given it a position
+ *  with setPosition() and is removed automatically when it leaves.  Entities
+ *  are any application objects with a position, they are tracked so that
+ *  messages can be sent about them by reference and so that the entities
+ *  near a connection can be found.  All methods are thread safe.</p>
+ */
+public class InterestHostedService extends AbstractHostedService {
+
+    static final Logger log = Logger.getLogger(InterestHostedService.class.getName());
+
+    private final InterestGrid<HostedConnection> connections;
+    private final InterestGrid<Object> entities;
+    private float radius;
+
+    /**
+     *  Creates a new interest service with a grid of the specified
+     *  cell size where connections are interested in everything within
+     *  the specified radius of their position.  A cell size close to
+     *  the radius works best.
+     */
+    public InterestHostedService( float cellSize, float radius ) {
+        this.connections = new InterestGrid<HostedConnection>(cellSize);
+        this.entities = new InterestGrid<Object>(cellSize);
+        setRadius(radius);
+    }
+
+    public synchronized void setRadius( float radius ) {
+        if( radius < 0 ) {
+            throw new IllegalArgumentException("Radius cannot be negative:" + radius);
+        }
+        this.radius = radius;
+    }
+
+    public synchronized float getRadius() {
+        return radius;
+    }
+
+    /**
+     *  Sets the position of the connection's point of view.
+     */
+    public synchronized void setPosition( HostedConnection hc, Vector3f pos ) {
+        connections.set(hc, pos);
+    }
+
+    /**
+     *  Returns a copy of the connection's position or null if it
+     *  has not been given one.
+     */
+    public synchronized Vector3f getPosition( HostedConnection hc ) {
+        Vector3f pos = connections.get(hc);
+        return pos == null ? null : pos.clone();
+    }
+
+    /**
+     *  Stops sending messages to the specified connection.
+     */
+    public synchronized void removeConnection( HostedConnection hc ) {
+        connections.remove(hc);
+    }
+
+    /**
+     *  Adds or moves the specified entity.
+     */
+    public synchronized void setEntityPosition( Object entity, Vector3f pos ) {
+        entities.set(entity, pos);
+    }
+
+    /**
+     *  Returns a copy of the entity's position or null if the entity
+     *  is not tracked.
+     */
+    public synchronized Vector3f getEntityPosition( Object entity ) {
+        Vector3f pos = entities.get(entity);
+        return pos == null ? null : pos.clone();
+    }
+
+    public synchronized void removeEntity( Object entity ) {
+        entities.remove(entity);
+    }
+
+    /**
+     *  Adds the connections interested in the specified position to
+     *  the store and returns it.
+     */
+    public synchronized <C extends Collection<? super HostedConnection>> C getInterestedConnections( Vector3f pos, C store ) {
+        return connections.query(pos, radius, store);
+    }
+
+    /**
+     *  Adds the entities that the connection is interested in to the
+     *  store and returns it.  Nothing is added if the connection does
+     *  not have a position.
+     */
+    public synchronized <C extends Collection<Object>> C getEntitiesOfInterest( HostedConnection hc, C store ) {
+        Vector3f pos = connections.get(hc);
+        if( pos == null ) {
+            return store;
+        }
+        return entities.query(pos, radius, store);
+    }
+
+    /**
+     *  Sends the message to all connections interested in the specified
+     *  position and returns how many it was sent to.
+     */
+    public int broadcast( Vector3f pos, Message message ) {
+        List<HostedConnection> targets = getInterestedConnections(pos, new ArrayList<HostedConnection>());
+        if( log.isLoggable(Level.FINEST) ) {
+            log.log(Level.FINEST, "broadcast({0}, {1}) to:{2}", new Object[]{pos, message, targets.size()});
+        }
+        Server server = getServer();
+        if( server instanceof DefaultServer ) {
+            // Serializes the message only once for all targets
+            ((DefaultServer)server).send(targets, message);
+        } else {
+            for( HostedConnection hc : targets ) {
+                hc.send(message);
+            }
+        }
+        return targets.size();
+    }
+
+    /**
+     *  Sends the message to all connections interested in the specified
+     *  entity's position and returns how many it was sent to.  Nothing is
+     *  sent if the entity is not tracked.
+     */
+    public int broadcastForEntity( Object entity, Message message ) {
+        Vector3f pos = getEntityPosition(entity);
+        if( pos == null ) {
+            return 0;
+        }
+        return broadcast(pos, message);
+    }
+
+    @Override
+    protected void onInitialize( HostedServiceManager serviceManager ) {
+    }
+
+    /**
+     *  Called internally to drop connections that are leaving
+     *  the server.
+     */
+    @Override
+    public void connectionRemoved( Server server, HostedConnection hc ) {
+        removeConnection(hc);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.state;
+
+
+/**
+ *  Reads values written by a BitWriter.
+ */
+class BitReader {
+
+    private final byte[] data;
+    private int bitPos;
+
+    public BitReader( byte[] data ) {
+        this.data = data;
+    }
+
+    public boolean readBit() {
+        return readBits(1) != 0;
+    }
+
+    /**
+     *  Reads 'count' bits, between 0 and 64, as an unsigned value.
+     */
+    public long readBits( int count ) {
+        if( bitPos + count > data.length * 8 ) {
+            throw new IllegalStateException("Read past the end of the data, position:" + bitPos 
+                                            + " count:" + count);
+        }
+        long result = 0;
+        int remaining = count;
+        while( remaining > 0 ) {
+            int avail = 8 - (bitPos & 7);
+            int n = Math.min(avail, remaining);
+            int chunk = (data[bitPos >>> 3] >>> (avail - n)) & ((1 << n) - 1);
+            result = (result << n) | chunk;
+            bitPos += n;
+            remaining -= n;
+        }
+        return result;
+    }
+
+    public long readVarLong() {
+        long result = 0;
+        int shift = 0;
+        while( true ) {
+            long b = readBits(8);
+            result |= (b & 0x7f) << shift;
+            if( (b & 0x80) == 0 ) {
+                return result;
+            }
+            shift += 7;
+            if( shift > 63 ) {
+                throw new IllegalStateException("Malformed variable length value");
+            }
+        }
+    }
+
+    public long readSignedVarLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.state;
+
+import java.util.Arrays;
+
+
+/**
+ *  Packs values most significant bit first into a growable
+ *  byte array.
+ */
+class BitWriter {
+
+    private byte[] data;
+    private int bitPos;
+
+    public BitWriter() {
+        this(256);
+    }
+
+    public BitWriter( int initialBytes ) {
+        this.data = new byte[Math.max(1, initialBytes)];
+    }
+
+    /**
+     *  Returns the number of bits written so far.
+     */
+    public int getBitCount() {
+        return bitPos;
+    }
+
+    public void writeBit( boolean b ) {
+        writeBits(b ? 1 : 0, 1);
+    }
+
+    /**
+     *  Writes the low 'count' bits of the value where count
+     *  is between 0 and 64.
+     */
+    public void writeBits( long value, int count ) {
+        ensureCapacity(bitPos + count);
+        int remaining = count;
+        while( remaining > 0 ) {
+            int free = 8 - (bitPos & 7);
+            int n = Math.min(free, remaining);
+            int chunk = (int)(value >>> (remaining - n)) & ((1 << n) - 1);
+            data[bitPos >>> 3] |= (byte)(chunk << (free - n));
+            bitPos += n;
+            remaining -= n;
+        }
+    }
+
+    /**
+     *  Writes an unsigned value in groups of 7 bits each followed
+     *  by a continuation bit so that small values take fewer bits.
+     */
+    public void writeVarLong( long value ) {
+        while( (value & ~0x7fL) != 0 ) {
+            writeBits((value & 0x7f) | 0x80, 8);
+            value >>>= 7;
+        }
+        writeBits(value, 8);
+    }
+
+    /**
+     *  Writes a signed value using zig-zag encoding so that values
+     *  close to 0 stay small.
+     */
+    public void writeSignedVarLong( long value ) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     *  Returns a copy of the written data padded to a whole
+     *  number of bytes.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(data, (bitPos + 7) >>> 3);
+    }
+
+    private void ensureCapacity( int bits ) {
+        int bytes = (bits + 7) >>> 3;
+        if( bytes > data.length ) {
+            data = Arrays.copyOf(data, Math.max(bytes, data.length * 2));
+        }
+    }
+}
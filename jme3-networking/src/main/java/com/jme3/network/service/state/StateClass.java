@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.state;
+
+import com.jme3.network.serializing.Serializer;
+import com.jme3.network.serializing.SerializerRegistration;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ *  Describes the synchronized fields of a class.  All non-static,
+ *  non-transient, non-final fields are synchronized and must be
+ *  primitives or enums.  Field values are held as longs so that
+ *  a whole object's state can be kept as a single long[] and
+ *  compared cheaply.
+ */
+class StateClass {
+
+    private static final ConcurrentHashMap<Class, StateClass> classes = new ConcurrentHashMap<Class, StateClass>();
+
+    private static final int BOOLEAN = 0;
+    private static final int BYTE = 1;
+    private static final int CHAR = 2;
+    private static final int SHORT = 3;
+    private static final int INT = 4;
+    private static final int LONG = 5;
+    private static final int FLOAT = 6;
+    private static final int DOUBLE = 7;
+    private static final int ENUM = 8;
+
+    private final Class type;
+    private final short id;
+    private final Constructor ctor;
+    private final Field[] fields;
+    private final int[] kinds;
+    private final Object[][] enumValues;
+
+    public static StateClass getStateClass( Class type ) {
+        StateClass result = classes.get(type);
+        if( result == null ) {
+            result = new StateClass(type);
+            StateClass existing = classes.putIfAbsent(type, result);
+            if( existing != null ) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    public static StateClass getStateClass( short id ) {
+        SerializerRegistration reg = Serializer.getSerializerRegistrationForId(id);
+        if( reg == null ) {
+            throw new IllegalArgumentException("No class registered for ID:" + id);
+        }
+        return getStateClass(reg.getType());
+    }
+
+    private StateClass( Class type ) {
+        this.type = type;
+        this.id = Serializer.getSerializerRegistration(type).getId();
+
+        try {
+            this.ctor = type.getDeclaredConstructor();
+            ctor.setAccessible(true);
+        } catch( NoSuchMethodException e ) {
+            throw new IllegalArgumentException("No no-argument constructor found on:" + type, e);
+        }
+
+        List<Field> list = new ArrayList<Field>();
+        for( Class c = type; c != Object.class; c = c.getSuperclass() ) {
+            for( Field f : c.getDeclaredFields() ) {
+                int modifiers = f.getModifiers();
+                if( Modifier.isTransient(modifiers) || Modifier.isFinal(modifiers)
+                    || Modifier.isStatic(modifiers) || f.isSynthetic() ) {
+                    continue;
+                }
+                list.add(f);
+            }
+        }
+        Collections.sort(list, new Comparator<Field>() {
+            public int compare( Field f1, Field f2 ) {
+                int result = f1.getName().compareTo(f2.getName());
+                if( result == 0 ) {
+                    result = f1.getDeclaringClass().getName().compareTo(f2.getDeclaringClass().getName());
+                }
+                return result;
+            }
+        });
+
+        this.fields = list.toArray(new Field[list.size()]);
+        this.kinds = new int[fields.length];
+        this.enumValues = new Object[fields.length][];
+        for( int i = 0; i < fields.length; i++ ) {
+            Field f = fields[i];
+            f.setAccessible(true);
+            Class ft = f.getType();
+            if( ft == boolean.class ) {
+                kinds[i] = BOOLEAN;
+            } else if( ft == byte.class ) {
+                kinds[i] = BYTE;
+            } else if( ft == char.class ) {
+                kinds[i] = CHAR;
+            } else if( ft == short.class ) {
+                kinds[i] = SHORT;
+            } else if( ft == int.class ) {
+                kinds[i] = INT;
+            } else if( ft == long.class ) {
+                kinds[i] = LONG;
+            } else if( ft == float.class ) {
+                kinds[i] = FLOAT;
+            } else if( ft == double.class ) {
+                kinds[i] = DOUBLE;
+            } else if( ft.isEnum() ) {
+                kinds[i] = ENUM;
+                enumValues[i] = ft.getEnumConstants();
+            } else {
+                throw new IllegalArgumentException("Unsupported state field type:" + f
+                                                   + ", mark it transient to skip it.");
+            }
+        }
+    }
+
+    public Class getType() {
+        return type;
+    }
+
+    /**
+     *  Returns the serializer registration ID of the class.
+     */
+    public short getId() {
+        return id;
+    }
+
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    public Object newInstance() {
+        try {
+            return ctor.newInstance();
+        } catch( Exception e ) {
+            throw new RuntimeException("Error creating object of type:" + type, e);
+        }
+    }
+
+    /**
+     *  Returns the current field values of the object.  If they
+     *  are the same as 'previous' then 'previous' is returned so
+     *  that unchanged state can be detected by reference.
+     */
+    public long[] getState( Object object, long[] previous ) {
+        long[] values = new long[fields.length];
+        try {
+            for( int i = 0; i < fields.length; i++ ) {
+                Field f = fields[i];
+                switch( kinds[i] ) {
+                    case BOOLEAN:
+                        values[i] = f.getBoolean(object) ? 1 : 0;
+                        break;
+                    case BYTE:
+                        values[i] = f.getByte(object);
+                        break;
+                    case CHAR:
+                        values[i] = f.getChar(object);
+                        break;
+                    case SHORT:
+                        values[i] = f.getShort(object);
+                        break;
+                    case INT:
+                        values[i] = f.getInt(object);
+                        break;
+                    case LONG:
+                        values[i] = f.getLong(object);
+                        break;
+                    case FLOAT:
+                        values[i] = Float.floatToRawIntBits(f.getFloat(object)) & 0xffffffffL;
+                        break;
+                    case DOUBLE:
+                        values[i] = Double.doubleToRawLongBits(f.getDouble(object));
+                        break;
+                    case ENUM:
+                        Enum e = (Enum)f.get(object);
+                        values[i] = e == null ? 0 : e.ordinal() + 1;
+                        break;
+                }
+            }
+        } catch( IllegalAccessException e ) {
+            throw new RuntimeException("Error reading state of:" + object, e);
+        }
+        if( previous != null && Arrays.equals(previous, values) ) {
+            return previous;
+        }
+        return values;
+    }
+
+    /**
+     *  Sets the object's fields to the specified values.
+     */
+    public void setState( Object object, long[] values ) {
+        try {
+            for( int i = 0; i < fields.length; i++ ) {
+                Field f = fields[i];
+                long v = values[i];
+                switch( kinds[i] ) {
+                    case BOOLEAN:
+                        f.setBoolean(object, v != 0);
+                        break;
+                    case BYTE:
+                        f.setByte(object, (byte)v);
+                        break;
+                    case CHAR:
+                        f.setChar(object, (char)v);
+                        break;
+                    case SHORT:
+                        f.setShort(object, (short)v);
+                        break;
+                    case INT:
+                        f.setInt(object, (int)v);
+                        break;
+                    case LONG:
+                        f.setLong(object, v);
+                        break;
+                    case FLOAT:
+                        f.setFloat(object, Float.intBitsToFloat((int)v));
+                        break;
+                    case DOUBLE:
+                        f.setDouble(object, Double.longBitsToDouble(v));
+                        break;
+                    case ENUM:
+                        f.set(object, v == 0 ? null : enumValues[i][(int)v - 1]);
+                        break;
+                }
+            }
+        } catch( IllegalAccessException e ) {
+            throw new RuntimeException("Error setting state of:" + object, e);
+        }
+    }
+
+    /**
+     *  Writes a bit mask of the fields that differ from the base
+     *  followed by the packed changes.  A null base is treated as
+     *  all zeros.  Booleans need no data as a change can only be
+     *  a flip, integer types are written as variable length differences
+     *  and floating point types as raw bits.
+     */
+    public void writeChanges( BitWriter out, long[] base, long[] values ) {
+        for( int i = 0; i < fields.length; i++ ) {
+            long old = base == null ? 0 : base[i];
+            long v = values[i];
+            if( old == v ) {
+                out.writeBit(false);
+                continue;
+            }
+            out.writeBit(true);
+            switch( kinds[i] ) {
+                case BOOLEAN:
+                    break;
+                case FLOAT:
+                    out.writeBits(v, 32);
+                    break;
+                case DOUBLE:
+                    out.writeBits(v, 64);
+                    break;
+                default:
+                    out.writeSignedVarLong(v - old);
+                    break;
+            }
+        }
+    }
+
+    /**
+     *  Reads the changes written by writeChanges() and returns
+     *  the resulting values.
+     */
+    public long[] readChanges( BitReader in, long[] base ) {
+        long[] values = base == null ? new long[fields.length] : base.clone();
+        for( int i = 0; i < fields.length; i++ ) {
+            if( !in.readBit() ) {
+                continue;
+            }
+            switch( kinds[i] ) {
+                case BOOLEAN:
+                    values[i] ^= 1;
+                    break;
+                case FLOAT:
+                    values[i] = in.readBits(32);
+                    break;
+                case DOUBLE:
+                    values[i] = in.readBits(64);
+                    break;
+                default:
+                    values[i] += in.readSignedVarLong();
+                    break;
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + type + ", id=" + id + ", fields=" + fields.length + "]";
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.state;
+
+import com.jme3.network.Client;
+import com.jme3.network.Message;
+import com.jme3.network.MessageListener;
+import com.jme3.network.service.AbstractClientService;
+import com.jme3.network.service.ClientServiceManager;
+import com.jme3.network.service.state.msg.StateAckMessage;
+import com.jme3.network.service.state.msg.StateMessage;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ *  State synchronization service that can be added to a network Client
+ *  to receive the objects shared by the server's StateHostedService.
+ *  Objects are created, updated and removed as state arrives and
+ *  StateListeners are notified of each change from the networking thread.
+ */
+public class StateClientService extends AbstractClientService {
+
+    static final Logger log = Logger.getLogger(StateClientService.class.getName());
+
+    private static final int MAX_PENDING = 8;
+
+    private final StateFrame[] history;
+    private final Map<Integer, Object> objects = new ConcurrentHashMap<Integer, Object>();
+    private final CopyOnWriteArrayList<StateListener> listeners = new CopyOnWriteArrayList<StateListener>();
+    private final StateMessageListener messageListener = new StateMessageListener();
+    private StateFrame current;
+
+    // The parts of the states that are currently arriving, a full
+    // state on the reliable channel may be interleaved with newer
+    // changes on the unreliable one
+    private final Map<Integer, byte[][]> pending = new LinkedHashMap<Integer, byte[][]>();
+
+    /**
+     *  Creates a new StateClientService that keeps a history of
+     *  64 states.
+     */
+    public StateClientService() {
+        this(64);
+    }
+
+    /**
+     *  Creates a new StateClientService that keeps the specified
+     *  number of received states.  This should be at least as large
+     *  as the history of the server's StateHostedService.
+     */
+    public StateClientService( int historySize ) {
+        if( historySize < 1 ) {
+            throw new IllegalArgumentException("History size must be at least 1:" + historySize);
+        }
+        this.history = new StateFrame[historySize];
+    }
+
+    public void addStateListener( StateListener l ) {
+        listeners.add(l);
+    }
+
+    public void removeStateListener( StateListener l ) {
+        listeners.remove(l);
+    }
+
+    /**
+     *  Returns the local object for the specified ID or null if
+     *  there is no such object.
+     */
+    public Object getObject( int id ) {
+        return objects.get(id);
+    }
+
+    /**
+     *  Returns the sequence number of the last applied state or -1
+     *  if no state has been received yet.
+     */
+    public synchronized int getSequence() {
+        return current == null ? -1 : current.getSequence();
+    }
+
+    /**
+     *  Used internally to listen for state messages.
+     */
+    @Override
+    protected void onInitialize( ClientServiceManager serviceManager ) {
+        serviceManager.getClient().addMessageListener(messageListener, StateMessage.class);
+    }
+
+    /**
+     *  Used internally to remove the state message listener from the
+     *  network Client.
+     */
+    @Override
+    public void terminate( ClientServiceManager serviceManager ) {
+        serviceManager.getClient().removeMessageListener(messageListener, StateMessage.class);
+    }
+
+    protected synchronized void receive( StateMessage msg ) {
+        int sequence = msg.getSequence();
+        if( current != null && sequence <= current.getSequence() ) {
+            return;  // old or duplicate news
+        }
+
+        byte[] data = assemble(msg);
+        if( data == null ) {
+            return;  // still waiting for more parts
+        }
+
+        StateFrame base = null;
+        if( msg.getBaseline() >= 0 ) {
+            base = getFrame(msg.getBaseline());
+            if( base == null ) {
+                // We no longer have the state the server is working from.
+                // Acknowledging our latest state moves the server along.
+                log.log(Level.FINE, "Missing baseline:{0} for state:{1}",
+                        new Object[]{msg.getBaseline(), sequence});
+                if( current != null ) {
+                    acknowledge(current.getSequence());
+                }
+                return;
+            }
+        }
+
+        StateFrame frame = StateFrame.readDelta(new BitReader(data), sequence, base);
+        history[sequence % history.length] = frame;
+        apply(current, frame);
+        current = frame;
+
+        acknowledge(sequence);
+    }
+
+    /**
+     *  Collects the parts of a state and returns the whole data
+     *  once all of the parts have arrived.
+     */
+    private byte[] assemble( StateMessage msg ) {
+        int count = msg.getPartCount();
+        if( count == 1 ) {
+            return msg.getData();
+        }
+        byte[][] parts = pending.get(msg.getSequence());
+        if( parts == null ) {
+            parts = new byte[count][];
+            pending.put(msg.getSequence(), parts);
+
+            // Forget the oldest ones if too many are incomplete
+            Iterator<Integer> it = pending.keySet().iterator();
+            while( pending.size() > MAX_PENDING ) {
+                it.next();
+                it.remove();
+            }
+        }
+        int part = msg.getPart();
+        if( part < 0 || part >= parts.length ) {
+            return null;
+        }
+        parts[part] = msg.getData();
+
+        int size = 0;
+        for( byte[] b : parts ) {
+            if( b == null ) {
+                return null;  // still waiting for more
+            }
+            size += b.length;
+        }
+        pending.remove(msg.getSequence());
+
+        byte[] data = new byte[size];
+        int pos = 0;
+        for( byte[] b : parts ) {
+            System.arraycopy(b, 0, data, pos, b.length);
+            pos += b.length;
+        }
+        return data;
+    }
+
+    private StateFrame getFrame( int sequence ) {
+        StateFrame frame = history[sequence % history.length];
+        if( frame == null || frame.getSequence() != sequence ) {
+            return null;
+        }
+        return frame;
+    }
+
+    protected void acknowledge( int sequence ) {
+        Client client = getClient();
+        if( client != null && client.isConnected() ) {
+            client.send(new StateAckMessage(sequence));
+        }
+    }
+
+    /**
+     *  Brings the local objects from the old state to the new one.
+     */
+    protected void apply( StateFrame from, StateFrame to ) {
+        int fromSize = from == null ? 0 : from.size();
+        int toSize = to.size();
+        int i = 0;
+        int j = 0;
+        while( i < fromSize || j < toSize ) {
+            int fromId = i < fromSize ? from.getId(i) : Integer.MAX_VALUE;
+            int toId = j < toSize ? to.getId(j) : Integer.MAX_VALUE;
+            if( fromId < toId ) {
+                removeObject(fromId);
+                i++;
+            } else if( toId < fromId ) {
+                addObject(toId, to.getType(j), to.getValues(j));
+                j++;
+            } else {
+                if( from.getType(i) != to.getType(j) ) {
+                    removeObject(fromId);
+                    addObject(toId, to.getType(j), to.getValues(j));
+                } else if( from.getValues(i) != to.getValues(j)
+                           && !Arrays.equals(from.getValues(i), to.getValues(j)) ) {
+                    Object object = objects.get(toId);
+                    to.getType(j).setState(object, to.getValues(j));
+                    for( StateListener l : listeners ) {
+                        l.objectUpdated(toId, object);
+                    }
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private void addObject( int id, StateClass type, long[] values ) {
+        Object object = type.newInstance();
+        type.setState(object, values);
+        objects.put(id, object);
+        for( StateListener l : listeners ) {
+            l.objectAdded(id, object);
+        }
+    }
+
+    private void removeObject( int id ) {
+        Object object = objects.remove(id);
+        for( StateListener l : listeners ) {
+            l.objectRemoved(id, object);
+        }
+    }
+
+    private class StateMessageListener implements MessageListener<Client> {
+        public void messageReceived( Client source, Message m ) {
+            receive((StateMessage)m);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.state;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *  An immutable snapshot of the state of a set of objects sorted
+ *  by object ID.  Frames also know how to write and read the difference
+ *  between two frames.
+ */
+class StateFrame {
+
+    private static final int UPDATE = 0;
+    private static final int ADD = 1;
+    private static final int REMOVE = 2;
+
+    private final int sequence;
+    private final int[] ids;
+    private final StateClass[] types;
+    private final long[][] values;
+
+    public StateFrame( int sequence, int[] ids, StateClass[] types, long[][] values ) {
+        this.sequence = sequence;
+        this.ids = ids;
+        this.types = types;
+        this.values = values;
+    }
+
+    /**
+     *  Captures the state of the specified objects which must be
+     *  iterated in ascending ID order.  State arrays that have not
+     *  changed since the previous frame are shared with it.
+     */
+    public static StateFrame capture( int sequence, Map<Integer, Object> objects, StateFrame previous ) {
+        int size = objects.size();
+        int[] ids = new int[size];
+        StateClass[] types = new StateClass[size];
+        long[][] values = new long[size][];
+
+        int count = 0;
+        int p = 0;
+        for( Map.Entry<Integer, Object> e : objects.entrySet() ) {
+            if( count == size ) {
+                // Added to while we were iterating
+                break;
+            }
+            int id = e.getKey();
+            Object o = e.getValue();
+            StateClass type = StateClass.getStateClass(o.getClass());
+
+            long[] last = null;
+            if( previous != null ) {
+                while( p < previous.ids.length && previous.ids[p] < id ) {
+                    p++;
+                }
+                if( p < previous.ids.length && previous.ids[p] == id && previous.types[p] == type ) {
+                    last = previous.values[p];
+                }
+            }
+            ids[count] = id;
+            types[count] = type;
+            values[count] = type.getState(o, last);
+            count++;
+        }
+        if( count < size ) {
+            // Removed from while we were iterating
+            ids = Arrays.copyOf(ids, count);
+            types = Arrays.copyOf(types, count);
+            values = Arrays.copyOf(values, count);
+        }
+        return new StateFrame(sequence, ids, types, values);
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getId( int index ) {
+        return ids[index];
+    }
+
+    public StateClass getType( int index ) {
+        return types[index];
+    }
+
+    public long[] getValues( int index ) {
+        return values[index];
+    }
+
+    /**
+     *  Writes the changes needed to go from the base frame to the
+     *  specified frame.  A null base writes the whole frame.  Only
+     *  objects that were added, removed or changed are written.
+     *  Returns the number of objects written.
+     */
+    public static int writeDelta( BitWriter out, StateFrame base, StateFrame frame ) {
+        int baseSize = base == null ? 0 : base.ids.length;
+        int frameSize = frame.ids.length;
+        int i = 0;
+        int j = 0;
+        int lastId = 0;
+        int count = 0;
+        while( i < baseSize || j < frameSize ) {
+            int baseId = i < baseSize ? base.ids[i] : Integer.MAX_VALUE;
+            int frameId = j < frameSize ? frame.ids[j] : Integer.MAX_VALUE;
+            if( baseId < frameId ) {
+                writeHeader(out, lastId, baseId, REMOVE);
+                lastId = baseId;
+                count++;
+                i++;
+            } else if( frameId < baseId || base.types[i] != frame.types[j] ) {
+                StateClass type = frame.types[j];
+                writeHeader(out, lastId, frameId, ADD);
+                out.writeSignedVarLong(type.getId());
+                type.writeChanges(out, null, frame.values[j]);
+                lastId = frameId;
+                count++;
+                if( frameId == baseId ) {
+                    i++;
+                }
+                j++;
+            } else {
+                long[] before = base.values[i];
+                long[] after = frame.values[j];
+                if( before != after && !Arrays.equals(before, after) ) {
+                    writeHeader(out, lastId, frameId, UPDATE);
+                    frame.types[j].writeChanges(out, before, after);
+                    lastId = frameId;
+                    count++;
+                }
+                i++;
+                j++;
+            }
+        }
+        out.writeBit(false);
+        return count;
+    }
+
+    private static void writeHeader( BitWriter out, int lastId, int id, int op ) {
+        out.writeBit(true);
+        out.writeVarLong(id - lastId);
+        out.writeBits(op, 2);
+    }
+
+    /**
+     *  Reads the changes written by writeDelta() and applies them to
+     *  the base frame to create a new frame with the specified sequence.
+     */
+    public static StateFrame readDelta( BitReader in, int sequence, StateFrame base ) {
+        int baseSize = base == null ? 0 : base.ids.length;
+        List<Integer> ids = new ArrayList<Integer>(baseSize);
+        List<StateClass> types = new ArrayList<StateClass>(baseSize);
+        List<long[]> values = new ArrayList<long[]>(baseSize);
+
+        int i = 0;
+        int lastId = 0;
+        while( in.readBit() ) {
+            int id = lastId + (int)in.readVarLong();
+            int op = (int)in.readBits(2);
+            lastId = id;
+
+            // Everything before this ID is unchanged
+            while( i < baseSize && base.ids[i] < id ) {
+                ids.add(base.ids[i]);
+                types.add(base.types[i]);
+                values.add(base.values[i]);
+                i++;
+            }
+            boolean inBase = i < baseSize && base.ids[i] == id;
+
+            switch( op ) {
+                case REMOVE:
+                    break;
+                case ADD:
+                    StateClass type = StateClass.getStateClass((short)in.readSignedVarLong());
+                    ids.add(id);
+                    types.add(type);
+                    values.add(type.readChanges(in, null));
+                    break;
+                case UPDATE:
+                    if( !inBase ) {
+                        throw new IllegalStateException("Update for unknown object:" + id);
+                    }
+                    ids.add(id);
+                    types.add(base.types[i]);
+                    values.add(base.types[i].readChanges(in, base.values[i]));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation:" + op);
+            }
+            if( inBase ) {
+                i++;
+            }
+        }
+        while( i < baseSize ) {
+            ids.add(base.ids[i]);
+            types.add(base.types[i]);
+            values.add(base.values[i]);
+            i++;
+        }
+
+        int size = ids.size();
+        int[] idArray = new int[size];
+        for( int k = 0; k < size; k++ ) {
+            idArray[k] = ids.get(k);
+        }
+        return new StateFrame(sequence, idArray, types.toArray(new StateClass[size]),
+                              values.toArray(new long[size][]));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[sequence=" + sequence + ", size=" + ids.length + "]";
+    }
+}
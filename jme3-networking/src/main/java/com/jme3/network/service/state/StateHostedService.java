@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.state;
+
+import com.jme3.network.HostedConnection;
+import com.jme3.network.Message;
+import com.jme3.network.MessageListener;
+import com.jme3.network.Server;
+import com.jme3.network.serializing.Serializer;
+import com.jme3.network.service.AbstractHostedConnectionService;
+import com.jme3.network.service.HostedServiceManager;
+import com.jme3.network.service.state.msg.StateAckMessage;
+import com.jme3.network.service.state.msg.StateMessage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ *  State synchronization service that can be added to a network Server
+ *  to keep the fields of registered objects up to date on the clients.
+ *
+ *  <p>Each call to sendUpdates() captures the state of all registered objects
+ *  and sends each hosted connection only the fields that changed since the last
+ *  state that connection acknowledged.  Changes are bit-packed and sent as
+ *  unreliable messages.  Lost messages are simply never acknowledged so the
+ *  next update is computed against the older state that the client still has.
+ *  If a client falls so far behind that its acknowledged state is no longer
+ *  in the history then the whole state is sent again.</p>
+ *
+ *  <p>Objects need a no-argument constructor and their classes must be registered
+ *  with the Serializer.  Their non-static, non-transient, non-final fields are
+ *  synchronized and must be primitives or enums.  sendUpdates() is meant to be
+ *  called from one thread, usually once per game tick.</p>
+ */
+public class StateHostedService extends AbstractHostedConnectionService {
+
+    private static final String ATTRIBUTE_NAME = "stateSession";
+
+    /**
+     *  Packed data for a change with no objects in it.
+     */
+    private static final byte[] EMPTY_DATA = new byte[1];
+
+    static final Logger log = Logger.getLogger(StateHostedService.class.getName());
+
+    private final ConcurrentSkipListMap<Integer, Object> objects = new ConcurrentSkipListMap<Integer, Object>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final StateFrame[] history;
+    private final AckListener ackListener = new AckListener();
+    private StateFrame current;
+    private int maxDataSize = 1200;
+
+    /**
+     *  Creates a new state service that automatically hosts new
+     *  connections and keeps a history of 64 states.
+     */
+    public StateHostedService() {
+        this(true, 64);
+    }
+
+    /**
+     *  Creates a new state service that will optionally 'host'
+     *  connections depending on the 'autoHost' flag and that keeps
+     *  the specified number of past states for computing changes.
+     */
+    public StateHostedService( boolean autoHost, int historySize ) {
+        super(autoHost);
+        if( historySize < 1 ) {
+            throw new IllegalArgumentException("History size must be at least 1:" + historySize);
+        }
+        this.history = new StateFrame[historySize];
+
+        Serializer.registerClasses(StateMessage.class, StateAckMessage.class);
+    }
+
+    /**
+     *  Sets the largest number of bytes of state data sent in a single
+     *  message.  Larger updates are split over several messages.  The default
+     *  of 1200 keeps the datagrams below the usual network MTU.
+     */
+    public void setMaxDataSize( int size ) {
+        if( size < 1 ) {
+            throw new IllegalArgumentException("Size must be at least 1:" + size);
+        }
+        this.maxDataSize = size;
+    }
+
+    public int getMaxDataSize() {
+        return maxDataSize;
+    }
+
+    /**
+     *  Adds an object to the shared state and returns the ID that
+     *  identifies it on the clients.
+     */
+    public int addObject( Object object ) {
+        if( object == null ) {
+            throw new IllegalArgumentException("Object cannot be null");
+        }
+        // Make sure it can be synchronized before it goes anywhere
+        StateClass.getStateClass(object.getClass());
+
+        int id = nextId.getAndIncrement();
+        objects.put(id, object);
+        return id;
+    }
+
+    /**
+     *  Removes the object with the specified ID from the shared state
+     *  and returns it.
+     */
+    public Object removeObject( int id ) {
+        return objects.remove(id);
+    }
+
+    public Object getObject( int id ) {
+        return objects.get(id);
+    }
+
+    /**
+     *  Returns the sequence number of the last state sent or -1
+     *  if sendUpdates() has not been called yet.
+     */
+    public int getSequence() {
+        StateFrame frame = current;
+        return frame == null ? -1 : frame.getSequence();
+    }
+
+    /**
+     *  Captures the current state of the registered objects and sends
+     *  each hosted connection the changes since the state it last
+     *  acknowledged.
+     */
+    public void sendUpdates() {
+        int sequence = current == null ? 0 : current.getSequence() + 1;
+        StateFrame frame = StateFrame.capture(sequence, objects, current);
+        history[sequence % history.length] = frame;
+        current = frame;
+
+        // Connections that acknowledged the same state get the same data
+        Map<Integer, byte[]> encoded = new HashMap<Integer, byte[]>();
+
+        Server server = getServer();
+        for( HostedConnection hc : server.getConnections() ) {
+            ConnectionState state = hc.getAttribute(ATTRIBUTE_NAME);
+            if( state == null ) {
+                continue;
+            }
+
+            int acked = state.getAcknowledged();
+            int baseline = acked;
+            StateFrame base = getFrame(acked);
+            if( base == null && state.pending > acked ) {
+                // A full state is still on its way over the reliable
+                // channel so the client will have it soon
+                baseline = state.pending;
+                base = getFrame(baseline);
+            }
+            if( base == frame ) {
+                continue;  // already up to date
+            }
+            if( base == null ) {
+                baseline = -1;
+            }
+
+            byte[] data = encoded.get(baseline);
+            if( data == null ) {
+                BitWriter out = new BitWriter();
+                if( StateFrame.writeDelta(out, base, frame) == 0 ) {
+                    data = new byte[0];
+                } else {
+                    data = out.toByteArray();
+                }
+                encoded.put(baseline, data);
+            }
+
+            if( data.length == 0 ) {
+                // Nothing changed since the acknowledged state so the client
+                // already has the same state as this frame.  Only send the
+                // empty change when the acknowledged state is about to fall
+                // out of the history so that the client moves its baseline up.
+                if( sequence - acked < history.length / 2 ) {
+                    continue;
+                }
+                data = EMPTY_DATA;
+            }
+
+            if( log.isLoggable(Level.FINEST) ) {
+                log.log(Level.FINEST, "Sending state:{0} baseline:{1} bytes:{2} to:{3}",
+                        new Object[]{sequence, baseline, data.length, hc});
+            }
+            // A full state that needs several messages is unlikely to make
+            // it through whole on a lossy connection so it goes over the
+            // reliable channel and later changes build on it
+            boolean reliable = baseline == -1 && data.length > maxDataSize;
+            if( reliable ) {
+                state.pending = sequence;
+            }
+            send(hc, sequence, baseline, data, reliable);
+        }
+    }
+
+    protected void send( HostedConnection hc, int sequence, int baseline, byte[] data, boolean reliable ) {
+        int parts = (data.length + maxDataSize - 1) / maxDataSize;
+        if( parts > Short.MAX_VALUE ) {
+            throw new IllegalStateException("State too large to send:" + data.length + " bytes");
+        }
+        for( int i = 0; i < parts; i++ ) {
+            byte[] part = parts == 1 ? data : Arrays.copyOfRange(data, i * maxDataSize,
+                                                                 Math.min(data.length, (i + 1) * maxDataSize));
+            StateMessage msg = new StateMessage(sequence, baseline, (short)i, (short)parts, part);
+            msg.setReliable(reliable);
+            hc.send(msg);
+        }
+    }
+
+    /**
+     *  Returns the frame for the specified sequence if it is still
+     *  in the history.
+     */
+    protected StateFrame getFrame( int sequence ) {
+        if( sequence < 0 ) {
+            return null;
+        }
+        StateFrame frame = history[sequence % history.length];
+        if( frame == null || frame.getSequence() != sequence ) {
+            return null;
+        }
+        return frame;
+    }
+
+    /**
+     *  Used internally to listen for state acknowledgements.
+     */
+    @Override
+    protected void onInitialize( HostedServiceManager serviceManager ) {
+        serviceManager.getServer().addMessageListener(ackListener, StateAckMessage.class);
+    }
+
+    /**
+     *  Sets up state tracking for the hosted connection so that it
+     *  will receive updates.  This method is called automatically for
+     *  all new connections if autohost is set to true.
+     */
+    @Override
+    public void startHostingOnConnection( HostedConnection hc ) {
+        if( log.isLoggable(Level.FINEST) ) {
+            log.log(Level.FINEST, "startHostingOnConnection:{0}", hc);
+        }
+        hc.setAttribute(ATTRIBUTE_NAME, new ConnectionState());
+    }
+
+    /**
+     *  Stops sending state updates to the specified connection.
+     *  This method is called automatically for all leaving connections if
+     *  autohost is set to true.
+     */
+    @Override
+    public void stopHostingOnConnection( HostedConnection hc ) {
+        if( log.isLoggable(Level.FINEST) ) {
+            log.log(Level.FINEST, "stopHostingOnConnection:{0}", hc);
+        }
+        hc.setAttribute(ATTRIBUTE_NAME, null);
+    }
+
+    /**
+     *  Used internally to remove the acknowledgement listener from the
+     *  server.
+     */
+    @Override
+    public void terminate( HostedServiceManager serviceManager ) {
+        serviceManager.getServer().removeMessageListener(ackListener, StateAckMessage.class);
+    }
+
+    /**
+     *  The per-connection acknowledged state.
+     */
+    private static class ConnectionState {
+        private final AtomicInteger acked = new AtomicInteger(-1);
+
+        // The last full state sent reliably, only used by sendUpdates()
+        private int pending = -1;
+
+        public int getAcknowledged() {
+            return acked.get();
+        }
+
+        public void acknowledge( int sequence ) {
+            while( true ) {
+                int last = acked.get();
+                if( sequence <= last || acked.compareAndSet(last, sequence) ) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private class AckListener implements MessageListener<HostedConnection> {
+        public void messageReceived( HostedConnection source, Message m ) {
+            ConnectionState state = source.getAttribute(ATTRIBUTE_NAME);
+            if( state == null ) {
+                return;
+            }
+            int sequence = ((StateAckMessage)m).getSequence();
+            if( sequence > getSequence() ) {
+                log.log(Level.WARNING, "Ignoring acknowledgement of unsent state:{0} from:{1}",
+                        new Object[]{sequence, source});
+                return;
+            }
+            state.acknowledge(sequence);
+        }
+    }
+}
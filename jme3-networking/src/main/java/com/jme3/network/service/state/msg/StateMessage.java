@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.state.msg;
+
+import com.jme3.network.AbstractMessage;
+import com.jme3.network.serializing.Serializable;
+
+
+/**
+ *  Used internally to send one part of the packed changes between
+ *  a baseline state that the client has acknowledged and a newer
+ *  state.  A baseline of -1 means the changes are from an empty state.
+ */
+@Serializable
+public class StateMessage extends AbstractMessage {
+
+    private int sequence;
+    private int baseline;
+    private short part;
+    private short partCount;
+    private byte[] data;
+
+    public StateMessage() {
+    }
+
+    public StateMessage( int sequence, int baseline, short part, short partCount, byte[] data ) {
+        super(false);
+        this.sequence = sequence;
+        this.baseline = baseline;
+        this.part = part;
+        this.partCount = partCount;
+        this.data = data;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public int getBaseline() {
+        return baseline;
+    }
+
+    public short getPart() {
+        return part;
+    }
+
+    public short getPartCount() {
+        return partCount;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[sequence=" + sequence + ", baseline=" + baseline
+                                          + ", part=" + part + "/" + partCount
+                                          + ", data.length=" + (data == null ? 0 : data.length) + "]";
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ *  Thread safe message and byte counters for one channel
+ *  of a connection.
+ *
+ *  @version   $Revision$
+ */
+public class ChannelStats
+{
+    private final int channel;
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong queueDepth = new AtomicLong();
+
+    public ChannelStats( int channel )
+    {
+        this.channel = channel;
+    }
+
+    /**
+     *  Returns the channel number as used by MessageConnection.send(channel, message),
+     *  ie: MessageConnection.CHANNEL_DEFAULT_RELIABLE for the default reliable
+     *  channel.
+     */
+    public int getChannel()
+    {
+        return channel;
+    }
+
+    public void messageSent( int size )
+    {
+        messagesSent.incrementAndGet();
+        bytesSent.addAndGet(size);
+    }
+
+    public void messageReceived( int size )
+    {
+        messagesReceived.incrementAndGet();
+        bytesReceived.addAndGet(size);
+    }
+
+    public long getMessagesSent()
+    {
+        return messagesSent.get();
+    }
+
+    public long getBytesSent()
+    {
+        return bytesSent.get();
+    }
+
+    public long getMessagesReceived()
+    {
+        return messagesReceived.get();
+    }
+
+    public long getBytesReceived()
+    {
+        return bytesReceived.get();
+    }
+
+    /**
+     *  Returns the outbound queue depth captured when these stats
+     *  were combined with others.  Live stats get the current value
+     *  from ConnectionStats.getQueueDepth(channel).
+     */
+    public long getQueueDepth()
+    {
+        return queueDepth.get();
+    }
+
+    void addTo( ChannelStats target, long currentQueueDepth )
+    {
+        target.messagesSent.addAndGet(messagesSent.get());
+        target.bytesSent.addAndGet(bytesSent.get());
+        target.messagesReceived.addAndGet(messagesReceived.get());
+        target.bytesReceived.addAndGet(bytesReceived.get());
+        target.queueDepth.addAndGet(currentQueueDepth);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ChannelStats[channel=" + channel + ", sent=" + messagesSent + "/" + bytesSent + "b"
+                + ", received=" + messagesReceived + "/" + bytesReceived + "b]";
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.stats;
+
+import com.jme3.network.MessageConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ *  Traffic statistics for a connection: per channel message and
+ *  byte counts, the current outbound queue depths, the round trip time
+ *  measured with the built-in ping messages and per message type size
+ *  histograms.
+ *
+ *  <p>All counters are atomic so the network threads can update them
+ *  while a monitoring thread reads them without any locking.  The values
+ *  read are not a consistent snapshot of each other but each one is
+ *  correct on its own.  Several stats can be combined with addTo(),
+ *  which is how DefaultServer.getStats() totals its connections.</p>
+ *
+ *  <p>Channels are numbered the same as for MessageConnection.send(channel, message),
+ *  starting with MessageConnection.CHANNEL_DEFAULT_RELIABLE.</p>
+ *
+ *  @version   $Revision$
+ */
+public class ConnectionStats
+{
+    private static final int FIRST_CHANNEL = MessageConnection.CHANNEL_DEFAULT_RELIABLE;
+
+    /**
+     *  Reports the number of items waiting to be written on a
+     *  channel.
+     */
+    public interface QueueMonitor
+    {
+        public int getQueueDepth( int channel );
+    }
+
+    private final AtomicReference<ChannelStats[]> channels
+                        = new AtomicReference<ChannelStats[]>(new ChannelStats[0]);
+    private final ConcurrentMap<Short, MessageTypeStats> types
+                        = new ConcurrentHashMap<Short, MessageTypeStats>();
+    private volatile QueueMonitor queueMonitor;
+
+    // The round trip estimate as Double bits in milliseconds
+    private final AtomicLong smoothedRtt = new AtomicLong(Double.doubleToLongBits(-1));
+    private final AtomicLong rttVariance = new AtomicLong(Double.doubleToLongBits(0));
+    private final AtomicLong lastRtt = new AtomicLong(Double.doubleToLongBits(-1));
+    private final AtomicLong rttSamples = new AtomicLong();
+
+    public ConnectionStats()
+    {
+    }
+
+    /**
+     *  Sets the source of the queue depths reported by getQueueDepth().
+     */
+    public void setQueueMonitor( QueueMonitor queueMonitor )
+    {
+        this.queueMonitor = queueMonitor;
+    }
+
+    /**
+     *  Returns the stats for the specified channel, creating
+     *  them if needed.
+     */
+    public ChannelStats getChannel( int channel )
+    {
+        int index = channel - FIRST_CHANNEL;
+        if( index < 0 )
+            throw new IllegalArgumentException( "Channel is undefined:" + channel );
+
+        while( true ) {
+            ChannelStats[] current = channels.get();
+            if( index < current.length ) {
+                return current[index];
+            }
+            ChannelStats[] grown = new ChannelStats[index + 1];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            for( int i = current.length; i < grown.length; i++ ) {
+                grown[i] = new ChannelStats(i + FIRST_CHANNEL);
+            }
+            if( channels.compareAndSet(current, grown) ) {
+                return grown[index];
+            }
+        }
+    }
+
+    /**
+     *  Returns the stats of all channels that have seen traffic.
+     */
+    public List<ChannelStats> getChannels()
+    {
+        List<ChannelStats> result = new ArrayList<ChannelStats>();
+        Collections.addAll(result, channels.get());
+        return result;
+    }
+
+    /**
+     *  Returns the stats of the message types that have been sent
+     *  or received, keyed by serializer class ID.
+     */
+    public Collection<MessageTypeStats> getMessageTypes()
+    {
+        return Collections.unmodifiableCollection(types.values());
+    }
+
+    /**
+     *  Returns the stats for the specified serializer class ID or
+     *  null if no such messages have been sent or received.
+     */
+    public MessageTypeStats getMessageType( short classId )
+    {
+        return types.get(classId);
+    }
+
+    protected MessageTypeStats getOrCreateType( short classId )
+    {
+        MessageTypeStats result = types.get(classId);
+        if( result == null ) {
+            result = new MessageTypeStats(classId);
+            MessageTypeStats existing = types.putIfAbsent(classId, result);
+            if( existing != null ) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    /**
+     *  Records a serialized message of the specified size and
+     *  class ID that was sent on the specified channel.
+     */
+    public void messageSent( int channel, short classId, int size )
+    {
+        getChannel(channel).messageSent(size);
+        getOrCreateType(classId).getSent().record(size);
+    }
+
+    /**
+     *  Records a serialized message of the specified size and
+     *  class ID that was received on the specified channel.
+     */
+    public void messageReceived( int channel, short classId, int size )
+    {
+        getChannel(channel).messageReceived(size);
+        getOrCreateType(classId).getReceived().record(size);
+    }
+
+    public long getMessagesSent()
+    {
+        long result = 0;
+        for( ChannelStats c : channels.get() ) {
+            result += c.getMessagesSent();
+        }
+        return result;
+    }
+
+    public long getBytesSent()
+    {
+        long result = 0;
+        for( ChannelStats c : channels.get() ) {
+            result += c.getBytesSent();
+        }
+        return result;
+    }
+
+    public long getMessagesReceived()
+    {
+        long result = 0;
+        for( ChannelStats c : channels.get() ) {
+            result += c.getMessagesReceived();
+        }
+        return result;
+    }
+
+    public long getBytesReceived()
+    {
+        long result = 0;
+        for( ChannelStats c : channels.get() ) {
+            result += c.getBytesReceived();
+        }
+        return result;
+    }
+
+    /**
+     *  Returns the number of items currently waiting to be written
+     *  on the specified channel.  For combined stats this is the total
+     *  at the time they were combined.
+     */
+    public long getQueueDepth( int channel )
+    {
+        QueueMonitor monitor = queueMonitor;
+        if( monitor != null ) {
+            return monitor.getQueueDepth(channel);
+        }
+        ChannelStats[] current = channels.get();
+        int index = channel - FIRST_CHANNEL;
+        return index >= 0 && index < current.length ? current[index].getQueueDepth() : 0;
+    }
+
+    /**
+     *  Records a measured round trip time.  The estimate is smoothed
+     *  the same way TCP does, per RFC 6298.  Only one thread should
+     *  add samples but any thread may read them.
+     */
+    public void addRoundTripSample( double millis )
+    {
+        double srtt = Double.longBitsToDouble(smoothedRtt.get());
+        double rttvar = Double.longBitsToDouble(rttVariance.get());
+        if( srtt < 0 ) {
+            srtt = millis;
+            rttvar = millis / 2;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - millis);
+            srtt = 0.875 * srtt + 0.125 * millis;
+        }
+        rttVariance.set(Double.doubleToLongBits(rttvar));
+        smoothedRtt.set(Double.doubleToLongBits(srtt));
+        lastRtt.set(Double.doubleToLongBits(millis));
+        rttSamples.incrementAndGet();
+    }
+
+    /**
+     *  Returns the smoothed round trip time in milliseconds or -1
+     *  if it has not been measured.  Combined stats return the
+     *  average of the combined connections.
+     */
+    public double getRoundTripTime()
+    {
+        return Double.longBitsToDouble(smoothedRtt.get());
+    }
+
+    /**
+     *  Returns the mean deviation of the round trip time in
+     *  milliseconds.
+     */
+    public double getRoundTripVariance()
+    {
+        return Double.longBitsToDouble(rttVariance.get());
+    }
+
+    /**
+     *  Returns the most recently measured round trip time in
+     *  milliseconds or -1 if it has not been measured.
+     */
+    public double getLastRoundTripTime()
+    {
+        return Double.longBitsToDouble(lastRtt.get());
+    }
+
+    /**
+     *  Returns the number of round trip times measured.  For combined
+     *  stats this is the number of stats that had a measurement.
+     */
+    public long getRoundTripSamples()
+    {
+        return rttSamples.get();
+    }
+
+    /**
+     *  Adds these stats to the target, which should not be in use
+     *  by any connection.  The round trip times of the target become
+     *  the average of the combined stats that have been measured.
+     */
+    public void addTo( ConnectionStats target )
+    {
+        addCountsTo(target);
+
+        double srtt = getRoundTripTime();
+        if( srtt < 0 ) {
+            return;
+        }
+        // The target's sample count doubles as the number of
+        // stats averaged into it.
+        long count = target.rttSamples.get();
+        double oldSrtt = count == 0 ? 0 : target.getRoundTripTime();
+        double oldVar = count == 0 ? 0 : target.getRoundTripVariance();
+        double oldLast = count == 0 ? 0 : target.getLastRoundTripTime();
+        target.smoothedRtt.set(Double.doubleToLongBits((oldSrtt * count + srtt) / (count + 1)));
+        target.rttVariance.set(Double.doubleToLongBits((oldVar * count + getRoundTripVariance()) / (count + 1)));
+        target.lastRtt.set(Double.doubleToLongBits((oldLast * count + getLastRoundTripTime()) / (count + 1)));
+        target.rttSamples.set(count + 1);
+    }
+
+    /**
+     *  Adds the message counts, sizes and queue depths of these stats
+     *  to the target, leaving its round trip times alone.
+     */
+    public void addCountsTo( ConnectionStats target )
+    {
+        for( ChannelStats c : channels.get() ) {
+            int queued = queueMonitor == null ? 0 : queueMonitor.getQueueDepth(c.getChannel());
+            c.addTo(target.getChannel(c.getChannel()), queued);
+        }
+        for( MessageTypeStats t : types.values() ) {
+            t.addTo(target.getOrCreateType(t.getClassId()));
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ConnectionStats[sent=" + getMessagesSent() + "/" + getBytesSent() + "b"
+                + ", received=" + getMessagesReceived() + "/" + getBytesReceived() + "b"
+                + ", rtt=" + getRoundTripTime() + "ms]";
+    }
+}
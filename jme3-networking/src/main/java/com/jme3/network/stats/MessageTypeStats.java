@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.stats;
+
+import com.jme3.network.serializing.Serializer;
+import com.jme3.network.serializing.SerializerRegistration;
+
+
+/**
+ *  Size histograms of the messages sent and received for
+ *  one serializer class ID.
+ *
+ *  @version   $Revision$
+ */
+public class MessageTypeStats
+{
+    private final short classId;
+    private final SizeHistogram sent = new SizeHistogram();
+    private final SizeHistogram received = new SizeHistogram();
+
+    public MessageTypeStats( short classId )
+    {
+        this.classId = classId;
+    }
+
+    public short getClassId()
+    {
+        return classId;
+    }
+
+    /**
+     *  Returns the class registered with the Serializer for this
+     *  ID or null if there is none.
+     */
+    public Class<?> getType()
+    {
+        SerializerRegistration reg = Serializer.getSerializerRegistrationForId(classId);
+        return reg == null ? null : reg.getType();
+    }
+
+    /**
+     *  Returns the serialized sizes of the messages sent.  The count
+     *  is the number of messages sent.
+     */
+    public SizeHistogram getSent()
+    {
+        return sent;
+    }
+
+    /**
+     *  Returns the serialized sizes of the messages received.  The count
+     *  is the number of messages received.
+     */
+    public SizeHistogram getReceived()
+    {
+        return received;
+    }
+
+    void addTo( MessageTypeStats target )
+    {
+        sent.addTo(target.sent);
+        received.addTo(target.received);
+    }
+
+    @Override
+    public String toString()
+    {
+        Class<?> type = getType();
+        return "MessageTypeStats[id=" + classId + ", type=" + (type == null ? null : type.getSimpleName())
+                + ", sent=" + sent.getCount() + "/" + sent.getTotal() + "b"
+                + ", received=" + received.getCount() + "/" + received.getTotal() + "b]";
+    }
+}
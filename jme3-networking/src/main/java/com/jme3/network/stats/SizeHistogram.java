@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ *  A thread safe histogram of message sizes using power of two
+ *  buckets.  Bucket 0 holds sizes below 16 bytes, each following bucket
+ *  holds sizes up to twice the previous one and the last bucket holds
+ *  everything 32k (32768 bytes) and above, which is bigger than any
+ *  single message.  Recording and reading never lock.
+ *
+ *  @version   $Revision$
+ */
+public class SizeHistogram
+{
+    private static final int MIN_BITS = 4;
+    private static final int BUCKET_COUNT = 13;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong total = new AtomicLong();
+
+    public SizeHistogram()
+    {
+    }
+
+    /**
+     *  Returns the bucket that holds the specified size.
+     */
+    public static int getBucket( int size )
+    {
+        int bits = 32 - Integer.numberOfLeadingZeros(size);
+        return Math.max(0, Math.min(BUCKET_COUNT - 1, bits - MIN_BITS));
+    }
+
+    public int getBucketCount()
+    {
+        return BUCKET_COUNT;
+    }
+
+    /**
+     *  Returns the smallest size that falls in the specified bucket.
+     */
+    public int getBucketMin( int bucket )
+    {
+        return bucket == 0 ? 0 : 1 << (bucket + MIN_BITS - 1);
+    }
+
+    /**
+     *  Returns the largest size that falls in the specified bucket
+     *  or Integer.MAX_VALUE for the last bucket.
+     */
+    public int getBucketMax( int bucket )
+    {
+        return bucket == BUCKET_COUNT - 1 ? Integer.MAX_VALUE : (1 << (bucket + MIN_BITS)) - 1;
+    }
+
+    public void record( int size )
+    {
+        counts.incrementAndGet(getBucket(size));
+        total.addAndGet(size);
+    }
+
+    public long getCount( int bucket )
+    {
+        return counts.get(bucket);
+    }
+
+    /**
+     *  Returns the number of sizes recorded.
+     */
+    public long getCount()
+    {
+        long result = 0;
+        for( int i = 0; i < BUCKET_COUNT; i++ ) {
+            result += counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     *  Returns the sum of all sizes recorded.
+     */
+    public long getTotal()
+    {
+        return total.get();
+    }
+
+    public double getMean()
+    {
+        long count = getCount();
+        return count == 0 ? 0 : (double)total.get() / count;
+    }
+
+    /**
+     *  Returns the largest size of the bucket that contains the
+     *  specified fraction of all recorded sizes, ie: 0.5 for the
+     *  median or 0.99 for the 99th percentile.  Returns 0 if
+     *  nothing has been recorded.
+     */
+    public int getPercentile( double fraction )
+    {
+        long count = getCount();
+        if( count == 0 ) {
+            return 0;
+        }
+        long target = (long)Math.ceil(fraction * count);
+        long sum = 0;
+        for( int i = 0; i < BUCKET_COUNT; i++ ) {
+            sum += counts.get(i);
+            if( sum >= target ) {
+                return getBucketMax(i);
+            }
+        }
+        return getBucketMax(BUCKET_COUNT - 1);
+    }
+
+    /**
+     *  Adds the counts of this histogram to the target.
+     */
+    public void addTo( SizeHistogram target )
+    {
+        for( int i = 0; i < BUCKET_COUNT; i++ ) {
+            target.counts.addAndGet(i, counts.get(i));
+        }
+        target.total.addAndGet(total.get());
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("SizeHistogram[");
+        for( int i = 0; i < BUCKET_COUNT; i++ ) {
+            if( i > 0 ) {
+                sb.append(", ");
+            }
+            sb.append("<=").append(i == BUCKET_COUNT - 1 ? "max" : String.valueOf(getBucketMax(i)));
+            sb.append(":").append(counts.get(i));
+        }
+        return sb.append("]").toString();
+    }
+}
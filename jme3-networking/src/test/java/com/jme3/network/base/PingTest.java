@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.base;
+
+import static org.junit.Assert.*;
+
+import com.jme3.network.Client;
+import com.jme3.network.HostedConnection;
+import com.jme3.network.Network;
+import com.jme3.network.serializing.Serializer;
+import com.jme3.network.stats.ConnectionStats;
+import java.net.ServerSocket;
+import org.junit.Test;
+
+
+/**
+ *  Runs a server and a client over loopback to check that the
+ *  server's pings measure the round trip time and that the client
+ *  follows the same samples.
+ *
+ *  @version   $Revision$
+ */
+public class PingTest
+{
+    private static int findFreePort() throws Exception
+    {
+        ServerSocket s = new ServerSocket(0);
+        try {
+            return s.getLocalPort();
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testServerDrivenPings() throws Exception
+    {
+        int port = findFreePort();
+        DefaultServer server = (DefaultServer)Network.createServer(port, port);
+        server.setPingInterval(20);
+        server.start();
+        try {
+            Client client = Network.connectToServer("127.0.0.1", port);
+            client.start();
+            try {
+                while( server.getConnections().isEmpty() ) {
+                    Thread.sleep(10);
+                }
+                HostedConnection conn = server.getConnections().iterator().next();
+                ConnectionStats serverSide = server.getStats(conn);
+                ConnectionStats clientSide = ((DefaultClient)client).getStats();
+
+                // Wait for a few samples to make it to the client
+                while( clientSide.getRoundTripSamples() < 3 ) {
+                    Thread.sleep(10);
+                }
+
+                // The client only ever gets samples the server measured
+                assertTrue(serverSide.getRoundTripSamples() >= clientSide.getRoundTripSamples());
+                assertTrue(clientSide.getRoundTripTime() > 0);
+                assertTrue(serverSide.getRoundTripTime() > 0);
+
+                // And the totals include the connection
+                assertEquals(1, server.getStats().getRoundTripSamples());
+                assertTrue(server.getStats().getMessagesSent() >= serverSide.getRoundTripSamples());
+            } finally {
+                client.close();
+            }
+        } finally {
+            server.close();
+
+            // Starting the server locked the serializer registry,
+            // unlock it for the tests that register classes
+            Serializer.setReadOnly(false);
+        }
+    }
+}
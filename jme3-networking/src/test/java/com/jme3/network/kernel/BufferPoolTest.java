@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.kernel;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+
+/**
+ *  Checks the size classes, reference counting and recycling
+ *  of the BufferPool.
+ *
+ *  @version   $Revision$
+ */
+public class BufferPoolTest
+{
+    @Test
+    public void testSizeClasses()
+    {
+        BufferPool pool = new BufferPool();
+
+        assertCapacity( pool, 1, 256 );
+        assertCapacity( pool, 256, 256 );
+        assertCapacity( pool, 257, 512 );
+        assertCapacity( pool, 1000, 1024 );
+        assertCapacity( pool, 65536, 65536 );
+
+        // Too big to be pooled, allocated at the exact size
+        assertCapacity( pool, 65537, 65537 );
+    }
+
+    private void assertCapacity( BufferPool pool, int size, int capacity )
+    {
+        PooledBuffer pooled = pool.acquire(size);
+        assertTrue( pooled.getBuffer().isDirect() );
+        assertEquals( capacity, pooled.getBuffer().capacity() );
+        assertEquals( 0, pooled.getBuffer().position() );
+        assertEquals( size, pooled.getBuffer().limit() );
+    }
+
+    @Test
+    public void testRecycle()
+    {
+        BufferPool pool = new BufferPool();
+
+        PooledBuffer first = pool.acquire(300);
+        first.getBuffer().put( new byte[300] ).flip();
+        first.release();
+        assertEquals( 1, pool.getFreeCount() );
+
+        // Same size class gets the same buffer back, reset
+        PooledBuffer second = pool.acquire(400);
+        assertSame( first, second );
+        assertEquals( 0, pool.getFreeCount() );
+        assertEquals( 0, second.getBuffer().position() );
+        assertEquals( 400, second.getBuffer().limit() );
+
+        // Other size classes do not share it
+        second.release();
+        PooledBuffer small = pool.acquire(100);
+        assertNotSame( first, small );
+        assertEquals( 1, pool.getFreeCount() );
+
+        // Unpooled buffers are left to the GC
+        small.release();
+        pool.acquire(100000).release();
+        assertEquals( 2, pool.getFreeCount() );
+    }
+
+    @Test
+    public void testMaxPooled()
+    {
+        BufferPool pool = new BufferPool(2);
+        PooledBuffer[] buffers = new PooledBuffer[4];
+        for( int i = 0; i < buffers.length; i++ ) {
+            buffers[i] = pool.acquire(1000);
+        }
+        for( PooledBuffer b : buffers ) {
+            b.release();
+        }
+        assertEquals( 2, pool.getFreeCount() );
+
+        // Other size classes have their own limit
+        pool.acquire(10).release();
+        assertEquals( 3, pool.getFreeCount() );
+    }
+
+    @Test
+    public void testRefCount()
+    {
+        BufferPool pool = new BufferPool();
+        PooledBuffer pooled = pool.acquire(100);
+
+        assertSame( pooled, pooled.retain() );
+        pooled.retain();
+
+        pooled.release();
+        pooled.release();
+        assertEquals( "Still referenced", 0, pool.getFreeCount() );
+
+        pooled.release();
+        assertEquals( 1, pool.getFreeCount() );
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseTooManyTimes()
+    {
+        BufferPool pool = new BufferPool();
+        PooledBuffer pooled = pool.acquire(100);
+        pooled.release();
+        pooled.release();
+    }
+
+    @Test
+    public void testRetainAfterRelease()
+    {
+        BufferPool pool = new BufferPool();
+        PooledBuffer pooled = pool.acquire(100);
+        pooled.release();
+        try {
+            pooled.retain();
+            fail( "Expected IllegalStateException" );
+        } catch( IllegalStateException e ) {
+            // expected
+        }
+
+        // The failed retain must not have brought it back to life
+        assertEquals( 1, pool.getFreeCount() );
+        assertSame( pooled, pool.acquire(100) );
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.kernel.tcp;
+
+import static org.junit.Assert.*;
+
+import com.jme3.network.kernel.EndpointEvent;
+import com.jme3.network.kernel.Envelope;
+import com.jme3.network.kernel.Kernel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ *  Runs a MultiSelectorKernel with several selector threads over
+ *  loopback sockets, checking that the connections are spread over
+ *  the threads and that each one is only serviced by its own.
+ *
+ *  @version   $Revision$
+ */
+public class MultiSelectorKernelTest
+{
+    private static final int THREADS = 3;
+    private static final int CLIENTS = 6;
+
+    /**
+     *  Records which selector thread does what.
+     */
+    private static class TestKernel extends MultiSelectorKernel
+    {
+        final List<TestSelector> threads = new CopyOnWriteArrayList<TestSelector>();
+        final Map<NioEndpoint, Thread> readers = new ConcurrentHashMap<NioEndpoint, Thread>();
+        volatile boolean wrongReader = false;
+
+        TestKernel( InetAddress host, int port )
+        {
+            super( host, port, THREADS );
+        }
+
+        @Override
+        protected SelectorThread createSelectorThread( int index )
+        {
+            TestSelector result = new TestSelector( this, index );
+            threads.add(result);
+            return result;
+        }
+
+        @Override
+        protected void newData( NioEndpoint p, SocketChannel c, ByteBuffer shared, int size )
+        {
+            Thread previous = readers.put( p, Thread.currentThread() );
+            if( previous != null && previous != Thread.currentThread() )
+                wrongReader = true;
+            super.newData( p, c, shared, size );
+        }
+    }
+
+    private static class TestSelector extends SelectorKernel.SelectorThread
+    {
+        final AtomicInteger wakeups = new AtomicInteger();
+        final List<NioEndpoint> cancelled = new CopyOnWriteArrayList<NioEndpoint>();
+
+        TestSelector( TestKernel kernel, int index )
+        {
+            kernel.super( "TestSelector-" + index, false );
+        }
+
+        @Override
+        protected void wakeupSelector()
+        {
+            wakeups.incrementAndGet();
+            super.wakeupSelector();
+        }
+
+        @Override
+        protected void cancel( NioEndpoint p ) throws IOException
+        {
+            if( owns(p) )
+                cancelled.add(p);
+            super.cancel(p);
+        }
+    }
+
+    private TestKernel kernel;
+    private List<Socket> clients = new ArrayList<Socket>();
+    private List<NioEndpoint> endpoints = new ArrayList<NioEndpoint>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        InetAddress host = InetAddress.getByName("127.0.0.1");
+        int port = SelectorKernelTest.findFreePort();
+        kernel = new TestKernel( host, port );
+        kernel.initialize();
+        assertEquals( THREADS, kernel.threads.size() );
+
+        for( int i = 0; i < CLIENTS; i++ ) {
+            Socket s = new Socket( host, port );
+            s.setSoTimeout(5000);
+            clients.add(s);
+
+            EndpointEvent e = SelectorKernelTest.nextEvent(kernel);
+            assertEquals( EndpointEvent.Type.ADD, e.getType() );
+            s.getOutputStream().write(i);
+            Envelope env = readEnvelope();
+            assertArrayEquals( new byte[] { (byte)i }, env.getData() );
+            assertSame( e.getEndpoint(), env.getSource() );
+            endpoints.add( (NioEndpoint)e.getEndpoint() );
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        for( Socket s : clients ) {
+            s.close();
+        }
+        kernel.terminate();
+    }
+
+    private Envelope readEnvelope() throws InterruptedException
+    {
+        Envelope env;
+        do {
+            env = kernel.read();
+        } while( env == Kernel.EVENTS_PENDING );
+        return env;
+    }
+
+    private TestSelector owner( NioEndpoint p )
+    {
+        return (TestSelector)kernel.getSelectorThread(p);
+    }
+
+    private int[] wakeups()
+    {
+        int[] result = new int[THREADS];
+        for( int i = 0; i < THREADS; i++ ) {
+            result[i] = kernel.threads.get(i).wakeups.get();
+        }
+        return result;
+    }
+
+    @Test(timeout = 20000)
+    public void testSpreadOverThreads() throws Exception
+    {
+        // Connections are handed out in turn
+        for( TestSelector t : kernel.threads ) {
+            int owned = 0;
+            for( NioEndpoint p : endpoints ) {
+                if( t.owns(p) )
+                    owned++;
+            }
+            assertEquals( CLIENTS / THREADS, owned );
+        }
+
+        // Each endpoint has exactly one owner and it did the reading
+        for( NioEndpoint p : endpoints ) {
+            TestSelector owner = owner(p);
+            assertNotNull( owner );
+            assertSame( owner, kernel.readers.get(p) );
+            for( TestSelector t : kernel.threads ) {
+                assertEquals( t == owner, t.owns(p) );
+            }
+        }
+
+        // More data from every client is still read by the owners
+        for( int i = 0; i < CLIENTS; i++ ) {
+            clients.get(i).getOutputStream().write( SelectorKernelTest.createData(2000, i) );
+        }
+        int total = 0;
+        while( total < CLIENTS * 2000 ) {
+            total += readEnvelope().getData().length;
+        }
+        assertFalse( kernel.wrongReader );
+    }
+
+    @Test(timeout = 20000)
+    public void testBroadcast() throws Exception
+    {
+        byte[] data = SelectorKernelTest.createData( 20000, 5 );
+        kernel.broadcast( null, ByteBuffer.wrap(data), true, true );
+        for( Socket s : clients ) {
+            assertArrayEquals( data, SelectorKernelTest.readFully(s, data.length) );
+        }
+
+        // And every client can answer
+        for( int i = 0; i < CLIENTS; i++ ) {
+            clients.get(i).getOutputStream().write( new byte[] { (byte)(i + 100) } );
+        }
+        List<Integer> answers = new ArrayList<Integer>();
+        while( answers.size() < CLIENTS ) {
+            Envelope env = readEnvelope();
+            for( byte b : env.getData() ) {
+                answers.add( (int)b );
+                assertSame( endpoints.get(b - 100), env.getSource() );
+            }
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testSendWakesOwner() throws Exception
+    {
+        for( int i = 0; i < CLIENTS; i++ ) {
+            NioEndpoint p = endpoints.get(i);
+            int ownerIndex = kernel.threads.indexOf(owner(p));
+
+            int[] before = wakeups();
+            byte[] data = SelectorKernelTest.createData( 100, i );
+            p.send( ByteBuffer.wrap(data) );
+            int[] after = wakeups();
+
+            for( int t = 0; t < THREADS; t++ ) {
+                if( t == ownerIndex ) {
+                    assertTrue( "Owner not woken up", after[t] > before[t] );
+                } else {
+                    assertEquals( "Other selector woken up", before[t], after[t] );
+                }
+            }
+            assertArrayEquals( data, SelectorKernelTest.readFully(clients.get(i), data.length) );
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testServerClose() throws Exception
+    {
+        for( int i = 0; i < CLIENTS; i += 2 ) {
+            NioEndpoint p = endpoints.get(i);
+            TestSelector owner = owner(p);
+            p.close();
+
+            EndpointEvent e = SelectorKernelTest.nextEvent(kernel);
+            assertEquals( EndpointEvent.Type.REMOVE, e.getType() );
+            assertSame( p, e.getEndpoint() );
+
+            // Only the owner cancelled it
+            for( TestSelector t : kernel.threads ) {
+                assertEquals( t == owner, t.cancelled.contains(p) );
+                assertFalse( t.owns(p) );
+            }
+            assertNull( kernel.getSelectorThread(p) );
+
+            InputStream in = clients.get(i).getInputStream();
+            try {
+                assertEquals( -1, in.read() );
+            } catch( IOException ex ) {
+                // connection reset is also fine
+            }
+        }
+
+        // The rest still work
+        byte[] data = SelectorKernelTest.createData( 300, 1 );
+        kernel.broadcast( null, ByteBuffer.wrap(data), true, true );
+        for( int i = 1; i < CLIENTS; i += 2 ) {
+            assertArrayEquals( data, SelectorKernelTest.readFully(clients.get(i), data.length) );
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testClientClose() throws Exception
+    {
+        for( int i = 1; i < CLIENTS; i += 2 ) {
+            NioEndpoint p = endpoints.get(i);
+            clients.get(i).close();
+
+            EndpointEvent e = SelectorKernelTest.nextEvent(kernel);
+            assertEquals( EndpointEvent.Type.REMOVE, e.getType() );
+            assertSame( p, e.getEndpoint() );
+            assertNull( kernel.getSelectorThread(p) );
+
+            // Closing it from the server afterwards is harmless
+            p.close();
+        }
+        assertNull( kernel.nextEvent() );
+
+        // The rest still work
+        byte[] data = SelectorKernelTest.createData( 300, 2 );
+        kernel.broadcast( null, ByteBuffer.wrap(data), true, true );
+        for( int i = 0; i < CLIENTS; i += 2 ) {
+            assertArrayEquals( data, SelectorKernelTest.readFully(clients.get(i), data.length) );
+        }
+    }
+}
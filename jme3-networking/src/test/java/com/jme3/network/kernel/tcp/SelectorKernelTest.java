@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.kernel.tcp;
+
+import static org.junit.Assert.*;
+
+import com.jme3.network.kernel.Endpoint;
+import com.jme3.network.kernel.EndpointEvent;
+import com.jme3.network.kernel.Envelope;
+import com.jme3.network.kernel.Kernel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ *  Runs a SelectorKernel over loopback sockets, checking that
+ *  broadcasts share pooled buffers and that the buffers go back
+ *  to the pool once written or once the endpoint is closed.
+ *
+ *  @version   $Revision$
+ */
+public class SelectorKernelTest
+{
+    private static final int CLIENTS = 3;
+
+    private SelectorKernel kernel;
+    private List<Socket> clients = new ArrayList<Socket>();
+    private Map<Socket,NioEndpoint> endpoints = new HashMap<Socket,NioEndpoint>();
+
+    static int findFreePort() throws IOException
+    {
+        ServerSocket s = new ServerSocket(0);
+        try {
+            return s.getLocalPort();
+        } finally {
+            s.close();
+        }
+    }
+
+    static EndpointEvent nextEvent( Kernel kernel ) throws InterruptedException
+    {
+        for( int i = 0; i < 500; i++ ) {
+            EndpointEvent e = kernel.nextEvent();
+            if( e != null )
+                return e;
+            Thread.sleep(10);
+        }
+        throw new AssertionError( "No endpoint event" );
+    }
+
+    static void waitFor( String message, Condition condition ) throws InterruptedException
+    {
+        for( int i = 0; i < 500; i++ ) {
+            if( condition.isTrue() )
+                return;
+            Thread.sleep(10);
+        }
+        fail( message );
+    }
+
+    interface Condition
+    {
+        boolean isTrue();
+    }
+
+    static byte[] createData( int size, int seed )
+    {
+        byte[] data = new byte[size];
+        for( int i = 0; i < size; i++ ) {
+            data[i] = (byte)(i * 31 + seed);
+        }
+        return data;
+    }
+
+    static byte[] readFully( Socket s, int size ) throws IOException
+    {
+        byte[] result = new byte[size];
+        new DataInputStream(s.getInputStream()).readFully(result);
+        return result;
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        InetAddress host = InetAddress.getByName("127.0.0.1");
+        int port = findFreePort();
+        kernel = new SelectorKernel( host, port );
+        kernel.initialize();
+
+        for( int i = 0; i < CLIENTS; i++ ) {
+            Socket s = new Socket( host, port );
+            s.setSoTimeout(5000);
+            clients.add(s);
+
+            // Pair the endpoint with its client by having the
+            // client introduce itself
+            EndpointEvent e = nextEvent(kernel);
+            assertEquals( EndpointEvent.Type.ADD, e.getType() );
+            s.getOutputStream().write(i);
+            Envelope env = readEnvelope();
+            assertArrayEquals( new byte[] { (byte)i }, env.getData() );
+            assertSame( e.getEndpoint(), env.getSource() );
+            endpoints.put( s, (NioEndpoint)e.getEndpoint() );
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        for( Socket s : clients ) {
+            s.close();
+        }
+        kernel.terminate();
+    }
+
+    private Envelope readEnvelope() throws InterruptedException
+    {
+        Envelope env;
+        do {
+            env = kernel.read();
+        } while( env == Kernel.EVENTS_PENDING );
+        return env;
+    }
+
+    private void waitForFlush() throws InterruptedException
+    {
+        waitFor( "Outbound data not written", new Condition() {
+                public boolean isTrue() {
+                    for( NioEndpoint p : endpoints.values() ) {
+                        if( p.getOutboundQueueSize() != 0 )
+                            return false;
+                    }
+                    return true;
+                }
+            });
+    }
+
+    @Test(timeout = 20000)
+    public void testBroadcastRoundTrip() throws Exception
+    {
+        // Sizes across several pool size classes and one that
+        // is too big to be pooled
+        int[] sizes = { 10, 300, 5000, 100000 };
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for( int i = 0; i < sizes.length; i++ ) {
+            byte[] data = createData( sizes[i], i );
+            expected.write(data);
+
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            kernel.broadcast( null, buffer, true, true );
+
+            // The caller's buffer is left untouched
+            assertEquals( 0, buffer.position() );
+            assertEquals( sizes[i], buffer.remaining() );
+        }
+
+        for( Socket s : clients ) {
+            assertArrayEquals( expected.toByteArray(), readFully( s, expected.size() ) );
+        }
+
+        // All of the shared buffers have been returned, one per
+        // pooled size class
+        waitForFlush();
+        assertEquals( 3, kernel.getBufferPool().getFreeCount() );
+
+        // And the clients can still talk back
+        for( int i = 0; i < CLIENTS; i++ ) {
+            Socket s = clients.get(i);
+            byte[] data = createData( 100, 10 + i );
+            s.getOutputStream().write(data);
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            while( received.size() < data.length ) {
+                Envelope env = readEnvelope();
+                assertSame( endpoints.get(s), env.getSource() );
+                received.write( env.getData() );
+            }
+            assertArrayEquals( data, received.toByteArray() );
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testFilteredBroadcast() throws Exception
+    {
+        final Endpoint excluded = endpoints.get(clients.get(0));
+        byte[] data = createData( 1000, 7 );
+        kernel.broadcast( new com.jme3.network.Filter<Endpoint>() {
+                public boolean apply( Endpoint input ) {
+                    return input != excluded;
+                }
+            }, ByteBuffer.wrap(data), true, true );
+
+        for( int i = 1; i < CLIENTS; i++ ) {
+            assertArrayEquals( data, readFully( clients.get(i), data.length ) );
+        }
+        waitForFlush();
+        assertEquals( 1, kernel.getBufferPool().getFreeCount() );
+
+        // The excluded client got nothing, the next byte it sees
+        // is one sent only to it
+        excluded.send( ByteBuffer.wrap(new byte[] { 42 }) );
+        assertEquals( 42, clients.get(0).getInputStream().read() );
+    }
+
+    @Test(timeout = 20000)
+    public void testServerClose() throws Exception
+    {
+        final Socket s = clients.get(1);
+        final NioEndpoint p = endpoints.get(s);
+
+        // Queue more than the socket will take without the client
+        // reading so that the close happens with data pending
+        byte[] data = createData( 60000, 3 );
+        for( int i = 0; i < 50; i++ ) {
+            p.send( ByteBuffer.wrap(data) );
+        }
+        p.close();
+
+        EndpointEvent e = nextEvent(kernel);
+        assertEquals( EndpointEvent.Type.REMOVE, e.getType() );
+        assertSame( p, e.getEndpoint() );
+
+        // The pending buffers are given back by the selector thread
+        waitFor( "Pending buffers not released", new Condition() {
+                public boolean isTrue() {
+                    return p.getOutboundQueueSize() == 0;
+                }
+            });
+        int free = kernel.getBufferPool().getFreeCount();
+        assertTrue( "Buffers not recycled:" + free, free > 0 && free <= 50 );
+
+        // The client sees the end of the stream, possibly after
+        // some of the data that made it out
+        InputStream in = s.getInputStream();
+        byte[] skip = new byte[8192];
+        try {
+            while( in.read(skip) != -1 ) {
+            }
+        } catch( IOException ex ) {
+            // connection reset is also fine
+        }
+
+        // The other clients are unaffected
+        byte[] other = createData( 500, 4 );
+        kernel.broadcast( null, ByteBuffer.wrap(other), true, true );
+        assertArrayEquals( other, readFully( clients.get(0), other.length ) );
+        assertArrayEquals( other, readFully( clients.get(2), other.length ) );
+    }
+
+    @Test(timeout = 20000)
+    public void testClientClose() throws Exception
+    {
+        Socket s = clients.get(2);
+        NioEndpoint p = endpoints.get(s);
+        s.close();
+
+        EndpointEvent e = nextEvent(kernel);
+        assertEquals( EndpointEvent.Type.REMOVE, e.getType() );
+        assertSame( p, e.getEndpoint() );
+
+        // Closing it again from the server side is harmless
+        p.close();
+        assertNull( kernel.nextEvent() );
+    }
+}
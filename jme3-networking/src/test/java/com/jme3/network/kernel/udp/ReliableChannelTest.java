@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.kernel.udp;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+
+/**
+ *  Runs two ReliableChannels against each other over an in-memory
+ *  link that can lose and reorder packets.
+ *
+ *  @version   $Revision$
+ */
+public class ReliableChannelTest
+{
+    private static final int PACKET_SIZE = 256;
+
+    /**
+     *  Collects the packets sent by one end.
+     */
+    private static class Link implements ReliableChannel.Transport
+    {
+        final List<byte[]> packets = new ArrayList<byte[]>();
+
+        public void sendPacket( byte[] data, int length ) throws IOException
+        {
+            packets.add(Arrays.copyOf(data, length));
+        }
+
+        List<byte[]> take()
+        {
+            List<byte[]> result = new ArrayList<byte[]>(packets);
+            packets.clear();
+            return result;
+        }
+    }
+
+    /**
+     *  One end of the connection.
+     */
+    private static class Peer
+    {
+        final Link link = new Link();
+        final ReliableChannel channel;
+        final List<byte[]> delivered = new ArrayList<byte[]>();
+
+        Peer( boolean ordered )
+        {
+            channel = new ReliableChannel(link, ordered, PACKET_SIZE);
+            channel.setTimeout(Long.MAX_VALUE / 2);
+        }
+    }
+
+    private static byte[] message( int index )
+    {
+        // Some messages need several packets
+        byte[] data = new byte[(index * 37) % (PACKET_SIZE * 3)];
+        for( int i = 0; i < data.length; i++ ) {
+            data[i] = (byte)(index + i);
+        }
+        return data;
+    }
+
+    private static int dataSeq( byte[] packet )
+    {
+        assertEquals(ReliableChannel.DATA, packet[0]);
+        int ranges = packet[5] & 0xff;
+        return ByteBuffer.wrap(packet).getInt(6 + ranges * 4);
+    }
+
+    /**
+     *  Passes the packets sent by 'from' to 'to' dropping some of
+     *  them and shuffling the rest.
+     */
+    private static void transfer( Peer from, Peer to, Random random, float loss ) throws IOException
+    {
+        List<byte[]> packets = from.link.take();
+        Collections.shuffle(packets, random);
+        for( byte[] p : packets ) {
+            if( random.nextFloat() < loss ) {
+                continue;
+            }
+            to.channel.receive(p, 0, p.length, to.delivered);
+        }
+    }
+
+    /**
+     *  Sends 'count' messages from a to b over a lossy link.
+     */
+    private static void run( Peer a, Peer b, int count, float loss ) throws IOException
+    {
+        for( int i = 0; i < count; i++ ) {
+            a.channel.send(ByteBuffer.wrap(message(i)));
+        }
+        deliver(a, b, count, loss);
+    }
+
+    /**
+     *  Exchanges packets until b has received 'count' messages and
+     *  everything a sent is acknowledged, advancing the clock given to
+     *  update() by 20 ms per step.
+     */
+    private static void deliver( Peer a, Peer b, int count, float loss ) throws IOException
+    {
+        Random random = new Random(count);
+        long now = System.currentTimeMillis();
+        for( int step = 0; step < 10000; step++ ) {
+            if( b.delivered.size() == count && a.channel.isFlushed() ) {
+                return;
+            }
+            transfer(a, b, random, loss);
+            transfer(b, a, random, loss);
+            now += 20;
+            a.channel.update(now);
+            b.channel.update(now);
+            assertFalse(a.channel.isClosed(now));
+        }
+        fail("Not delivered, received:" + b.delivered.size() + " pending:" + a.channel.getPendingCount());
+    }
+
+    @Test
+    public void testOrderedDelivery() throws IOException
+    {
+        Peer a = new Peer(true);
+        Peer b = new Peer(true);
+        run(a, b, 300, 0.25f);
+
+        assertEquals(300, b.delivered.size());
+        for( int i = 0; i < 300; i++ ) {
+            assertArrayEquals("message:" + i, message(i), b.delivered.get(i));
+        }
+        assertTrue(a.channel.getRoundTripTime() >= 0);
+    }
+
+    @Test
+    public void testUnorderedDelivery() throws IOException
+    {
+        Peer a = new Peer(false);
+        Peer b = new Peer(false);
+        run(a, b, 300, 0.25f);
+
+        // Everything arrives exactly once, just not in order
+        assertEquals(300, b.delivered.size());
+        boolean[] seen = new boolean[300];
+        boolean inOrder = true;
+        for( int i = 0; i < 300; i++ ) {
+            byte[] data = b.delivered.get(i);
+            int index = -1;
+            for( int j = 0; j < 300; j++ ) {
+                if( !seen[j] && Arrays.equals(message(j), data) ) {
+                    index = j;
+                    break;
+                }
+            }
+            assertTrue("unexpected message", index >= 0);
+            seen[index] = true;
+            inOrder &= index == i;
+        }
+        assertFalse(inOrder);
+    }
+
+    @Test
+    public void testWindowStall() throws IOException
+    {
+        Peer a = new Peer(true);
+        Peer b = new Peer(true);
+        a.channel.setWindowSize(4);
+        b.channel.setWindowSize(4);
+
+        for( int i = 0; i < 10; i++ ) {
+            a.channel.send(ByteBuffer.wrap(new byte[] { (byte)i }));
+        }
+
+        // Only a window's worth goes out until something is acknowledged
+        List<byte[]> sent = a.link.take();
+        assertEquals(4, sent.size());
+        assertEquals(10, a.channel.getPendingCount());
+
+        // Losing the first packet keeps the window stalled even though
+        // the others arrive
+        for( byte[] p : sent.subList(1, 4) ) {
+            b.channel.receive(p, 0, p.length, b.delivered);
+        }
+        assertTrue(b.delivered.isEmpty());
+        b.channel.update(System.currentTimeMillis());
+        for( byte[] p : b.link.take() ) {
+            a.channel.receive(p, 0, p.length, a.delivered);
+        }
+        assertEquals(7, a.channel.getPendingCount());
+
+        // Three later packets were acknowledged so the first one is
+        // resent right away instead of waiting for its timeout
+        List<byte[]> resent = a.link.take();
+        assertEquals(1, resent.size());
+        assertEquals(0, dataSeq(resent.get(0)));
+
+        // Once it arrives the window moves on
+        byte[] first = resent.get(0);
+        b.channel.receive(first, 0, first.length, b.delivered);
+        assertEquals(4, b.delivered.size());
+        b.channel.update(System.currentTimeMillis());
+        for( byte[] p : b.link.take() ) {
+            a.channel.receive(p, 0, p.length, a.delivered);
+        }
+        assertEquals(6, a.channel.getPendingCount());
+        assertEquals(4, a.link.take().size());
+
+        deliver(a, b, 10, 0);
+        assertEquals(10, b.delivered.size());
+        for( int i = 0; i < 10; i++ ) {
+            assertArrayEquals(new byte[] { (byte)i }, b.delivered.get(i));
+        }
+    }
+
+    @Test
+    public void testRetransmitBackoff() throws IOException
+    {
+        Peer a = new Peer(true);
+        a.channel.send(ByteBuffer.wrap(new byte[] { 1 }));
+        long start = System.currentTimeMillis();
+        long rto = a.channel.getRetransmitTimeout();
+
+        // Nothing gets through so the packet is resent with a doubling
+        // timeout that stops growing after 5 doublings
+        List<Long> times = new ArrayList<Long>();
+        times.add(start);
+        a.link.take();
+        long now = start;
+        while( !a.channel.isClosed(now) ) {
+            now++;
+            a.channel.update(now);
+            for( byte[] p : a.link.take() ) {
+                if( p[0] == ReliableChannel.DATA ) {
+                    assertEquals(0, dataSeq(p));
+                    times.add(now);
+                }
+            }
+            assertTrue("Channel never failed", now - start < 1000000);
+        }
+
+        assertEquals(30, times.size());
+        for( int i = 1; i < times.size(); i++ ) {
+            long interval = times.get(i) - times.get(i - 1);
+            long expected = rto << Math.min(i - 1, 5);
+            // The first send used the wall clock
+            assertTrue("resend:" + i + " after:" + interval, 
+                       i == 1 ? interval <= expected : interval == expected);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.serializing.serializers;
+
+import static org.junit.Assert.*;
+
+import com.jme3.network.serializing.Serializer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ *  Checks that FieldSerializer writes the same bytes whether its fields
+ *  are accessed through method handles or plain reflection, and that
+ *  each path reads what the other wrote.
+ *
+ *  @version   $Revision$
+ */
+public class FieldSerializerTest
+{
+    public enum Color { RED, GREEN, BLUE }
+
+    public static class Nested
+    {
+        int value;
+        String name;
+        Nested next;
+
+        public Nested()
+        {
+        }
+
+        Nested( int value, String name, Nested next )
+        {
+            this.value = value;
+            this.name = name;
+            this.next = next;
+        }
+    }
+
+    public static class AllFields
+    {
+        boolean z;
+        byte b;
+        char c;
+        short s;
+        int i;
+        long l;
+        float f;
+        double d;
+
+        // The boxed types are final so their serializers are
+        // fixed and they cannot be null
+        Boolean boxedZ = Boolean.TRUE;
+        Byte boxedB = 0;
+        Character boxedC = 'a';
+        Short boxedS = 0;
+        Integer boxedI = 0;
+        Long boxedL = 0L;
+        Float boxedF = 0f;
+        Double boxedD = 0.0;
+
+        Color color;
+        Color nullColor;
+        String string;
+        String nullString;
+        Nested nested;
+        Nested nullNested;
+        Object object;
+        Object nullObject;
+
+        // Not serialized
+        transient int skipped;
+        final int constant = 5;
+        static int shared;
+    }
+
+    private boolean wasReadOnly;
+    private FieldSerializer serializer;
+
+    @Before
+    public void setUp()
+    {
+        // A server started by another test may have locked the registry
+        wasReadOnly = Serializer.isReadOnly();
+        Serializer.setReadOnly(false);
+        Serializer.registerClass(Nested.class, new FieldSerializer());
+        serializer = new FieldSerializer();
+        Serializer.registerClass(AllFields.class, serializer);
+    }
+
+    @After
+    public void tearDown()
+    {
+        Serializer.setReadOnly(wasReadOnly);
+    }
+
+    private static AllFields createFilled()
+    {
+        AllFields o = new AllFields();
+        o.z = true;
+        o.b = -7;
+        o.c = '\u20ac';
+        o.s = -1234;
+        o.i = Integer.MIN_VALUE + 3;
+        o.l = Long.MAX_VALUE - 11;
+        o.f = -1.5e-3f;
+        o.d = Math.PI;
+        o.boxedZ = Boolean.FALSE;
+        o.boxedB = (byte)120;
+        o.boxedC = 'q';
+        o.boxedS = (short)31000;
+        o.boxedI = -42;
+        o.boxedL = 1L << 40;
+        o.boxedF = Float.NaN;
+        o.boxedD = Double.NEGATIVE_INFINITY;
+        o.color = Color.BLUE;
+        o.string = "fields";
+        o.nested = new Nested(9, "outer", new Nested(-1, null, null));
+        o.object = 17;
+        o.skipped = 99;
+        return o;
+    }
+
+    private byte[] write( AllFields o ) throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        serializer.writeObject(buffer, o);
+        buffer.flip();
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+
+    private AllFields read( byte[] data ) throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        AllFields result = serializer.readObject(buffer, AllFields.class);
+        assertFalse("Bytes left over", buffer.hasRemaining());
+        return result;
+    }
+
+    private static void assertSameFields( AllFields expected, AllFields actual )
+    {
+        assertEquals(expected.z, actual.z);
+        assertEquals(expected.b, actual.b);
+        assertEquals(expected.c, actual.c);
+        assertEquals(expected.s, actual.s);
+        assertEquals(expected.i, actual.i);
+        assertEquals(expected.l, actual.l);
+        assertEquals(Float.floatToIntBits(expected.f), Float.floatToIntBits(actual.f));
+        assertEquals(Double.doubleToLongBits(expected.d), Double.doubleToLongBits(actual.d));
+        assertEquals(expected.boxedZ, actual.boxedZ);
+        assertEquals(expected.boxedB, actual.boxedB);
+        assertEquals(expected.boxedC, actual.boxedC);
+        assertEquals(expected.boxedS, actual.boxedS);
+        assertEquals(expected.boxedI, actual.boxedI);
+        assertEquals(expected.boxedL, actual.boxedL);
+        assertEquals(expected.boxedF, actual.boxedF);
+        assertEquals(expected.boxedD, actual.boxedD);
+        assertEquals(expected.color, actual.color);
+        assertNull(actual.nullColor);
+        assertEquals(expected.string, actual.string);
+        assertNull(actual.nullString);
+        assertNull(actual.nullNested);
+        assertNull(actual.nullObject);
+        assertEquals(expected.object, actual.object);
+        if( expected.nested == null ) {
+            assertNull(actual.nested);
+        } else {
+            assertEquals(expected.nested.value, actual.nested.value);
+            assertEquals(expected.nested.name, actual.nested.name);
+            assertEquals(expected.nested.next.value, actual.nested.next.value);
+            assertNull(actual.nested.next.name);
+            assertNull(actual.nested.next.next);
+        }
+        assertEquals(0, actual.skipped);
+    }
+
+    private void checkBothPaths( AllFields o ) throws Exception
+    {
+        serializer.initialize(AllFields.class, true);
+        byte[] handles = write(o);
+
+        serializer.initialize(AllFields.class, false);
+        byte[] reflected = write(o);
+
+        assertTrue("Bytes differ:\n" + Arrays.toString(handles) + "\n" + Arrays.toString(reflected),
+                   Arrays.equals(handles, reflected));
+
+        // Each path reads what the other wrote
+        assertSameFields(o, read(handles));
+        serializer.initialize(AllFields.class, true);
+        assertSameFields(o, read(reflected));
+    }
+
+    @Test
+    public void testFilledFields() throws Exception
+    {
+        checkBothPaths(createFilled());
+    }
+
+    @Test
+    public void testDefaultFields() throws Exception
+    {
+        checkBothPaths(new AllFields());
+    }
+
+    @Test
+    public void testNullObject() throws Exception
+    {
+        serializer.initialize(AllFields.class, true);
+        byte[] handles = write(null);
+        serializer.initialize(AllFields.class, false);
+        byte[] reflected = write(null);
+        assertArrayEquals(new byte[] { 0 }, handles);
+        assertArrayEquals(handles, reflected);
+        assertNull(read(handles));
+    }
+}
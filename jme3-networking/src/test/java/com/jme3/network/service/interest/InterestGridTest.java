@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.interest;
+
+import static org.junit.Assert.*;
+
+import com.jme3.math.Vector3f;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+
+/**
+ *  Checks the queries of InterestGrid against a brute force search,
+ *  both when the cells around the position are visited and when the
+ *  grid is sparse enough that all populated cells are checked.
+ *
+ *  @version   $Revision$
+ */
+public class InterestGridTest
+{
+    private static final float CELL_SIZE = 10;
+
+    /**
+     *  Fills cells far from the origin so that queries of up to the
+     *  specified cell radius visit the cells around the position.
+     */
+    private static void addFiller( InterestGrid<String> grid, int cellRadius )
+    {
+        int side = 2 * cellRadius + 1;
+        int count = side * side * side;
+        for( int i = 0; i < count; i++ ) {
+            grid.set("filler" + i, new Vector3f(100000 + i * CELL_SIZE, 0, 0));
+        }
+    }
+
+    private static Set<String> query( InterestGrid<String> grid, Vector3f pos, float radius )
+    {
+        Set<String> result = grid.query(pos, radius, new HashSet<String>());
+        for( String s : result.toArray(new String[result.size()]) ) {
+            if( s.startsWith("filler") ) {
+                result.remove(s);
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> set( String... items )
+    {
+        Set<String> result = new HashSet<String>();
+        for( String s : items ) {
+            result.add(s);
+        }
+        return result;
+    }
+
+    private void checkRadiusBoundary( InterestGrid<String> grid )
+    {
+        grid.set("center", new Vector3f(5, 5, 5));
+        grid.set("edge", new Vector3f(5 + 12, 5, 5));
+        grid.set("outside", new Vector3f(5 + 12.01f, 5, 5));
+        grid.set("diagonal", new Vector3f(5 + 6, 5 + 6, 5 + 6));
+        grid.set("corner", new Vector3f(5 + 7, 5 + 7, 5 + 7));
+
+        Vector3f pos = new Vector3f(5, 5, 5);
+        // Items exactly on the radius are included
+        assertEquals(set("center", "edge", "diagonal"), query(grid, pos, 12));
+        assertEquals(set("center"), query(grid, pos, 0));
+        assertEquals(set("center", "edge", "outside", "diagonal", "corner"), query(grid, pos, 13));
+    }
+
+    @Test
+    public void testRadiusBoundarySparse()
+    {
+        checkRadiusBoundary(new InterestGrid<String>(CELL_SIZE));
+    }
+
+    @Test
+    public void testRadiusBoundaryDense()
+    {
+        InterestGrid<String> grid = new InterestGrid<String>(CELL_SIZE);
+        addFiller(grid, 2);
+        checkRadiusBoundary(grid);
+    }
+
+    private void checkNegativeCoordinates( InterestGrid<String> grid )
+    {
+        grid.set("a", new Vector3f(-0.5f, -0.5f, -0.5f));
+        grid.set("b", new Vector3f(0.5f, 0.5f, 0.5f));
+        grid.set("c", new Vector3f(-10, 0, 0));
+        grid.set("d", new Vector3f(-10.01f, 0, 0));
+        grid.set("e", new Vector3f(-25, -25, -25));
+
+        // Across the origin, where floor() and truncation differ
+        assertEquals(set("a", "b"), query(grid, new Vector3f(0, 0, 0), 1));
+        assertEquals(set("a", "c", "d"), query(grid, new Vector3f(-5, 0, 0), 5.02f));
+        assertEquals(set("c"), query(grid, new Vector3f(-9.9f, 0, 0), 0.105f));
+        assertEquals(set("d"), query(grid, new Vector3f(-10.1f, 0, 0), 0.095f));
+        assertEquals(set("e"), query(grid, new Vector3f(-20, -20, -20), 9));
+        assertEquals(new Vector3f(-10.01f, 0, 0), grid.get("d"));
+    }
+
+    @Test
+    public void testNegativeCoordinatesSparse()
+    {
+        checkNegativeCoordinates(new InterestGrid<String>(CELL_SIZE));
+    }
+
+    @Test
+    public void testNegativeCoordinatesDense()
+    {
+        InterestGrid<String> grid = new InterestGrid<String>(CELL_SIZE);
+        addFiller(grid, 2);
+        checkNegativeCoordinates(grid);
+    }
+
+    private void checkMoves( InterestGrid<String> grid )
+    {
+        Vector3f here = new Vector3f(1, 1, 1);
+        Vector3f there = new Vector3f(-35, 1, 1);
+        int size = grid.size();
+
+        grid.set("item", new Vector3f(2, 2, 2));
+        assertEquals(size + 1, grid.size());
+        assertEquals(set("item"), query(grid, here, 5));
+
+        // Within the same cell
+        grid.set("item", new Vector3f(8, 2, 2));
+        assertEquals(set(), query(grid, here, 5));
+        assertEquals(set("item"), query(grid, here, 8));
+
+        // To another cell
+        grid.set("item", new Vector3f(-34, 2, 2));
+        assertEquals(size + 1, grid.size());
+        assertEquals(set(), query(grid, here, 20));
+        assertEquals(set("item"), query(grid, there, 2));
+
+        // And back, sharing the cell with another item
+        grid.set("other", new Vector3f(3, 3, 3));
+        grid.set("item", new Vector3f(2, 2, 2));
+        assertEquals(set("item", "other"), query(grid, here, 5));
+        assertEquals(set(), query(grid, there, 2));
+
+        assertTrue(grid.remove("item"));
+        assertFalse(grid.remove("item"));
+        assertNull(grid.get("item"));
+        assertEquals(set("other"), query(grid, here, 5));
+        assertTrue(grid.remove("other"));
+        assertEquals(size, grid.size());
+        assertEquals(set(), query(grid, here, 50));
+    }
+
+    @Test
+    public void testMovesSparse()
+    {
+        checkMoves(new InterestGrid<String>(CELL_SIZE));
+    }
+
+    @Test
+    public void testMovesDense()
+    {
+        InterestGrid<String> grid = new InterestGrid<String>(CELL_SIZE);
+        addFiller(grid, 5);
+        checkMoves(grid);
+    }
+
+    @Test
+    public void testMatchesBruteForce()
+    {
+        Random random = new Random(17);
+        InterestGrid<String> grid = new InterestGrid<String>(CELL_SIZE);
+        Map<String, Vector3f> positions = new HashMap<String, Vector3f>();
+        for( int step = 0; step < 2000; step++ ) {
+            String item = "item" + random.nextInt(300);
+            if( random.nextInt(10) == 0 ) {
+                grid.remove(item);
+                positions.remove(item);
+            } else {
+                Vector3f pos = new Vector3f(random.nextFloat() * 200 - 100,
+                                            random.nextFloat() * 40 - 20,
+                                            random.nextFloat() * 200 - 100);
+                grid.set(item, pos);
+                positions.put(item, pos);
+            }
+            assertEquals(positions.size(), grid.size());
+
+            if( step % 10 == 0 ) {
+                Vector3f center = new Vector3f(random.nextFloat() * 200 - 100,
+                                               random.nextFloat() * 40 - 20,
+                                               random.nextFloat() * 200 - 100);
+                // Small radii visit the cells, large ones the populated cells
+                float radius = random.nextFloat() * (step % 20 == 0 ? 100 : 15);
+                Set<String> expected = new HashSet<String>();
+                for( Map.Entry<String, Vector3f> e : positions.entrySet() ) {
+                    if( e.getValue().distanceSquared(center) <= radius * radius ) {
+                        expected.add(e.getKey());
+                    }
+                }
+                assertEquals(expected, query(grid, center, radius));
+            }
+        }
+    }
+
+    @Test
+    public void testHugeRadius()
+    {
+        InterestGrid<String> grid = new InterestGrid<String>(CELL_SIZE);
+        grid.set("a", new Vector3f(1e6f, 0, 0));
+        grid.set("b", new Vector3f(-1e6f, 0, 0));
+        // Far more cells than could ever be visited
+        assertEquals(set("a", "b"), query(grid, new Vector3f(), Float.MAX_VALUE / 2));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.state;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+
+/**
+ *  Round trips values through BitWriter and BitReader.
+ */
+public class BitWriterTest {
+
+    @Test
+    public void testByteLayout() {
+        BitWriter out = new BitWriter();
+        out.writeBits(5, 3);
+        out.writeBits(0xff, 8);
+        assertEquals(11, out.getBitCount());
+
+        // Most significant bit first, padded with zeros
+        assertArrayEquals(new byte[] { (byte)0xbf, (byte)0xe0 }, out.toByteArray());
+
+        BitReader in = new BitReader(out.toByteArray());
+        assertEquals(5, in.readBits(3));
+        assertEquals(0xff, in.readBits(8));
+        assertEquals(0, in.readBits(5));
+    }
+
+    @Test
+    public void testByteBoundaries() {
+        // Every width at every offset within a byte
+        for( int offset = 0; offset < 8; offset++ ) {
+            for( int count = 0; count <= 64; count++ ) {
+                long value = count == 64 ? 0x8123456789abcdefL : (0x8123456789abcdefL & ((1L << count) - 1));
+                BitWriter out = new BitWriter(1);
+                out.writeBits(0, offset);
+                out.writeBits(value, count);
+                out.writeBit(true);
+                assertEquals(offset + count + 1, out.getBitCount());
+
+                BitReader in = new BitReader(out.toByteArray());
+                assertEquals(0, in.readBits(offset));
+                assertEquals("offset:" + offset + " count:" + count, value, in.readBits(count));
+                assertTrue(in.readBit());
+            }
+        }
+    }
+
+    @Test
+    public void testRandomSequence() {
+        Random random = new Random(7);
+        int n = 2000;
+        int[] counts = new int[n];
+        long[] values = new long[n];
+        BitWriter out = new BitWriter(1);
+        for( int i = 0; i < n; i++ ) {
+            counts[i] = random.nextInt(65);
+            values[i] = counts[i] == 64 ? random.nextLong() : random.nextLong() & ((1L << counts[i]) - 1);
+            out.writeBits(values[i], counts[i]);
+        }
+        BitReader in = new BitReader(out.toByteArray());
+        for( int i = 0; i < n; i++ ) {
+            assertEquals(values[i], in.readBits(counts[i]));
+        }
+    }
+
+    @Test
+    public void testVarLong() {
+        long[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1 };
+        int[] bytes = { 1, 1, 1, 2, 2, 3, 5, 9, 10 };
+        for( int i = 0; i < values.length; i++ ) {
+            BitWriter out = new BitWriter();
+            out.writeBits(1, 3);
+            out.writeVarLong(values[i]);
+            assertEquals("value:" + values[i], 3 + bytes[i] * 8, out.getBitCount());
+
+            BitReader in = new BitReader(out.toByteArray());
+            assertEquals(1, in.readBits(3));
+            assertEquals(values[i], in.readVarLong());
+        }
+    }
+
+    @Test
+    public void testZigZag() {
+        // Small magnitudes of either sign stay small
+        long[] values = { 0, -1, 1, -64, 63, -65, 64, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                          Long.MIN_VALUE, Long.MAX_VALUE };
+        int[] bytes = { 1, 1, 1, 1, 1, 2, 2, 5, 5, 10, 10 };
+        BitWriter out = new BitWriter();
+        int bits = 0;
+        for( int i = 0; i < values.length; i++ ) {
+            out.writeSignedVarLong(values[i]);
+            bits += bytes[i] * 8;
+            assertEquals("value:" + values[i], bits, out.getBitCount());
+        }
+        BitReader in = new BitReader(out.toByteArray());
+        for( long v : values ) {
+            assertEquals(v, in.readSignedVarLong());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadPastEnd() {
+        BitWriter out = new BitWriter();
+        out.writeBits(3, 2);
+        BitReader in = new BitReader(out.toByteArray());
+        in.readBits(8);
+        in.readBit();
+    }
+}
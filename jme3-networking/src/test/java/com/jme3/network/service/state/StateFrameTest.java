@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.service.state;
+
+import static org.junit.Assert.*;
+
+import com.jme3.network.serializing.Serializable;
+import com.jme3.network.serializing.Serializer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ *  Round trips frames through StateFrame.writeDelta() and readDelta().
+ */
+public class StateFrameTest {
+
+    public enum Mode { Idle, Walk, Run }
+
+    @Serializable
+    public static class TestState {
+        boolean flag;
+        byte b;
+        char c;
+        short s;
+        int i;
+        long l;
+        float f;
+        double d;
+        Mode mode;
+        transient int ignored;
+    }
+
+    private Map<Integer, Object> objects;
+    private int sequence;
+
+    @Before
+    public void setUp() {
+        Serializer.registerClass(TestState.class);
+        objects = new TreeMap<Integer, Object>();
+        sequence = 0;
+    }
+
+    private TestState add( int id ) {
+        TestState state = new TestState();
+        state.i = id * 10;
+        state.f = id * 0.5f;
+        objects.put(id, state);
+        return state;
+    }
+
+    private TestState get( int id ) {
+        return (TestState)objects.get(id);
+    }
+
+    private StateFrame capture( StateFrame previous ) {
+        return StateFrame.capture(sequence++, objects, previous);
+    }
+
+    private static byte[] write( StateFrame base, StateFrame frame ) {
+        BitWriter out = new BitWriter();
+        StateFrame.writeDelta(out, base, frame);
+        return out.toByteArray();
+    }
+
+    private static StateFrame read( byte[] data, StateFrame base, StateFrame frame ) {
+        return StateFrame.readDelta(new BitReader(data), frame.getSequence(), base);
+    }
+
+    private static void assertFrame( StateFrame expected, StateFrame actual ) {
+        assertEquals(expected.getSequence(), actual.getSequence());
+        assertEquals(expected.size(), actual.size());
+        for( int i = 0; i < expected.size(); i++ ) {
+            assertEquals(expected.getId(i), actual.getId(i));
+            assertSame(expected.getType(i), actual.getType(i));
+            assertTrue("object:" + expected.getId(i),
+                       Arrays.equals(expected.getValues(i), actual.getValues(i)));
+        }
+    }
+
+    @Test
+    public void testFullFrame() {
+        add(1).mode = Mode.Run;
+        add(5).flag = true;
+        TestState state = add(300);
+        state.l = Long.MIN_VALUE;
+        state.d = -Double.MAX_VALUE;
+        state.c = Character.MAX_VALUE;
+        state.s = Short.MIN_VALUE;
+        state.b = -1;
+        StateFrame frame = capture(null);
+
+        BitWriter out = new BitWriter();
+        assertEquals(3, StateFrame.writeDelta(out, null, frame));
+        assertFrame(frame, read(out.toByteArray(), null, frame));
+
+        // Objects can be recreated from the frame
+        TestState copy = (TestState)frame.getType(2).newInstance();
+        frame.getType(2).setState(copy, frame.getValues(2));
+        assertEquals(Long.MIN_VALUE, copy.l);
+        assertEquals(-Double.MAX_VALUE, copy.d, 0);
+        assertEquals(Character.MAX_VALUE, copy.c);
+        assertEquals(Short.MIN_VALUE, copy.s);
+        assertEquals(-1, copy.b);
+    }
+
+    @Test
+    public void testDeltaAgainstBaseline() {
+        for( int id = 1; id <= 20; id++ ) {
+            add(id);
+        }
+        StateFrame base = capture(null);
+
+        get(3).i -= 1000;
+        get(3).flag = true;
+        get(7).mode = Mode.Walk;
+        get(7).l = Long.MAX_VALUE;
+        objects.remove(10);
+        add(25);
+        StateFrame frame = capture(base);
+
+        // Unchanged objects share their state with the previous frame
+        assertSame(base.getValues(0), frame.getValues(0));
+
+        BitWriter out = new BitWriter();
+        assertEquals(4, StateFrame.writeDelta(out, base, frame));
+        byte[] delta = out.toByteArray();
+        assertFrame(frame, read(delta, base, frame));
+
+        // Only the changes are written
+        byte[] full = write(null, frame);
+        assertTrue(delta.length + " < " + full.length, delta.length * 4 < full.length);
+        assertFrame(frame, read(full, null, frame));
+    }
+
+    @Test
+    public void testNoChanges() {
+        add(1);
+        add(2);
+        StateFrame base = capture(null);
+        StateFrame frame = capture(base);
+
+        BitWriter out = new BitWriter();
+        assertEquals(0, StateFrame.writeDelta(out, base, frame));
+        assertEquals(1, out.getBitCount());
+        assertFrame(frame, read(out.toByteArray(), base, frame));
+    }
+
+    @Test
+    public void testTypeChange() {
+        add(1);
+        StateFrame base = capture(null);
+
+        // Same ID but a different class is sent as a new object
+        objects.put(1, new OtherState());
+        Serializer.registerClass(OtherState.class);
+        StateFrame frame = capture(base);
+        assertFrame(frame, read(write(base, frame), base, frame));
+    }
+
+    @Test
+    public void testRebaselineAfterDrop() {
+        for( int id = 1; id <= 5; id++ ) {
+            add(id);
+        }
+        StateFrame acked = capture(null);
+        StateFrame client = read(write(null, acked), null, acked);
+
+        // Frame 1 is lost so the client stays on frame 0
+        get(2).i++;
+        objects.remove(4);
+        StateFrame lost = capture(acked);
+        write(acked, lost);
+
+        // Frame 2 is still built against the acknowledged frame
+        get(2).i++;
+        get(5).f = 42;
+        add(6);
+        StateFrame frame = capture(lost);
+        StateFrame received = read(write(acked, frame), client, frame);
+        assertFrame(frame, received);
+
+        // Once the acknowledged frame is gone a full frame replaces
+        // whatever the client had
+        objects.remove(1);
+        get(3).mode = Mode.Idle;
+        StateFrame next = capture(frame);
+        assertFrame(next, read(write(null, next), null, next));
+        assertFrame(next, read(write(frame, next), received, next));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUpdateWithoutBaseline() {
+        add(1);
+        StateFrame base = capture(null);
+        get(1).i++;
+        StateFrame frame = capture(base);
+        read(write(base, frame), null, frame);
+    }
+
+    @Serializable
+    public static class OtherState {
+        int value = 3;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.stats;
+
+import static org.junit.Assert.*;
+
+import com.jme3.network.MessageConnection;
+import org.junit.Test;
+
+
+/**
+ *  Checks the counters of ConnectionStats, combining them and
+ *  the smoothing of the round trip times.
+ *
+ *  @version   $Revision$
+ */
+public class ConnectionStatsTest
+{
+    private static final int RELIABLE = MessageConnection.CHANNEL_DEFAULT_RELIABLE;
+    private static final int UNRELIABLE = MessageConnection.CHANNEL_DEFAULT_UNRELIABLE;
+
+    @Test
+    public void testCounters()
+    {
+        ConnectionStats stats = new ConnectionStats();
+        assertEquals(0, stats.getMessagesSent());
+        assertTrue(stats.getChannels().isEmpty());
+        assertNull(stats.getMessageType((short)5));
+
+        stats.messageSent(RELIABLE, (short)5, 100);
+        stats.messageSent(RELIABLE, (short)5, 20);
+        stats.messageSent(UNRELIABLE, (short)6, 50);
+        stats.messageSent(0, (short)5, 1000);
+        stats.messageReceived(UNRELIABLE, (short)6, 40);
+        stats.messageReceived(UNRELIABLE, (short)7, 3);
+
+        assertEquals(4, stats.getMessagesSent());
+        assertEquals(1170, stats.getBytesSent());
+        assertEquals(2, stats.getMessagesReceived());
+        assertEquals(43, stats.getBytesReceived());
+
+        // One entry per channel up to the highest one used
+        assertEquals(3, stats.getChannels().size());
+        ChannelStats reliable = stats.getChannel(RELIABLE);
+        assertEquals(RELIABLE, reliable.getChannel());
+        assertEquals(2, reliable.getMessagesSent());
+        assertEquals(120, reliable.getBytesSent());
+        assertEquals(0, reliable.getMessagesReceived());
+        ChannelStats unreliable = stats.getChannel(UNRELIABLE);
+        assertEquals(1, unreliable.getMessagesSent());
+        assertEquals(2, unreliable.getMessagesReceived());
+        assertEquals(43, unreliable.getBytesReceived());
+        assertEquals(1000, stats.getChannel(0).getBytesSent());
+
+        // Per message type histograms
+        assertEquals(3, stats.getMessageTypes().size());
+        MessageTypeStats type5 = stats.getMessageType((short)5);
+        assertEquals(3, type5.getSent().getCount());
+        assertEquals(1120, type5.getSent().getTotal());
+        assertEquals(0, type5.getReceived().getCount());
+        MessageTypeStats type6 = stats.getMessageType((short)6);
+        assertEquals(1, type6.getSent().getCount());
+        assertEquals(1, type6.getReceived().getCount());
+        assertEquals(40, type6.getReceived().getTotal());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUndefinedChannel()
+    {
+        new ConnectionStats().messageSent(RELIABLE - 1, (short)1, 10);
+    }
+
+    @Test
+    public void testQueueDepth()
+    {
+        ConnectionStats stats = new ConnectionStats();
+        stats.messageSent(RELIABLE, (short)1, 10);
+        assertEquals(0, stats.getQueueDepth(RELIABLE));
+
+        stats.setQueueMonitor(new ConnectionStats.QueueMonitor() {
+                public int getQueueDepth( int channel )
+                {
+                    return channel == RELIABLE ? 7 : 3;
+                }
+            });
+        assertEquals(7, stats.getQueueDepth(RELIABLE));
+        assertEquals(3, stats.getQueueDepth(UNRELIABLE));
+
+        // Combined stats keep the depths at the time they were combined
+        ConnectionStats total = new ConnectionStats();
+        stats.addCountsTo(total);
+        assertEquals(7, total.getQueueDepth(RELIABLE));
+        stats.setQueueMonitor(null);
+        assertEquals(7, total.getQueueDepth(RELIABLE));
+    }
+
+    @Test
+    public void testRoundTripSmoothing()
+    {
+        ConnectionStats stats = new ConnectionStats();
+        assertEquals(-1, stats.getRoundTripTime(), 0);
+        assertEquals(-1, stats.getLastRoundTripTime(), 0);
+        assertEquals(0, stats.getRoundTripSamples());
+
+        // The first sample sets the estimate, RFC 6298 2.2
+        stats.addRoundTripSample(100);
+        assertEquals(100, stats.getRoundTripTime(), 1e-9);
+        assertEquals(50, stats.getRoundTripVariance(), 1e-9);
+        assertEquals(100, stats.getLastRoundTripTime(), 1e-9);
+        assertEquals(1, stats.getRoundTripSamples());
+
+        // Later ones are blended in, RFC 6298 2.3
+        stats.addRoundTripSample(20);
+        double rttvar = 0.75 * 50 + 0.25 * 80;
+        double srtt = 0.875 * 100 + 0.125 * 20;
+        assertEquals(srtt, stats.getRoundTripTime(), 1e-9);
+        assertEquals(rttvar, stats.getRoundTripVariance(), 1e-9);
+        assertEquals(20, stats.getLastRoundTripTime(), 1e-9);
+        assertEquals(2, stats.getRoundTripSamples());
+
+        // And a steady round trip time converges to it
+        for( int i = 0; i < 200; i++ ) {
+            stats.addRoundTripSample(40);
+        }
+        assertEquals(40, stats.getRoundTripTime(), 1e-6);
+        assertEquals(0, stats.getRoundTripVariance(), 1e-6);
+        assertEquals(202, stats.getRoundTripSamples());
+    }
+
+    @Test
+    public void testAddTo()
+    {
+        ConnectionStats a = new ConnectionStats();
+        a.messageSent(RELIABLE, (short)1, 10);
+        a.messageReceived(UNRELIABLE, (short)2, 5);
+        a.addRoundTripSample(100);
+
+        ConnectionStats b = new ConnectionStats();
+        b.messageSent(RELIABLE, (short)1, 30);
+        b.messageSent(1, (short)3, 7);
+        b.addRoundTripSample(50);
+        b.addRoundTripSample(50);
+
+        // Never measured, leaves the round trip average alone
+        ConnectionStats c = new ConnectionStats();
+        c.messageReceived(RELIABLE, (short)2, 1);
+
+        ConnectionStats total = new ConnectionStats();
+        a.addTo(total);
+        b.addTo(total);
+        c.addTo(total);
+
+        assertEquals(3, total.getMessagesSent());
+        assertEquals(47, total.getBytesSent());
+        assertEquals(2, total.getMessagesReceived());
+        assertEquals(6, total.getBytesReceived());
+        assertEquals(2, total.getChannel(RELIABLE).getMessagesSent());
+        assertEquals(1, total.getChannel(1).getMessagesSent());
+        assertEquals(2, total.getMessageType((short)1).getSent().getCount());
+        assertEquals(40, total.getMessageType((short)1).getSent().getTotal());
+        assertEquals(2, total.getMessageType((short)2).getReceived().getCount());
+
+        // The average of the stats that have a measurement
+        assertEquals(2, total.getRoundTripSamples());
+        assertEquals((100 + 50) / 2.0, total.getRoundTripTime(), 1e-9);
+        assertEquals((100 + 50) / 2.0, total.getLastRoundTripTime(), 1e-9);
+
+        // Counts only, as used for the closed connections
+        ConnectionStats counts = new ConnectionStats();
+        a.addCountsTo(counts);
+        assertEquals(1, counts.getMessagesSent());
+        assertEquals(-1, counts.getRoundTripTime(), 0);
+        assertEquals(0, counts.getRoundTripSamples());
+
+        // The sources are unchanged
+        assertEquals(1, a.getMessagesSent());
+        assertEquals(100, a.getRoundTripTime(), 1e-9);
+    }
+}
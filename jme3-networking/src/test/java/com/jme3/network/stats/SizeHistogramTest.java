@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.network.stats;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+
+/**
+ *  Checks the bucket bounds of SizeHistogram.
+ *
+ *  @version   $Revision$
+ */
+public class SizeHistogramTest
+{
+    @Test
+    public void testBucketBounds()
+    {
+        SizeHistogram histogram = new SizeHistogram();
+        int last = histogram.getBucketCount() - 1;
+        assertEquals(0, histogram.getBucketMin(0));
+        assertEquals(15, histogram.getBucketMax(0));
+        assertEquals(32768, histogram.getBucketMin(last));
+        assertEquals(Integer.MAX_VALUE, histogram.getBucketMax(last));
+
+        for( int bucket = 0; bucket <= last; bucket++ ) {
+            int min = histogram.getBucketMin(bucket);
+            int max = histogram.getBucketMax(bucket);
+            assertEquals(bucket, SizeHistogram.getBucket(min));
+            assertEquals(bucket, SizeHistogram.getBucket(max));
+            if( bucket < last ) {
+                assertEquals(max + 1, histogram.getBucketMin(bucket + 1));
+            }
+        }
+        assertEquals(last, SizeHistogram.getBucket(65536));
+    }
+
+    @Test
+    public void testPercentile()
+    {
+        SizeHistogram histogram = new SizeHistogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+        for( int i = 0; i < 99; i++ ) {
+            histogram.record(10);
+        }
+        histogram.record(40000);
+        assertEquals(100, histogram.getCount());
+        assertEquals(99 * 10 + 40000, histogram.getTotal());
+        assertEquals(15, histogram.getPercentile(0.5));
+        assertEquals(15, histogram.getPercentile(0.99));
+        assertEquals(Integer.MAX_VALUE, histogram.getPercentile(1));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.terrain.geomipmap;
+
+import com.jme3.scene.mesh.IndexBuffer;
+import java.nio.Buffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares the index buffers of terrain patches between LOD updates
+ * and between patches.
+ * The indexes of a patch only depend on its width, its LOD and the LOD
+ * of its neighbours, so every patch with the same combination can use
+ * the same buffer. After the first few updates the LOD threads mostly
+ * look buffers up here instead of generating them.
+ * <p>
+ * The buffers handed out are shared and must not be modified.
+ * The cache is thread safe.
+ */
+public class LodIndexBufferCache {
+
+    private static final LodIndexBufferCache shared = new LodIndexBufferCache(1024);
+
+    private final ConcurrentMap<Key, Buffer> buffers = new ConcurrentHashMap<Key, Buffer>();
+    private final int maxEntries;
+
+    /**
+     * @param maxEntries the number of buffers to keep, once full new
+     * combinations are generated every time they are needed
+     */
+    public LodIndexBufferCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return the cache used by all terrain patches
+     */
+    public static LodIndexBufferCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Returns the index buffer for a patch whose neighbours with a lower
+     * detail are stitched to it.
+     *
+     * @see LODGeomap#writeIndexArrayLodDiff(int, boolean, boolean, boolean, boolean, int)
+     */
+    public Buffer getLodDiff(LODGeomap geomap, int lod, boolean right, boolean top, boolean left, boolean bottom, int totalSize) {
+        Key key = new Key(geomap.getWidth(), lod, right ? 1 : 0, top ? 1 : 0, left ? 1 : 0, bottom ? 1 : 0, false);
+        Buffer b = buffers.get(key);
+        if (b == null) {
+            b = store(key, geomap.writeIndexArrayLodDiff(lod, right, top, left, bottom, totalSize));
+        }
+        return b;
+    }
+
+    /**
+     * Returns the index buffer for a patch stitched to neighbours of
+     * any LOD.
+     *
+     * @see LODGeomap#writeIndexArrayLodVariable(int, int, int, int, int, int)
+     */
+    public Buffer getLodVariable(LODGeomap geomap, int lod, int right, int top, int left, int bottom, int totalSize) {
+        Key key = new Key(geomap.getWidth(), lod, right, top, left, bottom, true);
+        Buffer b = buffers.get(key);
+        if (b == null) {
+            b = store(key, geomap.writeIndexArrayLodVariable(lod, right, top, left, bottom, totalSize));
+        }
+        return b;
+    }
+
+    private Buffer store(Key key, IndexBuffer generated) {
+        Buffer b = generated.getBuffer();
+        if (buffers.size() >= maxEntries) {
+            return b;
+        }
+        Buffer existing = buffers.putIfAbsent(key, b);
+        return existing != null ? existing : b;
+    }
+
+    /**
+     * @return the number of buffers kept
+     */
+    public int size() {
+        return buffers.size();
+    }
+
+    /**
+     * Drops all kept buffers.
+     */
+    public void clear() {
+        buffers.clear();
+    }
+
+    private static final class Key {
+        private final int width, lod, right, top, left, bottom;
+        private final boolean variable;
+
+        Key(int width, int lod, int right, int top, int left, int bottom, boolean variable) {
+            this.width = width;
+            this.lod = lod;
+            this.right = right;
+            this.top = top;
+            this.left = left;
+            this.bottom = bottom;
+            this.variable = variable;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return width == k.width && lod == k.lod && right == k.right && top == k.top
+                    && left == k.left && bottom == k.bottom && variable == k.variable;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = width;
+            h = 31 * h + lod;
+            h = 31 * h + right;
+            h = 31 * h + top;
+            h = 31 * h + left;
+            h = 31 * h + bottom;
+            return 31 * h + (variable ? 1 : 0);
+        }
+    }
+}
@@ -125,11 +125,10 @@ public class MultiTerrainLodControl extends TerrainLodControl {
             setLodCalcRunning(true);
 
             HashMap<String, UpdatedTerrainPatch> updated = new HashMap<String, UpdatedTerrainPatch>();
+            List<TerrainQuad> quads = splitForWorkers(terrains);
 
-            for (TerrainQuad terrainQuad : terrains) {
-                // go through each patch and calculate its LOD based on camera distance
-                terrainQuad.hasLodChanged(camLocations, updated, lodCalculator); // 'updated' gets populated here
-            }
+            // go through each patch and calculate its LOD based on camera distance
+            calculateLod(quads, camLocations, lodCalculator, updated); // 'updated' gets populated here
 
             for (TerrainQuad terrainQuad : terrains) {
                 // then calculate the neighbour LOD values for seaming
@@ -141,10 +140,8 @@ public class MultiTerrainLodControl extends TerrainLodControl {
                 terrainQuad.fixEdges(updated);
             }
 
-            for (TerrainQuad terrainQuad : terrains) {
-                // perform the edge seaming, if it requires it
-                terrainQuad.reIndexPages(updated, lodCalculator.usesVariableLod());
-            }
+            // perform the edge seaming, if it requires it
+            reIndexPages(quads, updated, lodCalculator.usesVariableLod());
 
             //setUpdateQuadLODs(updated); // set back to main ogl thread
             setLodCalcRunning(false);
@@ -46,14 +46,19 @@ import com.jme3.terrain.Terrain;
 import com.jme3.terrain.heightmap.HeightMap;
 import com.jme3.terrain.heightmap.HeightMapGrid;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -69,7 +74,8 @@ import java.util.logging.Logger;
  * TerrainGrid will piggyback on the TerrainLodControl so it can use the camera for its
  * updates as well. It does this in the overwritten update() method.
  * </p><p>
- * It uses an LRU (Least Recently Used) cache of 16 terrain tiles (full TerrainQuadTrees). The
+ * It uses an LRU (Least Recently Used) cache of terrain tiles (full TerrainQuadTrees), limited
+ * by the memory of the tiles. 16 tiles around the camera are kept loaded, the
  * center 4 are the ones that are visible. As the camera moves, it checks what camera cell it is in
  * and will attach the now visible tiles.
  * </p><p>
@@ -96,6 +102,10 @@ import java.util.logging.Logger;
  * The tile loading is done on a background thread, and once the tile is loaded, then it is
  * attached to the qrid quad tree, back on the OGL thread. It will grab the terrain quad from
  * the LRU cache if it exists. If it does not exist, it will load in the new TerrainQuad tile.
+ * Tiles are loaded in parallel on a pool of loader threads.
+ * </p><p>
+ * While the camera moves, the tiles around the cell it is heading to are loaded ahead of time,
+ * see {@link #setPrefetchRadius(int) } and {@link #setPrefetchTime(float) }.
  * </p><p>
  * The loading of new tiles triggers events for any TerrainGridListeners. The events are:
  * <ul>
@@ -119,12 +129,64 @@ public class TerrainGrid extends TerrainQuad {
     protected Vector3f[] quadIndex;
     protected Set<TerrainGridListener> listeners = new HashSet<TerrainGridListener>();
     protected Material material;
-    //cache  needs to be 1 row (4 cells) larger than what we care is cached
-    protected LRUCache<Vector3f, TerrainQuad> cache = new LRUCache<Vector3f, TerrainQuad>(20);
+    //cache needs room for the 16 loaded tiles plus the prefetched ones
+    protected TerrainTileCache tileCache = new TerrainTileCache(Long.MAX_VALUE);
+    /**
+     * @deprecated The tiles are kept in {@link #tileCache}, this is a view
+     * of it for subclasses that still use the LRUCache API. Replacing it has
+     * no effect, use {@link #setCacheBudget(long)} to size the cache.
+     */
+    @Deprecated
+    protected LRUCache<Vector3f, TerrainQuad> cache = new TileCacheView();
+    private boolean cacheBudgetSet = false;
     protected int cellsLoaded = 0;
     protected int[] gridOffset;
     protected boolean runOnce = false;
     protected ExecutorService cacheExecutor;
+    protected ExecutorService tileLoaderExecutor;
+    private final ConcurrentMap<Vector3f, Future<TerrainQuad>> loading = new ConcurrentHashMap<Vector3f, Future<TerrainQuad>>();
+    // guards the lazy creation of the loader pool and the default cache
+    // budget, tiles are requested from the render and the cache threads
+    private final Object loaderLock = new Object();
+    private int loaderThreads = 1;
+    private int prefetchRadius = 1;
+    private float prefetchTime = 2f;
+    private Vector3f lastPrefetchCell;
+
+    /**
+     * Gives the LRUCache API to the tile cache.
+     */
+    private class TileCacheView extends LRUCache<Vector3f, TerrainQuad> {
+
+        TileCacheView() {
+            super(1);
+        }
+
+        @Override
+        public TerrainQuad get(Vector3f key) {
+            return tileCache.get(key);
+        }
+
+        @Override
+        public void put(Vector3f key, TerrainQuad value) {
+            tileCache.put(key, value);
+        }
+
+        @Override
+        public void clear() {
+            tileCache.clear();
+        }
+
+        @Override
+        public int usedEntries() {
+            return tileCache.usedEntries();
+        }
+
+        @Override
+        public Collection<Map.Entry<Vector3f, TerrainQuad>> getAll() {
+            return tileCache.getAll();
+        }
+    }
 
     protected class UpdateQuadCache implements Runnable {
 
@@ -144,26 +206,39 @@ public class TerrainGrid extends TerrainQuad {
          * neighbours).
          */
         public void run() {
+            // start loading every missing tile, the visible ones first
+            Future<TerrainQuad>[] pending = new Future[16];
+            for (int quadIdx = 0; quadIdx < 16; quadIdx++) {
+                if (isCenter(quadIdx))
+                    pending[quadIdx] = requestTile(location.add(quadIndex[quadIdx]));
+            }
+            for (int quadIdx = 0; quadIdx < 16; quadIdx++) {
+                if (!isCenter(quadIdx))
+                    pending[quadIdx] = requestTile(location.add(quadIndex[quadIdx]));
+            }
+
             for (int i = 0; i < 4; i++) {
                 for (int j = 0; j < 4; j++) {
                     int quadIdx = i * 4 + j;
                     final Vector3f quadCell = location.add(quadIndex[quadIdx]);
-                    TerrainQuad q = cache.get(quadCell);
-                    if (q == null) {
-                        if (heightMapGrid != null) {
-                            // create the new Quad since it doesn't exist
-                            HeightMap heightMapAt = heightMapGrid.getHeightMapAt(quadCell);
-                            q = new TerrainQuad(getName() + "Quad" + quadCell, patchSize, quadSize, heightMapAt == null ? null : heightMapAt.getHeightMap());
-                            q.setMaterial(material.clone());
-                            log.log(Level.FINE, "Loaded TerrainQuad {0} from HeightMapGrid", q.getName());
-                        } else if (gridTileLoader != null) {
-                            q = gridTileLoader.getTerrainQuadAt(quadCell);
-                            // only clone the material to the quad if it doesn't have a material of its own
-                            if(q.getMaterial()==null) q.setMaterial(material.clone());
-                            log.log(Level.FINE, "Loaded TerrainQuad {0} from TerrainQuadGrid", q.getName());
+                    TerrainQuad q = tileCache.get(quadCell);
+                    if (q == null && pending[quadIdx] == null) {
+                        // dropped from the cache since it was requested
+                        pending[quadIdx] = requestTile(quadCell);
+                    }
+                    if (q == null && pending[quadIdx] != null) {
+                        try {
+                            q = pending[quadIdx].get();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (ExecutionException ex) {
+                            log.log(Level.SEVERE, "Could not load TerrainQuad at " + quadCell, ex.getCause());
+                            continue;
                         }
                     }
-                    cache.put(quadCell, q);
+                    if (q == null)
+                        continue;
 
                     
                     final int quadrant = getQuadrant(quadIdx);
@@ -211,6 +286,108 @@ public class TerrainGrid extends TerrainQuad {
         }
     }
 
+    /**
+     * Starts loading the tile at the cell on the loader threads, unless it
+     * is cached or already being loaded. The loaded tile is put in the tileCache.
+     * @return the pending tile, or null if it is cached
+     */
+    protected Future<TerrainQuad> requestTile(final Vector3f cell) {
+        Future<TerrainQuad> pending = loading.get(cell);
+        if (pending != null)
+            return pending;
+        if (tileCache.get(cell) != null)
+            return null;
+
+        final Vector3f key = cell.clone();
+        FutureTask<TerrainQuad> task = new FutureTask<TerrainQuad>(new Callable<TerrainQuad>() {
+            public TerrainQuad call() throws Exception {
+                try {
+                    TerrainQuad q = loadTile(key);
+                    return q == null ? null : tileCache.putIfAbsent(key, q);
+                } finally {
+                    loading.remove(key);
+                }
+            }
+        });
+        pending = loading.putIfAbsent(key, task);
+        if (pending != null)
+            return pending;
+        if (tileCache.get(key) != null) {
+            // it finished loading in the meantime
+            loading.remove(key, task);
+            return null;
+        }
+
+        getTileLoaderExecutor().execute(task);
+        return task;
+    }
+
+    private ExecutorService getTileLoaderExecutor() {
+        synchronized (loaderLock) {
+            if (tileLoaderExecutor == null)
+                tileLoaderExecutor = createTileLoaderService();
+            return tileLoaderExecutor;
+        }
+    }
+
+    /**
+     * Loads the tile at the cell, runs on one of the loader threads.
+     */
+    protected TerrainQuad loadTile(Vector3f quadCell) {
+        TerrainQuad q = null;
+        if (heightMapGrid != null) {
+            // create the new Quad since it doesn't exist
+            HeightMap heightMapAt = heightMapGrid.getHeightMapAt(quadCell);
+            q = new TerrainQuad(getName() + "Quad" + quadCell, patchSize, quadSize, heightMapAt == null ? null : heightMapAt.getHeightMap());
+            q.setMaterial(material.clone());
+            log.log(Level.FINE, "Loaded TerrainQuad {0} from HeightMapGrid", q.getName());
+        } else if (gridTileLoader != null) {
+            q = gridTileLoader.getTerrainQuadAt(quadCell);
+            // only clone the material to the quad if it doesn't have a material of its own
+            if(q.getMaterial()==null) q.setMaterial(material.clone());
+            log.log(Level.FINE, "Loaded TerrainQuad {0} from TerrainQuadGrid", q.getName());
+        }
+        if (q != null) {
+            synchronized (loaderLock) {
+                if (!cacheBudgetSet && tileCache.getMaxBytes() == Long.MAX_VALUE) {
+                    // by default keep the loaded tiles plus a ring around them
+                    int side = 4 + 2 * Math.max(prefetchRadius, 1);
+                    tileCache.setMaxBytes(TerrainTileCache.estimateSize(q) * side * side);
+                }
+            }
+        }
+        return q;
+    }
+
+    /**
+     * Loads the tiles around the cell the camera will be in after
+     * the prefetch time, if it keeps its velocity.
+     * Called from the render thread.
+     */
+    protected void prefetch(Vector3f camLocation, Vector3f velocity) {
+        if (prefetchRadius <= 0 || !runOnce)
+            return;
+        Vector3f camCell = getCamCell(camLocation);
+        Vector3f aheadCell = getCamCell(velocity.mult(prefetchTime).addLocal(camLocation));
+        int dx = (int) FastMath.clamp(aheadCell.x - camCell.x, -prefetchRadius, prefetchRadius);
+        int dz = (int) FastMath.clamp(aheadCell.z - camCell.z, -prefetchRadius, prefetchRadius);
+        if (dx == 0 && dz == 0)
+            return;
+        aheadCell.set(camCell.x + dx, 0, camCell.z + dz);
+        if (aheadCell.equals(lastPrefetchCell))
+            return;
+        lastPrefetchCell = aheadCell;
+
+        // every cell on the way gets its surrounding tiles
+        int steps = Math.max(Math.abs(dx), Math.abs(dz));
+        Vector3f cell = new Vector3f();
+        for (int s = 1; s <= steps; s++) {
+            cell.set(camCell.x + Math.round(dx * s / (float) steps), 0, camCell.z + Math.round(dz * s / (float) steps));
+            for (Vector3f offset : quadIndex)
+                requestTile(cell.add(offset));
+        }
+    }
+
     protected boolean isCenter(int quadIndex) {
         return quadIndex == 9 || quadIndex == 5 || quadIndex == 10 || quadIndex == 6;
     }
@@ -319,7 +496,7 @@ public class TerrainGrid extends TerrainQuad {
             return null;
         Vector3f tileCell = getTileCell(worldLocation.setY(0));
         tileCell = new Vector3f(Math.round(tileCell.x), tileCell.y, Math.round(tileCell.z));
-        return cache.get(tileCell);
+        return tileCache.get(tileCell);
     }
     
     /**
@@ -328,7 +505,7 @@ public class TerrainGrid extends TerrainQuad {
      * @return the terrain tile at that location
      */
     public Terrain getTerrainAtCell(Vector3f cellCoordinate) {
-        return cache.get(cellCoordinate);
+        return tileCache.get(cellCoordinate);
     }
     
     /**
@@ -423,7 +600,7 @@ public class TerrainGrid extends TerrainQuad {
         // either way in one of the axes (say X or Y axis) then they are all touched.
         for (int i = yMin; i < yMax; i++) {
             for (int j = xMin; j < xMax; j++) {
-                cache.get(camCell.add(quadIndex[i * 4 + j]));
+                tileCache.get(camCell.add(quadIndex[i * 4 + j]));
             }
         }
         
@@ -462,6 +639,66 @@ public class TerrainGrid extends TerrainQuad {
         this.quadSize = quadSize;
     }
 
+    /**
+     * Sets how many bytes the cached tiles may use. By default the cache
+     * holds the loaded tiles and a ring of tiles around them.
+     */
+    public void setCacheBudget(long bytes) {
+        synchronized (loaderLock) {
+            cacheBudgetSet = true;
+            tileCache.setMaxBytes(bytes);
+        }
+    }
+
+    public long getCacheBudget() {
+        return tileCache.getMaxBytes();
+    }
+
+    public TerrainTileCache getCache() {
+        return tileCache;
+    }
+
+    /**
+     * Sets the number of threads that load tiles, has to be set before
+     * the first tiles are loaded. Defaults to 1.
+     * With more than one thread the {@link TerrainGridTileLoader} or
+     * {@link HeightMapGrid} is called from several threads at once, so
+     * only use more if it is thread safe.
+     */
+    public void setLoaderThreads(int loaderThreads) {
+        this.loaderThreads = Math.max(1, loaderThreads);
+    }
+
+    public int getLoaderThreads() {
+        return loaderThreads;
+    }
+
+    /**
+     * Sets how many camera cells ahead tiles are loaded while the camera
+     * is moving, 0 to only load tiles once the camera gets there.
+     * Defaults to 1.
+     */
+    public void setPrefetchRadius(int prefetchRadius) {
+        this.prefetchRadius = Math.max(0, prefetchRadius);
+    }
+
+    public int getPrefetchRadius() {
+        return prefetchRadius;
+    }
+
+    /**
+     * Sets how many seconds ahead of the camera's movement tiles are
+     * loaded, the faster it moves the further ahead that is, up to the
+     * prefetch radius. Defaults to 2 seconds.
+     */
+    public void setPrefetchTime(float prefetchTime) {
+        this.prefetchTime = prefetchTime;
+    }
+
+    public float getPrefetchTime() {
+        return prefetchTime;
+    }
+
     @Override
     public void adjustHeight(List<Vector2f> xz, List<Float> height) {
         Vector3f currentGridLocation = getCurrentCell().mult(getLocalScale()).multLocal(quadSize - 1);
@@ -487,12 +724,31 @@ public class TerrainGrid extends TerrainQuad {
         if (worldLocation == null)
             return null;
         Vector3f tileCell = getTileCell(worldLocation);
-        Terrain terrain = cache.get(tileCell);
+        Terrain terrain = tileCache.get(tileCell);
         if (terrain == null)
             return null; // terrain not loaded for that cell yet!
         return terrain.getMaterial(worldLocation);
     }
 
+    /**
+     * Creates the pool the tiles are loaded on.
+     */
+    protected ExecutorService createTileLoaderService() {
+        ThreadPoolExecutor ex = new ThreadPoolExecutor(loaderThreads, loaderThreads,
+                                    0L, TimeUnit.MILLISECONDS,
+                                    new LinkedBlockingQueue<Runnable>(),
+                                    new ThreadFactory() {
+            private int count = 0;
+            public Thread newThread(Runnable r) {
+                Thread th = new Thread(r);
+                th.setName("jME TerrainGrid Loader " + (++count));
+                th.setDaemon(true);
+                return th;
+            }
+        });
+        return ex;
+    }
+
     /**
      * This will print out any exceptions from the thread
      */
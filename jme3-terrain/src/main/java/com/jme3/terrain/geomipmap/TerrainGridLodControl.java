@@ -40,14 +40,34 @@ import java.util.List;
 /**
  * Updates grid offsets and cell positions.
  * As well as updating LOD.
+ * It also tracks the velocity of the camera so the grid can load
+ * the tiles it is heading to ahead of time.
  * 
  * @author sploreg
  */
 public class TerrainGridLodControl extends TerrainLodControl {
+
+    private Vector3f lastLocation;
+    private Vector3f velocity = new Vector3f();
+    private Vector3f moved = new Vector3f();
+    private float tpf;
     
     public TerrainGridLodControl(Terrain terrain, Camera camera) {
         super(terrain, camera);
     }
+
+    @Override
+    protected void controlUpdate(float tpf) {
+        this.tpf = tpf;
+        super.controlUpdate(tpf);
+    }
+
+    /**
+     * @return the smoothed velocity of the first camera, in world units per second
+     */
+    public Vector3f getCameraVelocity() {
+        return velocity;
+    }
     
     @Override
     protected void updateLOD(List<Vector3f> locations, LodCalculator lodCalculator) {
@@ -59,6 +79,15 @@ public class TerrainGridLodControl extends TerrainLodControl {
         // 2: grids are associated with locations, and no incremental update is done, we load new grids for new locations, and unload those that are not needed anymore
         Vector3f cam = locations.isEmpty() ? Vector3f.ZERO.clone() : locations.get(0);
         Vector3f camCell = terrainGrid.getCamCell(cam); // get the grid index value of where the camera is (ie. 2,1)
+
+        if (lastLocation == null) {
+            lastLocation = cam.clone();
+        } else if (tpf > 0) {
+            // smooth over a few frames so single jumps don't trigger loading
+            cam.subtract(lastLocation, moved).divideLocal(tpf);
+            velocity.interpolateLocal(moved, 0.2f);
+            lastLocation.set(cam);
+        }
         if (terrainGrid.cellsLoaded > 1) {                  // Check if cells are updated before updating gridoffset.
             terrainGrid.gridOffset[0] = Math.round(camCell.x * (terrainGrid.size / 2));
             terrainGrid.gridOffset[1] = Math.round(camCell.z * (terrainGrid.size / 2));
@@ -72,6 +101,7 @@ public class TerrainGridLodControl extends TerrainLodControl {
             }
         }
         terrainGrid.runOnce = true;
+        terrainGrid.prefetch(cam, velocity);
         super.updateLOD(locations, lodCalculator);
     }
 }
@@ -35,11 +35,28 @@ import com.jme3.export.Savable;
 import com.jme3.math.Vector3f;
 
 /**
+ * Loads the tiles of a {@link TerrainGrid}.
+ * <p>
+ * A TerrainGrid loads its tiles in the background, by default on a
+ * single thread. With {@link TerrainGrid#setLoaderThreads(int) more threads}
+ * {@link #getTerrainQuadAt(com.jme3.math.Vector3f)} can be called
+ * concurrently for different locations, so implementations must then be
+ * thread safe. A tile may be loaded again after it was dropped from the
+ * cache. The setters are only called before loading starts.
+ * <p>
+ * The returned quad belongs to the grid, it must be a new one for every
+ * call and is attached to the scene later on the render thread.
  *
  * @author normenhansen
  */
 public interface TerrainGridTileLoader extends Savable {
 
+    /**
+     * Creates the tile at the given cell, called on a loader thread.
+     *
+     * @param location the cell of the tile
+     * @return the new tile
+     */
     public TerrainQuad getTerrainQuadAt(Vector3f location);
 
     public void setPatchSize(int patchSize);
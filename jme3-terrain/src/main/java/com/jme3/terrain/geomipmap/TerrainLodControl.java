@@ -49,6 +49,7 @@ import com.jme3.terrain.geomipmap.lodcalc.LodCalculator;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.*;
@@ -73,6 +74,11 @@ import java.util.logging.Logger;
  * TerrainLodControl.detachAndCleanUpControl() to remove any threads it created
  * to handle the LOD processing. If you supply your own executor service, then
  * you have to handle its thread termination yourself.
+ * <p>
+ * The LOD of large terrains is calculated on a pool of worker threads,
+ * split by the child quads of the terrain. All controls share one pool
+ * with a thread per core unless they are given their own with
+ * {@link #setLodWorkers(java.util.concurrent.ExecutorService) }.
  *
  * @author Brent Owens
  */
@@ -93,6 +99,9 @@ public class TerrainLodControl extends AbstractControl {
 
     protected ExecutorService executor;
     protected Future<HashMap<String, UpdatedTerrainPatch>> indexer;
+    protected ExecutorService lodWorkers;
+    private boolean parallelLod = true;
+    private static ExecutorService sharedLodWorkers;
     private boolean forceUpdate = true;
 
     public TerrainLodControl() {
@@ -130,6 +139,50 @@ public class TerrainLodControl extends AbstractControl {
         this.executor = executor;
     }
 
+    /**
+     * Set the pool that the LOD of the terrain's quads is calculated on.
+     * It must not be the executor of the control, since the control's
+     * task waits for the workers. If none is set, the pool shared by
+     * all controls is used.
+     */
+    public void setLodWorkers(ExecutorService lodWorkers) {
+        this.lodWorkers = lodWorkers;
+    }
+
+    public ExecutorService getLodWorkers() {
+        if (lodWorkers != null)
+            return lodWorkers;
+        return getSharedLodWorkers();
+    }
+
+    /**
+     * Turn off to calculate the whole LOD on the control's own thread.
+     * Defaults to true.
+     */
+    public void setParallelLod(boolean parallelLod) {
+        this.parallelLod = parallelLod;
+    }
+
+    public boolean isParallelLod() {
+        return parallelLod;
+    }
+
+    protected static synchronized ExecutorService getSharedLodWorkers() {
+        if (sharedLodWorkers == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            sharedLodWorkers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int count = 0;
+                public Thread newThread(Runnable r) {
+                    Thread th = new Thread(r);
+                    th.setName("jME3 Terrain LOD Worker " + (++count));
+                    th.setDaemon(true);
+                    return th;
+                }
+            });
+        }
+        return sharedLodWorkers;
+    }
+
     protected ExecutorService createExecutorService() {
         return Executors.newSingleThreadExecutor(new ThreadFactory() {
             public Thread newThread(Runnable r) {
@@ -354,6 +407,137 @@ public class TerrainLodControl extends AbstractControl {
     }
 
 
+    /**
+     * Splits the quads into subtrees whose LOD can be calculated
+     * independently, going down the tree until there are a few
+     * subtrees per core.
+     */
+    protected List<TerrainQuad> splitForWorkers(List<TerrainQuad> quads) {
+        List<TerrainQuad> split = new ArrayList<TerrainQuad>(quads);
+        if (!parallelLod)
+            return split;
+        int target = Runtime.getRuntime().availableProcessors() * 4;
+        boolean expanded = true;
+        while (expanded && split.size() < target) {
+            expanded = false;
+            List<TerrainQuad> next = new ArrayList<TerrainQuad>();
+            for (TerrainQuad quad : split) {
+                List<Spatial> children = quad.getChildren();
+                boolean onlyQuads = !children.isEmpty();
+                for (Spatial child : children) {
+                    if (!(child instanceof TerrainQuad)) {
+                        onlyQuads = false;
+                        break;
+                    }
+                }
+                if (onlyQuads) {
+                    for (Spatial child : children)
+                        next.add((TerrainQuad) child);
+                    expanded = true;
+                } else {
+                    next.add(quad);
+                }
+            }
+            split = next;
+        }
+        return split;
+    }
+
+    /**
+     * Calculates the LOD of the patches of every quad, each quad on a worker.
+     * The results are merged into 'updated'.
+     * @return true if the LOD of any patch changed
+     */
+    protected boolean calculateLod(List<TerrainQuad> quads, List<Vector3f> locations, LodCalculator lodCalculator, HashMap<String, UpdatedTerrainPatch> updated) throws Exception {
+        List<CalculateLod> tasks = new ArrayList<CalculateLod>(quads.size());
+        for (TerrainQuad quad : quads)
+            tasks.add(new CalculateLod(quad, locations, lodCalculator));
+        runOnWorkers(tasks);
+
+        boolean lodChanged = false;
+        for (CalculateLod task : tasks) {
+            updated.putAll(task.updated);
+            if (task.lodChanged)
+                lodChanged = true;
+        }
+        return lodChanged;
+    }
+
+    /**
+     * Creates the new index buffers of the patches of every quad, each quad
+     * on a worker. 'updated' is only read.
+     */
+    protected void reIndexPages(List<TerrainQuad> quads, HashMap<String, UpdatedTerrainPatch> updated, boolean usesVariableLod) throws Exception {
+        List<ReIndex> tasks = new ArrayList<ReIndex>(quads.size());
+        for (TerrainQuad quad : quads)
+            tasks.add(new ReIndex(quad, updated, usesVariableLod));
+        runOnWorkers(tasks);
+    }
+
+    /**
+     * Runs the first task on this thread and the rest on the LOD workers,
+     * returning once all of them are done.
+     */
+    private void runOnWorkers(List<? extends Callable<Object>> tasks) throws Exception {
+        if (tasks.isEmpty())
+            return;
+        if (!parallelLod || tasks.size() == 1) {
+            for (Callable<Object> task : tasks)
+                task.call();
+            return;
+        }
+
+        ExecutorService workers = getLodWorkers();
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(tasks.size() - 1);
+        try {
+            for (int i = 1; i < tasks.size(); i++)
+                futures.add(workers.submit(tasks.get(i)));
+            tasks.get(0).call();
+            for (Future<Object> f : futures)
+                f.get();
+        } finally {
+            // only does anything if we are leaving early
+            for (Future<Object> f : futures)
+                f.cancel(true);
+        }
+    }
+
+    private static class CalculateLod implements Callable<Object> {
+        private final TerrainQuad quad;
+        private final List<Vector3f> locations;
+        private final LodCalculator lodCalculator;
+        private final HashMap<String, UpdatedTerrainPatch> updated = new HashMap<String, UpdatedTerrainPatch>();
+        private boolean lodChanged;
+
+        CalculateLod(TerrainQuad quad, List<Vector3f> locations, LodCalculator lodCalculator) {
+            this.quad = quad;
+            this.locations = locations;
+            this.lodCalculator = lodCalculator;
+        }
+
+        public Object call() {
+            lodChanged = quad.hasLodChanged(locations, updated, lodCalculator);
+            return null;
+        }
+    }
+
+    private static class ReIndex implements Callable<Object> {
+        private final TerrainQuad quad;
+        private final HashMap<String, UpdatedTerrainPatch> updated;
+        private final boolean usesVariableLod;
+
+        ReIndex(TerrainQuad quad, HashMap<String, UpdatedTerrainPatch> updated, boolean usesVariableLod) {
+            this.quad = quad;
+            this.updated = updated;
+            this.usesVariableLod = usesVariableLod;
+        }
+
+        public Object call() {
+            quad.reIndexPages(updated, usesVariableLod);
+            return null;
+        }
+    }
+
     /**
      * Calculates the LOD of all child terrain patches.
      */
@@ -374,10 +558,11 @@ public class TerrainLodControl extends AbstractControl {
             setLodCalcRunning(true);
 
             TerrainQuad terrainQuad = (TerrainQuad) getSpatial();
+            List<TerrainQuad> quads = splitForWorkers(Collections.singletonList(terrainQuad));
 
             // go through each patch and calculate its LOD based on camera distance
             HashMap<String, UpdatedTerrainPatch> updated = new HashMap<String, UpdatedTerrainPatch>();
-            boolean lodChanged = terrainQuad.hasLodChanged(camLocations, updated, lodCalculator); // 'updated' gets populated here
+            boolean lodChanged = calculateLod(quads, camLocations, lodCalculator, updated); // 'updated' gets populated here
 
             if (!lodChanged) {
                 // not worth updating anything else since no one's LOD changed
@@ -391,7 +576,7 @@ public class TerrainLodControl extends AbstractControl {
 
             terrainQuad.fixEdges(updated); // 'updated' can get added to here
 
-            terrainQuad.reIndexPages(updated, lodCalculator.usesVariableLod());
+            reIndexPages(quads, updated, lodCalculator.usesVariableLod());
 
             //setUpdateQuadLODs(updated); // set back to main ogl thread
 
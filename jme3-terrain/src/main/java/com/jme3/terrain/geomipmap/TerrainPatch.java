@@ -242,17 +242,14 @@ public class TerrainPatch extends Geometry {
             boolean right = utp.getRightLod() > utp.getNewLod();
             boolean bottom = utp.getBottomLod() > utp.getNewLod();
 
-            IndexBuffer idxB;
+            // patches with the same LOD and neighbours share their indexes
+            LodIndexBufferCache cache = LodIndexBufferCache.getShared();
+            Buffer b;
             if (useVariableLod)
-                idxB = geomap.writeIndexArrayLodVariable(pow, (int) Math.pow(2, utp.getRightLod()), (int) Math.pow(2, utp.getTopLod()), (int) Math.pow(2, utp.getLeftLod()), (int) Math.pow(2, utp.getBottomLod()), totalSize);
+                b = cache.getLodVariable(geomap, pow, (int) Math.pow(2, utp.getRightLod()), (int) Math.pow(2, utp.getTopLod()), (int) Math.pow(2, utp.getLeftLod()), (int) Math.pow(2, utp.getBottomLod()), totalSize);
             else
-                idxB = geomap.writeIndexArrayLodDiff(pow, right, top, left, bottom, totalSize);
+                b = cache.getLodDiff(geomap, pow, right, top, left, bottom, totalSize);
 
-            Buffer b;
-            if (idxB.getBuffer() instanceof IntBuffer)
-                b = (IntBuffer) idxB.getBuffer();
-            else
-                b = (ShortBuffer) idxB.getBuffer();
             utp.setNewIndexBuffer(b);
         }
 
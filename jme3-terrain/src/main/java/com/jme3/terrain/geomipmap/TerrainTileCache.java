@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.terrain.geomipmap;
+
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.SceneGraphVisitorAdapter;
+import com.jme3.scene.VertexBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of the terrain tiles of a TerrainGrid, limited by the
+ * memory the tiles' meshes take up rather than by their number.
+ * Once the budget is exceeded the least recently used tiles are dropped.
+ * <p>
+ * Reads never lock, so the render thread can look tiles up while
+ * the loader threads are adding new ones.
+ * 
+ * @see TerrainGrid#setCacheBudget(long) 
+ */
+public class TerrainTileCache {
+
+    private final ConcurrentMap<Vector3f, Entry> map = new ConcurrentHashMap<Vector3f, Entry>();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final Object evictLock = new Object();
+    private volatile long maxBytes;
+
+    /**
+     * @param maxBytes the number of bytes the cached tiles may use
+     */
+    public TerrainTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the tile at the cell, marking it as the most recently used.
+     * @return the tile or null if it is not cached
+     */
+    public TerrainQuad get(Vector3f cell) {
+        Entry e = map.get(cell);
+        if (e == null)
+            return null;
+        e.lastUsed = clock.incrementAndGet();
+        return e.quad;
+    }
+
+    /**
+     * Adds the tile, replacing any other tile at the cell.
+     */
+    public void put(Vector3f cell, TerrainQuad quad) {
+        Entry e = new Entry(quad);
+        Entry old = map.put(cell.clone(), e);
+        usedBytes.addAndGet(e.bytes - (old == null ? 0 : old.bytes));
+        evict();
+    }
+
+    /**
+     * Adds the tile unless there is already one at the cell.
+     * @return the tile that ends up cached at the cell
+     */
+    public TerrainQuad putIfAbsent(Vector3f cell, TerrainQuad quad) {
+        Entry e = new Entry(quad);
+        Entry old = map.putIfAbsent(cell.clone(), e);
+        if (old != null) {
+            old.lastUsed = clock.incrementAndGet();
+            return old.quad;
+        }
+        usedBytes.addAndGet(e.bytes);
+        evict();
+        return quad;
+    }
+
+    /**
+     * Drops the least recently used tiles until the cache is within
+     * its budget. The most recent tile is always kept.
+     */
+    protected void evict() {
+        if (usedBytes.get() <= maxBytes)
+            return;
+        synchronized (evictLock) {
+            while (usedBytes.get() > maxBytes && map.size() > 1) {
+                Map.Entry<Vector3f, Entry> oldest = null;
+                for (Map.Entry<Vector3f, Entry> candidate : map.entrySet()) {
+                    if (oldest == null || candidate.getValue().lastUsed < oldest.getValue().lastUsed)
+                        oldest = candidate;
+                }
+                if (oldest != null && map.remove(oldest.getKey(), oldest.getValue()))
+                    usedBytes.addAndGet(-oldest.getValue().bytes);
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (evictLock) {
+            map.clear();
+            usedBytes.set(0);
+        }
+    }
+
+    /**
+     * Returns a copy of the cached tiles, without changing their use.
+     */
+    public Collection<Map.Entry<Vector3f, TerrainQuad>> getAll() {
+        ArrayList<Map.Entry<Vector3f, TerrainQuad>> result = new ArrayList<Map.Entry<Vector3f, TerrainQuad>>(map.size());
+        for (Map.Entry<Vector3f, Entry> e : map.entrySet()) {
+            result.add(new AbstractMap.SimpleEntry<Vector3f, TerrainQuad>(e.getKey(), e.getValue().quad));
+        }
+        return result;
+    }
+
+    public int usedEntries() {
+        return map.size();
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * Estimates the memory used by the vertex data of the tile.
+     */
+    public static long estimateSize(TerrainQuad quad) {
+        final long[] bytes = new long[1];
+        quad.depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geom) {
+                Mesh mesh = geom.getMesh();
+                if (mesh == null)
+                    return;
+                for (VertexBuffer vb : mesh.getBufferList().getArray()) {
+                    if (vb.getData() != null)
+                        bytes[0] += (long) vb.getData().capacity() * vb.getFormat().getComponentSize();
+                }
+            }
+        });
+        return bytes[0];
+    }
+
+    private class Entry {
+        final TerrainQuad quad;
+        final long bytes;
+        volatile long lastUsed;
+
+        Entry(TerrainQuad quad) {
+            this.quad = quad;
+            this.bytes = quad == null ? 0 : estimateSize(quad);
+            this.lastUsed = clock.incrementAndGet();
+        }
+    }
+}
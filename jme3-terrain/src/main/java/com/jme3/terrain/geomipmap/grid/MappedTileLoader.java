@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.terrain.geomipmap.grid;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Vector3f;
+import com.jme3.terrain.geomipmap.TerrainGridTileLoader;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads the heightmaps of a TerrainGrid from a single file holding all
+ * of the tiles, which is memory mapped instead of read, so loading a tile
+ * only copies its heights out of the mapped file.
+ * <p>
+ * The file starts with a header of 7 ints: the magic number, the version,
+ * the number of heights along the side of a tile (the quad size of the grid),
+ * the cell coordinates of the first tile in X and Z and the number of tiles
+ * in X and Z. The tiles follow, row by row along X, each as
+ * <code>tileSize * tileSize</code> floats. Everything is big endian.
+ * Use {@link #writeTiles(java.io.File, com.jme3.terrain.geomipmap.TerrainGridTileLoader, int, int, int, int, int, int) }
+ * to create such a file from another tile loader.
+ * <p>
+ * Cells outside of the file get a flat tile.
+ */
+public class MappedTileLoader implements TerrainGridTileLoader {
+
+    private static final Logger logger = Logger.getLogger(MappedTileLoader.class.getName());
+
+    public static final int MAGIC = 0x4A4D544C; // JMTL
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+
+    private String path;
+    private FileChannel channel;
+    private int tileSize;
+    private int minX, minZ, countX, countZ;
+    private AtomicReferenceArray<FloatBuffer> tiles;
+    private int patchSize;
+    private int quadSize;
+
+    /**
+     * For serialization only.
+     */
+    public MappedTileLoader() {
+    }
+
+    public MappedTileLoader(File file) throws IOException {
+        this.path = file.getPath();
+        open();
+    }
+
+    private void open() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(path, "r");
+        try {
+            channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC)
+                throw new IOException("Not a terrain tile file: " + path);
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported terrain tile file version " + version + ": " + path);
+            tileSize = header.getInt();
+            minX = header.getInt();
+            minZ = header.getInt();
+            countX = header.getInt();
+            countZ = header.getInt();
+            long expected = HEADER_SIZE + (long) countX * countZ * tileBytes();
+            if (channel.size() < expected)
+                throw new IOException("Terrain tile file is truncated: " + path);
+            tiles = new AtomicReferenceArray<FloatBuffer>(countX * countZ);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private long tileBytes() {
+        return (long) tileSize * tileSize * 4;
+    }
+
+    /**
+     * @return the mapped heights of the tile, or null if the cell is not in the file
+     */
+    protected FloatBuffer getTile(int x, int z) throws IOException {
+        if (x < minX || z < minZ || x >= minX + countX || z >= minZ + countZ)
+            return null;
+        int index = (z - minZ) * countX + (x - minX);
+        FloatBuffer tile = tiles.get(index);
+        if (tile == null) {
+            // mapped on first use, each tile separately so files can be larger than 2 GB
+            long offset = HEADER_SIZE + index * tileBytes();
+            tile = channel.map(FileChannel.MapMode.READ_ONLY, offset, tileBytes()).asFloatBuffer();
+            if (!tiles.compareAndSet(index, null, tile))
+                tile = tiles.get(index);
+        }
+        return tile.duplicate();
+    }
+
+    public TerrainQuad getTerrainQuadAt(Vector3f location) {
+        int x = (int) location.x;
+        int z = (int) location.z;
+        float[] heightmap = null;
+        try {
+            FloatBuffer tile = getTile(x, z);
+            if (tile != null) {
+                heightmap = new float[tileSize * tileSize];
+                tile.get(heightmap);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not read tile " + location + " from " + path + ", loading zero heightmap instead", e);
+        }
+        return new TerrainQuad("Quad" + location, patchSize, quadSize, heightmap);
+    }
+
+    public void setPatchSize(int patchSize) {
+        this.patchSize = patchSize;
+    }
+
+    public void setQuadSize(int quadSize) {
+        if (channel != null && quadSize != tileSize)
+            throw new IllegalArgumentException("The tiles in " + path + " are " + tileSize + " heights wide but the grid needs " + quadSize);
+        this.quadSize = quadSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Unmaps the file. No more tiles can be loaded afterwards.
+     */
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes the tiles of the given loader for a range of cells to a file
+     * this loader can map.
+     *
+     * @param file the file to write
+     * @param source loads the tiles to write
+     * @param patchSize the patch size given to the source
+     * @param tileSize the quad size of the grid the file is for
+     */
+    public static void writeTiles(File file, TerrainGridTileLoader source, int patchSize, int tileSize,
+            int minX, int minZ, int countX, int countZ) throws IOException {
+        source.setPatchSize(patchSize);
+        source.setQuadSize(tileSize);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel out = raf.getChannel();
+            out.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(tileSize);
+            header.putInt(minX).putInt(minZ).putInt(countX).putInt(countZ);
+            header.flip();
+            while (header.hasRemaining())
+                out.write(header);
+
+            ByteBuffer tile = ByteBuffer.allocate(tileSize * tileSize * 4);
+            Vector3f cell = new Vector3f();
+            for (int z = 0; z < countZ; z++) {
+                for (int x = 0; x < countX; x++) {
+                    cell.set(minX + x, 0, minZ + z);
+                    float[] heights = source.getTerrainQuadAt(cell).getHeightMap();
+                    if (heights.length != tileSize * tileSize)
+                        throw new IOException("Tile " + cell + " has " + heights.length + " heights, expected " + tileSize * tileSize);
+                    tile.clear();
+                    tile.asFloatBuffer().put(heights);
+                    while (tile.hasRemaining())
+                        out.write(tile);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void write(JmeExporter ex) throws IOException {
+        OutputCapsule c = ex.getCapsule(this);
+        c.write(path, "path", null);
+    }
+
+    public void read(JmeImporter im) throws IOException {
+        InputCapsule c = im.getCapsule(this);
+        path = c.readString("path", null);
+        if (path != null)
+            open();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2009-2016 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.terrain.geomipmap;
+
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.math.Vector3f;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the tile cache of TerrainGrid and the deprecated LRUCache view of it.
+ */
+public class TerrainTileCacheTest {
+
+    private static class EmptyTileLoader implements TerrainGridTileLoader {
+
+        private int patchSize;
+        private int quadSize;
+
+        public TerrainQuad getTerrainQuadAt(Vector3f location) {
+            return new TerrainQuad("Quad" + location, patchSize, quadSize, null);
+        }
+
+        public void setPatchSize(int patchSize) {
+            this.patchSize = patchSize;
+        }
+
+        public void setQuadSize(int quadSize) {
+            this.quadSize = quadSize;
+        }
+
+        public void write(JmeExporter ex) {
+        }
+
+        public void read(JmeImporter im) {
+        }
+    }
+
+    private static class LegacyGrid extends TerrainGrid {
+
+        LegacyGrid() {
+            super("grid", 17, 33, new EmptyTileLoader());
+        }
+
+        @SuppressWarnings("deprecation")
+        LRUCache<Vector3f, TerrainQuad> legacyCache() {
+            return cache;
+        }
+    }
+
+    private static TerrainQuad tile(String name) {
+        return new TerrainQuad(name, 5, 9, null);
+    }
+
+    @Test
+    public void testEviction() {
+        TerrainQuad first = tile("first");
+        long size = TerrainTileCache.estimateSize(first);
+        assertTrue(size > 0);
+
+        TerrainTileCache cache = new TerrainTileCache(size * 2);
+        cache.put(new Vector3f(0, 0, 0), first);
+        cache.put(new Vector3f(1, 0, 0), tile("second"));
+        // touching the first makes the second the least recently used
+        assertSame(first, cache.get(new Vector3f(0, 0, 0)));
+        cache.put(new Vector3f(2, 0, 0), tile("third"));
+
+        assertEquals(2, cache.usedEntries());
+        assertEquals(size * 2, cache.getUsedBytes());
+        assertSame(first, cache.get(new Vector3f(0, 0, 0)));
+        assertNull(cache.get(new Vector3f(1, 0, 0)));
+        assertNotNull(cache.get(new Vector3f(2, 0, 0)));
+
+        TerrainQuad other = tile("other");
+        assertSame(first, cache.putIfAbsent(new Vector3f(0, 0, 0), other));
+    }
+
+    @Test
+    public void testLegacyCacheView() {
+        LegacyGrid grid = new LegacyGrid();
+        LRUCache<Vector3f, TerrainQuad> legacy = grid.legacyCache();
+        TerrainQuad quad = tile("quad");
+
+        legacy.put(new Vector3f(1, 0, 2), quad);
+        assertSame(quad, grid.getCache().get(new Vector3f(1, 0, 2)));
+        assertSame(quad, legacy.get(new Vector3f(1, 0, 2)));
+        assertEquals(1, legacy.usedEntries());
+        assertEquals(new Vector3f(1, 0, 2), legacy.getAll().iterator().next().getKey());
+
+        legacy.clear();
+        assertEquals(0, grid.getCache().usedEntries());
+    }
+}